@@ -0,0 +1,105 @@
+package com.example.dfs.bench;
+
+import com.example.dfs.DfsApplication;
+import com.example.dfs.metrics.Metrics;
+import com.example.dfs.raft.RaftGroups;
+import com.example.dfs.raft.RaftNode;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Full nodes (Spring contexts) on free loopback ports in this JVM, in dataDir/node1..nodeN.
+class BenchCluster implements AutoCloseable {
+    private final List<String> urls = new ArrayList<>();
+    private final Map<String, ConfigurableApplicationContext> nodes = new LinkedHashMap<>();
+
+    BenchCluster(Path dataDir, int size, Map<String, String> properties) throws IOException {
+        for (int i = 0; i < size; i++) urls.add("http://localhost:" + freePort());
+        for (int i = 0; i < size; i++) {
+            String url = urls.get(i);
+            List<String> peers = new ArrayList<>(urls);
+            peers.remove(url);
+            List<String> args = new ArrayList<>(List.of(
+                    "--node.id=node" + (i + 1),
+                    "--node.port=" + url.substring(url.lastIndexOf(':') + 1),
+                    "--node.data.dir=" + dataDir.resolve("node" + (i + 1)),
+                    "--node.peers=" + String.join(",", peers)));
+            properties.forEach((k, v) -> args.add("--" + k + "=" + v));
+            nodes.put(url, new SpringApplicationBuilder(DfsApplication.class).run(args.toArray(new String[0])));
+        }
+    }
+
+    // Shuts the node down as a crash would look to its peers: it stops answering.
+    void stop(String url) {
+        nodes.remove(url).close();
+    }
+
+    // A client for driving the nodes over HTTP.
+    static HttpClient client() {
+        return HttpClient.newBuilder()
+                // large bodies over h2c upgrades are refused with 413
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    // The running nodes.
+    List<String> urls() {
+        return List.copyOf(nodes.keySet());
+    }
+
+    <T> T bean(String url, Class<T> type) {
+        return nodes.get(url).getBean(type);
+    }
+
+    // The sum of every series of a counter or gauge in the node's registry (all label values), 0 if it has none.
+    double metric(String url, String name) {
+        StringBuilder text = new StringBuilder();
+        bean(url, Metrics.class).writePrometheus(text);
+        double sum = 0;
+        for (String line : text.toString().split("\n")) {
+            if (line.startsWith(name + " ") || line.startsWith(name + "{")) sum += Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        return sum;
+    }
+
+    // The node leading the file's Raft group, or null while an election is in progress.
+    String leader(String fileId) {
+        for (Map.Entry<String, ConfigurableApplicationContext> node : nodes.entrySet()) {
+            RaftNode group = node.getValue().getBean(RaftGroups.class).group(fileId);
+            if (group.getRole() == RaftNode.Role.LEADER) return node.getKey();
+        }
+        return null;
+    }
+
+    String awaitLeader(String fileId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            String leader = leader(fileId);
+            if (leader != null) return leader;
+            Thread.sleep(50);
+        }
+        throw new IllegalStateException("no leader elected for " + fileId);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    @Override
+    public void close() {
+        nodes.values().forEach(ConfigurableApplicationContext::close);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.dfs.bench;
+
+import com.example.dfs.storage.ChunkStore;
+import com.example.dfs.storage.VolumeStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Local chunk writes (CRC32C, fsync, publish) and uncached reads, for both layouts: "volume" packs
+ * chunks up to 256 KB into append-only volumes, "file" stores every chunk as its own file. Writes
+ * overwrite a rotating set of chunk ids so the directory does not grow with the iteration count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkStoreBenchmark {
+    private static final int CHUNKS = 256;
+
+    @Param({"4096", "65536", "1048576"})
+    int size;
+
+    @Param({"volume", "file"})
+    String layout;
+
+    private Path dir;
+    private ChunkStore store;
+    private byte[] data;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String chunkId() {
+            return Integer.toString(next++ % CHUNKS);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("dfs-chunkstore-bench");
+        VolumeStore volumes = layout.equals("volume") ? new VolumeStore(dir.resolve("volumes"), 1L << 30, 0.5, 1_000) : null;
+        store = new ChunkStore(dir.toString(), volumes, 256 * 1024);
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+        for (int i = 0; i < CHUNKS; i++) store.saveChunk("read", Integer.toString(i), new ByteArrayInputStream(data), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public ChunkStore.StoredChunk write(Cursor cursor) throws IOException {
+        return store.saveChunk("write", cursor.chunkId(), new ByteArrayInputStream(data), null);
+    }
+
+    @Benchmark
+    public byte[] read(Cursor cursor) throws IOException {
+        return store.load("read", cursor.chunkId());
+    }
+}
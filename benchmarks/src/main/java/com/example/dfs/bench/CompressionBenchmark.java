@@ -0,0 +1,84 @@
+package com.example.dfs.bench;
+
+import com.example.dfs.storage.Compression;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The chunk compression codecs over a 1 MB chunk of log-like text and of random bytes (which the
+ * auto mode stores uncompressed). Throughput is per chunk; the compressed size is printed once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    @Param({"LZ4", "ZSTD"})
+    Compression.Codec codec;
+
+    @Param({"text", "random"})
+    String data;
+
+    @Param({"3"})
+    int zstdLevel;
+
+    private byte[] raw;
+    private byte[] compressed;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup
+    public void setUp() throws IOException {
+        raw = data.equals("random") ? random() : text();
+        compressed = compress();
+        System.out.printf("%n%s %s: %d -> %d bytes%n", codec, data, raw.length, compressed.length);
+    }
+
+    private static byte[] random() {
+        byte[] b = new byte[CHUNK_BYTES];
+        new Random(7).nextBytes(b);
+        return b;
+    }
+
+    private static byte[] text() {
+        Random r = new Random(7);
+        String[] levels = {"INFO", "WARN", "DEBUG"};
+        StringBuilder s = new StringBuilder(CHUNK_BYTES + 256);
+        for (int i = 0; s.length() < CHUNK_BYTES; i++) {
+            s.append("2024-05-").append(10 + r.nextInt(20)).append(" 12:").append(r.nextInt(60)).append(' ')
+                    .append(levels[r.nextInt(levels.length)]).append(" node").append(1 + r.nextInt(5))
+                    .append(" stored chunk ").append(i).append(" of file-").append(r.nextInt(1000))
+                    .append(" in ").append(r.nextInt(5000)).append("us\n");
+        }
+        return s.substring(0, CHUNK_BYTES).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK_BYTES);
+        try (OutputStream c = Compression.compressor(codec, out, zstdLevel)) {
+            c.write(raw);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public long decompress() throws IOException {
+        long total = 0;
+        try (InputStream in = Compression.decompressor(codec, new ByteArrayInputStream(compressed))) {
+            for (int n; (n = in.read(buffer)) > 0; ) total += n;
+        }
+        return total;
+    }
+}
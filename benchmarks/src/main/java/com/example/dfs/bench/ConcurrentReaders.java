@@ -0,0 +1,216 @@
+package com.example.dfs.bench;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Many clients reading large chunks from one node at once, reporting throughput, latency and what
+ * the node's request threads allocate on the heap per read. Each {@code --paths} entry is a run:
+ * {@code sendfile} serves chunks from their files (cache off), {@code heap} holds them all in the
+ * chunk cache and answers from a byte[] copy per read, as every read did before streaming.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.dfs.bench.ConcurrentReaders --readers=128,256 --chunk-mb=8
+ * </pre>
+ */
+public final class ConcurrentReaders {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    private static final String FILE = "readers";
+    // Tomcat's request and poller threads; allocation on client threads is not the server's
+    private static final String SERVER_THREADS = "http-nio-";
+    private static final long MAX_LATENCY_MICROS = Duration.ofMinutes(1).toNanos() / 1000;
+
+    static {
+        DEFAULTS.put("readers", "128");
+        DEFAULTS.put("paths", "sendfile,heap");
+        DEFAULTS.put("chunk-mb", "8");
+        DEFAULTS.put("chunks", "16");
+        DEFAULTS.put("warmup-s", "5");
+        DEFAULTS.put("duration-s", "20");
+        DEFAULTS.put("data-dir", "");
+        DEFAULTS.put("out", "readers-results.json");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args, DEFAULTS);
+        Path dataDir = options.dataDir("dfs-readers");
+        List<Map<String, Object>> runs = new ArrayList<>();
+        try {
+            for (String path : options.strings("paths")) {
+                for (int readers : options.ints("readers")) {
+                    Map<String, Object> run = run(options, dataDir.resolve(path + "-r" + readers), path, readers);
+                    runs.add(run);
+                    System.out.printf("%-8s readers=%d: %.0f MB/s, p50 %d ms, p99 %d ms, server allocated %.1f KB per read, %d GCs (%d ms)%n",
+                            path, readers, run.get("mbPerSecond"), run.get("p50Millis"), run.get("p99Millis"),
+                            (Double) run.get("serverAllocatedBytesPerRead") / 1024, run.get("gcCount"), run.get("gcMillis"));
+                }
+            }
+        } finally {
+            options.deleteDataDir(dataDir);
+        }
+        options.writeReport(runs);
+        System.exit(0);
+    }
+
+    private static Map<String, Object> run(Options options, Path dir, String path, int readers) throws Exception {
+        int chunkBytes = options.getInt("chunk-mb") << 20;
+        int chunks = options.getInt("chunks");
+        Map<String, String> properties = switch (path) {
+            case "sendfile" -> options.nodeProperties(Map.of("storage.cache.bytes", "0"));
+            case "heap" -> options.nodeProperties(Map.of(
+                    "storage.cache.bytes", Long.toString(2L * chunks * chunkBytes),
+                    "storage.cache.max-entry-bytes", Integer.toString(chunkBytes)));
+            default -> throw new IllegalArgumentException("unknown path " + path + "; sendfile or heap");
+        };
+        HttpClient http = BenchCluster.client();
+        try (BenchCluster cluster = new BenchCluster(dir, 1, properties)) {
+            String node = cluster.awaitLeader(FILE);
+            byte[] chunk = new byte[chunkBytes];
+            new Random(9).nextBytes(chunk);
+            for (int i = 0; i < chunks; i++) {
+                HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(node + "/files/" + FILE + "/chunks/" + i))
+                        .header("Content-Type", "application/octet-stream")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(chunk)).build(), HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) throw new IllegalStateException("preloading " + i + " failed: " + response.statusCode());
+            }
+
+            Recorder latency = new Recorder(MAX_LATENCY_MICROS, 3);
+            LongAdder bytes = new LongAdder(), errors = new LongAdder();
+            long warmupNanos = Duration.ofSeconds(options.getLong("warmup-s")).toNanos();
+            long durationNanos = Duration.ofSeconds(options.getLong("duration-s")).toNanos();
+            long measureFrom = System.nanoTime() + warmupNanos, until = measureFrom + durationNanos;
+            List<Thread> workers = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                Thread t = new Thread(() -> read(http, node, chunks, measureFrom, until, latency, bytes, errors), "reader-" + r);
+                t.start();
+                workers.add(t);
+            }
+            Thread.sleep(Duration.ofNanos(warmupNanos));
+            latency.reset();
+            Map<Long, Long> allocatedBefore = serverAllocation();
+            long[] gcBefore = gc();
+            for (Thread t : workers) t.join();
+            long allocated = allocatedSince(allocatedBefore);
+            long[] gcAfter = gc();
+
+            Histogram h = latency.getIntervalHistogram();
+            double seconds = durationNanos / 1e9;
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("path", path);
+            run.put("readers", readers);
+            run.put("chunkBytes", chunkBytes);
+            run.put("reads", h.getTotalCount());
+            run.put("errors", errors.sum());
+            run.put("readsPerSecond", h.getTotalCount() / seconds);
+            run.put("mbPerSecond", bytes.sum() / (double) (1 << 20) / seconds);
+            run.put("p50Millis", h.getValueAtPercentile(50) / 1000);
+            run.put("p99Millis", h.getValueAtPercentile(99) / 1000);
+            run.put("maxMillis", h.getMaxValue() / 1000);
+            run.put("serverAllocatedBytes", allocated);
+            run.put("serverAllocatedBytesPerRead", h.getTotalCount() == 0 ? 0.0 : (double) allocated / h.getTotalCount());
+            run.put("serverAllocatedMBps", allocated / (double) (1 << 20) / seconds);
+            // the whole JVM, clients included
+            run.put("gcCount", gcAfter[0] - gcBefore[0]);
+            run.put("gcMillis", gcAfter[1] - gcBefore[1]);
+            return run;
+        }
+    }
+
+    private static void read(HttpClient http, String node, int chunks, long measureFrom, long until,
+                             Recorder latency, LongAdder bytes, LongAdder errors) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long now = System.nanoTime(); now < until; now = System.nanoTime()) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(node + "/files/" + FILE + "/chunks/" + random.nextInt(chunks))).GET().build();
+            try {
+                HttpResponse<Long> response = http.send(request, new CountingHandler());
+                if (now < measureFrom) continue;
+                if (response.statusCode() != 200) {
+                    errors.increment();
+                    continue;
+                }
+                latency.recordValue(Math.min(MAX_LATENCY_MICROS, Math.max(1, (System.nanoTime() - now) / 1000)));
+                bytes.add(response.body());
+            } catch (IOException e) {
+                if (now >= measureFrom) errors.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Counts the body without keeping it, so the client side holds no chunk copies either.
+    private static final class CountingHandler implements HttpResponse.BodyHandler<Long> {
+        @Override
+        public HttpResponse.BodySubscriber<Long> apply(HttpResponse.ResponseInfo info) {
+            LongAdder n = new LongAdder();
+            return HttpResponse.BodySubscribers.fromSubscriber(new Flow.Subscriber<List<ByteBuffer>>() {
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    s.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(List<ByteBuffer> buffers) {
+                    for (ByteBuffer b : buffers) n.add(b.remaining());
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            }, s -> n.sum());
+        }
+    }
+
+    // Bytes allocated so far by each live server thread.
+    private static Map<Long, Long> serverAllocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Map<Long, Long> allocated = new HashMap<>();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith(SERVER_THREADS)) allocated.put(t.threadId(), threads.getThreadAllocatedBytes(t.threadId()));
+        }
+        return allocated;
+    }
+
+    // Threads started since count in full; threads that ended since are lost, but Tomcat keeps its pool.
+    private static long allocatedSince(Map<Long, Long> before) {
+        long total = 0;
+        for (Map.Entry<Long, Long> t : serverAllocation().entrySet()) {
+            if (t.getValue() > 0) total += t.getValue() - before.getOrDefault(t.getKey(), 0L);
+        }
+        return total;
+    }
+
+    private static long[] gc() {
+        long count = 0, millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+}
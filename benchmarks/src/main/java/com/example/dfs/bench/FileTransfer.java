@@ -0,0 +1,260 @@
+package com.example.dfs.bench;
+
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32C;
+
+/**
+ * Moves one multi-GB file through a cluster and reports upload and download GB/s, per
+ * {@code --modes} entry: {@code whole} is one request each way to the whole-file endpoints (the
+ * node cuts it into {@code --chunk-mb} chunks and reads them back ahead of the response);
+ * {@code chunked} is the client splitting it itself, one request per chunk with {@code --parallel}
+ * in flight. Uploads go to the leader with {@code ?ack=}; downloads come from {@code --read-from}.
+ * The file is never held whole on either side: the body is a pseudo-random pattern generated as it
+ * is sent, and what comes back is checked against the pattern's CRC32C as it arrives. Each mode
+ * runs on a cluster of its own, deleted afterwards, so the disk needs room for one file per node.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.dfs.bench.FileTransfer --file-mb=8192 --chunk-mb=8,64
+ * </pre>
+ */
+public final class FileTransfer {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    private static final String FILE = "transfer";
+    // not a power of two, so consecutive chunks of the file differ
+    private static final int PATTERN_BYTES = (1 << 20) + 13;
+
+    static {
+        DEFAULTS.put("nodes", "3");
+        DEFAULTS.put("modes", "whole,chunked");
+        DEFAULTS.put("file-mb", "4096");
+        DEFAULTS.put("chunk-mb", "8");
+        DEFAULTS.put("parallel", "4");
+        DEFAULTS.put("ack", "all");
+        DEFAULTS.put("read-from", "follower");
+        DEFAULTS.put("data-dir", "");
+        DEFAULTS.put("out", "transfer-results.json");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args, DEFAULTS);
+        byte[] pattern = new byte[PATTERN_BYTES];
+        new Random(21).nextBytes(pattern);
+        long length = options.getLong("file-mb") << 20;
+        Path dataDir = options.dataDir("dfs-transfer");
+        List<Map<String, Object>> runs = new ArrayList<>();
+        try {
+            for (int mb : options.ints("chunk-mb")) {
+                for (String mode : options.strings("modes")) {
+                    Path dir = dataDir.resolve(mode + "-" + mb + "mb");
+                    Map<String, Object> run = run(options, dir, pattern, length, mb << 20, mode);
+                    // one file per node per mode is enough to keep on disk
+                    Options.delete(dir);
+                    runs.add(run);
+                    System.out.printf("%-7s %d MB in %d MB chunks: upload %.2f GB/s, download %.2f GB/s, %d GCs (%d ms)%n",
+                            mode, length >> 20, mb, run.get("uploadGBps"), run.get("downloadGBps"), run.get("gcCount"), run.get("gcMillis"));
+                }
+            }
+        } finally {
+            options.deleteDataDir(dataDir);
+        }
+        options.writeReport(runs);
+        System.exit(0);
+    }
+
+    private static Map<String, Object> run(Options options, Path dir, byte[] pattern, long length, int chunkBytes,
+                                           String mode) throws Exception {
+        if (!mode.equals("whole") && !mode.equals("chunked")) throw new IllegalArgumentException("unknown mode " + mode + "; whole or chunked");
+        int chunks = (int) ((length + chunkBytes - 1) / chunkBytes);
+        int[] chunkCrcs = new int[chunks];
+        int fileCrc = expectedCrcs(pattern, length, chunkBytes, chunkCrcs);
+        HttpClient http = BenchCluster.client();
+        try (BenchCluster cluster = new BenchCluster(dir, options.getInt("nodes"), options.nodeProperties(Map.of()))) {
+            String leader = cluster.awaitLeader(FILE);
+            String reader = switch (options.get("read-from")) {
+                case "leader" -> leader;
+                case "follower" -> cluster.urls().stream().filter(u -> !u.equals(leader)).findFirst().orElse(leader);
+                default -> throw new IllegalArgumentException("--read-from must be leader or follower");
+            };
+            String ack = "?ack=" + options.get("ack");
+            long[] gcBefore = gc();
+
+            long start = System.nanoTime();
+            if (mode.equals("whole")) {
+                HttpResponse<String> response = http.send(post(leader + "/files/" + FILE + ack + "&chunkSize=" + chunkBytes,
+                        pattern, 0, length), HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) throw new IllegalStateException("upload failed: " + response.statusCode() + " " + response.body());
+            } else {
+                Semaphore slots = new Semaphore(options.getInt("parallel"));
+                List<CompletableFuture<HttpResponse<String>>> sent = new ArrayList<>();
+                for (int i = 0; i < chunks; i++) {
+                    long offset = (long) i * chunkBytes;
+                    slots.acquire();
+                    sent.add(http.sendAsync(post(leader + "/files/" + FILE + "/chunks/" + i + ack, pattern, offset,
+                            Math.min(chunkBytes, length - offset)), HttpResponse.BodyHandlers.ofString())
+                            .whenComplete((r, err) -> slots.release()));
+                }
+                for (int i = 0; i < chunks; i++) {
+                    HttpResponse<String> response = sent.get(i).join();
+                    if (response.statusCode() != 200) throw new IllegalStateException("chunk " + i + " failed: " + response.statusCode() + " " + response.body());
+                }
+            }
+            double uploadSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            if (mode.equals("whole")) {
+                check(http.send(get(reader + "/files/" + FILE), new Checksummed()), "the file", length, fileCrc);
+            } else {
+                Semaphore slots = new Semaphore(options.getInt("parallel"));
+                List<CompletableFuture<HttpResponse<Received>>> read = new ArrayList<>();
+                for (int i = 0; i < chunks; i++) {
+                    slots.acquire();
+                    read.add(http.sendAsync(get(reader + "/files/" + FILE + "/chunks/" + i), new Checksummed())
+                            .whenComplete((r, err) -> slots.release()));
+                }
+                for (int i = 0; i < chunks; i++) {
+                    check(read.get(i).join(), "chunk " + i, Math.min(chunkBytes, length - (long) i * chunkBytes), chunkCrcs[i]);
+                }
+            }
+            double downloadSeconds = (System.nanoTime() - start) / 1e9;
+            long[] gcAfter = gc();
+
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("mode", mode);
+            run.put("nodes", options.getInt("nodes"));
+            run.put("fileBytes", length);
+            run.put("chunkBytes", chunkBytes);
+            run.put("chunks", chunks);
+            run.put("uploadSeconds", uploadSeconds);
+            run.put("uploadGBps", length / 1e9 / uploadSeconds);
+            run.put("downloadSeconds", downloadSeconds);
+            run.put("downloadGBps", length / 1e9 / downloadSeconds);
+            // the whole JVM, clients included
+            run.put("gcCount", gcAfter[0] - gcBefore[0]);
+            run.put("gcMillis", gcAfter[1] - gcBefore[1]);
+            return run;
+        }
+    }
+
+    private static HttpRequest post(String url, byte[] pattern, long offset, long length) {
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> new PatternInput(pattern, offset, length)), length);
+        return HttpRequest.newBuilder(URI.create(url)).header("Content-Type", "application/octet-stream").POST(body).build();
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).GET().build();
+    }
+
+    // CRC32C of the whole file, and of each chunk into chunkCrcs.
+    private static int expectedCrcs(byte[] pattern, long length, int chunkBytes, int[] chunkCrcs) throws Exception {
+        CRC32C file = new CRC32C();
+        byte[] buf = new byte[1 << 20];
+        for (int i = 0; i < chunkCrcs.length; i++) {
+            long offset = (long) i * chunkBytes;
+            CRC32C chunk = new CRC32C();
+            try (InputStream in = new PatternInput(pattern, offset, Math.min(chunkBytes, length - offset))) {
+                for (int n; (n = in.read(buf)) > 0; ) {
+                    chunk.update(buf, 0, n);
+                    file.update(buf, 0, n);
+                }
+            }
+            chunkCrcs[i] = (int) chunk.getValue();
+        }
+        return (int) file.getValue();
+    }
+
+    private static void check(HttpResponse<Received> response, String what, long length, int crc) {
+        if (response.statusCode() != 200) throw new IllegalStateException("reading " + what + " failed: " + response.statusCode());
+        Received r = response.body();
+        if (r.bytes() != length || r.crc32c() != crc) {
+            throw new IllegalStateException(what + " came back as " + r.bytes() + " bytes with another checksum than was sent");
+        }
+    }
+
+    // The file from offset on, for length bytes: the pattern repeated.
+    private static final class PatternInput extends InputStream {
+        private final byte[] pattern;
+        private final long end;
+        private long pos;
+
+        PatternInput(byte[] pattern, long offset, long length) {
+            this.pattern = pattern;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() {
+            return pos < end ? pattern[(int) (pos++ % pattern.length)] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= end) return -1;
+            int p = (int) (pos % pattern.length);
+            int n = (int) Math.min(Math.min(len, end - pos), pattern.length - p);
+            System.arraycopy(pattern, p, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    private record Received(long bytes, int crc32c) {}
+
+    // Checksums the body as it arrives without keeping it.
+    private static final class Checksummed implements HttpResponse.BodyHandler<Received> {
+        @Override
+        public HttpResponse.BodySubscriber<Received> apply(HttpResponse.ResponseInfo info) {
+            CRC32C crc = new CRC32C();
+            long[] bytes = new long[1];
+            return HttpResponse.BodySubscribers.fromSubscriber(new Flow.Subscriber<List<ByteBuffer>>() {
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    s.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(List<ByteBuffer> buffers) {
+                    // delivered in order, one call at a time
+                    for (ByteBuffer b : buffers) {
+                        bytes[0] += b.remaining();
+                        crc.update(b);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            }, s -> new Received(bytes[0], (int) crc.getValue()));
+        }
+    }
+
+    private static long[] gc() {
+        long count = 0, millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+}
@@ -0,0 +1,385 @@
+package com.example.dfs.bench;
+
+import com.example.dfs.storage.ChunkCache;
+import com.example.dfs.storage.StorageService;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Boots a cluster of full nodes in this JVM on loopback ports (dataDir/node1..nodeN) and drives a
+ * mixed chunk read/write workload against it over HTTP, then writes throughput and latency
+ * percentiles per operation to a JSON file for comparing runs. {@code --nodes} and {@code --groups}
+ * take lists; every combination is a separate run on a fresh cluster, which shows how reads scale
+ * with replicas and writes with Raft groups. Keys are picked uniformly or from a Zipfian
+ * distribution ({@code --distribution=zipfian}), whose hot set shows off the chunk cache; each run
+ * reports the cluster's cache hit ratio over the measured phase. Options are {@code --key=value};
+ * dotted keys (such as {@code --raft.log.sync=none}) are passed to every node.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.dfs.bench.LoadGenerator --nodes=3,5 --read-ratio=0.9 --out=load.json
+ * </pre>
+ */
+public final class LoadGenerator {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("nodes", "3");
+        DEFAULTS.put("groups", "1");
+        DEFAULTS.put("threads", "16");
+        DEFAULTS.put("warmup-s", "5");
+        DEFAULTS.put("duration-s", "30");
+        DEFAULTS.put("read-ratio", "0.8");
+        DEFAULTS.put("chunk-bytes", "65536");
+        DEFAULTS.put("files", "32");
+        DEFAULTS.put("chunks-per-file", "4");
+        DEFAULTS.put("distribution", "uniform");
+        DEFAULTS.put("zipf-s", "0.99");
+        DEFAULTS.put("ack", "");
+        DEFAULTS.put("data-dir", "");
+        DEFAULTS.put("out", "load-results.json");
+        DEFAULTS.put("jfr", "false");
+    }
+
+    // Monitor waits and parks shorter than this are left out of the recording.
+    private static final Duration CONTENTION_THRESHOLD = Duration.ofMillis(1);
+    private static final long MAX_LATENCY_MICROS = Duration.ofMinutes(1).toNanos() / 1000;
+
+    private final Options options;
+    private final HttpClient http = BenchCluster.client();
+
+    private LoadGenerator(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args, DEFAULTS);
+        if (options.getBoolean("jfr")) options.setNodeProperty("metrics.jfr.enabled", "true");
+        new LoadGenerator(options).runAll();
+        System.exit(0);
+    }
+
+    private void runAll() throws Exception {
+        Path out = options.out();
+        Path dataDir = options.dataDir("dfs-load");
+        List<Map<String, Object>> runs = new ArrayList<>();
+        try {
+            for (int nodes : options.ints("nodes")) {
+                for (int groups : options.ints("groups")) {
+                    Path runDir = dataDir.resolve("n" + nodes + "-g" + groups);
+                    Path jfr = options.getBoolean("jfr")
+                            ? out.resolveSibling(stripJson(out.getFileName().toString()) + "-n" + nodes + "-g" + groups + ".jfr")
+                            : null;
+                    Map<String, Object> run = run(runDir, nodes, groups, jfr);
+                    runs.add(run);
+                    System.out.println(summary(run));
+                }
+            }
+        } finally {
+            options.deleteDataDir(dataDir);
+        }
+        options.writeReport(runs);
+    }
+
+    private Map<String, Object> run(Path dir, int nodes, int groups, Path jfr) throws Exception {
+        Map<String, String> properties = options.nodeProperties(Map.of("raft.groups", Integer.toString(groups)));
+        System.out.printf("Starting %d nodes with %d Raft group(s) in %s%n", nodes, groups, dir);
+        try (BenchCluster cluster = new BenchCluster(dir, nodes, properties)) {
+            Workload load = new Workload(cluster);
+            load.preload();
+            long warmupNanos = Duration.ofSeconds(options.getLong("warmup-s")).toNanos();
+            long durationNanos = Duration.ofSeconds(options.getLong("duration-s")).toNanos();
+            long start = System.nanoTime();
+            long measureFrom = start + warmupNanos;
+            long until = measureFrom + durationNanos;
+
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < options.getInt("threads"); i++) {
+                Thread t = new Thread(() -> load.drive(measureFrom, until), "load-" + i);
+                t.start();
+                workers.add(t);
+            }
+            Recording recording = null;
+            Thread.sleep(Duration.ofNanos(warmupNanos));
+            long[] cacheBefore = cacheCounts(cluster);
+            if (jfr != null) recording = startRecording();
+            for (Thread t : workers) t.join();
+            long[] cacheAfter = cacheCounts(cluster);
+            if (recording != null) {
+                recording.dump(jfr);
+                recording.close();
+            }
+
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("nodes", nodes);
+            run.put("groups", groups);
+            double seconds = durationNanos / 1e9;
+            run.put("seconds", seconds);
+            Map<String, Object> ops = new LinkedHashMap<>();
+            ops.put("read", load.reads.report(seconds));
+            ops.put("write", load.writes.report(seconds));
+            run.put("ops", ops);
+            run.put("totalOpsPerSecond", (load.reads.count() + load.writes.count()) / seconds);
+            run.put("cache", cacheReport(cacheBefore, cacheAfter));
+            if (jfr != null) {
+                run.put("jfr", jfr.toString());
+                run.put("contention", contention(jfr));
+            }
+            return run;
+        }
+    }
+
+    // The chunks written up front and then read and overwritten at random; file ids hash across the groups.
+    private final class Workload {
+        final BenchCluster cluster;
+        final List<String> urls;
+        final int files = options.getInt("files");
+        final int chunks = options.getInt("chunks-per-file");
+        final double readRatio = options.getDouble("read-ratio");
+        final byte[] payload = new byte[options.getInt("chunk-bytes")];
+        final Keys keys = Keys.of(options.get("distribution"), files * chunks, options.getDouble("zipf-s"));
+        final String ack = options.get("ack").isEmpty() ? "" : "?ack=" + options.get("ack");
+        final Map<String, String> leaders = new ConcurrentHashMap<>();
+        final Op reads = new Op("read");
+        final Op writes = new Op("write");
+
+        Workload(BenchCluster cluster) {
+            this.cluster = cluster;
+            this.urls = cluster.urls();
+            // random bytes, so compression does not flatter the numbers
+            new Random(7).nextBytes(payload);
+        }
+
+        void preload() throws Exception {
+            for (int f = 0; f < files; f++) {
+                String fileId = fileId(f);
+                leaders.put(fileId, cluster.awaitLeader(fileId));
+                for (int c = 0; c < chunks; c++) {
+                    HttpResponse<Void> response = http.send(write(fileId, c), HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() != 200) {
+                        throw new IllegalStateException("preloading " + fileId + "/" + c + " failed: " + response.statusCode());
+                    }
+                }
+            }
+        }
+
+        void drive(long measureFrom, long until) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (long now = System.nanoTime(); now < until; now = System.nanoTime()) {
+                int key = keys.next(random);
+                String fileId = fileId(key / chunks);
+                int chunk = key % chunks;
+                boolean read = random.nextDouble() < readRatio;
+                Op op = read ? reads : writes;
+                HttpRequest request = read
+                        ? HttpRequest.newBuilder(URI.create(urls.get(random.nextInt(urls.size())) + "/files/" + fileId + "/chunks/" + chunk)).GET().build()
+                        : write(fileId, chunk);
+                boolean ok;
+                try {
+                    ok = http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+                } catch (IOException e) {
+                    ok = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                // a failed write may mean leadership moved
+                if (!ok && !read) leaders.remove(fileId);
+                if (now >= measureFrom) op.record(System.nanoTime() - now, ok ? payload.length : -1);
+            }
+        }
+
+        HttpRequest write(String fileId, int chunk) {
+            String leader = leaders.computeIfAbsent(fileId, id -> {
+                String l = cluster.leader(id);
+                return l == null ? urls.get(0) : l;
+            });
+            return HttpRequest.newBuilder(URI.create(leader + "/files/" + fileId + "/chunks/" + chunk + ack))
+                    .header("Content-Type", "application/octet-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
+                    .build();
+        }
+
+        String fileId(int f) {
+            return "load-" + f;
+        }
+    }
+
+    // Which chunk an operation touches, as an index into files x chunks-per-file: uniform, or Zipfian
+    // with exponent s, whose ranks are shuffled so the hot keys spread over files and Raft groups.
+    private static final class Keys {
+        private final int size;
+        private final double[] cdf; // null when uniform
+        private final int[] byRank;
+
+        private Keys(int size, double[] cdf, int[] byRank) {
+            this.size = size;
+            this.cdf = cdf;
+            this.byRank = byRank;
+        }
+
+        static Keys of(String distribution, int size, double s) {
+            return switch (distribution) {
+                case "uniform" -> new Keys(size, null, null);
+                case "zipfian" -> {
+                    double[] cdf = new double[size];
+                    double sum = 0;
+                    for (int i = 0; i < size; i++) cdf[i] = sum += 1 / Math.pow(i + 1, s);
+                    for (int i = 0; i < size; i++) cdf[i] /= sum;
+                    cdf[size - 1] = 1;
+                    List<Integer> keys = new ArrayList<>();
+                    for (int i = 0; i < size; i++) keys.add(i);
+                    Collections.shuffle(keys, new Random(13));
+                    yield new Keys(size, cdf, keys.stream().mapToInt(Integer::intValue).toArray());
+                }
+                default -> throw new IllegalArgumentException("unknown distribution " + distribution + "; uniform or zipfian");
+            };
+        }
+
+        int next(ThreadLocalRandom random) {
+            if (cdf == null) return random.nextInt(size);
+            int rank = Arrays.binarySearch(cdf, random.nextDouble());
+            return byRank[rank >= 0 ? rank : -rank - 1];
+        }
+    }
+
+    private static final class Op {
+        final String name;
+        final Recorder latency = new Recorder(MAX_LATENCY_MICROS, 3);
+        final Histogram total = new Histogram(MAX_LATENCY_MICROS, 3);
+        final LongAdder bytes = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        Op(String name) {
+            this.name = name;
+        }
+
+        // bytes < 0 marks a failure, which is counted but kept out of the latencies
+        void record(long nanos, long bytes) {
+            if (bytes < 0) {
+                errors.increment();
+                return;
+            }
+            latency.recordValue(Math.min(MAX_LATENCY_MICROS, Math.max(1, nanos / 1000)));
+            this.bytes.add(bytes);
+        }
+
+        long count() {
+            return histogram().getTotalCount();
+        }
+
+        synchronized Histogram histogram() {
+            total.add(latency.getIntervalHistogram());
+            return total;
+        }
+
+        Map<String, Object> report(double seconds) {
+            Histogram h = histogram();
+            Map<String, Object> r = new LinkedHashMap<>();
+            r.put("count", h.getTotalCount());
+            r.put("errors", errors.sum());
+            r.put("opsPerSecond", h.getTotalCount() / seconds);
+            r.put("bytesPerSecond", bytes.sum() / seconds);
+            Map<String, Object> micros = new LinkedHashMap<>();
+            micros.put("p50", h.getValueAtPercentile(50));
+            micros.put("p90", h.getValueAtPercentile(90));
+            micros.put("p99", h.getValueAtPercentile(99));
+            micros.put("p999", h.getValueAtPercentile(99.9));
+            micros.put("max", h.getMaxValue());
+            micros.put("mean", h.getMean());
+            r.put("latencyMicros", micros);
+            return r;
+        }
+    }
+
+    // Chunk cache hits and misses summed over the nodes.
+    private static long[] cacheCounts(BenchCluster cluster) {
+        long[] counts = new long[2];
+        for (String url : cluster.urls()) {
+            ChunkCache cache = cluster.bean(url, StorageService.class).cache();
+            if (cache == null) continue;
+            counts[0] += cache.hits();
+            counts[1] += cache.misses();
+        }
+        return counts;
+    }
+
+    private static Map<String, Object> cacheReport(long[] before, long[] after) {
+        long hits = after[0] - before[0], misses = after[1] - before[1];
+        Map<String, Object> r = new LinkedHashMap<>();
+        r.put("hits", hits);
+        r.put("misses", misses);
+        r.put("hitRatio", hits + misses == 0 ? null : (double) hits / (hits + misses));
+        return r;
+    }
+
+    // Lock contention on the event loops and elsewhere, plus the nodes' own latency events.
+    private static Recording startRecording() {
+        Recording recording = new Recording();
+        recording.enable("jdk.JavaMonitorEnter").withThreshold(CONTENTION_THRESHOLD).withStackTrace();
+        recording.enable("jdk.ThreadPark").withThreshold(CONTENTION_THRESHOLD).withStackTrace();
+        recording.enable("com.example.dfs.Latency");
+        recording.start();
+        return recording;
+    }
+
+    // The ten monitors and park blockers threads waited on longest in total.
+    private static List<Map<String, Object>> contention(Path jfr) throws IOException {
+        record Key(String event, String type) {}
+        Map<Key, long[]> waits = new HashMap<>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(jfr)) {
+            String event = e.getEventType().getName();
+            RecordedClass type;
+            if (event.equals("jdk.JavaMonitorEnter")) type = e.getClass("monitorClass");
+            else if (event.equals("jdk.ThreadPark")) type = e.getClass("parkedClass");
+            else continue;
+            long[] w = waits.computeIfAbsent(new Key(event, type == null ? "?" : type.getName()), k -> new long[2]);
+            w[0]++;
+            w[1] += e.getDuration().toNanos();
+        }
+        return waits.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<Key, long[]> w) -> w.getValue()[1]).reversed())
+                .limit(10)
+                .map(w -> {
+                    Map<String, Object> m = new LinkedHashMap<>();
+                    m.put("event", w.getKey().event());
+                    m.put("class", w.getKey().type());
+                    m.put("count", w.getValue()[0]);
+                    m.put("totalMillis", w.getValue()[1] / 1e6);
+                    return m;
+                })
+                .toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String summary(Map<String, Object> run) {
+        StringBuilder s = new StringBuilder(String.format("nodes=%s groups=%s", run.get("nodes"), run.get("groups")));
+        ((Map<String, Map<String, Object>>) run.get("ops")).forEach((op, r) -> {
+            Map<String, Object> micros = (Map<String, Object>) r.get("latencyMicros");
+            s.append(String.format("%n  %-5s %10.1f ops/s  p50 %6dus  p99 %7dus  p999 %7dus  errors %d",
+                    op, (Double) r.get("opsPerSecond"), micros.get("p50"), micros.get("p99"), micros.get("p999"), r.get("errors")));
+        });
+        Object hitRatio = ((Map<String, Object>) run.get("cache")).get("hitRatio");
+        if (hitRatio != null) s.append(String.format("%n  cache hit ratio %.3f", (Double) hitRatio));
+        return s.toString();
+    }
+
+    private static String stripJson(String name) {
+        return name.endsWith(".json") ? name.substring(0, name.length() - 5) : name;
+    }
+}
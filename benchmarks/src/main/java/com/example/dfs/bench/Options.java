@@ -0,0 +1,116 @@
+package com.example.dfs.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// The --key=value arguments of the cluster benchmarks: the runner's own options, each with a default,
+// and dotted keys (such as --raft.log.sync=none) that are passed to every node.
+final class Options {
+    private final Map<String, String> values;
+    private final Map<String, String> nodeProperties = new LinkedHashMap<>();
+
+    private Options(Map<String, String> defaults) {
+        this.values = new LinkedHashMap<>(defaults);
+        // five nodes logging at INFO drown the summary
+        nodeProperties.put("logging.level.root", "WARN");
+        nodeProperties.put("spring.main.banner-mode", "off");
+    }
+
+    static Options parse(String[] args, Map<String, String> defaults) {
+        Options options = new Options(defaults);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) throw new IllegalArgumentException("expected --key=value, got " + arg);
+            String key = arg.substring(2, eq), value = arg.substring(eq + 1);
+            if (defaults.containsKey(key)) options.values.put(key, value);
+            else if (key.contains(".")) options.nodeProperties.put(key, value);
+            else throw new IllegalArgumentException("unknown option --" + key + "; known: " + defaults.keySet());
+        }
+        return options;
+    }
+
+    String get(String key) {
+        return values.get(key);
+    }
+
+    int getInt(String key) {
+        return Integer.parseInt(values.get(key));
+    }
+
+    long getLong(String key) {
+        return Long.parseLong(values.get(key));
+    }
+
+    double getDouble(String key) {
+        return Double.parseDouble(values.get(key));
+    }
+
+    boolean getBoolean(String key) {
+        return Boolean.parseBoolean(values.get(key));
+    }
+
+    int[] ints(String key) {
+        return Arrays.stream(values.get(key).split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    List<String> strings(String key) {
+        return Arrays.stream(values.get(key).split(",")).map(String::trim).toList();
+    }
+
+    // Node properties, with a run's own settings added (they do not override the command line).
+    Map<String, String> nodeProperties(Map<String, String> run) {
+        Map<String, String> properties = new LinkedHashMap<>(nodeProperties);
+        run.forEach(properties::putIfAbsent);
+        return properties;
+    }
+
+    void setNodeProperty(String key, String value) {
+        nodeProperties.put(key, value);
+    }
+
+    // --data-dir, or a temporary directory that deleteDataDir removes again.
+    Path dataDir(String prefix) throws IOException {
+        return values.get("data-dir").isEmpty() ? Files.createTempDirectory(prefix) : Path.of(values.get("data-dir"));
+    }
+
+    void deleteDataDir(Path dir) throws IOException {
+        if (values.get("data-dir").isEmpty()) delete(dir);
+    }
+
+    // The runs with the machine and the options they ran with, as JSON to --out.
+    void writeReport(List<Map<String, Object>> runs) throws IOException {
+        Path out = out();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("java", Runtime.version().toString());
+        report.put("cpus", Runtime.getRuntime().availableProcessors());
+        report.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        report.put("options", values);
+        report.put("nodeProperties", nodeProperties);
+        report.put("runs", runs);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(out.toFile(), report);
+        System.out.println("Wrote " + out);
+    }
+
+    Path out() {
+        return Path.of(values.get("out")).toAbsolutePath();
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.dfs.bench;
+
+import com.example.dfs.ft.FailureDetector;
+import com.example.dfs.ft.ReplicationManager;
+import com.example.dfs.storage.ErasureCoding;
+import com.example.dfs.storage.StorageService;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Time to full redundancy: writes {@code --chunks} erasure-coded chunks, stops the node (other than
+ * the leader) holding the most fragments, and reports when the leader's failure detector suspected
+ * it and when no chunk had a fragment on it any more, plus the fragment traffic of the rebuild
+ * (fragments read and sent). Failure detection and rebuild settings are node properties, e.g.
+ * {@code --failure-detector.acceptable-pause-ms=200}.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.dfs.bench.RecoveryTime --nodes=4,6 --policy=rs-2-1 --chunks=256
+ * </pre>
+ */
+public final class RecoveryTime {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    private static final String FILE = "recovered";
+    private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    static {
+        DEFAULTS.put("nodes", "4");
+        DEFAULTS.put("policy", "rs-2-1");
+        DEFAULTS.put("chunks", "64");
+        DEFAULTS.put("chunk-kb", "1024");
+        DEFAULTS.put("data-dir", "");
+        DEFAULTS.put("out", "recovery-results.json");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args, DEFAULTS);
+        Path dataDir = options.dataDir("dfs-recovery");
+        List<Map<String, Object>> runs = new ArrayList<>();
+        try {
+            for (int nodes : options.ints("nodes")) {
+                Map<String, Object> run = run(options, dataDir.resolve("n" + nodes), nodes);
+                runs.add(run);
+                System.out.printf("nodes=%d %s: %d fragments lost, suspected after %d ms, full redundancy after %d ms, %.1f MB of rebuild traffic%n",
+                        nodes, options.get("policy"), run.get("fragmentsLost"), run.get("suspectedMillis"),
+                        run.get("fullRedundancyMillis"), (Double) run.get("rebuildTrafficBytes") / (1 << 20));
+            }
+        } finally {
+            options.deleteDataDir(dataDir);
+        }
+        options.writeReport(runs);
+        System.exit(0);
+    }
+
+    private static Map<String, Object> run(Options options, Path dir, int nodes) throws Exception {
+        ErasureCoding.Policy policy = ErasureCoding.Policy.parse(options.get("policy"));
+        try (BenchCluster cluster = new BenchCluster(dir, nodes, options.nodeProperties(Map.of()))) {
+            String leaderUrl = cluster.awaitLeader(FILE);
+            StorageService leader = cluster.bean(leaderUrl, StorageService.class);
+            leader.setPolicy(FILE, policy).get(10, TimeUnit.SECONDS);
+            byte[] data = new byte[options.getInt("chunk-kb") << 10];
+            Random random = new Random(7);
+            List<String> chunks = new ArrayList<>();
+            for (int i = 0; i < options.getInt("chunks"); i++) {
+                random.nextBytes(data);
+                leader.storeChunkAndReplicate(FILE, "c" + i, new ByteArrayInputStream(data), ReplicationManager.AckLevel.ALL)
+                        .get(60, TimeUnit.SECONDS);
+                chunks.add("c" + i);
+            }
+
+            Map<String, Long> held = chunks.stream().flatMap(c -> leader.layout(FILE, c).nodes().stream())
+                    .filter(n -> !n.equals(leaderUrl)).collect(Collectors.groupingBy(n -> n, Collectors.counting()));
+            String victim = Collections.max(held.entrySet(), Map.Entry.comparingByValue()).getKey();
+            FailureDetector detector = cluster.bean(leaderUrl, FailureDetector.class);
+            double rebuiltBefore = rebuilt(cluster, victim);
+
+            long start = System.nanoTime();
+            cluster.stop(victim);
+            long suspected = -1, restored = -1;
+            while (restored < 0 && System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS)) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (suspected < 0 && detector.isSuspected(victim)) suspected = millis;
+                if (leader.layoutsOn(Set.of(victim)).isEmpty()) restored = millis;
+                else Thread.sleep(10);
+            }
+            if (restored < 0) throw new IllegalStateException("fragments still on " + victim + " after " + TIMEOUT_MILLIS + " ms");
+
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("nodes", nodes);
+            run.put("policy", ErasureCoding.Policy.name(policy));
+            run.put("chunks", chunks.size());
+            run.put("chunkBytes", data.length);
+            run.put("fragmentsLost", held.get(victim));
+            run.put("suspectedMillis", suspected);
+            run.put("fullRedundancyMillis", restored);
+            run.put("rebuildTrafficBytes", rebuilt(cluster, victim) - rebuiltBefore);
+            return run;
+        }
+    }
+
+    // Fragment bytes the live nodes moved: the k read to rebuild each chunk plus the ones sent to new homes.
+    private static double rebuilt(BenchCluster cluster, String except) {
+        double sum = 0;
+        for (String url : cluster.urls()) if (!url.equals(except)) sum += cluster.metric(url, "dfs_rebuild_sent_bytes_total");
+        return sum;
+    }
+}
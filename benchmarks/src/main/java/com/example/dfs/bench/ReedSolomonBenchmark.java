@@ -0,0 +1,69 @@
+package com.example.dfs.bench;
+
+import com.example.dfs.storage.ReedSolomon;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reed-Solomon parity over one 64 KB cell per data shard (the unit ErasureCoding encodes in), and
+ * reconstruction of {@code lost} data shards from the survivors, as in a degraded read. The
+ * {@code bytes} counter is data bytes covered per second, so it reads directly as encode and
+ * decode bandwidth: divide by 1e9 for GB/s. Encoding does not depend on {@code lost}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReedSolomonBenchmark {
+    private static final int CELL_BYTES = 64 * 1024;
+
+    // rs-<k>-<m>
+    @Param({"6-3", "10-4"})
+    String policy;
+
+    @Param({"1", "3"})
+    int lost;
+
+    private ReedSolomon rs;
+    private byte[][] shards;
+    private boolean[] present;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup
+    public void setUp() {
+        String[] km = policy.split("-");
+        rs = new ReedSolomon(Integer.parseInt(km[0]), Integer.parseInt(km[1]));
+        shards = new byte[rs.totalShards()][CELL_BYTES];
+        Random random = new Random(5);
+        for (int i = 0; i < rs.dataShards(); i++) random.nextBytes(shards[i]);
+        rs.encodeParity(shards, 0, CELL_BYTES);
+        present = new boolean[rs.totalShards()];
+        Arrays.fill(present, true);
+        // the first data shards go missing; parity stands in for them
+        for (int i = 0; i < lost; i++) present[i] = false;
+    }
+
+    @Benchmark
+    public byte[][] encode(Bytes counter) {
+        rs.encodeParity(shards, 0, CELL_BYTES);
+        counter.bytes += (long) rs.dataShards() * CELL_BYTES;
+        return shards;
+    }
+
+    @Benchmark
+    public byte[][] reconstruct(Bytes counter) {
+        rs.reconstruct(shards, present, 0, CELL_BYTES);
+        counter.bytes += (long) rs.dataShards() * CELL_BYTES;
+        return shards;
+    }
+}
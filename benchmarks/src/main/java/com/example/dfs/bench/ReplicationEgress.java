@@ -0,0 +1,102 @@
+package com.example.dfs.bench;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Chain against fan-out replication of large chunks: writes {@code chunks} chunks of each size to
+ * the leader with {@code ack=all}, once per {@code replication.mode}, and reports the leader's
+ * egress (replica bytes it sent itself, from dfs_replication_sent_bytes_total) and end-to-end write
+ * latency. In fan-out the leader sends every chunk once per peer; in a chain, once.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.dfs.bench.ReplicationEgress --nodes=3,5 --chunk-mb=64,256
+ * </pre>
+ */
+public final class ReplicationEgress {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    private static final String FILE = "egress";
+
+    static {
+        DEFAULTS.put("nodes", "3");
+        DEFAULTS.put("modes", "fanout,chain");
+        DEFAULTS.put("chunk-mb", "64,128");
+        DEFAULTS.put("chunks", "4");
+        DEFAULTS.put("data-dir", "");
+        DEFAULTS.put("out", "egress-results.json");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args, DEFAULTS);
+        Path dataDir = options.dataDir("dfs-egress");
+        List<Map<String, Object>> runs = new ArrayList<>();
+        try {
+            for (int nodes : options.ints("nodes")) {
+                for (int mb : options.ints("chunk-mb")) {
+                    for (String mode : options.strings("modes")) {
+                        Path dir = dataDir.resolve(mode + "-n" + nodes + "-" + mb + "mb");
+                        Map<String, Object> run = run(options, dir, nodes, mode, mb);
+                        runs.add(run);
+                        System.out.printf("%-6s nodes=%d %4d MB: leader sent %.2fx the data at %.0f MB/s, write p50 %d ms, max %d ms%n",
+                                mode, nodes, mb, run.get("leaderCopiesPerChunk"), run.get("leaderEgressMBps"),
+                                run.get("writeP50Millis"), run.get("writeMaxMillis"));
+                    }
+                }
+            }
+        } finally {
+            options.deleteDataDir(dataDir);
+        }
+        options.writeReport(runs);
+        System.exit(0);
+    }
+
+    private static Map<String, Object> run(Options options, Path dir, int nodes, String mode, int mb) throws Exception {
+        // chain every chunk this size, whatever the node default
+        Map<String, String> properties = options.nodeProperties(Map.of(
+                "replication.mode", mode, "replication.chain-min-bytes", Integer.toString(1 << 20)));
+        byte[] chunk = new byte[mb << 20];
+        new Random(3).nextBytes(chunk);
+        int chunks = options.getInt("chunks");
+        HttpClient http = BenchCluster.client();
+        try (BenchCluster cluster = new BenchCluster(dir, nodes, properties)) {
+            String leader = cluster.awaitLeader(FILE);
+            double sentBefore = cluster.metric(leader, "dfs_replication_sent_bytes_total");
+            long[] millis = new long[chunks];
+            long start = System.nanoTime();
+            for (int i = 0; i < chunks; i++) {
+                long t0 = System.nanoTime();
+                HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(leader + "/files/" + FILE + "/chunks/" + i + "?ack=all"))
+                        .header("Content-Type", "application/octet-stream")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(chunk)).build(), HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) throw new IllegalStateException("write " + i + " failed: " + response.statusCode() + " " + response.body());
+                millis[i] = (System.nanoTime() - t0) / 1_000_000;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double sent = cluster.metric(leader, "dfs_replication_sent_bytes_total") - sentBefore;
+
+            Arrays.sort(millis);
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("mode", mode);
+            run.put("nodes", nodes);
+            run.put("chunkBytes", chunk.length);
+            run.put("chunks", chunks);
+            run.put("leaderEgressBytes", (long) sent);
+            run.put("leaderCopiesPerChunk", sent / ((double) chunk.length * chunks));
+            run.put("leaderEgressMBps", sent / (1 << 20) / seconds);
+            run.put("writeMBps", (double) chunk.length * chunks / (1 << 20) / seconds);
+            run.put("writeP50Millis", millis[chunks / 2]);
+            run.put("writeMaxMillis", millis[chunks - 1]);
+            run.put("writeMeanMillis", Arrays.stream(millis).average().orElse(0));
+            return run;
+        }
+    }
+}
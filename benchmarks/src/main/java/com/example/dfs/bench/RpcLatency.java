@@ -0,0 +1,178 @@
+package com.example.dfs.bench;
+
+import com.example.dfs.ft.FailureDetector;
+import com.example.dfs.model.RequestVoteRequest;
+import com.example.dfs.model.RequestVoteResponse;
+import com.example.dfs.net.RaftCodec;
+import com.example.dfs.net.RpcClient;
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-to-node RPCs with the cluster idle and under replication load. The calls go out through the
+ * leader's own RpcClient on the control lane, to a follower's Raft servlet and event loop, as its
+ * heartbeats do: a RequestVote for term 0, which every node rejects without changing state. Per
+ * phase it reports round trips per second with {@code --concurrency} calls in flight, and the
+ * round-trip distribution of one call every {@code --probe-ms} (the heartbeat jitter). The load is
+ * {@code --load-writers} clients writing {@code --load-chunk-mb} MB chunks with {@code ack=all}.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.example.dfs.bench.RpcLatency --nodes=3 --load-writers=4 --load-chunk-mb=16
+ * </pre>
+ */
+public final class RpcLatency {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    private static final String FILE = "rpc";
+    private static final long MAX_LATENCY_MICROS = Duration.ofMinutes(1).toNanos() / 1000;
+
+    static {
+        DEFAULTS.put("nodes", "3");
+        DEFAULTS.put("concurrency", "16");
+        DEFAULTS.put("probe-ms", "50");
+        DEFAULTS.put("load-writers", "4");
+        DEFAULTS.put("load-chunk-mb", "8");
+        DEFAULTS.put("duration-s", "15");
+        DEFAULTS.put("data-dir", "");
+        DEFAULTS.put("out", "rpc-results.json");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args, DEFAULTS);
+        Path dataDir = options.dataDir("dfs-rpc");
+        List<Map<String, Object>> runs = new ArrayList<>();
+        try {
+            for (int nodes : options.ints("nodes")) {
+                try (BenchCluster cluster = new BenchCluster(dataDir.resolve("n" + nodes), nodes, options.nodeProperties(Map.of()))) {
+                    String leader = cluster.awaitLeader(FILE);
+                    String follower = cluster.urls().stream().filter(u -> !u.equals(leader)).findFirst().orElseThrow();
+                    for (boolean loaded : new boolean[]{false, true}) {
+                        Map<String, Object> run = phase(options, cluster, leader, follower, loaded);
+                        run.put("nodes", nodes);
+                        runs.add(run);
+                        Map<?, ?> probe = (Map<?, ?>) run.get("probeMicros");
+                        System.out.printf("nodes=%d %-6s: %.0f round trips/s; probe p50 %dus p99 %dus max %dus stddev %.0fus%n",
+                                nodes, run.get("phase"), run.get("roundTripsPerSecond"),
+                                probe.get("p50"), probe.get("p99"), probe.get("max"), probe.get("stdDev"));
+                    }
+                }
+            }
+        } finally {
+            options.deleteDataDir(dataDir);
+        }
+        options.writeReport(runs);
+        System.exit(0);
+    }
+
+    private static Map<String, Object> phase(Options options, BenchCluster cluster, String leader, String follower,
+                                             boolean loaded) throws Exception {
+        RpcClient rpc = cluster.bean(leader, RpcClient.class);
+        String url = follower + "/rpc/raft/requestVote";
+        long durationNanos = Duration.ofSeconds(options.getLong("duration-s")).toNanos();
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder loadBytes = new LongAdder();
+        List<Thread> writers = new ArrayList<>();
+        if (loaded) {
+            byte[] chunk = new byte[options.getInt("load-chunk-mb") << 20];
+            new Random(4).nextBytes(chunk);
+            HttpClient http = BenchCluster.client();
+            for (int w = 0; w < options.getInt("load-writers"); w++) {
+                int id = w;
+                Thread t = new Thread(() -> write(http, leader, chunk, id, stop, loadBytes), "load-" + w);
+                t.start();
+                writers.add(t);
+            }
+            // let the transfers get going
+            Thread.sleep(1000);
+        }
+
+        double loadBytesBefore = loadBytes.sum();
+        Histogram probes = new Histogram(MAX_LATENCY_MICROS, 3);
+        long probeNanos = TimeUnit.MILLISECONDS.toNanos(options.getLong("probe-ms"));
+        long until = System.nanoTime() + durationNanos / 2;
+        for (long next = System.nanoTime(); next < until; next += probeNanos) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) Thread.sleep(Duration.ofNanos(wait));
+            long start = System.nanoTime();
+            try {
+                rpc.post(url, probe(), RequestVoteResponse.class, RaftCodec.INSTANCE).get(10, TimeUnit.SECONDS);
+                probes.recordValue(Math.min(MAX_LATENCY_MICROS, Math.max(1, (System.nanoTime() - start) / 1000)));
+            } catch (Exception e) {
+                probes.recordValue(MAX_LATENCY_MICROS);
+            }
+        }
+
+        // closed loop: a new call as soon as one returns
+        int concurrency = options.getInt("concurrency");
+        Semaphore slots = new Semaphore(concurrency);
+        AtomicLong done = new AtomicLong(), failed = new AtomicLong();
+        long start = System.nanoTime();
+        until = start + durationNanos / 2;
+        while (System.nanoTime() < until) {
+            if (!slots.tryAcquire(100, TimeUnit.MILLISECONDS)) continue;
+            rpc.post(url, probe(), RequestVoteResponse.class, RaftCodec.INSTANCE).whenComplete((r, err) -> {
+                (err == null ? done : failed).incrementAndGet();
+                slots.release();
+            });
+        }
+        slots.acquire(concurrency);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        stop.set(true);
+        for (Thread t : writers) t.join();
+        double phaseSeconds = durationNanos / 1e9;
+
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("phase", loaded ? "loaded" : "idle");
+        run.put("roundTripsPerSecond", done.get() / seconds);
+        run.put("failedRoundTrips", failed.get());
+        Map<String, Object> micros = new LinkedHashMap<>();
+        micros.put("count", probes.getTotalCount());
+        micros.put("p50", probes.getValueAtPercentile(50));
+        micros.put("p99", probes.getValueAtPercentile(99));
+        micros.put("max", probes.getMaxValue());
+        micros.put("mean", probes.getMean());
+        micros.put("stdDev", probes.getStdDeviation());
+        run.put("probeMicros", micros);
+        run.put("loadMBps", (loadBytes.sum() - loadBytesBefore) / (1 << 20) / phaseSeconds);
+        // the leader's view of its followers' heartbeat answers, for comparison
+        run.put("failureDetector", cluster.bean(leader, FailureDetector.class).stats());
+        return run;
+    }
+
+    private static RequestVoteRequest probe() {
+        RequestVoteRequest req = new RequestVoteRequest();
+        req.candidateId = "bench";
+        return req;
+    }
+
+    private static void write(HttpClient http, String leader, byte[] chunk, int writer, AtomicBoolean stop, LongAdder bytes) {
+        for (int i = 0; !stop.get(); i++) {
+            // a handful of ids per writer, so the disk does not fill up
+            URI uri = URI.create(leader + "/files/" + FILE + "/chunks/w" + writer + "-" + i % 4 + "?ack=all");
+            try {
+                HttpResponse<Void> response = http.send(HttpRequest.newBuilder(uri)
+                        .header("Content-Type", "application/octet-stream")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(chunk)).build(), HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() == 200) bytes.add(chunk.length);
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) return;
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.model.AppendEntriesRequest;
+import com.example.dfs.model.AppendEntriesResponse;
+import com.example.dfs.model.InstallSnapshotRequest;
+import com.example.dfs.model.InstallSnapshotResponse;
+import com.example.dfs.model.LogEntry;
+import com.example.dfs.model.ReadIndexRequest;
+import com.example.dfs.model.ReadIndexResponse;
+import com.example.dfs.model.RequestVoteRequest;
+import com.example.dfs.model.RequestVoteResponse;
+import com.example.dfs.model.TimeoutNowRequest;
+import com.example.dfs.model.TimeoutNowResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Appending a command until it commits ({@link RaftNode#appendCommandAsync}, which appendCommand
+ * waits on) in a group of {@code members} nodes wired together in-process, without HTTP, under the
+ * log fsync policy {@code sync}. In this package because the RaftNode constructor is package-private.
+ * {@code append} is one caller waiting for each commit; {@code appendConcurrent} has many callers,
+ * whose commands the leader batches. {@code entry} forces the log after every append and
+ * {@code group} once per batch of appends since the previous force, so the two {@code
+ * appendConcurrent} rows give group commit's gain; {@code none} is the bound without fsync.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RaftAppendBenchmark {
+    private static final String COMMAND = "@0191c2d3e4f50001:WRITE:bench:0:1048576:8c2f1a7e";
+
+    @Param({"1", "3"})
+    int members;
+
+    @Param({"group", "entry", "none"})
+    String sync;
+
+    private final Map<String, RaftNode> nodes = new ConcurrentHashMap<>();
+    private Path dir;
+    private RaftNode leader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("dfs-raft-bench");
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i <= members; i++) ids.add("n" + i);
+        for (String id : ids) {
+            List<String> peers = new ArrayList<>(ids);
+            peers.remove(id);
+            StandardEnvironment env = new StandardEnvironment();
+            env.getPropertySources().addFirst(new MapPropertySource("bench", Map.of(
+                    "node.id", id,
+                    "node.peers", String.join(",", peers),
+                    "raft.log.dir", dir.resolve(id).toString(),
+                    "raft.log.sync", sync,
+                    // measure appends, not snapshotting
+                    "raft.snapshot.threshold", Long.toString(Long.MAX_VALUE))));
+            RaftNode node = new RaftNode(env, new InProcessTransport());
+            node.setStateMachine(new NoopStateMachine());
+            nodes.put(id, node);
+        }
+        nodes.values().forEach(RaftNode::start);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (leader == null) {
+            if (System.currentTimeMillis() > deadline) throw new IllegalStateException("no leader elected");
+            Thread.sleep(20);
+            leader = nodes.values().stream().filter(n -> n.getRole() == RaftNode.Role.LEADER).findFirst().orElse(null);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        nodes.values().forEach(RaftNode::stop);
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Long append() {
+        return leader.appendCommandAsync(COMMAND).join();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Long appendConcurrent() {
+        return leader.appendCommandAsync(COMMAND).join();
+    }
+
+    // Delivers straight to the peer's handlers; the async ones run on the peer's loop.
+    private class InProcessTransport implements RaftTransport {
+        @Override
+        public CompletableFuture<AppendEntriesResponse> appendEntries(String peer, AppendEntriesRequest req) {
+            return nodes.get(peer).appendEntriesAsync(req);
+        }
+
+        @Override
+        public CompletableFuture<RequestVoteResponse> requestVote(String peer, RequestVoteRequest req) {
+            return CompletableFuture.supplyAsync(() -> nodes.get(peer).handleRequestVote(req));
+        }
+
+        @Override
+        public CompletableFuture<InstallSnapshotResponse> installSnapshot(String peer, InstallSnapshotRequest req) {
+            return CompletableFuture.supplyAsync(() -> nodes.get(peer).handleInstallSnapshot(req));
+        }
+
+        @Override
+        public CompletableFuture<ReadIndexResponse> readIndex(String peer, ReadIndexRequest req) {
+            return CompletableFuture.supplyAsync(() -> nodes.get(peer).handleReadIndex(req));
+        }
+
+        @Override
+        public CompletableFuture<TimeoutNowResponse> timeoutNow(String peer, TimeoutNowRequest req) {
+            return CompletableFuture.supplyAsync(() -> nodes.get(peer).handleTimeoutNow(req));
+        }
+    }
+
+    private static class NoopStateMachine implements RaftStateMachine {
+        @Override
+        public void apply(LogEntry entry) {
+        }
+
+        @Override
+        public SnapshotWriter captureSnapshot() {
+            return OutputStream::flush;
+        }
+
+        @Override
+        public void restoreSnapshot(InputStream in) {
+        }
+    }
+}
@@ -2,10 +2,20 @@ package com.example.dfs.config;
 
 import com.example.dfs.ft.FailureDetector;
 import com.example.dfs.ft.ReplicationManager;
+import com.example.dfs.metrics.Metrics;
+import com.example.dfs.metrics.TrafficFilter;
+import com.example.dfs.net.ClockFilter;
+import com.example.dfs.net.RpcClient;
+import com.example.dfs.net.RpcServer;
+import com.example.dfs.raft.RaftGroups;
+import com.example.dfs.time.HybridLogicalClock;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 
@@ -15,14 +25,89 @@ public class BeanConfig {
     @Value("${node.peers:}")
     private String peersCsv;
 
+    @Bean(destroyMethod = "stop")
+    public FailureDetector failureDetector(RaftGroups groups,
+                                           @Value("${failure-detector.phi-threshold:8}") double threshold,
+                                           @Value("${failure-detector.window:200}") int window,
+                                           @Value("${raft.heartbeat-ms:150}") long heartbeatMs,
+                                           @Value("${failure-detector.min-std-dev-ms:100}") long minStdDevMs,
+                                           @Value("${failure-detector.acceptable-pause-ms:500}") long acceptablePauseMs,
+                                           @Value("${failure-detector.check-interval-ms:100}") long checkIntervalMs) {
+        FailureDetector detector = new FailureDetector(threshold, window, heartbeatMs, minStdDevMs, acceptablePauseMs, checkIntervalMs);
+        // peers are judged by how they answer the heartbeats of the groups led here
+        groups.all().forEach(node -> node.setPeerMonitor(detector));
+        return detector;
+    }
+
+    @Bean
+    public Metrics metrics(@Value("${metrics.enabled:true}") boolean enabled,
+                           @Value("${metrics.jfr.enabled:false}") boolean jfr) {
+        return new Metrics(enabled, jfr);
+    }
+
+    @Bean
+    public HybridLogicalClock hybridLogicalClock(Metrics metrics,
+                                                 @Value("${hlc.max-offset-ms:500}") long maxOffsetMs) {
+        HybridLogicalClock clock = new HybridLogicalClock(maxOffsetMs);
+        // how far peers (or a wall clock that stepped back) have pushed the clock past this node's wall clock
+        metrics.gauge("dfs_hlc_ahead_seconds", "Hybrid logical clock ahead of the local wall clock",
+                () -> Math.max(0, HybridLogicalClock.physicalMillis(clock.current()) - System.currentTimeMillis()) / 1e3);
+        metrics.counter("dfs_hlc_rejected_total", "Remote timestamps rejected for being too far ahead", clock::rejected);
+        return clock;
+    }
+
+    // Only node-to-node endpoints carry the caller's clock; client requests cannot move it.
     @Bean
-    public FailureDetector failureDetector() {
-        return new FailureDetector(5000); // 5s timeout
+    public FilterRegistrationBean<ClockFilter> clockFilter(HybridLogicalClock clock) {
+        FilterRegistrationBean<ClockFilter> reg = new FilterRegistrationBean<>(new ClockFilter(clock));
+        reg.addUrlPatterns(ClockFilter.INTERNAL_PATHS);
+        return reg;
     }
 
     @Bean
-    public ReplicationManager replicationManager() {
+    public FilterRegistrationBean<TrafficFilter> trafficFilter(Metrics metrics) {
+        FilterRegistrationBean<TrafficFilter> reg = new FilterRegistrationBean<>(new TrafficFilter(metrics));
+        reg.setEnabled(metrics.enabled());
+        return reg;
+    }
+
+    @Bean(destroyMethod = "close")
+    public RpcClient rpcClient(HybridLogicalClock clock, Metrics metrics,
+                               @Value("${rpc.connect-timeout-ms:1000}") long connectTimeoutMs,
+                               @Value("${rpc.request-timeout-ms:2000}") long requestTimeoutMs,
+                               @Value("${rpc.bulk-timeout-ms:60000}") long bulkTimeoutMs,
+                               @Value("${rpc.max-control-per-peer:16}") int maxControlPerPeer,
+                               @Value("${rpc.max-bulk-per-peer:4}") int maxBulkPerPeer) {
+        RpcClient rpc = new RpcClient(Duration.ofMillis(connectTimeoutMs), Duration.ofMillis(requestTimeoutMs),
+                Duration.ofMillis(bulkTimeoutMs), maxControlPerPeer, maxBulkPerPeer);
+        // every internal call carries this node's hybrid logical time both ways
+        rpc.setClock(clock);
+        rpc.setMetrics(metrics);
+        return rpc;
+    }
+
+    @Bean
+    public ServletRegistrationBean<RpcServer> rpcServer(RaftGroups groups) {
+        ServletRegistrationBean<RpcServer> reg = new ServletRegistrationBean<>(new RpcServer(groups), "/rpc/raft/*");
+        reg.setLoadOnStartup(1);
+        return reg;
+    }
+
+    @Bean(destroyMethod = "close")
+    public ReplicationManager replicationManager(RpcClient rpc, FailureDetector failureDetector, Metrics metrics,
+                                                 @Value("${replication.default-ack:quorum}") String defaultAck,
+                                                 @Value("${replication.max-attempts:3}") int maxAttempts,
+                                                 @Value("${replication.backoff-ms:100}") long backoffMs,
+                                                 @Value("${replication.max-pending:1024}") int maxPending,
+                                                 @Value("${replication.repair-interval-ms:5000}") long repairIntervalMs,
+                                                 @Value("${replication.mode:fanout}") String mode,
+                                                 @Value("${replication.chain-min-bytes:8388608}") long chainMinBytes) {
         List<String> peers = peersCsv.trim().isEmpty() ? List.of() : Arrays.asList(peersCsv.split(","));
-        return new ReplicationManager(peers);
+        // fanout: the leader sends every replica itself; chain: pipelined through the peers for large chunks
+        ReplicationManager manager = new ReplicationManager(peers, rpc, ReplicationManager.AckLevel.parse(defaultAck),
+                maxAttempts, backoffMs, maxPending, repairIntervalMs, "chain".equalsIgnoreCase(mode) ? chainMinBytes : -1);
+        manager.setFailureDetector(failureDetector);
+        manager.setMetrics(metrics);
+        return manager;
     }
 }
@@ -1,9 +1,14 @@
 package com.example.dfs.config;
 
+import com.example.dfs.net.RaftMessageConverter;
+import com.example.dfs.storage.StorageController;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.List;
+
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
@@ -13,8 +18,14 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedOrigins("http://localhost:3000", "http://localhost:3001")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
+                .exposedHeaders(StorageController.CHECKSUM_HEADER, StorageController.VERSION_HEADER)
                 .allowCredentials(true)
                 .maxAge(3600);
     }
-}
 
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // after the defaults, so JSON stays the format for clients that don't ask for binary
+        converters.add(new RaftMessageConverter());
+    }
+}
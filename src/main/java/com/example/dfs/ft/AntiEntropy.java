@@ -0,0 +1,155 @@
+package com.example.dfs.ft;
+
+import com.example.dfs.model.MerkleRequest;
+import com.example.dfs.model.MerkleResponse;
+import com.example.dfs.net.RpcClient;
+import com.example.dfs.storage.MerkleTree;
+import com.example.dfs.storage.StorageService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background anti-entropy between replicas. Replication is fire-and-forget, so a replica can miss
+ * a chunk or keep an old version of it after a failed transfer. Every round this node compares
+ * its {@link MerkleTree} with one peer's, starting at the roots and fetching only the children of
+ * nodes that differ, then the entries of the differing leaves; in-sync replicas cost a single
+ * hash. Chunks whose committed version this node holds and the peer lacks are pushed to it. Each
+ * node only pushes, so the chunks the peer has and this node lacks are fixed by the peer's rounds.
+ */
+@Component
+public class AntiEntropy {
+    private static final Logger logger = LoggerFactory.getLogger(AntiEntropy.class);
+    private static final String PATH = "/files/internal/merkle";
+
+    private final StorageService storage;
+    private final ReplicationManager replication;
+    private final RpcClient rpc;
+    private final int maxRepairsPerRound;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "anti-entropy");
+        t.setDaemon(true);
+        return t;
+    });
+    // scheduler thread only
+    private int nextPeer;
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong inSync = new AtomicLong();
+    private final AtomicLong hashesExchanged = new AtomicLong();
+    private final AtomicLong entriesExchanged = new AtomicLong();
+    private final AtomicLong repairsSent = new AtomicLong();
+    private final AtomicLong repairsFailed = new AtomicLong();
+
+    /** What one round against one peer found. */
+    public record Round(String peer, int differingLeaves, long hashes, long entries, int repairs) {}
+
+    public AntiEntropy(Environment env, StorageService storage, ReplicationManager replication, RpcClient rpc) {
+        this.storage = storage;
+        this.replication = replication;
+        this.rpc = rpc;
+        this.maxRepairsPerRound = env.getProperty("anti-entropy.max-repairs-per-round", Integer.class, 1024);
+        long intervalMs = env.getProperty("anti-entropy.interval-ms", Long.class, 30_000L);
+        // 0 turns the background rounds off; syncWith still works on demand
+        if (intervalMs > 0) scheduler.scheduleWithFixedDelay(this::round, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void round() {
+        List<String> peers = replication.availablePeers();
+        if (peers.isEmpty()) return;
+        String peer = peers.get(Math.floorMod(nextPeer++, peers.size()));
+        try {
+            Round r = syncWith(peer);
+            if (r.repairs() > 0) {
+                logger.info("Anti-entropy with {}: {} differing leaves, {} replicas sent", peer, r.differingLeaves(), r.repairs());
+            }
+        } catch (Exception e) {
+            logger.warn("Anti-entropy with {} failed: {}", peer, e.getMessage());
+        }
+    }
+
+    /** Compares trees with the peer and pushes it the committed replicas it lacks or holds stale. */
+    public Round syncWith(String peer) throws Exception {
+        rounds.incrementAndGet();
+        MerkleTree tree = storage.merkleTree();
+        int depth = tree.depth();
+        long hashes = 0;
+        int[] nodes = {0};
+        for (int level = 0; ; level++) {
+            MerkleResponse theirs = exchange(peer, level, nodes, false);
+            if (theirs.depth != depth) throw new IllegalStateException(peer + " has a Merkle tree of depth " + theirs.depth + ", not " + depth);
+            hashes += nodes.length;
+            long[] mine = tree.hashes(level, nodes);
+            List<Integer> differing = new ArrayList<>();
+            for (int i = 0; i < nodes.length; i++) if (mine[i] != theirs.hashes[i]) differing.add(nodes[i]);
+            if (differing.isEmpty()) {
+                inSync.incrementAndGet();
+                hashesExchanged.addAndGet(hashes);
+                return new Round(peer, 0, hashes, 0, 0);
+            }
+            if (level == depth) {
+                nodes = differing.stream().mapToInt(Integer::intValue).toArray();
+                break;
+            }
+            nodes = new int[differing.size() * MerkleTree.FANOUT];
+            for (int i = 0; i < differing.size(); i++) {
+                for (int c = 0; c < MerkleTree.FANOUT; c++) nodes[i * MerkleTree.FANOUT + c] = differing.get(i) * MerkleTree.FANOUT + c;
+            }
+        }
+        hashesExchanged.addAndGet(hashes);
+
+        Map<String, Integer> theirs = exchange(peer, depth, nodes, true).entries;
+        entriesExchanged.addAndGet(theirs.size());
+        int repairs = 0;
+        for (int leaf : nodes) {
+            for (Map.Entry<String, Integer> e : tree.entries(leaf).entrySet()) {
+                if (e.getValue().equals(theirs.get(e.getKey()))) continue;
+                if (repairs >= maxRepairsPerRound) break;
+                int slash = e.getKey().indexOf('/');
+                CompletableFuture<Void> sent = storage.repairReplica(peer, e.getKey().substring(0, slash), e.getKey().substring(slash + 1));
+                if (sent == null) continue;
+                repairs++;
+                repairsSent.incrementAndGet();
+                sent.whenComplete((v, err) -> {
+                    if (err != null) repairsFailed.incrementAndGet();
+                });
+            }
+        }
+        return new Round(peer, nodes.length, hashes, theirs.size(), repairs);
+    }
+
+    private MerkleResponse exchange(String peer, int level, int[] nodes, boolean entries) {
+        MerkleRequest req = new MerkleRequest();
+        req.level = level;
+        req.nodes = nodes;
+        req.entries = entries;
+        return rpc.post(peer + PATH, req, MerkleResponse.class).join();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        MerkleTree tree = storage.merkleTree();
+        m.put("trackedChunks", tree.size());
+        m.put("root", String.format("%016x", tree.root()));
+        m.put("rounds", rounds.get());
+        m.put("roundsInSync", inSync.get());
+        m.put("hashesExchanged", hashesExchanged.get());
+        m.put("entriesExchanged", entriesExchanged.get());
+        m.put("repairsSent", repairsSent.get());
+        m.put("repairsFailed", repairsFailed.get());
+        return m;
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+}
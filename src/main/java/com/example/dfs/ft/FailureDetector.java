@@ -1,38 +1,219 @@
 package com.example.dfs.ft;
 
+import com.example.dfs.raft.RaftNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
-import java.time.Instant;
-import java.util.Map;
+
+import java.time.Duration;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
-public class FailureDetector {
-    private final Map<String, Long> lastHeartbeat = new ConcurrentHashMap<>();
-    private final long timeoutMs;
-    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+/**
+ * Phi-accrual failure detector (Hayashibara et al.), fed by the Raft leaders: every heartbeat a
+ * leader sends is an expected answer, and every answer to any of its requests is an arrival. For
+ * each peer it keeps a window of intervals between arrivals; phi is -log10 of the chance that an
+ * answer comes this late under a normal distribution fitted to them, so a peer with jittery
+ * answers gets more slack than one that answers like clockwork. A peer is suspected once phi
+ * crosses the threshold. Only peers that are expected to answer are judged: a node that stops
+ * leading stops hearing from its followers without any of them having failed.
+ */
+public class FailureDetector implements RaftNode.PeerMonitor {
     private static final Logger logger = LoggerFactory.getLogger(FailureDetector.class);
+    // without a heartbeat for this long a peer is no longer watched, and timing restarts when it is again
+    private static final long WATCH_GAP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double threshold;
+    private final int windowSize;
+    private final long heartbeatNanos;
+    private final long minIntervalNanos;
+    private final double minStdDevNanos;
+    private final long acceptablePauseNanos;
+    private final LongSupplier clock;
+    private final Map<String, History> peers = new ConcurrentHashMap<>();
+    private final Set<String> suspected = ConcurrentHashMap.newKeySet();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ThreadPoolTaskScheduler scheduler;
+
+    /** Told when a watched peer crosses the threshold and when it answers again. */
+    public interface Listener {
+        void suspected(String peer, double phi);
+
+        void recovered(String peer);
+    }
 
-    public FailureDetector(long timeoutMs) {
-        this.timeoutMs = timeoutMs;
+    /**
+     * Arrivals closer than half the heartbeat interval to the previous one are not sampled: groups
+     * that coalesce their heartbeats answer together, and busy replication answers far more often
+     * than the heartbeats that silences are judged by. A new peer's window starts out with the
+     * heartbeat interval, give or take a quarter.
+     */
+    public FailureDetector(double threshold, int windowSize, long heartbeatMs, long minStdDevMs,
+                           long acceptablePauseMs, long checkIntervalMs) {
+        this(threshold, windowSize, heartbeatMs, minStdDevMs, acceptablePauseMs, System::nanoTime);
         scheduler.initialize();
-        scheduler.scheduleAtFixedRate(this::check, 2000);
+        scheduler.scheduleAtFixedRate(this::check, Duration.ofMillis(checkIntervalMs));
+    }
+
+    FailureDetector(double threshold, int windowSize, long heartbeatMs, long minStdDevMs,
+                    long acceptablePauseMs, LongSupplier clock) {
+        if (windowSize < 2) throw new IllegalArgumentException("failure-detector.window must be at least 2");
+        this.threshold = threshold;
+        this.windowSize = windowSize;
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMs);
+        this.minIntervalNanos = heartbeatNanos / 2;
+        this.minStdDevNanos = TimeUnit.MILLISECONDS.toNanos(minStdDevMs);
+        this.acceptablePauseNanos = TimeUnit.MILLISECONDS.toNanos(acceptablePauseMs);
+        this.clock = clock;
+        this.scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setThreadNamePrefix("failure-detector-");
+        scheduler.setDaemon(true);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
     }
 
-    public void heartbeat(String nodeId) {
-        lastHeartbeat.put(nodeId, Instant.now().toEpochMilli());
+    @Override
+    public void expect(String peer) {
+        History h = peers.computeIfAbsent(peer, p -> new History(windowSize, heartbeatNanos));
+        long now = clock.getAsLong();
+        synchronized (h) {
+            if (!h.watched || now - h.lastExpected > WATCH_GAP_NANOS) {
+                h.watched = true;
+                // (re)starts timing from now; the silence before says nothing about the peer
+                h.lastArrival = now;
+                h.fresh = true;
+            }
+            h.lastExpected = now;
+        }
     }
 
-    private void check() {
-        long now = Instant.now().toEpochMilli();
-        lastHeartbeat.forEach((node, ts) -> {
-            if (now - ts > timeoutMs) {
-                logger.warn("Node {} suspected failed (last hb {} ms ago)", node, (now - ts));
+    @Override
+    public void answered(String peer) {
+        History h = peers.get(peer);
+        if (h == null) return;
+        long now = clock.getAsLong();
+        synchronized (h) {
+            long interval = now - h.lastArrival;
+            if (h.fresh) {
+                h.fresh = false;
+                h.lastArrival = now;
+            } else if (interval >= minIntervalNanos) {
+                h.add(interval);
+                h.lastArrival = now;
             }
+        }
+    }
+
+    /** Suspicion level of the peer; 0 for peers nobody currently expects an answer from. */
+    public double phi(String peer) {
+        History h = peers.get(peer);
+        if (h == null) return 0;
+        long now = clock.getAsLong();
+        synchronized (h) {
+            if (!h.watched || now - h.lastExpected > WATCH_GAP_NANOS) return 0;
+            double mean = h.mean() + acceptablePauseNanos;
+            double stdDev = Math.max(h.stdDev(), minStdDevNanos);
+            return phi(now - h.lastArrival, mean, stdDev);
+        }
+    }
+
+    // Logistic approximation of the normal CDF (as in Akka), accurate to 1e-4 and cheap to evaluate.
+    static double phi(double elapsed, double mean, double stdDev) {
+        double y = (elapsed - mean) / stdDev;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        return elapsed > mean ? -Math.log10(e / (1.0 + e)) : -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    public boolean isSuspected(String peer) {
+        return suspected.contains(peer);
+    }
+
+    public Set<String> suspected() {
+        return Set.copyOf(suspected);
+    }
+
+    void check() {
+        for (String peer : peers.keySet()) {
+            double phi = phi(peer);
+            if (phi >= threshold) {
+                if (suspected.add(peer)) {
+                    logger.warn("Node {} suspected failed (phi {})", peer, String.format("%.1f", phi));
+                    listeners.forEach(l -> l.suspected(peer, phi));
+                }
+            } else if (suspected.remove(peer)) {
+                // either it answered again, or nobody is waiting for it any more
+                logger.info("Node {} no longer suspected (phi {})", peer, String.format("%.1f", phi));
+                listeners.forEach(l -> l.recovered(peer));
+            }
+        }
+    }
+
+    /** Phi, suspicion and the observed answer interval per peer. */
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new TreeMap<>();
+        peers.forEach((peer, h) -> {
+            Map<String, Object> p = new LinkedHashMap<>();
+            p.put("phi", phi(peer));
+            p.put("suspected", isSuspected(peer));
+            synchronized (h) {
+                p.put("samples", h.count);
+                p.put("meanIntervalMs", h.mean() / 1e6);
+                p.put("stdDevMs", h.stdDev() / 1e6);
+            }
+            m.put(peer, p);
         });
+        return m;
     }
 
     public void stop() {
         scheduler.shutdown();
     }
+
+    // Sliding window of arrival intervals with running sums, guarded by itself.
+    private static final class History {
+        private final long[] intervals;
+        private int next;
+        private int count;
+        private double sum;
+        private double sumSquares;
+        long lastArrival;
+        long lastExpected;
+        boolean watched;
+        boolean fresh;
+
+        History(int size, long estimate) {
+            intervals = new long[size];
+            add(estimate - estimate / 4);
+            add(estimate + estimate / 4);
+        }
+
+        void add(long interval) {
+            if (count == intervals.length) {
+                long old = intervals[next];
+                sum -= old;
+                sumSquares -= (double) old * old;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % intervals.length;
+            sum += interval;
+            sumSquares += (double) interval * interval;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        double stdDev() {
+            if (count == 0) return 0;
+            double mean = mean();
+            return Math.sqrt(Math.max(0, sumSquares / count - mean * mean));
+        }
+    }
 }
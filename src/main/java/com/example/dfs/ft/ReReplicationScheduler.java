@@ -0,0 +1,188 @@
+package com.example.dfs.ft;
+
+import com.example.dfs.metrics.Metrics;
+import com.example.dfs.storage.ErasureCoding;
+import com.example.dfs.storage.StorageService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Restores the redundancy of erasure-coded chunks once the failure detector suspects a node: the
+ * leader of each Raft group finds the chunks in its metadata that have fragments on suspected
+ * nodes, and moves those fragments to healthy nodes, chunks that lost the most fragments first.
+ * Transfers are paced to replication.rebuild.max-bytes-per-sec so rebuilding does not starve
+ * client traffic. Fully replicated chunks live on every node and have no other home to move to;
+ * ReplicationManager catches a peer up on them when it answers again.
+ */
+@Component
+public class ReReplicationScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(ReReplicationScheduler.class);
+
+    private final StorageService storage;
+    private final FailureDetector detector;
+    private final double bytesPerNano;
+    private final long timeoutMs;
+    // scans run here; a scan is cheap and never waits for a transfer
+    private final ScheduledExecutorService scanner = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "rebuild-scanner"));
+    // one relocation at a time, each submission runs the most urgent queued chunk
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> daemon(r, "rebuild-worker"));
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final AtomicLong relocatedFragments = new AtomicLong();
+    private final AtomicLong relocatedBytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Set<String> unrepairable = Set.of();
+    // scanner thread only: when chunks were first found degraded, 0 while none are
+    private long degradedSinceNanos;
+    private long seq;
+    private volatile long degradedChunks;
+    private volatile long lastRestoreMs = -1;
+    // worker thread only: when the bytes sent so far are paid off at the configured rate
+    private long paidUntilNanos;
+
+    private record Task(String fileId, String chunkId, int deficit, long seq) implements Comparable<Task> {
+        @Override
+        public int compareTo(Task o) {
+            // most fragments lost first, then in the order found
+            return deficit != o.deficit ? Integer.compare(o.deficit, deficit) : Long.compare(seq, o.seq);
+        }
+
+        String key() {
+            return fileId + "/" + chunkId;
+        }
+    }
+
+    public ReReplicationScheduler(Environment env, StorageService storage, FailureDetector detector, Metrics metrics) {
+        this.storage = storage;
+        this.detector = detector;
+        this.bytesPerNano = env.getProperty("replication.rebuild.max-bytes-per-sec", Long.class, 64L << 20) / 1e9;
+        this.timeoutMs = env.getProperty("replication.rebuild.timeout-ms", Long.class, 60_000L);
+        long scanIntervalMs = env.getProperty("replication.rebuild.scan-interval-ms", Long.class, 2_000L);
+        detector.addListener(new FailureDetector.Listener() {
+            @Override
+            public void suspected(String peer, double phi) {
+                scanner.execute(ReReplicationScheduler.this::scan);
+            }
+
+            @Override
+            public void recovered(String peer) {
+            }
+        });
+        metrics.gauge("dfs_rebuild_queued", "Degraded chunks queued for fragment relocation", queued::size);
+        metrics.counter("dfs_rebuild_sent_bytes_total", "Fragment bytes relocated to healthy nodes", relocatedBytes::get);
+        // catches chunks written or groups taken over while a node is down, and retries failures
+        scanner.scheduleWithFixedDelay(this::scan, scanIntervalMs, scanIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private void scan() {
+        try {
+            Set<String> suspected = detector.suspected();
+            List<ErasureCoding.Layout> degraded = suspected.isEmpty() ? List.of() : storage.layoutsOn(suspected);
+            degradedChunks = degraded.size();
+            if (degraded.isEmpty()) {
+                if (degradedSinceNanos != 0 && queued.isEmpty()) {
+                    lastRestoreMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - degradedSinceNanos);
+                    degradedSinceNanos = 0;
+                    logger.info("Full redundancy restored {} ms after the first degraded chunk was found", lastRestoreMs);
+                }
+                unrepairable = Set.of();
+                return;
+            }
+            if (degradedSinceNanos == 0) degradedSinceNanos = System.nanoTime();
+            Set<String> lost = new HashSet<>();
+            for (ErasureCoding.Layout l : degraded) {
+                Task t = new Task(l.fileId(), l.chunkId(), deficit(l, suspected), seq++);
+                if (t.deficit > l.policy().parityShards()) {
+                    if (!unrepairable.contains(t.key())) logger.error("Chunk {} lost {} fragments, more than parity can rebuild", t.key(), t.deficit);
+                    lost.add(t.key());
+                } else if (queued.add(t.key())) {
+                    queue.add(t);
+                    worker.execute(this::runNext);
+                }
+            }
+            unrepairable = Set.copyOf(lost);
+        } catch (Exception e) {
+            logger.warn("Re-replication scan failed: {}", e.getMessage());
+        }
+    }
+
+    private static int deficit(ErasureCoding.Layout layout, Set<String> suspected) {
+        int n = 0;
+        for (String node : layout.nodes()) if (suspected.contains(node)) n++;
+        return n;
+    }
+
+    private void runNext() {
+        Task t = queue.poll();
+        if (t == null) return;
+        try {
+            // the layout, leadership and suspicions may all have changed since the scan
+            ErasureCoding.Layout layout = storage.layout(t.fileId, t.chunkId);
+            if (layout == null || !storage.leads(t.fileId)) return;
+            Set<String> lost = new HashSet<>(layout.nodes());
+            lost.retainAll(detector.suspected());
+            if (lost.isEmpty() || lost.size() > layout.policy().parityShards()) return;
+            // k fragments are read to rebuild, the lost ones are sent
+            long bytes = layout.fragmentBytes() * (layout.policy().dataShards() + lost.size());
+            pace(bytes);
+            ErasureCoding.Layout moved = storage.relocateFragments(layout, lost).get(timeoutMs, TimeUnit.MILLISECONDS);
+            if (moved != null) {
+                relocatedFragments.addAndGet(lost.size());
+                relocatedBytes.addAndGet(bytes);
+                logger.info("Moved {} fragment(s) of {} off {}", lost.size(), t.key(), lost);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // left for the next scan
+            failures.incrementAndGet();
+            logger.warn("Could not move fragments of {}: {}", t.key(), e instanceof ExecutionException ? e.getCause() : e.getMessage());
+        } finally {
+            queued.remove(t.key());
+            if (queued.isEmpty()) scanner.execute(this::scan);
+        }
+    }
+
+    // Waits until the bytes sent before are paid off at the configured rate, then books these.
+    private void pace(long bytes) throws InterruptedException {
+        long now = System.nanoTime();
+        if (paidUntilNanos > now) TimeUnit.NANOSECONDS.sleep(paidUntilNanos - now);
+        paidUntilNanos = Math.max(paidUntilNanos, now) + (long) (bytes / bytesPerNano);
+    }
+
+    /** Milliseconds from finding degraded chunks to having none left, for the latest failure; -1 before any. */
+    public long lastRestoreMs() {
+        return lastRestoreMs;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("degradedChunks", degradedChunks);
+        m.put("queued", queued.size());
+        m.put("unrepairable", unrepairable.size());
+        m.put("relocatedFragments", relocatedFragments.get());
+        m.put("relocatedBytes", relocatedBytes.get());
+        m.put("failures", failures.get());
+        m.put("lastRestoreMs", lastRestoreMs);
+        return m;
+    }
+
+    @PreDestroy
+    public void stop() {
+        scanner.shutdownNow();
+        worker.shutdownNow();
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.dfs.ft;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/replication")
+public class ReplicationController {
+    private final ReplicationManager replication;
+    private final FailureDetector failureDetector;
+    private final ReReplicationScheduler reReplication;
+    private final AntiEntropy antiEntropy;
+
+    public ReplicationController(ReplicationManager replication, FailureDetector failureDetector,
+                                 ReReplicationScheduler reReplication, AntiEntropy antiEntropy) {
+        this.replication = replication;
+        this.failureDetector = failureDetector;
+        this.reReplication = reReplication;
+        this.antiEntropy = antiEntropy;
+    }
+
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("pending", replication.pendingReplicas());
+        m.put("repairBacklog", replication.repairBacklog());
+        m.put("skippedTransfers", replication.skippedTransfers());
+        m.put("peers", replication.peerStats());
+        m.put("failureDetector", failureDetector.stats());
+        m.put("rebuild", reReplication.stats());
+        m.put("antiEntropy", antiEntropy.stats());
+        return m;
+    }
+}
@@ -1,28 +1,571 @@
 package com.example.dfs.ft;
 
+import com.example.dfs.metrics.Counter;
+import com.example.dfs.metrics.Metrics;
+import com.example.dfs.metrics.Timer;
+import com.example.dfs.net.RpcClient;
+import com.example.dfs.storage.ChunkStore;
+import com.example.dfs.storage.StorageController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.client.RestTemplate;
-import java.util.List;
 
-public class ReplicationManager {
-    private final List<String> peers;
-    private final RestTemplate rest = new RestTemplate();
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpResponse;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Pushes stored chunks to the peers. All peers are sent to in parallel over the shared
+ * {@link RpcClient}; the returned future completes as soon as the requested {@link AckLevel}
+ * is reached. Failed sends are retried with exponential backoff, and replicas that still fail
+ * are parked in a repair queue that is retried in the background. Peers the failure detector
+ * suspects are not sent to at all; their replicas go straight to the repair queue, which is
+ * swept as soon as the peer answers again.
+ */
+public class ReplicationManager implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(ReplicationManager.class);
 
-    public ReplicationManager(List<String> peers) {
+    public enum AckLevel {
+        LEADER, QUORUM, ALL;
+
+        public static AckLevel parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final List<String> peers;
+    private final RpcClient rpc;
+    private final AckLevel defaultAck;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final int maxPending;
+    private final long chainMinBytes;
+    // one thread only schedules retries and repair sweeps; the sends themselves are async
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "replication-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong skippedTransfers = new AtomicLong();
+    private final Map<String, Replica> repairs = new ConcurrentHashMap<>();
+    private final Map<String, PeerStats> stats = new ConcurrentHashMap<>();
+    private volatile FailureDetector detector;
+
+    public ReplicationManager(List<String> peers, RpcClient rpc, AckLevel defaultAck,
+                              int maxAttempts, long backoffMs, int maxPending, long repairIntervalMs) {
+        this(peers, rpc, defaultAck, maxAttempts, backoffMs, maxPending, repairIntervalMs, -1);
+    }
+
+    /** {@code chainMinBytes} >= 0 enables chain replication for chunks at least that large. */
+    public ReplicationManager(List<String> peers, RpcClient rpc, AckLevel defaultAck,
+                              int maxAttempts, long backoffMs, int maxPending, long repairIntervalMs, long chainMinBytes) {
         this.peers = peers;
+        this.rpc = rpc;
+        this.defaultAck = defaultAck;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = backoffMs;
+        this.maxPending = maxPending;
+        this.chainMinBytes = chainMinBytes;
+        for (String p : peers) stats.put(p, new PeerStats());
+        scheduler.scheduleWithFixedDelay(this::repair, repairIntervalMs, repairIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void setFailureDetector(FailureDetector detector) {
+        this.detector = detector;
+        detector.addListener(new FailureDetector.Listener() {
+            @Override
+            public void suspected(String peer, double phi) {
+            }
+
+            @Override
+            public void recovered(String peer) {
+                // catch the peer up now rather than at the next sweep
+                scheduler.execute(ReplicationManager.this::repair);
+            }
+        });
+    }
+
+    /** Exports per-peer transfer latency and bytes, and the transfer backlog. */
+    public void setMetrics(Metrics metrics) {
+        stats.forEach((peer, s) -> {
+            s.latency = metrics.timer("dfs_replication_seconds", "Replica transfer to a peer, chains timed to their first hop", "peer", peer);
+            s.bytes = metrics.counter("dfs_replication_sent_bytes_total", "Replica bytes sent to a peer, retries included", "peer", peer);
+        });
+        metrics.gauge("dfs_replication_pending", "Replica transfers in flight or waiting for a retry", this::pendingReplicas);
+        metrics.gauge("dfs_replication_repair_backlog", "Replicas waiting for the repair sweep", this::repairBacklog);
+        metrics.counter("dfs_replication_skipped_total", "Transfers skipped because the peer already held the chunk", this::skippedTransfers);
+    }
+
+    private boolean suspected(String peer) {
+        FailureDetector d = detector;
+        return d != null && d.isSuspected(peer);
+    }
+
+    public CompletableFuture<Void> replicateChunk(String fileId, String chunkId, Supplier<ChunkStore.Location> chunk, int crc32c) {
+        return replicateChunk(fileId, chunkId, chunk, crc32c, null);
+    }
+
+    /**
+     * Sends the chunk to every peer. Completes once enough peers hold it for {@code ack}
+     * ({@code null} means the configured default), or fails with {@link ReplicationException}
+     * once that can no longer happen. Sends keep going in the background either way.
+     * {@code chunk} is asked for the chunk's current location before every send, since packed
+     * chunks move when their volume is compacted; {@code null} means the chunk is gone.
+     */
+    public CompletableFuture<Void> replicateChunk(String fileId, String chunkId, Supplier<ChunkStore.Location> chunk, int crc32c, AckLevel ack) {
+        Acks acks = new Acks(fileId + "/" + chunkId, requiredAcks(ack == null ? defaultAck : ack), peers.size());
+        send(fileId, chunkId, chunk, crc32c, peers, acks);
+        return acks.result;
+    }
+
+    /**
+     * Like {@link #replicateChunk} for chunks whose id names their content (deduplicated chunks are
+     * stored under their hash): each peer is first asked whether it already holds the chunk, and
+     * only the peers that don't are sent the bytes.
+     */
+    public CompletableFuture<Void> replicateIfMissing(String fileId, String chunkId, Supplier<ChunkStore.Location> chunk,
+                                                      int crc32c, AckLevel ack) {
+        Acks acks = new Acks(fileId + "/" + chunkId, requiredAcks(ack == null ? defaultAck : ack), peers.size());
+        List<CompletableFuture<Boolean>> probes = new ArrayList<>(peers.size());
+        for (String peer : peers) {
+            // a failed probe counts as missing; the send then fails too and goes through retry and repair
+            probes.add(rpc.exists(replicaUrl(peer, fileId, chunkId)).exceptionally(err -> false));
+        }
+        CompletableFuture.allOf(probes.toArray(CompletableFuture[]::new)).thenRun(() -> {
+            List<String> missing = new ArrayList<>();
+            for (int i = 0; i < peers.size(); i++) {
+                if (probes.get(i).join()) {
+                    skippedTransfers.incrementAndGet();
+                    acks.ack();
+                } else {
+                    missing.add(peers.get(i));
+                }
+            }
+            if (!missing.isEmpty()) send(fileId, chunkId, chunk, crc32c, missing, acks);
+        });
+        return acks.result;
+    }
+
+    private void send(String fileId, String chunkId, Supplier<ChunkStore.Location> chunk, int crc32c, List<String> targets, Acks acks) {
+        List<String> chained = targets.stream().filter(p -> !suspected(p)).toList();
+        if (useChain(chunk.get(), chained)) {
+            // a suspected peer would only break the chain; fanOut parks it
+            replicateChain(fileId, chunkId, chunk, crc32c, chained, acks);
+            for (String peer : targets) {
+                if (!chained.contains(peer)) fanOut(new Replica(peer, fileId, chunkId, chunk, crc32c, null), acks);
+            }
+        } else {
+            for (String peer : targets) fanOut(new Replica(peer, fileId, chunkId, chunk, crc32c, null), acks);
+        }
+    }
+
+    private static String replicaUrl(String peer, String fileId, String chunkId) {
+        return peer + "/files/internal/replicate/" + fileId + "/chunks/" + chunkId;
+    }
+
+    /** A chunk for one peer; {@code onDelivered} runs once the peer has it, e.g. to drop the local copy. */
+    public record HandOff(String peer, String chunkId, Supplier<ChunkStore.Location> chunk, int crc32c, Runnable onDelivered) {}
+
+    /**
+     * Sends each file to its own peer (erasure-coded fragments rather than full replicas), with
+     * the same retries and repair queue as replicas. Completes once {@code requiredAcks} of them
+     * are delivered, or fails with {@link ReplicationException} once that can no longer happen.
+     */
+    public CompletableFuture<Void> handOff(String fileId, List<HandOff> sends, int requiredAcks) {
+        Acks acks = new Acks(fileId + " fragments", requiredAcks, sends.size());
+        for (HandOff h : sends) fanOut(new Replica(h.peer(), fileId, h.chunkId(), h.chunk(), h.crc32c(), h.onDelivered()), acks);
+        return acks.result;
+    }
+
+    /** Sends one chunk to one peer, with the same retries and repair queue as replicas. */
+    public CompletableFuture<Void> sendTo(String peer, String fileId, String chunkId, Supplier<ChunkStore.Location> chunk, int crc32c) {
+        Acks acks = new Acks(fileId + "/" + chunkId, 1, 1);
+        fanOut(new Replica(peer, fileId, chunkId, chunk, crc32c, null), acks);
+        return acks.result;
+    }
+
+    private void fanOut(Replica r, Acks acks) {
+        if (pending.get() >= maxPending || suspected(r.peer)) {
+            // shed load: don't pile more transfers onto the peers (or wait out retries against a
+            // peer that is probably down), let repair pick it up later
+            park(r);
+            acks.fail();
+            return;
+        }
+        pending.incrementAndGet();
+        sendWithRetry(r, 1).whenComplete((v, err) -> {
+            pending.decrementAndGet();
+            if (err == null) acks.ack();
+            else acks.fail();
+        });
+    }
+
+    private boolean useChain(ChunkStore.Location loc, List<String> targets) {
+        return chainMinBytes >= 0 && targets.size() >= 2 && loc != null && loc.length() >= chainMinBytes;
+    }
+
+    // Leader -> first peer -> ... -> last peer, each hop forwarding while it is still receiving,
+    // so the leader sends the chunk once instead of once per peer. The first hop reports how many
+    // consecutive peers stored it; peers behind a broken link are sent to directly instead.
+    private void replicateChain(String fileId, String chunkId, Supplier<ChunkStore.Location> chunk, int crc32c,
+                                List<String> targets, Acks acks) {
+        // rotate the chain per chunk so the first-hop (2x traffic) role is spread over the peers
+        int start = Math.floorMod(chunkId.hashCode() ^ fileId.hashCode(), targets.size());
+        List<String> chain = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++) chain.add(targets.get((start + i) % targets.size()));
+
+        String first = chain.get(0);
+        String url = replicaUrl(first, fileId, chunkId);
+        Map<String, String> headers = Map.of(
+                "Content-Type", "application/octet-stream",
+                StorageController.CHECKSUM_HEADER, String.format("%08x", crc32c),
+                StorageController.CHAIN_HEADER, String.join(",", chain.subList(1, chain.size())));
+        PeerStats s = stats.get(first);
+        long startNanos = System.nanoTime();
+        pending.incrementAndGet();
+        postChunk(url, chunk, headers, s).whenComplete((resp, err) -> {
+            pending.decrementAndGet();
+            int stored = 0;
+            if (err == null) {
+                s.record(System.nanoTime() - startNanos);
+                stored = Math.min(chain.size(), replicaCount(resp));
+            } else {
+                s.failed.incrementAndGet();
+                logger.warn("Chain replication of {}/{} via {} failed, sending directly: {}", fileId, chunkId, first, err.getMessage());
+            }
+            for (int i = 0; i < stored; i++) acks.ack();
+            for (int i = stored; i < chain.size(); i++) fanOut(new Replica(chain.get(i), fileId, chunkId, chunk, crc32c, null), acks);
+        });
+    }
+
+    private static int replicaCount(HttpResponse<?> resp) {
+        return resp.headers().firstValue(StorageController.REPLICAS_HEADER).map(Integer::parseInt).orElse(1);
+    }
+
+    /**
+     * Starts forwarding a chunk that is being received as part of a chain to {@code downstream.get(0)},
+     * asking it to continue with the rest of the list. The caller must consume
+     * {@link ChainForward#input()} to the end (that is what feeds the forward) or call
+     * {@link ChainForward#abort()}.
+     */
+    public ChainForward forward(String fileId, String chunkId, Integer crc32c, List<String> downstream, InputStream upstream) {
+        ChainForward f = new ChainForward(upstream);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/octet-stream");
+        if (crc32c != null) headers.put(StorageController.CHECKSUM_HEADER, String.format("%08x", crc32c));
+        headers.put(StorageController.CHAIN_HEADER, String.join(",", downstream.subList(1, downstream.size())));
+        String next = downstream.get(0);
+        String url = replicaUrl(next, fileId, chunkId);
+        rpc.postStream(url, f::output, headers).whenComplete((resp, err) -> {
+            f.closed = true;
+            if (err == null) {
+                f.replicas.complete(replicaCount(resp));
+            } else {
+                logger.warn("Forwarding {}/{} to {} failed: {}", fileId, chunkId, next, err.getMessage());
+                f.replicas.complete(0);
+            }
+        });
+        return f;
+    }
+
+    private int requiredAcks(AckLevel ack) {
+        return switch (ack) {
+            case LEADER -> 0;
+            case QUORUM -> (peers.size() + 1) / 2; // the leader's copy counts towards the majority
+            case ALL -> peers.size();
+        };
+    }
+
+    private CompletableFuture<Void> sendWithRetry(Replica r, int attempt) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        send(r).whenComplete((v, err) -> {
+            if (err == null) {
+                done.complete(null);
+            } else if (attempt < maxAttempts) {
+                long delay = backoffMs << (attempt - 1);
+                delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+                logger.debug("Replication of {}/{} to {} failed (attempt {}), retrying in {} ms",
+                        r.fileId, r.chunkId, r.peer, attempt, delay);
+                scheduler.schedule(() -> sendWithRetry(r, attempt + 1).whenComplete((v2, err2) -> {
+                    if (err2 == null) done.complete(null);
+                    else done.completeExceptionally(err2);
+                }), delay, TimeUnit.MILLISECONDS);
+            } else {
+                logger.warn("Replication of {}/{} to {} failed after {} attempts, queued for repair: {}",
+                        r.fileId, r.chunkId, r.peer, attempt, err.getMessage());
+                park(r);
+                done.completeExceptionally(err);
+            }
+        });
+        return done;
+    }
+
+    private CompletableFuture<Void> send(Replica r) {
+        String url = replicaUrl(r.peer, r.fileId, r.chunkId);
+        Map<String, String> headers = Map.of(
+                "Content-Type", "application/octet-stream",
+                StorageController.CHECKSUM_HEADER, String.format("%08x", r.crc32c));
+        PeerStats s = stats.get(r.peer);
+        long start = System.nanoTime();
+        return postChunk(url, r.chunk, headers, s).handle((resp, err) -> {
+            if (err != null) {
+                s.failed.incrementAndGet();
+                throw new CompletionException(err);
+            }
+            s.record(System.nanoTime() - start);
+            if (r.onDelivered != null) r.onDelivered.run();
+            return null;
+        });
+    }
+
+    private CompletableFuture<HttpResponse<String>> postChunk(String url, Supplier<ChunkStore.Location> chunk, Map<String, String> headers,
+                                                              PeerStats s) {
+        ChunkStore.Location loc;
+        try {
+            loc = chunk.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (loc == null) return CompletableFuture.failedFuture(new NoSuchFileException(url));
+        s.bytes.add(loc.length());
+        return rpc.postFile(url, loc.file(), loc.offset(), loc.length(), headers);
+    }
+
+    private void park(Replica r) {
+        repairs.put(r.key(), r);
+    }
+
+    // Retries parked replicas once each; whatever fails again stays queued for the next sweep.
+    private void repair() {
+        for (Replica r : new ArrayList<>(repairs.values())) {
+            if (pending.get() >= maxPending) return;
+            if (suspected(r.peer)) continue;
+            if (gone(r)) { // chunk is gone locally, nothing left to repair
+                repairs.remove(r.key(), r);
+                continue;
+            }
+            pending.incrementAndGet();
+            send(r).whenComplete((v, err) -> {
+                pending.decrementAndGet();
+                if (err == null) {
+                    repairs.remove(r.key(), r);
+                    logger.info("Repaired replica {}/{} on {}", r.fileId, r.chunkId, r.peer);
+                }
+            });
+        }
+    }
+
+    private static boolean gone(Replica r) {
+        try {
+            return r.chunk.get() == null;
+        } catch (RuntimeException e) {
+            return false; // can't tell right now, the send will fail and keep it queued
+        }
+    }
+
+    public List<String> peers() {
+        return peers;
+    }
+
+    /** Peers the failure detector does not currently suspect. */
+    public List<String> availablePeers() {
+        return peers.stream().filter(p -> !suspected(p)).toList();
+    }
+
+    public AckLevel defaultAck() {
+        return defaultAck;
+    }
+
+    /** Replica transfers currently in flight or waiting for a retry. */
+    public int pendingReplicas() {
+        return pending.get();
+    }
+
+    /** Transfers skipped by {@link #replicateIfMissing} because the peer already held the chunk. */
+    public long skippedTransfers() {
+        return skippedTransfers.get();
+    }
+
+    /** Replicas that exhausted their retries and wait for the repair sweep. */
+    public int repairBacklog() {
+        return repairs.size();
+    }
+
+    public Map<String, PeerStats> peerStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private record Replica(String peer, String fileId, String chunkId, Supplier<ChunkStore.Location> chunk, int crc32c, Runnable onDelivered) {
+        String key() {
+            return peer + " " + fileId + "/" + chunkId;
+        }
+    }
+
+    // Counts replica outcomes for one chunk against the number the ack level needs.
+    private static final class Acks {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final String chunk;
+        final int required;
+        final int peers;
+        final AtomicInteger acked = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        Acks(String chunk, int required, int peers) {
+            this.chunk = chunk;
+            this.required = required;
+            this.peers = peers;
+            if (required == 0) result.complete(null);
+        }
+
+        void ack() {
+            if (acked.incrementAndGet() == required) result.complete(null);
+        }
+
+        void fail() {
+            if (failed.incrementAndGet() == peers - required + 1) {
+                result.completeExceptionally(new ReplicationException(chunk + ": " + acked.get() + " of " + required + " replica acks"));
+            }
+        }
     }
 
-    // Prototype: POST chunk bytes to peer's storage endpoint
-    public void replicateChunk(String fileId, String chunkId, byte[] data) {
-        for (String p : peers) {
+    /**
+     * One chain hop: {@link #input()} reads the upstream body and hands every block it reads to
+     * the downstream request, which reads them from {@link #output()}. A small bounded queue
+     * between the two applies backpressure from a slow downstream peer to the upstream one.
+     */
+    public static final class ChainForward {
+        private static final byte[] EOF = new byte[0];
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(16);
+        private final CompletableFuture<Integer> replicas = new CompletableFuture<>();
+        private final InputStream input;
+        private volatile boolean closed;  // downstream request finished; stop queueing
+        private volatile boolean aborted; // local store failed; fail the downstream request
+        private boolean eofSent;
+
+        ChainForward(InputStream upstream) {
+            this.input = new FilterInputStream(upstream) {
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) push(Arrays.copyOfRange(b, off, off + n));
+                    else if (n < 0 && !eofSent) {
+                        eofSent = true;
+                        push(EOF);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        public InputStream input() {
+            return input;
+        }
+
+        /** Number of downstream peers that stored the chunk; 0 if forwarding failed. Never completes exceptionally. */
+        public CompletableFuture<Integer> replicas() {
+            return replicas;
+        }
+
+        public void abort() {
+            aborted = true;
+        }
+
+        private void push(byte[] block) throws IOException {
             try {
-                String url = p + "/files/internal/replicate/" + fileId + "/chunks/" + chunkId;
-                rest.postForObject(url, data, String.class);
-            } catch (Exception e) {
-                logger.warn("Replication to {} failed: {}", p, e.getMessage());
+                while (!closed && !queue.offer(block, 100, TimeUnit.MILLISECONDS)) {
+                    // downstream is slower than upstream; wait for it
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
             }
         }
+
+        InputStream output() {
+            return new InputStream() {
+                private byte[] block;
+                private int pos;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    while (block == null || pos == block.length) {
+                        if (block == EOF) return -1;
+                        if (aborted) throw new IOException("upstream aborted");
+                        try {
+                            block = queue.poll(100, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                        pos = 0;
+                    }
+                    int n = Math.min(len, block.length - pos);
+                    System.arraycopy(block, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+            };
+        }
+    }
+
+    public static class ReplicationException extends RuntimeException {
+        public ReplicationException(String message) {
+            super(message);
+        }
+    }
+
+    // Transfer latency to one peer; the EWMA tracks recent behaviour, max is since startup.
+    public static class PeerStats {
+        private final AtomicLong replicated = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private volatile double ewmaNanos;
+        private volatile Timer latency = Timer.NOOP;
+        private volatile Counter bytes = Counter.NOOP;
+
+        void record(long nanos) {
+            latency.record(nanos);
+            replicated.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            synchronized (this) {
+                ewmaNanos = ewmaNanos == 0 ? nanos : ewmaNanos * 0.8 + nanos * 0.2;
+            }
+        }
+
+        public long getReplicated() { return replicated.get(); }
+        public long getFailed() { return failed.get(); }
+        public double getAvgMs() {
+            long n = replicated.get();
+            return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+        }
+        public double getEwmaMs() { return ewmaNanos / 1e6; }
+        public double getMaxMs() { return maxNanos.get() / 1e6; }
     }
 }
@@ -0,0 +1,26 @@
+package com.example.dfs.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** A monotonically increasing count, striped so that concurrent increments do not contend. */
+public final class Counter {
+    public static final Counter NOOP = new Counter(false);
+
+    private final LongAdder value;
+
+    Counter(boolean enabled) {
+        this.value = enabled ? new LongAdder() : null;
+    }
+
+    public void add(long n) {
+        if (value != null) value.add(n);
+    }
+
+    public void increment() {
+        if (value != null) value.increment();
+    }
+
+    public long get() {
+        return value == null ? 0 : value.sum();
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.dfs.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// One timed operation, emitted next to the histogram when metrics.jfr.enabled is set, so a flight
+// recording shows the individual slow operations alongside GC and lock events. Costs nothing
+// beyond the flag check and a volatile read unless a recording with this event enabled is running;
+// the event is only allocated then.
+@Name("com.example.dfs.Latency")
+@Label("DFS Latency")
+@Category("DFS")
+@Description("An operation timed by a /metrics latency timer")
+@StackTrace(false)
+final class LatencyEvent extends jdk.jfr.Event {
+    @Label("Metric")
+    String metric;
+
+    @Label("Labels")
+    String labels;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+
+    private static final EventType TYPE = EventType.getEventType(LatencyEvent.class);
+
+    static void emit(String metric, String labels, long nanos) {
+        if (!TYPE.isEnabled()) return;
+        LatencyEvent e = new LatencyEvent();
+        if (!e.shouldCommit()) return;
+        e.metric = metric;
+        e.labels = labels;
+        e.latency = nanos;
+        e.commit();
+    }
+}
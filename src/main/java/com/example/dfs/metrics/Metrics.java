@@ -0,0 +1,125 @@
+package com.example.dfs.metrics;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * This node's timers, counters and gauges, written out in the Prometheus text format by
+ * {@link MetricsController}. Components look their timers and counters up once, when they are
+ * created, and keep them in fields; the hot path then only records. Asking again for the same name
+ * and labels returns the same instance, so e.g. all Raft groups share one commit timer.
+ * A disabled registry hands out no-op instances and exports nothing.
+ */
+public class Metrics {
+    private static final Metrics DISABLED = new Metrics(false, false);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final boolean enabled;
+    private final boolean jfr;
+    // sorted, so the scrape output is stable
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /** {@code jfr} additionally emits a JFR event per timed operation, see {@link LatencyEvent}. */
+    public Metrics(boolean enabled, boolean jfr) {
+        this.enabled = enabled;
+        this.jfr = enabled && jfr;
+    }
+
+    public static Metrics disabled() {
+        return DISABLED;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /** A latency timer, exported in seconds as a summary; {@code labels} are name, value pairs. */
+    public Timer timer(String name, String help, String... labels) {
+        if (!enabled) return Timer.NOOP;
+        String l = labels(labels);
+        return (Timer) family(name, help, "summary").series.computeIfAbsent(l, k -> new Timer(name, k, jfr));
+    }
+
+    /** The fsync latency of one kind of file: chunk, volume, raft_log. */
+    public Timer fsyncTimer(String target) {
+        return timer("dfs_fsync_seconds", "fsync of chunk files, volumes and the Raft log", "target", target);
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        if (!enabled) return Counter.NOOP;
+        return (Counter) family(name, help, "counter").series.computeIfAbsent(labels(labels), k -> new Counter(true));
+    }
+
+    /** A counter kept elsewhere, read at scrape time. */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        if (enabled) family(name, help, "counter").series.put(labels(labels), value);
+    }
+
+    /** A value read at scrape time, e.g. a queue depth. Registering the same series again replaces it. */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        if (enabled) family(name, help, "gauge").series.put(labels(labels), value);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family f = families.computeIfAbsent(name, n -> new Family(help, type));
+        if (!f.type.equals(type)) throw new IllegalArgumentException(name + " is already registered as a " + f.type);
+        return f;
+    }
+
+    private record Family(String help, String type, Map<String, Object> series) {
+        Family(String help, String type) {
+            this(help, type, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    /** Writes every metric in the Prometheus text exposition format (version 0.0.4). */
+    public void writePrometheus(StringBuilder out) {
+        families.forEach((name, f) -> {
+            out.append("# HELP ").append(name).append(' ').append(f.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(f.type).append('\n');
+            f.series.forEach((labels, s) -> {
+                if (s instanceof Timer t) writeSummary(out, name, labels, t);
+                else if (s instanceof Counter c) sample(out, name, labels, c.get());
+                else if (s instanceof LongSupplier v) sample(out, name, labels, v.getAsLong());
+                else sample(out, name, labels, ((DoubleSupplier) s).getAsDouble());
+            });
+        });
+    }
+
+    private static void writeSummary(StringBuilder out, String name, String labels, Timer t) {
+        Histogram h = t.snapshot();
+        String sep = labels.isEmpty() ? "" : labels + ",";
+        for (double q : QUANTILES) {
+            double seconds = h.getTotalCount() == 0 ? Double.NaN : h.getValueAtPercentile(q * 100) / 1e9;
+            sample(out, name, sep + "quantile=\"" + q + "\"", seconds);
+        }
+        sample(out, name + "_sum", labels, t.sumNanos() / 1e9);
+        sample(out, name + "_count", labels, h.getTotalCount());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ');
+        if (Double.isNaN(value)) out.append("NaN");
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15) out.append((long) value);
+        else out.append(value);
+        out.append('\n');
+    }
+
+    // name="value",... with the value escaped as the format requires
+    private static String labels(String... pairs) {
+        if (pairs.length % 2 != 0) throw new IllegalArgumentException("labels come in name, value pairs");
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) b.append(',');
+            b.append(pairs[i]).append("=\"")
+                    .append(pairs[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return b.toString();
+    }
+}
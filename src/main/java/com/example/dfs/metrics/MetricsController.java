@@ -0,0 +1,25 @@
+package com.example.dfs.metrics;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class MetricsController {
+    private static final MediaType CONTENT_TYPE = MediaType.parseMediaType("text/plain; version=0.0.4; charset=utf-8");
+
+    private final Metrics metrics;
+
+    public MetricsController(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Prometheus scrape target
+    @GetMapping("/metrics")
+    public ResponseEntity<String> scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        metrics.writePrometheus(out);
+        return ResponseEntity.ok().contentType(CONTENT_TYPE).body(out.toString());
+    }
+}
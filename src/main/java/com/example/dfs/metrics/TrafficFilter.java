@@ -0,0 +1,149 @@
+package com.example.dfs.metrics;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.IOException;
+
+// Counts the body bytes every HTTP request brings in and its response sends out: client uploads
+// and downloads, replica transfers and Raft RPCs alike. The streams are only wrapped, so a request
+// that never reads its body is not counted for it. Responses Tomcat sends with sendfile bypass the
+// output stream; they are counted from the range the handler asked to send.
+public class TrafficFilter extends HttpFilter {
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final Counter in;
+    private final Counter out;
+
+    public TrafficFilter(Metrics metrics) {
+        this.in = metrics.counter("dfs_http_received_bytes_total", "HTTP request body bytes received");
+        this.out = metrics.counter("dfs_http_sent_bytes_total", "HTTP response body bytes sent");
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest req, HttpServletResponse resp, FilterChain chain) throws IOException, ServletException {
+        chain.doFilter(new HttpServletRequestWrapper(req) {
+            private ServletInputStream stream;
+
+            @Override
+            public ServletInputStream getInputStream() throws IOException {
+                if (stream == null) stream = new CountingInput(super.getInputStream(), in);
+                return stream;
+            }
+        }, new HttpServletResponseWrapper(resp) {
+            private ServletOutputStream stream;
+
+            @Override
+            public ServletOutputStream getOutputStream() throws IOException {
+                if (stream == null) stream = new CountingOutput(super.getOutputStream(), out);
+                return stream;
+            }
+        });
+        if (req.getAttribute(SENDFILE_FILENAME) != null
+                && req.getAttribute(SENDFILE_START) instanceof Long start && req.getAttribute(SENDFILE_END) instanceof Long end) {
+            out.add(end - start);
+        }
+    }
+
+    private static final class CountingInput extends ServletInputStream {
+        private final ServletInputStream in;
+        private final Counter bytes;
+
+        CountingInput(ServletInputStream in, Counter bytes) {
+            this.in = in;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) bytes.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) bytes.add(n);
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return in.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            in.setReadListener(listener);
+        }
+    }
+
+    private static final class CountingOutput extends ServletOutputStream {
+        private final ServletOutputStream out;
+        private final Counter bytes;
+
+        CountingOutput(ServletOutputStream out, Counter bytes) {
+            this.out = out;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes.add(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+    }
+}
@@ -9,4 +9,6 @@ public class AppendEntriesRequest {
     public long prevLogTerm;
     public List<LogEntry> entries;
     public long leaderCommit;
+    // where the leader is reachable, so followers can point clients at it; may be null
+    public String leaderUrl;
 }
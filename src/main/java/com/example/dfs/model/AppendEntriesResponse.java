@@ -3,4 +3,6 @@ package com.example.dfs.model;
 public class AppendEntriesResponse {
     public long term;
     public boolean success;
+    // on success the follower's last matching index, on failure a hint for the leader's nextIndex
+    public long matchIndex;
 }
@@ -0,0 +1,9 @@
+package com.example.dfs.model;
+
+import java.util.List;
+
+// Empty AppendEntries of several Raft groups bound for the same node, sent as one request.
+public class HeartbeatBatchRequest {
+    public List<Integer> groups;
+    public List<AppendEntriesRequest> requests;
+}
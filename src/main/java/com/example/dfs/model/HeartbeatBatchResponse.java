@@ -0,0 +1,8 @@
+package com.example.dfs.model;
+
+import java.util.List;
+
+// One response per request of the batch, in the same order.
+public class HeartbeatBatchResponse {
+    public List<AppendEntriesResponse> responses;
+}
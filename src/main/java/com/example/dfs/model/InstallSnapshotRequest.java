@@ -0,0 +1,12 @@
+package com.example.dfs.model;
+
+// One chunk of a snapshot streamed from the leader to a lagging follower.
+public class InstallSnapshotRequest {
+    public long term;
+    public String leaderId;
+    public long lastIncludedIndex;
+    public long lastIncludedTerm;
+    public long offset;
+    public byte[] data;
+    public boolean done;
+}
@@ -0,0 +1,6 @@
+package com.example.dfs.model;
+
+public class InstallSnapshotResponse {
+    public long term;
+    public boolean success;
+}
@@ -0,0 +1,9 @@
+package com.example.dfs.model;
+
+public class MerkleRequest {
+    // 0 is the root, the tree depth the leaves
+    public int level;
+    public int[] nodes;
+    // leaf level only: send the entries of the leaves instead of their hashes
+    public boolean entries;
+}
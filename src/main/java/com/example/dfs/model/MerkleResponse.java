@@ -0,0 +1,11 @@
+package com.example.dfs.model;
+
+import java.util.Map;
+
+public class MerkleResponse {
+    public int depth;
+    // one per requested node, in request order
+    public long[] hashes;
+    // "fileId/chunkId" -> CRC32C of every chunk in the requested leaves
+    public Map<String, Integer> entries;
+}
@@ -0,0 +1,6 @@
+package com.example.dfs.model;
+
+public class ReadIndexRequest {
+    public long term;
+    public String from;
+}
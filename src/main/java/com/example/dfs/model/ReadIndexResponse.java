@@ -0,0 +1,8 @@
+package com.example.dfs.model;
+
+public class ReadIndexResponse {
+    public long term;
+    public boolean success;
+    // commit index the reader must have applied before serving the read
+    public long readIndex;
+}
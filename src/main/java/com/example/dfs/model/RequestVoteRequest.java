@@ -5,4 +5,6 @@ public class RequestVoteRequest {
     public String candidateId;
     public long lastLogIndex;
     public long lastLogTerm;
+    // the election was started on the leader's request (TimeoutNow), so voters ignore leader stickiness
+    public boolean transfer;
 }
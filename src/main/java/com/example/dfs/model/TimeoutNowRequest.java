@@ -0,0 +1,7 @@
+package com.example.dfs.model;
+
+// Sent by a leader handing leadership over to a caught-up follower, which then starts an election at once.
+public class TimeoutNowRequest {
+    public long term;
+    public String leaderId;
+}
@@ -0,0 +1,6 @@
+package com.example.dfs.model;
+
+public class TimeoutNowResponse {
+    public long term;
+    public boolean success;
+}
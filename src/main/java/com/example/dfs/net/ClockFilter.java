@@ -0,0 +1,38 @@
+package com.example.dfs.net;
+
+import com.example.dfs.time.HybridLogicalClock;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+// Server side of the clock propagation in RpcClient: the caller's hybrid logical time is merged
+// into this node's clock before the request is handled, and the response carries the merged time
+// back. Registered for the node-to-node endpoints only. A timestamp too far ahead of the local
+// wall clock is ignored (and counted by the clock), like a malformed one.
+public class ClockFilter extends HttpFilter {
+    public static final String[] INTERNAL_PATHS = {"/rpc/raft/*", "/raft/*", "/files/internal/*"};
+
+    private final HybridLogicalClock clock;
+
+    public ClockFilter(HybridLogicalClock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest req, HttpServletResponse resp, FilterChain chain) throws IOException, ServletException {
+        String remote = req.getHeader(RpcClient.CLOCK_HEADER);
+        long now;
+        try {
+            now = remote == null ? clock.now() : clock.update(HybridLogicalClock.parse(remote));
+        } catch (IllegalArgumentException e) {
+            now = clock.now();
+        }
+        // set before the handler runs, since streamed and async responses commit their headers early
+        resp.setHeader(RpcClient.CLOCK_HEADER, HybridLogicalClock.format(now));
+        chain.doFilter(req, resp);
+    }
+}
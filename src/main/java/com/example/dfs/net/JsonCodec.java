@@ -0,0 +1,28 @@
+package com.example.dfs.net;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+public class JsonCodec implements MessageCodec {
+    public static final JsonCodec INSTANCE = new JsonCodec();
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Override
+    public String contentType() {
+        return RpcClient.JSON;
+    }
+
+    @Override
+    public byte[] encode(Object message) throws IOException {
+        return mapper.writeValueAsBytes(message);
+    }
+
+    @Override
+    public <T> T decode(byte[] data, Class<T> type) throws IOException {
+        return mapper.readValue(data, type);
+    }
+}
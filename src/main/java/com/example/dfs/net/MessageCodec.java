@@ -0,0 +1,12 @@
+package com.example.dfs.net;
+
+import java.io.IOException;
+
+// Wire format for RPC bodies, selected by content type.
+public interface MessageCodec {
+    String contentType();
+
+    byte[] encode(Object message) throws IOException;
+
+    <T> T decode(byte[] data, Class<T> type) throws IOException;
+}
@@ -0,0 +1,396 @@
+package com.example.dfs.net;
+
+import com.example.dfs.model.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the Raft RPC messages (content type {@value #CONTENT_TYPE}).
+ *
+ * Every message starts with a version byte and a type byte. Integers are unsigned LEB128
+ * varints (negative values still round-trip, in 10 bytes), strings and byte arrays are
+ * varint-length-prefixed. Log entry commands use a typed encoding for the metadata commands
+ * we know about and fall back to the raw string for anything else, so decoding always
+ * reproduces the exact command string. Fields added later are appended at the end of their
+ * message and read only if present, so older encoders stay readable.
+ */
+public class RaftCodec implements MessageCodec {
+    public static final String CONTENT_TYPE = "application/x-dfs-raft";
+    public static final RaftCodec INSTANCE = new RaftCodec();
+
+    static final int VERSION = 1;
+
+    private static final int APPEND_ENTRIES_REQUEST = 1;
+    private static final int APPEND_ENTRIES_RESPONSE = 2;
+    private static final int REQUEST_VOTE_REQUEST = 3;
+    private static final int REQUEST_VOTE_RESPONSE = 4;
+    private static final int INSTALL_SNAPSHOT_REQUEST = 5;
+    private static final int INSTALL_SNAPSHOT_RESPONSE = 6;
+    private static final int READ_INDEX_REQUEST = 7;
+    private static final int READ_INDEX_RESPONSE = 8;
+    private static final int TIMEOUT_NOW_REQUEST = 9;
+    private static final int TIMEOUT_NOW_RESPONSE = 10;
+    private static final int HEARTBEAT_BATCH_REQUEST = 11;
+    private static final int HEARTBEAT_BATCH_RESPONSE = 12;
+
+    private static final int CMD_RAW = 0;
+    private static final int CMD_NOOP = 1;
+    private static final int CMD_WRITE = 2; // WRITE:fileId:chunkId:length:crc32c-hex
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    public static boolean supports(Class<?> type) {
+        return type == AppendEntriesRequest.class || type == AppendEntriesResponse.class
+                || type == RequestVoteRequest.class || type == RequestVoteResponse.class
+                || type == InstallSnapshotRequest.class || type == InstallSnapshotResponse.class
+                || type == ReadIndexRequest.class || type == ReadIndexResponse.class
+                || type == TimeoutNowRequest.class || type == TimeoutNowResponse.class
+                || type == HeartbeatBatchRequest.class || type == HeartbeatBatchResponse.class;
+    }
+
+    @Override
+    public byte[] encode(Object message) {
+        Writer w = new Writer();
+        w.buf[w.pos++] = VERSION;
+        if (message instanceof AppendEntriesRequest m) {
+            w.buf[w.pos++] = APPEND_ENTRIES_REQUEST;
+            w.varint(m.term);
+            w.string(m.leaderId);
+            w.varint(m.prevLogIndex);
+            w.varint(m.prevLogTerm);
+            w.varint(m.leaderCommit);
+            List<LogEntry> entries = m.entries == null ? List.of() : m.entries;
+            w.varint(entries.size());
+            for (LogEntry e : entries) {
+                w.varint(e.getTerm());
+                command(w, e.getCommand());
+            }
+            w.string(m.leaderUrl);
+        } else if (message instanceof AppendEntriesResponse m) {
+            w.buf[w.pos++] = APPEND_ENTRIES_RESPONSE;
+            w.varint(m.term);
+            w.bool(m.success);
+            w.varint(m.matchIndex);
+        } else if (message instanceof RequestVoteRequest m) {
+            w.buf[w.pos++] = REQUEST_VOTE_REQUEST;
+            w.varint(m.term);
+            w.string(m.candidateId);
+            w.varint(m.lastLogIndex);
+            w.varint(m.lastLogTerm);
+            w.bool(m.transfer);
+        } else if (message instanceof RequestVoteResponse m) {
+            w.buf[w.pos++] = REQUEST_VOTE_RESPONSE;
+            w.varint(m.term);
+            w.bool(m.voteGranted);
+        } else if (message instanceof InstallSnapshotRequest m) {
+            w.buf[w.pos++] = INSTALL_SNAPSHOT_REQUEST;
+            w.varint(m.term);
+            w.string(m.leaderId);
+            w.varint(m.lastIncludedIndex);
+            w.varint(m.lastIncludedTerm);
+            w.varint(m.offset);
+            w.bool(m.done);
+            w.bytes(m.data == null ? new byte[0] : m.data);
+        } else if (message instanceof InstallSnapshotResponse m) {
+            w.buf[w.pos++] = INSTALL_SNAPSHOT_RESPONSE;
+            w.varint(m.term);
+            w.bool(m.success);
+        } else if (message instanceof ReadIndexRequest m) {
+            w.buf[w.pos++] = READ_INDEX_REQUEST;
+            w.varint(m.term);
+            w.string(m.from);
+        } else if (message instanceof ReadIndexResponse m) {
+            w.buf[w.pos++] = READ_INDEX_RESPONSE;
+            w.varint(m.term);
+            w.bool(m.success);
+            w.varint(m.readIndex);
+        } else if (message instanceof TimeoutNowRequest m) {
+            w.buf[w.pos++] = TIMEOUT_NOW_REQUEST;
+            w.varint(m.term);
+            w.string(m.leaderId);
+        } else if (message instanceof TimeoutNowResponse m) {
+            w.buf[w.pos++] = TIMEOUT_NOW_RESPONSE;
+            w.varint(m.term);
+            w.bool(m.success);
+        } else if (message instanceof HeartbeatBatchRequest m) {
+            w.buf[w.pos++] = HEARTBEAT_BATCH_REQUEST;
+            w.varint(m.requests.size());
+            for (int i = 0; i < m.requests.size(); i++) {
+                w.varint(m.groups.get(i));
+                // each request as a complete message, so its optional trailing fields stay unambiguous
+                w.bytes(encode(m.requests.get(i)));
+            }
+        } else if (message instanceof HeartbeatBatchResponse m) {
+            w.buf[w.pos++] = HEARTBEAT_BATCH_RESPONSE;
+            w.varint(m.responses.size());
+            for (AppendEntriesResponse r : m.responses) w.bytes(encode(r));
+        } else {
+            throw new IllegalArgumentException("no binary encoding for " + message.getClass().getName());
+        }
+        return Arrays.copyOf(w.buf, w.pos);
+    }
+
+    @Override
+    public <T> T decode(byte[] data, Class<T> type) throws IOException {
+        Reader r = new Reader(data);
+        int version = r.u8();
+        if (version != VERSION) throw new IOException("unsupported raft codec version " + version);
+        int kind = r.u8();
+        Object msg;
+        switch (kind) {
+            case APPEND_ENTRIES_REQUEST -> {
+                AppendEntriesRequest m = new AppendEntriesRequest();
+                m.term = r.varint();
+                m.leaderId = r.string();
+                m.prevLogIndex = r.varint();
+                m.prevLogTerm = r.varint();
+                m.leaderCommit = r.varint();
+                int n = (int) r.varint();
+                m.entries = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    long term = r.varint();
+                    m.entries.add(new LogEntry(term, command(r)));
+                }
+                if (r.hasMore()) m.leaderUrl = emptyToNull(r.string());
+                msg = m;
+            }
+            case APPEND_ENTRIES_RESPONSE -> {
+                AppendEntriesResponse m = new AppendEntriesResponse();
+                m.term = r.varint();
+                m.success = r.bool();
+                m.matchIndex = r.varint();
+                msg = m;
+            }
+            case REQUEST_VOTE_REQUEST -> {
+                RequestVoteRequest m = new RequestVoteRequest();
+                m.term = r.varint();
+                m.candidateId = r.string();
+                m.lastLogIndex = r.varint();
+                m.lastLogTerm = r.varint();
+                if (r.hasMore()) m.transfer = r.bool();
+                msg = m;
+            }
+            case REQUEST_VOTE_RESPONSE -> {
+                RequestVoteResponse m = new RequestVoteResponse();
+                m.term = r.varint();
+                m.voteGranted = r.bool();
+                msg = m;
+            }
+            case INSTALL_SNAPSHOT_REQUEST -> {
+                InstallSnapshotRequest m = new InstallSnapshotRequest();
+                m.term = r.varint();
+                m.leaderId = r.string();
+                m.lastIncludedIndex = r.varint();
+                m.lastIncludedTerm = r.varint();
+                m.offset = r.varint();
+                m.done = r.bool();
+                m.data = r.bytes();
+                msg = m;
+            }
+            case INSTALL_SNAPSHOT_RESPONSE -> {
+                InstallSnapshotResponse m = new InstallSnapshotResponse();
+                m.term = r.varint();
+                m.success = r.bool();
+                msg = m;
+            }
+            case READ_INDEX_REQUEST -> {
+                ReadIndexRequest m = new ReadIndexRequest();
+                m.term = r.varint();
+                m.from = r.string();
+                msg = m;
+            }
+            case READ_INDEX_RESPONSE -> {
+                ReadIndexResponse m = new ReadIndexResponse();
+                m.term = r.varint();
+                m.success = r.bool();
+                m.readIndex = r.varint();
+                msg = m;
+            }
+            case TIMEOUT_NOW_REQUEST -> {
+                TimeoutNowRequest m = new TimeoutNowRequest();
+                m.term = r.varint();
+                m.leaderId = r.string();
+                msg = m;
+            }
+            case TIMEOUT_NOW_RESPONSE -> {
+                TimeoutNowResponse m = new TimeoutNowResponse();
+                m.term = r.varint();
+                m.success = r.bool();
+                msg = m;
+            }
+            case HEARTBEAT_BATCH_REQUEST -> {
+                HeartbeatBatchRequest m = new HeartbeatBatchRequest();
+                int n = (int) r.varint();
+                m.groups = new ArrayList<>(n);
+                m.requests = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    m.groups.add((int) r.varint());
+                    m.requests.add(decode(r.bytes(), AppendEntriesRequest.class));
+                }
+                msg = m;
+            }
+            case HEARTBEAT_BATCH_RESPONSE -> {
+                HeartbeatBatchResponse m = new HeartbeatBatchResponse();
+                int n = (int) r.varint();
+                m.responses = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) m.responses.add(decode(r.bytes(), AppendEntriesResponse.class));
+                msg = m;
+            }
+            default -> throw new IOException("unknown raft message type " + kind);
+        }
+        if (!type.isInstance(msg)) throw new IOException("expected " + type.getSimpleName() + " but got " + msg.getClass().getSimpleName());
+        return type.cast(msg);
+    }
+
+    private static void command(Writer w, String cmd) {
+        if (cmd.equals("NOOP")) {
+            w.buf[w.pos++] = CMD_NOOP;
+            return;
+        }
+        if (cmd.startsWith("WRITE:")) {
+            String[] p = cmd.split(":", -1);
+            if (p.length == 5 && p[4].length() == 8) {
+                try {
+                    long length = Long.parseLong(p[3]);
+                    int crc = Integer.parseUnsignedInt(p[4], 16);
+                    // only use the typed form if it reproduces the exact string
+                    if (writeCommand(p[1], p[2], length, crc).equals(cmd)) {
+                        w.ensure(1);
+                        w.buf[w.pos++] = CMD_WRITE;
+                        w.string(p[1]);
+                        w.string(p[2]);
+                        w.varint(length);
+                        w.fixed32(crc);
+                        return;
+                    }
+                } catch (NumberFormatException ignored) {
+                    // not one of ours; encode raw
+                }
+            }
+        }
+        w.ensure(1);
+        w.buf[w.pos++] = CMD_RAW;
+        w.string(cmd);
+    }
+
+    private static String command(Reader r) throws IOException {
+        int tag = r.u8();
+        return switch (tag) {
+            case CMD_RAW -> r.string();
+            case CMD_NOOP -> "NOOP";
+            case CMD_WRITE -> writeCommand(r.string(), r.string(), r.varint(), r.fixed32());
+            default -> throw new IOException("unknown command tag " + tag);
+        };
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+
+    private static String writeCommand(String fileId, String chunkId, long length, int crc) {
+        return "WRITE:" + fileId + ":" + chunkId + ":" + length + ":" + String.format("%08x", crc);
+    }
+
+    private static final class Writer {
+        byte[] buf = new byte[128];
+        int pos;
+
+        void ensure(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void fixed32(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void bool(boolean b) {
+            ensure(1);
+            buf[pos++] = (byte) (b ? 1 : 0);
+        }
+
+        void string(String s) {
+            bytes(s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void bytes(byte[] b) {
+            varint(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, pos, b.length);
+            pos += b.length;
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) { this.buf = buf; }
+
+        boolean hasMore() {
+            return pos < buf.length;
+        }
+
+        int u8() throws IOException {
+            if (pos >= buf.length) throw new IOException("truncated raft message");
+            return buf[pos++] & 0xFF;
+        }
+
+        long varint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = u8();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("malformed varint");
+        }
+
+        int fixed32() throws IOException {
+            return (u8() << 24) | (u8() << 16) | (u8() << 8) | u8();
+        }
+
+        boolean bool() throws IOException {
+            return u8() != 0;
+        }
+
+        String string() throws IOException {
+            int len = length();
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        byte[] bytes() throws IOException {
+            int len = length();
+            byte[] b = Arrays.copyOfRange(buf, pos, pos + len);
+            pos += len;
+            return b;
+        }
+
+        private int length() throws IOException {
+            long len = varint();
+            if (len < 0 || len > buf.length - pos) throw new IOException("truncated raft message");
+            return (int) len;
+        }
+    }
+}
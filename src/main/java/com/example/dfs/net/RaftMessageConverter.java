@@ -0,0 +1,38 @@
+package com.example.dfs.net;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+// Lets RaftController read and write the binary RaftCodec format when the client asks for it.
+public class RaftMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    public RaftMessageConverter() {
+        super(MediaType.parseMediaType(RaftCodec.CONTENT_TYPE));
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return RaftCodec.supports(clazz);
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage input) throws IOException {
+        try {
+            return RaftCodec.INSTANCE.decode(input.getBody().readAllBytes(), clazz);
+        } catch (IOException e) {
+            throw new HttpMessageNotReadableException(e.getMessage(), e, input);
+        }
+    }
+
+    @Override
+    protected void writeInternal(Object message, HttpOutputMessage output) throws IOException {
+        byte[] out = RaftCodec.INSTANCE.encode(message);
+        output.getHeaders().setContentLength(out.length);
+        output.getBody().write(out);
+    }
+}
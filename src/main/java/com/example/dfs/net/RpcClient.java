@@ -1,11 +1,277 @@
 package com.example.dfs.net;
 
-import org.springframework.web.client.RestTemplate;
+import com.example.dfs.metrics.Metrics;
+import com.example.dfs.metrics.Timer;
+import com.example.dfs.time.HybridLogicalClock;
 
-public class RpcClient {
-    private final RestTemplate rest = new RestTemplate();
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
-    public <T> T post(String url, Object body, Class<T> respType) {
-        return rest.postForObject(url, body, respType);
+/**
+ * Shared, non-blocking transport for all node-to-node traffic. One {@link HttpClient} keeps
+ * pooled connections to every peer. Each peer has two independently limited lanes so bulk chunk
+ * transfers cannot starve Raft RPCs of connections: control calls share one HTTP/2 connection
+ * where the peer supports it, bulk transfers go over their own HTTP/1.1 connections.
+ * With a clock set, every request carries this node's hybrid logical time and every response's
+ * time is merged back, so causality between nodes is tracked on all internal traffic.
+ */
+public class RpcClient implements AutoCloseable {
+    public static final String JSON = "application/json";
+    // hybrid logical timestamp of the sender, see HybridLogicalClock.format
+    public static final String CLOCK_HEADER = "X-HLC";
+
+    private final HttpClient http;
+    private final Duration requestTimeout;
+    private final Duration bulkTimeout;
+    private final int maxControlPerPeer;
+    private final int maxBulkPerPeer;
+    private final Map<String, Limiter> control = new ConcurrentHashMap<>();
+    private final Map<String, Limiter> bulk = new ConcurrentHashMap<>();
+    private volatile HybridLogicalClock clock;
+    private volatile Timer controlTimer = Timer.NOOP;
+    private volatile Timer bulkTimer = Timer.NOOP;
+
+    public RpcClient(Duration connectTimeout, Duration requestTimeout, Duration bulkTimeout,
+                     int maxControlPerPeer, int maxBulkPerPeer) {
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build();
+        this.requestTimeout = requestTimeout;
+        this.bulkTimeout = bulkTimeout;
+        this.maxControlPerPeer = maxControlPerPeer;
+        this.maxBulkPerPeer = maxBulkPerPeer;
+    }
+
+    public RpcClient() {
+        this(Duration.ofSeconds(1), Duration.ofSeconds(2), Duration.ofSeconds(60), 16, 4);
+    }
+
+    public void setClock(HybridLogicalClock clock) {
+        this.clock = clock;
+    }
+
+    /** Times every call from send to response, per lane, and exports how many calls wait for a connection slot. */
+    public void setMetrics(Metrics metrics) {
+        String help = "Node-to-node call round trip, excluding the wait for a slot";
+        this.controlTimer = metrics.timer("dfs_rpc_seconds", help, "lane", "control");
+        this.bulkTimer = metrics.timer("dfs_rpc_seconds", help, "lane", "bulk");
+        help = "Node-to-node calls waiting for a slot, summed over peers";
+        metrics.gauge("dfs_rpc_queued", help, () -> queued(control), "lane", "control");
+        metrics.gauge("dfs_rpc_queued", help, () -> queued(bulk), "lane", "bulk");
+    }
+
+    private static double queued(Map<String, Limiter> lane) {
+        return lane.values().stream().mapToInt(Limiter::waiting).sum();
+    }
+
+    /** POSTs {@code body} as JSON on the control lane and decodes the JSON response. */
+    public <T> CompletableFuture<T> post(String url, Object body, Class<T> respType) {
+        return post(url, body, respType, JsonCodec.INSTANCE);
+    }
+
+    /** POSTs {@code body} on the control lane encoded with {@code codec}; the response is decoded with the same codec. */
+    public <T> CompletableFuture<T> post(String url, Object body, Class<T> respType, MessageCodec codec) {
+        byte[] payload;
+        try {
+            payload = codec.encode(body);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .header("Content-Type", codec.contentType())
+                .header("Accept", codec.contentType())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(payload));
+        return limiter(control, url, maxControlPerPeer)
+                .submit(controlTimer, () -> http.sendAsync(stamped(b).build(), HttpResponse.BodyHandlers.ofByteArray()))
+                .thenApply(resp -> decode(url, observed(resp), respType, codec));
+    }
+
+    /** Streams a file on the bulk lane; the future fails if the peer answers with a non-2xx status. */
+    public CompletableFuture<HttpResponse<String>> postFile(String url, Path file, Map<String, String> headers) {
+        try {
+            return postBulk(url, HttpRequest.BodyPublishers.ofFile(file), headers);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Streams {@code length} bytes of {@code file} starting at {@code offset}. A whole file goes out
+     * via {@link #postFile(String, Path, Map)}; a slice (a chunk packed into a volume, which is small)
+     * is read with one positional read and sent from memory.
+     */
+    public CompletableFuture<HttpResponse<String>> postFile(String url, Path file, long offset, long length, Map<String, String> headers) {
+        try {
+            if (offset == 0 && length == Files.size(file)) return postFile(url, file, headers);
+            byte[] slice = new byte[Math.toIntExact(length)];
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.wrap(slice);
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, offset + buf.position()) < 0) throw new EOFException(file + " is shorter than " + (offset + length));
+                }
+            }
+            return postBulk(url, HttpRequest.BodyPublishers.ofByteArray(slice), headers);
+        } catch (IOException | ArithmeticException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /** Like {@link #postFile} but the body is read from {@code body} as the request is sent, so it may still be arriving. */
+    public CompletableFuture<HttpResponse<String>> postStream(String url, Supplier<InputStream> body, Map<String, String> headers) {
+        return postBulk(url, HttpRequest.BodyPublishers.ofInputStream(body), headers);
+    }
+
+    private CompletableFuture<HttpResponse<String>> postBulk(String url, HttpRequest.BodyPublisher body, Map<String, String> headers) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url)).timeout(bulkTimeout);
+        headers.forEach(b::header);
+        return sendBulk(url, b.POST(body), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /** HEAD on the control lane: true for 2xx, false for 404, fails for anything else. */
+    public CompletableFuture<Boolean> exists(String url) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody());
+        return limiter(control, url, maxControlPerPeer)
+                .submit(controlTimer, () -> http.sendAsync(stamped(b).build(), HttpResponse.BodyHandlers.discarding()))
+                .thenApply(resp -> {
+                    observed(resp);
+                    if (resp.statusCode() == 404) return false;
+                    if (resp.statusCode() / 100 != 2) throw new RpcException(url, resp.statusCode());
+                    return true;
+                });
+    }
+
+    /** GETs {@code url} on the bulk lane; the future fails if the peer answers with a non-2xx status. */
+    public CompletableFuture<HttpResponse<byte[]>> get(String url) {
+        return sendBulk(url, HttpRequest.newBuilder(URI.create(url)).timeout(bulkTimeout).GET(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    // HTTP/1.1: a cleartext HTTP/2 connection starts as an upgrade request, which Tomcat refuses
+    // with 413 when it carries a body (the first call between two followers may be a chain forward),
+    // and chunk data frames on the shared connection would queue heartbeats behind them.
+    private <T> CompletableFuture<HttpResponse<T>> sendBulk(String url, HttpRequest.Builder req, HttpResponse.BodyHandler<T> handler) {
+        req.version(HttpClient.Version.HTTP_1_1);
+        return limiter(bulk, url, maxBulkPerPeer)
+                .submit(bulkTimer, () -> http.sendAsync(stamped(req).build(), handler))
+                .thenApply(resp -> {
+                    observed(resp);
+                    if (resp.statusCode() / 100 != 2) throw new RpcException(url, resp.statusCode());
+                    return resp;
+                });
+    }
+
+    // Stamped when the request leaves the queue, so the timestamp is not older than the send.
+    private HttpRequest.Builder stamped(HttpRequest.Builder b) {
+        HybridLogicalClock c = clock;
+        if (c != null) b.setHeader(CLOCK_HEADER, HybridLogicalClock.format(c.now()));
+        return b;
+    }
+
+    private <T> HttpResponse<T> observed(HttpResponse<T> resp) {
+        HybridLogicalClock c = clock;
+        if (c == null) return resp;
+        String remote = resp.headers().firstValue(CLOCK_HEADER).orElse(null);
+        if (remote != null) {
+            try {
+                c.update(HybridLogicalClock.parse(remote));
+            } catch (IllegalArgumentException ignored) {
+                // a malformed timestamp, or one too far ahead to trust, is not worth failing the call over
+            }
+        }
+        return resp;
+    }
+
+    private static <T> T decode(String url, HttpResponse<byte[]> resp, Class<T> type, MessageCodec codec) {
+        if (resp.statusCode() / 100 != 2) throw new RpcException(url, resp.statusCode());
+        try {
+            return codec.decode(resp.body(), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Limiter limiter(Map<String, Limiter> lane, String url, int max) {
+        URI u = URI.create(url);
+        return lane.computeIfAbsent(u.getHost() + ":" + u.getPort(), k -> new Limiter(max));
+    }
+
+    @Override
+    public void close() {
+        http.shutdownNow();
+    }
+
+    public static class RpcException extends RuntimeException {
+        public RpcException(String url, int status) {
+            super(url + " returned HTTP " + status);
+        }
+    }
+
+    // Caps concurrent requests to one peer; excess requests queue instead of blocking a thread.
+    private static class Limiter {
+        private final int max;
+        private int active;
+        private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+
+        Limiter(int max) { this.max = max; }
+
+        <T> CompletableFuture<T> submit(Timer timer, Supplier<CompletableFuture<T>> call) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            Runnable start = () -> {
+                long sent = System.nanoTime();
+                CompletableFuture<T> f;
+                try {
+                    f = call.get();
+                } catch (RuntimeException e) {
+                    f = CompletableFuture.failedFuture(e);
+                }
+                f.whenComplete((v, err) -> {
+                    timer.recordSince(sent);
+                    release();
+                    if (err != null) result.completeExceptionally(err);
+                    else result.complete(v);
+                });
+            };
+            boolean now;
+            synchronized (this) {
+                now = active < max;
+                if (now) active++;
+                else waiting.add(start);
+            }
+            if (now) start.run();
+            return result;
+        }
+
+        synchronized int waiting() {
+            return waiting.size();
+        }
+
+        private void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) active--;
+            }
+            if (next != null) next.run();
+        }
     }
 }
@@ -1,6 +1,80 @@
 package com.example.dfs.net;
 
-// In this simplified prototype Spring REST controllers act as the RPC server.
-// Keep this placeholder for later extension (gRPC, socket server, etc).
-public class RpcServer {
+import com.example.dfs.model.AppendEntriesRequest;
+import com.example.dfs.model.HeartbeatBatchRequest;
+import com.example.dfs.model.InstallSnapshotRequest;
+import com.example.dfs.model.ReadIndexRequest;
+import com.example.dfs.model.RequestVoteRequest;
+import com.example.dfs.model.TimeoutNowRequest;
+import com.example.dfs.raft.RaftGroups;
+import com.example.dfs.raft.RaftNode;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+// Plain servlet for the hot Raft RPCs, mounted at /rpc/raft/* so they skip the
+// DispatcherServlet (handler mapping, argument resolution, message converter lookup).
+// RaftController keeps serving the same operations under /raft for tools and the frontend.
+// Bodies are binary (RaftCodec) or JSON depending on the request Content-Type; the response
+// uses the same format as the request. Requests for Raft groups other than 0 carry ?group=N;
+// /heartbeats takes the coalesced heartbeats of several groups at once.
+public class RpcServer extends HttpServlet {
+    private final RaftGroups groups;
+
+    public RpcServer(RaftGroups groups) {
+        this.groups = groups;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String op = req.getPathInfo() == null ? "" : req.getPathInfo();
+        MessageCodec codec = codecFor(req.getContentType());
+        if (codec == null) {
+            resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+        byte[] body = req.getInputStream().readAllBytes();
+        RaftNode raft;
+        try {
+            raft = groups.get(req.getParameter("group") == null ? 0 : Integer.parseInt(req.getParameter("group")));
+        } catch (NumberFormatException e) {
+            raft = null;
+        }
+        if (raft == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "unknown raft group");
+            return;
+        }
+        Object result;
+        try {
+            switch (op) {
+                case "/appendEntries" -> result = raft.handleAppendEntries(codec.decode(body, AppendEntriesRequest.class));
+                case "/requestVote" -> result = raft.handleRequestVote(codec.decode(body, RequestVoteRequest.class));
+                case "/installSnapshot" -> result = raft.handleInstallSnapshot(codec.decode(body, InstallSnapshotRequest.class));
+                case "/readIndex" -> result = raft.handleReadIndex(codec.decode(body, ReadIndexRequest.class));
+                case "/timeoutNow" -> result = raft.handleTimeoutNow(codec.decode(body, TimeoutNowRequest.class));
+                case "/heartbeats" -> result = groups.handleHeartbeats(codec.decode(body, HeartbeatBatchRequest.class));
+                default -> {
+                    resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        byte[] out = codec.encode(result);
+        resp.setContentType(codec.contentType());
+        resp.setContentLength(out.length);
+        resp.getOutputStream().write(out);
+    }
+
+    static MessageCodec codecFor(String contentType) {
+        if (contentType == null) return JsonCodec.INSTANCE;
+        String type = contentType.split(";", 2)[0].trim();
+        if (type.equalsIgnoreCase(RaftCodec.CONTENT_TYPE)) return RaftCodec.INSTANCE;
+        if (type.equalsIgnoreCase(RpcClient.JSON)) return JsonCodec.INSTANCE;
+        return null;
+    }
 }
@@ -0,0 +1,230 @@
+package com.example.dfs.raft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One thread that runs the tasks and timers of the Raft nodes bound to it. Any thread may hand it
+ * a task through a lock-free multi-producer single-consumer queue; timers live in a hashed wheel
+ * that only the loop thread touches. A node's state is only ever read and written on its loop,
+ * so the Raft core takes no locks and RPC handling, appends and timers never contend.
+ */
+public final class EventLoop implements Executor {
+    private static final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+    // fine enough that the 2ms batch linger is not stretched much; a turn of the wheel is ~51ms
+    private static final long TICK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+    // tasks run between timer checks, so a busy queue cannot hold heartbeats back
+    private static final int MAX_BATCH = 1024;
+
+    private final Thread thread;
+    private final TaskQueue tasks = new TaskQueue();
+    private volatile boolean sleeping;
+    // queue depth for metrics: striped on the producer side, written by the loop alone
+    private final LongAdder submitted = new LongAdder();
+    private volatile long completed;
+    private volatile boolean shutdown;
+
+    // the wheel, loop thread only: slot i holds the timers due at ticks i, i + WHEEL_SIZE, ...
+    private final List<Timeout>[] wheel;
+    private final List<Timeout> due = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+    // next tick to expire
+    private long tick;
+    private int timers;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public EventLoop(String name) {
+        wheel = new List[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) wheel[i] = new ArrayList<>();
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (shutdown) throw new RejectedExecutionException(thread.getName() + " is shut down");
+        submitted.increment();
+        tasks.offer(task);
+        // the swap in offer orders it before this read; the loop sets sleeping before its last look at the queue
+        if (sleeping) LockSupport.unpark(thread);
+    }
+
+    /** Runs the task on the loop after at least the delay, rounded up to the next 100µs tick. */
+    public Timeout schedule(long delay, TimeUnit unit, Runnable task) {
+        Timeout t = new Timeout(System.nanoTime() + unit.toNanos(delay), task);
+        if (inLoop()) add(t);
+        else execute(() -> add(t));
+        return t;
+    }
+
+    /** Stops the loop once the tasks already queued have run, and waits for it unless called from it. */
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(thread);
+        if (inLoop()) return;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    private void run() {
+        while (!shutdown) {
+            runTasks();
+            expireTimers();
+            if (!tasks.isEmpty()) continue;
+            sleeping = true;
+            if (tasks.isEmpty() && !shutdown) {
+                long nanos = untilNextTimer();
+                if (nanos < 0) LockSupport.park(this);
+                else if (nanos > 0) LockSupport.parkNanos(this, nanos);
+            }
+            sleeping = false;
+        }
+        // callers of tasks queued before the shutdown may be waiting for them
+        while (!tasks.isEmpty()) runTasks();
+    }
+
+    private void runTasks() {
+        int i = 0;
+        for (; i < MAX_BATCH; i++) {
+            Runnable task = tasks.poll();
+            if (task == null) break;
+            runSafely(task);
+        }
+        if (i > 0) completed += i;
+    }
+
+    /** Tasks handed to the loop and not yet run; approximate while producers are adding. */
+    public long queued() {
+        return Math.max(0, submitted.sum() - completed);
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            logger.warn("event loop task failed", e);
+        }
+    }
+
+    private void add(Timeout t) {
+        // a deadline that has passed goes into the next tick to expire
+        t.tick = Math.max(tick, Math.ceilDiv(t.deadlineNanos - startNanos, TICK_NANOS));
+        wheel[(int) (t.tick & MASK)].add(t);
+        timers++;
+    }
+
+    private void expireTimers() {
+        long now = (System.nanoTime() - startNanos) / TICK_NANOS;
+        while (tick <= now) {
+            List<Timeout> slot = wheel[(int) (tick & MASK)];
+            int kept = 0;
+            for (Timeout t : slot) {
+                if (t.cancelled || t.tick <= tick) {
+                    timers--;
+                    if (!t.cancelled) due.add(t);
+                } else {
+                    // due in a later turn of the wheel
+                    slot.set(kept++, t);
+                }
+            }
+            slot.subList(kept, slot.size()).clear();
+            // advance first, so a timer scheduled by one of these lands in a slot still to come
+            tick++;
+            for (Timeout t : due) runSafely(t.task);
+            due.clear();
+        }
+    }
+
+    // Nanoseconds until the first occupied slot, or -1 without timers. Cancelled timers may wake
+    // the loop early, and one a full turn away after a turn; both just lead to another park.
+    private long untilNextTimer() {
+        if (timers == 0) return -1;
+        long elapsed = System.nanoTime() - startNanos;
+        for (long t = tick; t < tick + WHEEL_SIZE; t++) {
+            if (!wheel[(int) (t & MASK)].isEmpty()) return Math.max(0, t * TICK_NANOS - elapsed);
+        }
+        return WHEEL_SIZE * TICK_NANOS;
+    }
+
+    /** A scheduled task; cancelling it is safe from any thread. */
+    public static final class Timeout {
+        private final long deadlineNanos;
+        private final Runnable task;
+        private long tick;
+        private volatile boolean cancelled;
+
+        private Timeout(long deadlineNanos, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    // Vyukov's intrusive MPSC queue: a producer swaps its node in as the tail and then links the
+    // old tail to it; the loop follows the links from a consumed stub. One atomic swap per offer.
+    private static final class TaskQueue {
+        private final AtomicReference<Node> tail;
+        // loop thread only
+        private Node head;
+
+        TaskQueue() {
+            head = new Node(null);
+            tail = new AtomicReference<>(head);
+        }
+
+        void offer(Runnable task) {
+            Node n = new Node(task);
+            tail.getAndSet(n).next = n;
+        }
+
+        // Null when empty, and also while a producer is between its swap and its link.
+        Runnable poll() {
+            Node next = head.next;
+            if (next == null) return null;
+            Runnable task = next.task;
+            next.task = null;
+            head = next;
+            return task;
+        }
+
+        // false as soon as a producer has swapped, even before it links
+        boolean isEmpty() {
+            return tail.get() == head;
+        }
+
+        private static final class Node {
+            Runnable task;
+            volatile Node next;
+
+            Node(Runnable task) {
+                this.task = task;
+            }
+        }
+    }
+}
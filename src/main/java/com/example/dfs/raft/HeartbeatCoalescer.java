@@ -0,0 +1,90 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.model.AppendEntriesRequest;
+import com.example.dfs.model.AppendEntriesResponse;
+import com.example.dfs.model.HeartbeatBatchRequest;
+import com.example.dfs.model.HeartbeatBatchResponse;
+import com.example.dfs.net.MessageCodec;
+import com.example.dfs.net.RpcClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges the heartbeats (empty AppendEntries) that the Raft groups hosted on this node send to the
+ * same peer within a short window into one request. The groups' heartbeat timers are aligned, so
+ * a peer gets one heartbeat request per interval however many groups there are.
+ */
+public class HeartbeatCoalescer {
+    private final RpcClient rpc;
+    private final MessageCodec codec;
+    // times the windows; flushing only encodes and posts, so it does not hold the loop up
+    private final EventLoop timer;
+    private final long windowMicros;
+    // heartbeats waiting for their peer's next request, guarded by this
+    private final Map<String, List<Pending>> pending = new HashMap<>();
+    private final AtomicLong heartbeats = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    public HeartbeatCoalescer(RpcClient rpc, MessageCodec codec, EventLoop timer, long windowMicros) {
+        this.rpc = rpc;
+        this.codec = codec;
+        this.timer = timer;
+        this.windowMicros = windowMicros;
+    }
+
+    public CompletableFuture<AppendEntriesResponse> send(String peer, int group, AppendEntriesRequest req) {
+        Pending p = new Pending(group, req, new CompletableFuture<>());
+        boolean first;
+        synchronized (this) {
+            List<Pending> batch = pending.computeIfAbsent(peer, k -> new ArrayList<>());
+            first = batch.isEmpty();
+            batch.add(p);
+        }
+        if (first) timer.schedule(windowMicros, TimeUnit.MICROSECONDS, () -> flush(peer));
+        return p.future;
+    }
+
+    private void flush(String peer) {
+        List<Pending> batch;
+        synchronized (this) {
+            batch = pending.remove(peer);
+        }
+        if (batch == null) return;
+        heartbeats.addAndGet(batch.size());
+        requests.incrementAndGet();
+        HeartbeatBatchRequest req = new HeartbeatBatchRequest();
+        req.groups = new ArrayList<>(batch.size());
+        req.requests = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            req.groups.add(p.group);
+            req.requests.add(p.request);
+        }
+        rpc.post(peer + "/rpc/raft/heartbeats", req, HeartbeatBatchResponse.class, codec).whenComplete((resp, err) -> {
+            if (err == null && (resp == null || resp.responses == null || resp.responses.size() != batch.size())) {
+                err = new IOException("malformed heartbeat batch response from " + peer);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (err != null) batch.get(i).future.completeExceptionally(err);
+                else batch.get(i).future.complete(resp.responses.get(i));
+            }
+        });
+    }
+
+    public long heartbeats() {
+        return heartbeats.get();
+    }
+
+    // requests that carried them; heartbeats / requests is the coalescing factor
+    public long requests() {
+        return requests.get();
+    }
+
+    private record Pending(int group, AppendEntriesRequest request, CompletableFuture<AppendEntriesResponse> future) {}
+}
@@ -0,0 +1,67 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.model.AppendEntriesRequest;
+import com.example.dfs.model.AppendEntriesResponse;
+import com.example.dfs.model.InstallSnapshotRequest;
+import com.example.dfs.model.InstallSnapshotResponse;
+import com.example.dfs.model.ReadIndexRequest;
+import com.example.dfs.model.ReadIndexResponse;
+import com.example.dfs.model.RequestVoteRequest;
+import com.example.dfs.model.RequestVoteResponse;
+import com.example.dfs.model.TimeoutNowRequest;
+import com.example.dfs.model.TimeoutNowResponse;
+import com.example.dfs.net.MessageCodec;
+import com.example.dfs.net.RpcClient;
+
+import java.util.concurrent.CompletableFuture;
+
+// Raft RPCs of one group over the shared RpcClient, addressed to the peers' RpcServer servlet.
+// Group 0 uses the plain paths, other groups add ?group=N. Heartbeats go through the node's
+// HeartbeatCoalescer, when there is one, to share a request with the other groups' heartbeats.
+public class HttpRaftTransport implements RaftTransport {
+    private final RpcClient rpc;
+    private final MessageCodec codec;
+    private final int group;
+    private final HeartbeatCoalescer heartbeats;
+
+    public HttpRaftTransport(RpcClient rpc, MessageCodec codec) {
+        this(rpc, codec, 0, null);
+    }
+
+    public HttpRaftTransport(RpcClient rpc, MessageCodec codec, int group, HeartbeatCoalescer heartbeats) {
+        this.rpc = rpc;
+        this.codec = codec;
+        this.group = group;
+        this.heartbeats = heartbeats;
+    }
+
+    private String url(String peer, String op) {
+        return peer + "/rpc/raft/" + op + (group == 0 ? "" : "?group=" + group);
+    }
+
+    @Override
+    public CompletableFuture<AppendEntriesResponse> appendEntries(String peer, AppendEntriesRequest req) {
+        if (heartbeats != null && (req.entries == null || req.entries.isEmpty())) return heartbeats.send(peer, group, req);
+        return rpc.post(url(peer, "appendEntries"), req, AppendEntriesResponse.class, codec);
+    }
+
+    @Override
+    public CompletableFuture<RequestVoteResponse> requestVote(String peer, RequestVoteRequest req) {
+        return rpc.post(url(peer, "requestVote"), req, RequestVoteResponse.class, codec);
+    }
+
+    @Override
+    public CompletableFuture<InstallSnapshotResponse> installSnapshot(String peer, InstallSnapshotRequest req) {
+        return rpc.post(url(peer, "installSnapshot"), req, InstallSnapshotResponse.class, codec);
+    }
+
+    @Override
+    public CompletableFuture<ReadIndexResponse> readIndex(String peer, ReadIndexRequest req) {
+        return rpc.post(url(peer, "readIndex"), req, ReadIndexResponse.class, codec);
+    }
+
+    @Override
+    public CompletableFuture<TimeoutNowResponse> timeoutNow(String peer, TimeoutNowRequest req) {
+        return rpc.post(url(peer, "timeoutNow"), req, TimeoutNowResponse.class, codec);
+    }
+}
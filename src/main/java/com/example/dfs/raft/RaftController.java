@@ -2,27 +2,70 @@ package com.example.dfs.raft;
 
 import com.example.dfs.model.AppendEntriesRequest;
 import com.example.dfs.model.AppendEntriesResponse;
+import com.example.dfs.model.InstallSnapshotRequest;
+import com.example.dfs.model.InstallSnapshotResponse;
+import com.example.dfs.model.ReadIndexRequest;
+import com.example.dfs.model.ReadIndexResponse;
 import com.example.dfs.model.RequestVoteRequest;
 import com.example.dfs.model.RequestVoteResponse;
+import com.example.dfs.model.TimeoutNowRequest;
+import com.example.dfs.model.TimeoutNowResponse;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.springframework.http.HttpStatus.NOT_FOUND;
 
 @RestController
 @RequestMapping("/raft")
 public class RaftController {
-    private final RaftNode raft;
+    private final RaftGroups groups;
+
+    public RaftController(RaftGroups groups) { this.groups = groups; }
 
-    public RaftController(RaftNode raft) { this.raft = raft; }
+    private RaftNode raft(int group) {
+        RaftNode node = groups.get(group);
+        if (node == null) throw new ResponseStatusException(NOT_FOUND, "unknown raft group " + group);
+        return node;
+    }
 
     @PostMapping("/appendEntries")
-    public AppendEntriesResponse appendEntries(@RequestBody AppendEntriesRequest req) {
-        return raft.handleAppendEntries(req);
+    public AppendEntriesResponse appendEntries(@RequestParam(defaultValue = "0") int group, @RequestBody AppendEntriesRequest req) {
+        return raft(group).handleAppendEntries(req);
     }
 
     @PostMapping("/requestVote")
-    public RequestVoteResponse requestVote(@RequestBody RequestVoteRequest req) {
-        return raft.handleRequestVote(req);
+    public RequestVoteResponse requestVote(@RequestParam(defaultValue = "0") int group, @RequestBody RequestVoteRequest req) {
+        return raft(group).handleRequestVote(req);
+    }
+
+    @PostMapping("/installSnapshot")
+    public InstallSnapshotResponse installSnapshot(@RequestParam(defaultValue = "0") int group, @RequestBody InstallSnapshotRequest req) {
+        return raft(group).handleInstallSnapshot(req);
+    }
+
+    @PostMapping("/readIndex")
+    public ReadIndexResponse readIndex(@RequestParam(defaultValue = "0") int group, @RequestBody ReadIndexRequest req) {
+        return raft(group).handleReadIndex(req);
+    }
+
+    @PostMapping("/timeoutNow")
+    public TimeoutNowResponse timeoutNow(@RequestParam(defaultValue = "0") int group, @RequestBody TimeoutNowRequest req) {
+        return raft(group).handleTimeoutNow(req);
     }
 
     @GetMapping("/role")
-    public String role() { return raft.getRole().name(); }
+    public String role(@RequestParam(defaultValue = "0") int group) { return raft(group).getRole().name(); }
+
+    // Routing table: the hash range of file ids each group owns and its leader as seen from this node.
+    @GetMapping("/groups")
+    public Map<String, Object> groups(@RequestParam(required = false) String fileId) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        if (fileId != null) m.put("groupOf", groups.groupOf(fileId));
+        m.put("groups", groups.routingTable());
+        m.put("heartbeats", groups.heartbeatStats());
+        return m;
+    }
 }
@@ -0,0 +1,185 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.metrics.Metrics;
+import com.example.dfs.model.AppendEntriesResponse;
+import com.example.dfs.model.HeartbeatBatchRequest;
+import com.example.dfs.model.HeartbeatBatchResponse;
+import com.example.dfs.net.JsonCodec;
+import com.example.dfs.net.MessageCodec;
+import com.example.dfs.net.RaftCodec;
+import com.example.dfs.net.RpcClient;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
+
+/**
+ * The Raft groups (raft.groups, default 1) this node is a member of. Every node hosts every group;
+ * the metadata keyspace is split into equal ranges of a 32-bit hash of the file id, one range per
+ * group, so unrelated files commit through independent logs and leaders. Each group prefers a
+ * different member as its leader, which spreads the leaders (and their appends) across the nodes.
+ * The groups share a few event loops (raft.event-loops, default one per core; group g runs on loop
+ * g mod loops) and, with more than one group, coalesce their heartbeats.
+ */
+@Component
+public class RaftGroups {
+    private final List<RaftNode> groups;
+    private final List<EventLoop> loops;
+    private final HeartbeatCoalescer heartbeats;
+    private final String advertisedUrl;
+
+    @Autowired
+    public RaftGroups(Environment env, RpcClient rpc, Metrics metrics) {
+        int count = count(env);
+        this.loops = newLoops(env, count);
+        for (int i = 0; i < loops.size(); i++) {
+            EventLoop loop = loops.get(i);
+            metrics.gauge("dfs_raft_loop_queued", "Tasks waiting on a Raft event loop", loop::queued, "loop", Integer.toString(i));
+        }
+        // "json" keeps the wire readable and lets a cluster roll onto nodes that accept both formats
+        MessageCodec codec = "json".equalsIgnoreCase(env.getProperty("raft.rpc.codec", "binary")) ? JsonCodec.INSTANCE : RaftCodec.INSTANCE;
+        this.heartbeats = count == 1 ? null
+                : new HeartbeatCoalescer(rpc, codec, loops.get(0), env.getProperty("raft.heartbeat.coalesce-micros", Long.class, 1000L));
+        this.advertisedUrl = RaftNode.advertisedUrl(env);
+        this.groups = create(env, count, g -> new HttpRaftTransport(rpc, codec, g, heartbeats), metrics);
+    }
+
+    RaftGroups(Environment env, IntFunction<RaftTransport> transports) {
+        this.loops = newLoops(env, count(env));
+        this.heartbeats = null;
+        this.advertisedUrl = RaftNode.advertisedUrl(env);
+        this.groups = create(env, count(env), transports, Metrics.disabled());
+    }
+
+    private static int count(Environment env) {
+        int count = env.getProperty("raft.groups", Integer.class, 1);
+        if (count < 1) throw new IllegalArgumentException("raft.groups must be at least 1");
+        return count;
+    }
+
+    private static List<EventLoop> newLoops(Environment env, int groups) {
+        int count = env.getProperty("raft.event-loops", Integer.class, Runtime.getRuntime().availableProcessors());
+        if (count < 1) throw new IllegalArgumentException("raft.event-loops must be at least 1");
+        List<EventLoop> loops = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, groups); i++) loops.add(new EventLoop("raft-loop-" + i));
+        return List.copyOf(loops);
+    }
+
+    private List<RaftNode> create(Environment env, int count, IntFunction<RaftTransport> transports, Metrics metrics) {
+        // every node derives the same member order, so they agree on each group's preferred leader
+        List<String> members = new ArrayList<>();
+        String peers = env.getProperty("node.peers", "");
+        if (!peers.isBlank()) members.addAll(Arrays.asList(peers.split(",")));
+        members.add(advertisedUrl);
+        members.sort(null);
+        List<RaftNode> nodes = new ArrayList<>(count);
+        for (int g = 0; g < count; g++) {
+            String preferred = count > 1 ? members.get(g % members.size()) : null;
+            nodes.add(new RaftNode(env, transports.apply(g), g, loops.get(g % loops.size()), preferred, metrics));
+        }
+        return List.copyOf(nodes);
+    }
+
+    @PostConstruct
+    public void start() {
+        groups.forEach(RaftNode::start);
+    }
+
+    @PreDestroy
+    public void stop() {
+        groups.forEach(RaftNode::stop);
+        loops.forEach(EventLoop::shutdown);
+    }
+
+    public int count() {
+        return groups.size();
+    }
+
+    public List<RaftNode> all() {
+        return groups;
+    }
+
+    // Null for a group this node does not host, e.g. a peer configured with more groups.
+    public RaftNode get(int group) {
+        return group >= 0 && group < groups.size() ? groups.get(group) : null;
+    }
+
+    public RaftNode group(String fileId) {
+        return groups.get(groupOf(fileId));
+    }
+
+    public int groupOf(String fileId) {
+        return (int) ((hash(fileId) & 0xFFFFFFFFL) * groups.size() >>> 32);
+    }
+
+    // String.hashCode is fixed by the JLS, so all nodes agree; the murmur3 finalizer spreads
+    // similar ids (file1, file2, ...) over the whole range.
+    static int hash(String fileId) {
+        int h = fileId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    public HeartbeatBatchResponse handleHeartbeats(HeartbeatBatchRequest req) {
+        List<CompletableFuture<AppendEntriesResponse>> pending = new ArrayList<>(req.requests.size());
+        for (int i = 0; i < req.requests.size(); i++) {
+            RaftNode node = get(req.groups.get(i));
+            if (node == null) throw new IllegalArgumentException("unknown raft group " + req.groups.get(i));
+            // handed to every group's loop before waiting for any of them
+            pending.add(node.appendEntriesAsync(req.requests.get(i)));
+        }
+        HeartbeatBatchResponse resp = new HeartbeatBatchResponse();
+        resp.responses = new ArrayList<>(pending.size());
+        try {
+            for (CompletableFuture<AppendEntriesResponse> f : pending) resp.responses.add(f.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            throw e;
+        }
+        return resp;
+    }
+
+    /** Which hash range each group owns and who leads it, as seen from this node. */
+    public List<Map<String, Object>> routingTable() {
+        List<Map<String, Object>> table = new ArrayList<>();
+        long span = 1L << 32;
+        for (RaftNode n : groups) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            int g = n.getGroup();
+            m.put("group", g);
+            m.put("hashFrom", String.format("%08x", -Math.floorDiv(-g * span, groups.size())));
+            m.put("hashTo", String.format("%08x", -Math.floorDiv(-(g + 1) * span, groups.size()) - 1));
+            m.put("role", n.getRole().name());
+            m.put("term", n.getCurrentTerm());
+            m.put("leaderId", n.getLeaderId());
+            m.put("leaderUrl", n.getRole() == RaftNode.Role.LEADER ? advertisedUrl : n.getLeaderUrl());
+            m.put("commitIndex", n.getCommitIndex());
+            table.add(m);
+        }
+        return table;
+    }
+
+    public Map<String, Object> heartbeatStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("coalescing", heartbeats != null);
+        if (heartbeats != null) {
+            m.put("heartbeats", heartbeats.heartbeats());
+            m.put("requests", heartbeats.requests());
+        }
+        return m;
+    }
+}
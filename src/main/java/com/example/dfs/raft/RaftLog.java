@@ -0,0 +1,475 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.metrics.Timer;
+import com.example.dfs.model.LogEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, segmented on-disk Raft log.
+ *
+ * Each record is {@code [int length][int crc32c][long term][command bytes]} where the CRC covers
+ * everything after it. Segments are named after the index of their first entry and rolled at
+ * {@code segmentBytes}. Only terms and file positions are kept in memory (plus a small cache of
+ * the newest entries); older commands are read back from the segment files. Once a snapshot
+ * covers a prefix of the log, {@link #compact(long, long)} deletes the segments it makes redundant.
+ *
+ * Appends reach the OS immediately; {@link #sync(long)} returns a future that completes once the
+ * entry is on stable storage. In GROUP mode a single syncer thread covers every append made
+ * since its previous {@code force}, so concurrent writers share one fsync. An fsync that fails
+ * is not retried (the kernel may already have dropped the dirty pages): pending and later
+ * {@code sync} futures fail with its error and no further appends are accepted.
+ */
+public class RaftLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RaftLog.class);
+    private static final int HEADER_BYTES = 8;
+    private static final String SUFFIX = ".log";
+
+    public enum SyncMode { GROUP, ENTRY, NONE }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final SyncMode syncMode;
+    private final Timer fsyncTimer;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+
+    // in-memory index, slot i holds log index startIndex + 1 + i
+    private long[] terms = new long[1024];
+    private int[] positions = new int[1024];
+    private long startIndex;
+    private long lastIndex;
+
+    // last entry covered by the state machine snapshot
+    private long snapshotIndex;
+    private long snapshotTerm;
+
+    private final LogEntry[] tailCache = new LogEntry[8192];
+    private long cachedFrom = 1;
+
+    // currentTerm and votedFor, which Raft requires to survive restarts along with the log
+    private long savedTerm;
+    private String savedVote;
+
+    private volatile long durableIndex;
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Long>> syncWaiters = new ConcurrentSkipListMap<>();
+    private final Thread syncer;
+    private volatile boolean closed;
+    // the fsync error that ended durability, if any
+    private volatile IOException failure;
+
+    public RaftLog(Path dir, long segmentBytes, SyncMode syncMode) {
+        this(dir, segmentBytes, syncMode, Timer.NOOP);
+    }
+
+    /** {@code fsyncTimer} times the fsyncs that make appended entries durable. */
+    public RaftLog(Path dir, long segmentBytes, SyncMode syncMode, Timer fsyncTimer) {
+        if (segmentBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("segments are limited to 2 GB");
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.syncMode = syncMode;
+        this.fsyncTimer = fsyncTimer;
+        try {
+            Files.createDirectories(dir);
+            loadHardState();
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        durableIndex = lastIndex;
+        cachedFrom = lastIndex + 1;
+        syncer = new Thread(this::syncLoop, "raft-log-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            ds.forEach(files::add);
+        }
+        files.sort(Comparator.naturalOrder());
+        long start = System.nanoTime();
+        boolean torn = false;
+        for (Path f : files) {
+            long base = Long.parseLong(f.getFileName().toString().replace(SUFFIX, ""));
+            if (segments.isEmpty()) startIndex = lastIndex = base - 1;
+            if (torn || (!segments.isEmpty() && base != lastIndex + 1)) {
+                logger.warn("discarding raft log segment {} after a gap or torn record", f);
+                Files.delete(f);
+                continue;
+            }
+            Segment seg = new Segment(base, f);
+            torn = scan(seg);
+            segments.put(base, seg);
+        }
+        if (segments.isEmpty()) {
+            roll();
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        logger.info("raft log recovered {} entries from {} segments in {} ms",
+                lastIndex, segments.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Indexes every intact record of a segment; returns true if it ended in a torn or corrupt record.
+    private boolean scan(Segment seg) throws IOException {
+        long size = seg.channel.size();
+        MappedByteBuffer buf = seg.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        CRC32C crc = new CRC32C();
+        int pos = 0;
+        while (pos + HEADER_BYTES <= size) {
+            int len = buf.getInt(pos);
+            int expected = buf.getInt(pos + 4);
+            if (len < Long.BYTES || pos + HEADER_BYTES + (long) len > size) break;
+            crc.reset();
+            crc.update(buf.slice(pos + HEADER_BYTES, len));
+            if ((int) crc.getValue() != expected) break;
+            index(buf.getLong(pos + HEADER_BYTES), pos);
+            pos += HEADER_BYTES + len;
+        }
+        seg.size = pos;
+        if (pos < size) {
+            logger.warn("truncating torn tail of {} at offset {} (file size {})", seg.path, pos, size);
+            seg.channel.truncate(pos);
+            return true;
+        }
+        return false;
+    }
+
+    private void index(long term, int position) {
+        int slot = (int) (lastIndex - startIndex);
+        if (slot == terms.length) {
+            terms = Arrays.copyOf(terms, slot * 2);
+            positions = Arrays.copyOf(positions, slot * 2);
+        }
+        terms[slot] = term;
+        positions[slot] = position;
+        lastIndex++;
+    }
+
+    private void roll() throws IOException {
+        if (active != null) {
+            try {
+                force(active.channel);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+        long base = lastIndex + 1;
+        active = new Segment(base, dir.resolve(String.format("%020d%s", base, SUFFIX)));
+        segments.put(base, active);
+    }
+
+    /** Appends an entry and returns its index. The entry is not durable until {@link #sync(long)} completes. */
+    public synchronized long append(LogEntry entry) {
+        if (failure != null) throw new UncheckedIOException("raft log is no longer durable", failure);
+        byte[] cmd = entry.getCommand().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + Long.BYTES + cmd.length);
+        buf.putInt(Long.BYTES + cmd.length).putInt(0).putLong(entry.getTerm()).put(cmd);
+        CRC32C crc = new CRC32C();
+        crc.update(buf.array(), HEADER_BYTES, Long.BYTES + cmd.length);
+        buf.putInt(4, (int) crc.getValue()).flip();
+        try {
+            if (active.size + buf.remaining() > segmentBytes && active.size > 0) roll();
+            int position = (int) active.size;
+            while (buf.hasRemaining()) active.size += active.channel.write(buf, active.size);
+            index(entry.getTerm(), position);
+            tailCache[(int) (lastIndex % tailCache.length)] = entry;
+            if (syncMode == SyncMode.ENTRY) {
+                long start = System.nanoTime();
+                try {
+                    force(active.channel);
+                } catch (IOException e) {
+                    fail(e);
+                    throw e;
+                }
+                fsyncTimer.recordSince(start);
+                durableIndex = lastIndex;
+            } else if (syncMode == SyncMode.NONE) {
+                durableIndex = lastIndex;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (syncMode == SyncMode.GROUP) notifyAll();
+        return lastIndex;
+    }
+
+    /** Completes once every entry up to {@code index} is on stable storage. */
+    public CompletableFuture<Long> sync(long index) {
+        if (index <= durableIndex) return CompletableFuture.completedFuture(index);
+        if (failure != null) return CompletableFuture.failedFuture(failure);
+        CompletableFuture<Long> f = syncWaiters.computeIfAbsent(index, i -> new CompletableFuture<>());
+        // the syncer may have passed this index, or failed, while we were registering
+        if (index <= durableIndex) completeWaiters(durableIndex);
+        if (failure != null) failWaiters();
+        return f;
+    }
+
+    private void syncLoop() {
+        while (!closed) {
+            long target;
+            FileChannel channel;
+            synchronized (this) {
+                while (!closed && durableIndex >= lastIndex) {
+                    try { wait(); } catch (InterruptedException e) { return; }
+                }
+                target = lastIndex;
+                channel = active.channel;
+            }
+            long start = System.nanoTime();
+            try {
+                // earlier segments were forced when they were rolled
+                force(channel);
+                fsyncTimer.recordSince(start);
+            } catch (ClosedChannelException e) {
+                continue; // segment was truncated away, retry against the new tail
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            synchronized (this) {
+                // a truncation while forcing can shrink the log below target
+                durableIndex = Math.max(durableIndex, Math.min(target, lastIndex));
+            }
+            completeWaiters(durableIndex);
+        }
+    }
+
+    // Overridden by tests to make the disk fail.
+    void force(FileChannel channel) throws IOException {
+        channel.force(false);
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            logger.error("raft log fsync failed; no further appends are accepted: {}", e.getMessage());
+            failure = e;
+        }
+        failWaiters();
+    }
+
+    private void failWaiters() {
+        for (Map.Entry<Long, CompletableFuture<Long>> w = syncWaiters.pollFirstEntry(); w != null; w = syncWaiters.pollFirstEntry()) {
+            w.getValue().completeExceptionally(failure);
+        }
+    }
+
+    /** Whether an fsync failed, after which the log accepts no appends. */
+    public boolean failed() {
+        return failure != null;
+    }
+
+    private void completeWaiters(long durable) {
+        Map<Long, CompletableFuture<Long>> done = syncWaiters.headMap(durable, true);
+        done.forEach((index, f) -> f.complete(index));
+        done.clear();
+    }
+
+    public synchronized long lastIndex() {
+        return lastIndex;
+    }
+
+    public long durableIndex() {
+        return durableIndex;
+    }
+
+    public synchronized long firstIndex() {
+        return startIndex + 1;
+    }
+
+    public synchronized long snapshotIndex() {
+        return snapshotIndex;
+    }
+
+    /** Term of the entry at {@code index}, or -1 if it is beyond the log or compacted into a snapshot. */
+    public synchronized long termAt(long index) {
+        if (index == snapshotIndex) return snapshotTerm;
+        if (index == 0 && startIndex == 0) return 0;
+        if (index <= startIndex || index > lastIndex) return -1;
+        return terms[(int) (index - startIndex - 1)];
+    }
+
+    public synchronized LogEntry entryAt(long index) {
+        if (index <= startIndex || index > lastIndex) throw new IndexOutOfBoundsException("no log entry at " + index);
+        if (index >= cachedFrom && index > lastIndex - tailCache.length) return tailCache[(int) (index % tailCache.length)];
+        Segment seg = segments.floorEntry(index).getValue();
+        int position = positions[(int) (index - startIndex - 1)];
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            seg.channel.read(header, position);
+            ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+            seg.channel.read(body, position + HEADER_BYTES);
+            long term = body.getLong(0);
+            String cmd = new String(body.array(), Long.BYTES, body.capacity() - Long.BYTES, StandardCharsets.UTF_8);
+            return new LogEntry(term, cmd);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Removes {@code index} and everything after it, e.g. when a new leader overwrites a conflicting suffix. */
+    public synchronized void truncateFrom(long index) {
+        if (index > lastIndex) return;
+        if (index <= snapshotIndex) throw new IllegalStateException("cannot truncate into snapshot at " + snapshotIndex);
+        try {
+            while (segments.lastKey() > index) {
+                Segment seg = segments.pollLastEntry().getValue();
+                seg.channel.close();
+                Files.delete(seg.path);
+            }
+            active = segments.lastEntry().getValue();
+            if (index >= active.baseIndex) {
+                active.size = positions[(int) (index - startIndex - 1)];
+                active.channel.truncate(active.size);
+            }
+            active.channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lastIndex = index - 1;
+        cachedFrom = Math.min(cachedFrom, index);
+        if (durableIndex > lastIndex) durableIndex = lastIndex;
+    }
+
+    /**
+     * Records that a snapshot covers everything up to {@code index} and deletes the segments whose
+     * entries all precede it. The active segment is always kept.
+     */
+    public synchronized void compact(long index, long term) {
+        if (index <= snapshotIndex) return;
+        snapshotIndex = index;
+        snapshotTerm = term;
+        long newStart = startIndex;
+        try {
+            while (segments.size() > 1) {
+                Map.Entry<Long, Segment> first = segments.firstEntry();
+                long nextBase = segments.higherKey(first.getKey());
+                if (nextBase - 1 > index) break;
+                segments.pollFirstEntry();
+                first.getValue().channel.close();
+                Files.delete(first.getValue().path);
+                newStart = nextBase - 1;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (newStart > startIndex) {
+            int shift = (int) (newStart - startIndex);
+            int live = (int) (lastIndex - newStart);
+            System.arraycopy(terms, shift, terms, 0, live);
+            System.arraycopy(positions, shift, positions, 0, live);
+            startIndex = newStart;
+        }
+    }
+
+    /**
+     * Makes the log consistent with a snapshot ending at {@code index}: entries following a matching
+     * entry are retained (Raft section 7), otherwise the log is discarded.
+     */
+    public synchronized void installSnapshot(long index, long term) {
+        boolean covered = index >= startIndex && index <= lastIndex
+                && (index == startIndex || termAt(index) == term);
+        if (covered) compact(index, term);
+        else reset(index, term);
+    }
+
+    /**
+     * Discards the whole log and continues after {@code index}, used when an installed snapshot
+     * is ahead of or conflicts with the local log.
+     */
+    public synchronized void reset(long index, long term) {
+        try {
+            for (Segment seg : segments.values()) {
+                seg.channel.close();
+                Files.delete(seg.path);
+            }
+            segments.clear();
+            active = null;
+            startIndex = lastIndex = index;
+            snapshotIndex = index;
+            snapshotTerm = term;
+            roll();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        durableIndex = index;
+        cachedFrom = index + 1;
+    }
+
+    private void loadHardState() throws IOException {
+        Path f = dir.resolve("hardstate");
+        if (!Files.exists(f)) return;
+        String[] parts = Files.readString(f).trim().split(",", 2);
+        savedTerm = Long.parseLong(parts[0]);
+        savedVote = parts.length > 1 && !parts[1].isEmpty() ? parts[1] : null;
+    }
+
+    /** Durably records currentTerm and votedFor; must complete before answering the RPC that changed them. */
+    public synchronized void saveHardState(long term, String votedFor) {
+        if (term == savedTerm && Objects.equals(votedFor, savedVote)) return;
+        Path tmp = dir.resolve("hardstate.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(ByteBuffer.wrap((term + "," + (votedFor == null ? "" : votedFor)).getBytes(StandardCharsets.UTF_8)));
+            ch.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(tmp, dir.resolve("hardstate"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        savedTerm = term;
+        savedVote = votedFor;
+    }
+
+    public synchronized long savedTerm() {
+        return savedTerm;
+    }
+
+    public synchronized String savedVote() {
+        return savedVote;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+        for (Segment seg : segments.values()) {
+            try { seg.channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private static class Segment {
+        final long baseIndex;
+        final Path path;
+        final FileChannel channel;
+        long size;
+
+        Segment(long baseIndex, Path path) throws IOException {
+            this.baseIndex = baseIndex;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+    }
+}
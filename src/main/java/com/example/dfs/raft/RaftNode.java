@@ -1,174 +1,1067 @@
 package com.example.dfs.raft;
 
+import com.example.dfs.metrics.Metrics;
+import com.example.dfs.metrics.Timer;
 import com.example.dfs.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.env.Environment;
-import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
-import jakarta.annotation.PostConstruct;
+import java.util.function.Supplier;
 
-
-@Component
+/**
+ * One member of a Raft group. The groups hosted on a node are created and routed to by {@link RaftGroups}.
+ * All of a node's state belongs to its {@link EventLoop}: RPC handlers, client calls, transport
+ * callbacks and timers run there one at a time, so nothing here takes a lock or blocks the loop.
+ * Fields the getters read from other threads are volatile.
+ */
 public class RaftNode {
     private static final Logger logger = LoggerFactory.getLogger(RaftNode.class);
+    static final String NOOP = "NOOP";
+    // elections time out after 300-700ms
+    private static final int ELECTION_TIMEOUT_MIN_MS = 300;
 
     private final String nodeId;
+    // Raft group this node is a member of; every group has its own log and state machine
+    private final int group;
+    // node id plus group, for logging
+    private final String name;
     private final List<String> peers;
-    private final RestTemplate rest = new RestTemplate();
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    // the URL peers reach this node at, as it appears in their node.peers
+    private final String advertisedUrl;
+    // member that should lead this group when it is caught up, or null to keep whoever won
+    private final String preferredLeader;
+    private final RaftTransport transport;
+    private final EventLoop loop;
+    private final boolean ownsLoop;
+    private volatile boolean stopped;
+
+    // replication tuning
+    private final int maxBatchEntries;
+    private final long maxBatchBytes;
+    private final long batchLingerMs;
+    private final int maxInflight;
+    private final long heartbeatMs;
+    private final long commitTimeoutMs;
+    private final long snapshotThreshold;
+    private final int snapshotChunkBytes;
+    private final ReadMode readMode;
+    private final long leaseNanos;
+    private final long readTimeoutMs;
 
     private volatile Role role = Role.FOLLOWER;
-    private final AtomicLong currentTerm = new AtomicLong(0);
-    private volatile String votedFor = null;
-    private final List<LogEntry> log = Collections.synchronizedList(new ArrayList<>());
-    private final AtomicLong commitIndex = new AtomicLong(0);
+    private volatile long currentTerm;
+    private String votedFor;
+    private volatile String leaderId;
+    // when this follower last heard from the leader; while that is recent it refuses to vote
+    private long leaderContactNanos;
+    // log indexes are 1-based, as in the Raft paper
+    private final RaftLog log;
+    private volatile long commitIndex;
+    private long lastApplied;
     private final Random rand = new Random();
+    // votes granted to us in the current election
+    private int votes;
+
+    // leader-only state
+    private final Map<String, FollowerProgress> progress = new HashMap<>();
+    private boolean flushScheduled;
+    // index of the leader's NOOP; reads wait until it is committed
+    private long termStartIndex;
+    private final ArrayDeque<PendingRead> pendingReads = new ArrayDeque<>();
+
+    // follower-only: the peer that last answered a ReadIndex as leader, and read index batching
+    private volatile String leaderPeer;
+    private boolean readIndexInFlight;
+    private CompletableFuture<Long> nextReadIndex;
+    private final TreeMap<Long, CompletableFuture<Long>> appliedWaiters = new TreeMap<>();
+
+    private final TreeMap<Long, PendingCommit> pendingCommits = new TreeMap<>();
+    private RaftStateMachine stateMachine;
+    private volatile PeerMonitor monitor;
+
+    private final SnapshotStore snapshots;
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor();
+    private boolean snapshotInProgress;
+
+    private final Timer commitTimer;
+    private final Timer electionTimer;
+    // when this node's current run of elections began, 0 until it times out again after hearing from a leader
+    private long electionStartNanos;
 
-    private ScheduledFuture<?> electionTimeoutTask;
-    private ScheduledFuture<?> heartbeatTask;
+    private EventLoop.Timeout electionTimeoutTask;
+    private EventLoop.Timeout heartbeatTask;
 
-    public RaftNode(Environment env) {
+    // leadership transfer to the preferred leader; appends and lease reads pause while one is underway
+    private long transferDeadlineNanos;
+    private volatile boolean transferring;
+    private long nextTransferNanos;
+
+    RaftNode(Environment env, RaftTransport transport) {
+        this(env, transport, 0, null, null, Metrics.disabled());
+    }
+
+    /**
+     * A member of Raft group {@code group}. Group 0 keeps its log in raft.log.dir, other groups in
+     * a sibling directory per group. A null loop gives the node a loop of its own; groups hosted on
+     * one node share a few.
+     */
+    RaftNode(Environment env, RaftTransport transport, int group, EventLoop loop, String preferredLeader, Metrics metrics) {
         this.nodeId = env.getProperty("node.id", "node1");
+        this.group = group;
+        this.name = group == 0 ? nodeId : nodeId + "/g" + group;
         String peersCSV = env.getProperty("node.peers", "");
         if (peersCSV.trim().isEmpty()) this.peers = new ArrayList<>();
         else this.peers = Arrays.asList(peersCSV.split(","));
-        logger.info("RaftNode {} created with peers {}", nodeId, peers);
+        this.advertisedUrl = advertisedUrl(env);
+        this.preferredLeader = preferredLeader;
+        this.transport = transport;
+        this.ownsLoop = loop == null;
+        this.loop = loop != null ? loop : new EventLoop("raft-" + name);
+        this.maxBatchEntries = env.getProperty("raft.batch.max-entries", Integer.class, 256);
+        this.maxBatchBytes = env.getProperty("raft.batch.max-bytes", Long.class, 1L << 20);
+        this.batchLingerMs = env.getProperty("raft.batch.linger-ms", Long.class, 2L);
+        this.maxInflight = env.getProperty("raft.pipeline.max-inflight", Integer.class, 4);
+        this.heartbeatMs = env.getProperty("raft.heartbeat-ms", Long.class, 150L);
+        this.commitTimeoutMs = env.getProperty("raft.commit-timeout-ms", Long.class, 5000L);
+        this.snapshotThreshold = env.getProperty("raft.snapshot.threshold", Long.class, 100_000L);
+        this.snapshotChunkBytes = env.getProperty("raft.snapshot.chunk-bytes", Integer.class, 1 << 20);
+        this.readMode = ReadMode.valueOf(env.getProperty("raft.read.mode", "lease").toUpperCase().replace('-', '_'));
+        // the lease must run out before a follower that stopped hearing from us may vote for someone else;
+        // the margin covers clock drift between the leader and its followers
+        long leaseMs = env.getProperty("raft.read.lease-ms", Long.class, 250L);
+        if (leaseMs >= ELECTION_TIMEOUT_MIN_MS) {
+            throw new IllegalArgumentException("raft.read.lease-ms must be below the " + ELECTION_TIMEOUT_MIN_MS + "ms minimum election timeout");
+        }
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMs);
+        this.readTimeoutMs = env.getProperty("raft.read.timeout-ms", Long.class, 1000L);
+        String logDir = env.getProperty("raft.log.dir", env.getProperty("node.data.dir", "./data/node1") + "/raft");
+        if (group > 0) logDir = logDir + "-group-" + group;
+        this.log = new RaftLog(Path.of(logDir),
+                env.getProperty("raft.log.segment-bytes", Long.class, 64L << 20),
+                RaftLog.SyncMode.valueOf(env.getProperty("raft.log.sync", "group").toUpperCase()),
+                metrics.fsyncTimer("raft_log"));
+        this.commitTimer = metrics.timer("dfs_raft_commit_seconds", "Leader append of a command until a majority stored it and it was applied");
+        this.electionTimer = metrics.timer("dfs_raft_election_seconds", "Election timeout until this node won, split votes included");
+        this.snapshots = new SnapshotStore(Path.of(logDir, "snapshots"));
+        this.currentTerm = log.savedTerm();
+        this.votedFor = log.savedVote();
+        logger.info("RaftNode {} created with peers {}", name, peers);
+    }
+
+    static String advertisedUrl(Environment env) {
+        return env.getProperty("node.advertised-url", "http://localhost:" + env.getProperty("node.port", "8081"));
     }
 
-    @PostConstruct
     public void start() {
-        resetElectionTimeout();
+        post(this::resetElectionTimeout);
+    }
+
+    public void stop() {
+        if (stopped || loop.isShutdown()) {
+            stopped = true;
+        } else {
+            run(() -> {
+                stopped = true;
+                if (electionTimeoutTask != null) electionTimeoutTask.cancel();
+                if (heartbeatTask != null) heartbeatTask.cancel();
+                failPendingCommits();
+                failPendingReads();
+            });
+        }
+        if (ownsLoop) loop.shutdown();
+        snapshotExecutor.shutdownNow();
+        transport.close();
+        log.close();
+    }
+
+    // Runs the task on the loop, unless the node has been stopped by then.
+    private void post(Runnable task) {
+        loop.execute(() -> {
+            if (!stopped) task.run();
+        });
+    }
+
+    // Runs the task on the loop, failing the future instead if the node has been stopped by then.
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        loop.execute(() -> {
+            try {
+                if (stopped) throw new IllegalStateException(name + " is stopped");
+                f.complete(task.get());
+            } catch (Throwable e) {
+                f.completeExceptionally(e);
+            }
+        });
+        return f;
+    }
+
+    // For tasks that start asynchronous work on the loop themselves.
+    private <T> CompletableFuture<T> async(Supplier<CompletableFuture<T>> task) {
+        return loop.inLoop() ? task.get() : submit(task).thenCompose(f -> f);
+    }
+
+    // Runs the task on the loop and waits for it; for callers that are on their own thread anyway.
+    private <T> T call(Supplier<T> task) {
+        return loop.inLoop() ? task.get() : join(submit(task));
+    }
+
+    private void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    private static <T> T join(CompletableFuture<T> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            throw e;
+        }
+    }
+
+    private EventLoop.Timeout schedule(long delayMs, Runnable task) {
+        return loop.schedule(delayMs, TimeUnit.MILLISECONDS, () -> {
+            if (!stopped) task.run();
+        });
     }
 
     private void resetElectionTimeout() {
-        if (electionTimeoutTask != null) electionTimeoutTask.cancel(true);
-        int timeout = 300 + rand.nextInt(400); // 300-700ms
-        electionTimeoutTask = scheduler.schedule(this::onElectionTimeout, timeout, TimeUnit.MILLISECONDS);
+        if (electionTimeoutTask != null) electionTimeoutTask.cancel();
+        int timeout = ELECTION_TIMEOUT_MIN_MS + rand.nextInt(400);
+        electionTimeoutTask = schedule(timeout, this::onElectionTimeout);
     }
 
-    private synchronized void onElectionTimeout() {
-        logger.info("{} election timeout; starting election", nodeId);
-        startElection();
+    private void onElectionTimeout() {
+        if (role == Role.LEADER || log.failed()) return;
+        logger.info("{} election timeout; starting election", name);
+        startElection(false);
     }
 
-    private void startElection() {
-        long term = currentTerm.incrementAndGet();
+    // Votes are counted as they arrive; an election that does not reach a majority times out
+    // like any other and the next one starts in a new term.
+    private void startElection(boolean transfer) {
+        if (electionStartNanos == 0) electionStartNanos = System.nanoTime();
+        long term = ++currentTerm;
+        role = Role.CANDIDATE;
         votedFor = nodeId;
-        int votes = 1;
+        leaderId = null;
+        persistHardState();
+        votes = 1;
+        if (votes > (peers.size() + 1) / 2) {
+            becomeLeader();
+            return;
+        }
+        resetElectionTimeout();
         RequestVoteRequest req = new RequestVoteRequest();
         req.term = term;
         req.candidateId = nodeId;
-        req.lastLogIndex = log.size() - 1;
-        req.lastLogTerm = (log.isEmpty() ? 0 : log.get(log.size()-1).getTerm());
-
-        CountDownLatch latch = new CountDownLatch(peers.size());
-        AtomicLong voteCount = new AtomicLong(votes);
-
+        req.lastLogIndex = lastLogIndex();
+        req.lastLogTerm = termAt(req.lastLogIndex);
+        req.transfer = transfer;
         for (String p : peers) {
-            scheduler.submit(() -> {
-                try {
-                    String url = p + "/raft/requestVote";
-                    RequestVoteResponse resp = rest.postForObject(url, req, RequestVoteResponse.class);
-                    if (resp != null && resp.voteGranted) voteCount.incrementAndGet();
-                    if (resp != null && resp.term > currentTerm.get()) currentTerm.set(resp.term);
-                } catch (Exception e) {
-                    logger.debug("RequestVote to {} failed: {}", p, e.getMessage());
-                } finally {
-                    latch.countDown();
-                }
-            });
+            transport.requestVote(p, req).whenComplete((resp, err) -> post(() -> onVoteResponse(p, term, resp, err)));
         }
-        try { latch.await(500, TimeUnit.MILLISECONDS); } catch (InterruptedException ignored) {}
-        long vc = voteCount.get();
-        if (vc > (peers.size() + 1) / 2) becomeLeader();
-        else resetElectionTimeout();
+    }
+
+    private void onVoteResponse(String peer, long term, RequestVoteResponse resp, Throwable err) {
+        if (err != null || resp == null) {
+            logger.debug("RequestVote to {} failed: {}", peer, err == null ? "no response" : err.getMessage());
+            return;
+        }
+        if (resp.term > currentTerm) {
+            stepDown(resp.term);
+            return;
+        }
+        // the election may be over: won, lost to a leader that contacted us, or timed out
+        if (role != Role.CANDIDATE || currentTerm != term || !resp.voteGranted) return;
+        if (++votes > (peers.size() + 1) / 2) becomeLeader();
     }
 
     private void becomeLeader() {
+        if (electionTimeoutTask != null) electionTimeoutTask.cancel();
         role = Role.LEADER;
-        logger.info("{} became LEADER for term {}", nodeId, currentTerm.get());
-        startHeartbeat();
+        leaderId = nodeId;
+        if (electionStartNanos != 0) electionTimer.recordSince(electionStartNanos);
+        electionStartNanos = 0;
+        logger.info("{} became LEADER for term {}", name, currentTerm);
+        progress.clear();
+        long now = System.nanoTime();
+        for (String p : peers) progress.put(p, new FollowerProgress(lastLogIndex() + 1, now - leaseNanos - 1));
+        // an entry from the new term lets entries from earlier terms commit
+        long noop = log.append(new LogEntry(currentTerm, NOOP));
+        termStartIndex = noop;
+        log.sync(noop).whenComplete((i, err) -> post(err == null ? this::onLocalSync : this::onLogFailure));
+        if (heartbeatTask != null) heartbeatTask.cancel();
+        onHeartbeat();
+    }
+
+    private void onHeartbeat() {
+        if (role != Role.LEADER) return;
+        PeerMonitor m = monitor;
+        for (String p : peers) {
+            if (m != null) m.expect(p);
+            replicate(p, true);
+        }
+        maybeTransferLeadership();
+        // groups hosted on one node tick together, so their heartbeats to a peer can share a request
+        long delay = heartbeatMs - System.currentTimeMillis() % heartbeatMs;
+        heartbeatTask = schedule(delay, this::onHeartbeat);
     }
 
-    private void startHeartbeat() {
-        if (heartbeatTask != null) heartbeatTask.cancel(true);
-        heartbeatTask = scheduler.scheduleAtFixedRate(this::sendHeartbeats, 0, 150, TimeUnit.MILLISECONDS);
+    // Hands leadership to the preferred member once it has everything we have (Raft thesis 3.10),
+    // which spreads the leaders of the groups hosted on the same nodes across those nodes.
+    private void maybeTransferLeadership() {
+        long now = System.nanoTime();
+        if (transferring) {
+            if (now - transferDeadlineNanos < 0) return;
+            logger.info("{} leadership transfer to {} timed out", name, preferredLeader);
+            transferring = false;
+            nextTransferNanos = now + TimeUnit.SECONDS.toNanos(5);
+        }
+        if (preferredLeader == null || preferredLeader.equals(advertisedUrl) || now - nextTransferNanos < 0) return;
+        FollowerProgress p = progress.get(preferredLeader);
+        if (p == null || p.unreachable || p.matchIndex < lastLogIndex() || !pendingCommits.isEmpty()) return;
+        logger.info("{} transferring leadership of term {} to {}", name, currentTerm, preferredLeader);
+        transferring = true;
+        transferDeadlineNanos = now + TimeUnit.MILLISECONDS.toNanos(2L * ELECTION_TIMEOUT_MIN_MS);
+        TimeoutNowRequest req = new TimeoutNowRequest();
+        req.term = currentTerm;
+        req.leaderId = nodeId;
+        transport.timeoutNow(preferredLeader, req).whenComplete((resp, err) -> post(() -> {
+            if (resp != null && resp.term > currentTerm) stepDown(resp.term);
+        }));
     }
 
-    private void sendHeartbeats() {
+    private void flush() {
+        flushScheduled = false;
+        if (role != Role.LEADER) return;
+        for (String p : peers) replicate(p, false);
+    }
+
+    // Sends as many batches as the follower's pipeline window allows. A heartbeat
+    // sends an empty AppendEntries when nothing else is in flight to that follower.
+    // An unreachable follower only gets one probe per heartbeat until it answers.
+    private void replicate(String peer, boolean heartbeat) {
+        FollowerProgress p = progress.get(peer);
+        if (p.unreachable && !heartbeat) return;
+        if (p.snapshot != null || termAt(p.nextIndex - 1) < 0) {
+            // the entries this follower needs were compacted away
+            if (p.inflight == 0) sendSnapshotChunk(peer, p);
+            return;
+        }
+        if (p.unreachable) {
+            if (p.inflight == 0) sendAppendEntries(peer, p);
+            return;
+        }
+        boolean sent = false;
+        while (!p.unreachable && p.inflight < maxInflight && p.nextIndex <= lastLogIndex()) {
+            sendAppendEntries(peer, p);
+            sent = true;
+        }
+        // a read waiting for confirmation needs a round trip started after it arrived
+        boolean readProbe = !pendingReads.isEmpty() && p.lastSentNanos - pendingReads.peekLast().since < 0;
+        if ((heartbeat || readProbe) && !sent && p.inflight == 0) sendAppendEntries(peer, p);
+    }
+
+    private void sendAppendEntries(String peer, FollowerProgress p) {
         AppendEntriesRequest req = new AppendEntriesRequest();
-        req.term = currentTerm.get();
+        req.term = currentTerm;
         req.leaderId = nodeId;
-        req.prevLogIndex = log.size() - 1;
-        req.prevLogTerm = (log.isEmpty() ? 0 : log.get(log.size()-1).getTerm());
-        req.entries = Collections.emptyList();
-        req.leaderCommit = commitIndex.get();
-        for (String p : peers) {
-            scheduler.submit(() -> {
-                try {
-                    rest.postForObject(p + "/raft/appendEntries", req, AppendEntriesResponse.class);
-                } catch (Exception e) {
-                    logger.debug("heartbeat to {} failed: {}", p, e.getMessage());
-                }
+        req.prevLogIndex = p.nextIndex - 1;
+        req.prevLogTerm = termAt(req.prevLogIndex);
+        req.leaderCommit = commitIndex;
+        req.leaderUrl = advertisedUrl;
+
+        List<LogEntry> batch = new ArrayList<>();
+        long bytes = 0;
+        long last = lastLogIndex();
+        for (long i = p.nextIndex; i <= last && batch.size() < maxBatchEntries; i++) {
+            LogEntry e = entryAt(i);
+            bytes += utf8Length(e.getCommand());
+            if (!batch.isEmpty() && bytes > maxBatchBytes) break;
+            batch.add(e);
+        }
+        req.entries = batch;
+        // pipelining: assume success and move on, a rejection rewinds nextIndex
+        p.nextIndex += batch.size();
+        p.inflight++;
+        long sent = System.nanoTime();
+        p.lastSentNanos = sent;
+        transport.appendEntries(peer, req)
+                .whenComplete((resp, err) -> post(() -> onAppendEntriesResponse(peer, req, sent, resp, err)));
+    }
+
+    private void onAppendEntriesResponse(String peer, AppendEntriesRequest req, long sent,
+                                                      AppendEntriesResponse resp, Throwable err) {
+        if (resp != null) answered(peer);
+        if (role != Role.LEADER || currentTerm != req.term) return;
+        FollowerProgress p = progress.get(peer);
+        p.inflight--;
+        if (err != null || resp == null) {
+            logger.debug("appendEntries to {} failed: {}", peer, err == null ? "no response" : err.getMessage());
+            // resend everything unacknowledged on the next heartbeat
+            p.nextIndex = p.matchIndex + 1;
+            p.unreachable = true;
+            return;
+        }
+        if (resp.term > currentTerm) {
+            stepDown(resp.term);
+            return;
+        }
+        p.unreachable = false;
+        // any answer in our term means the follower still followed us when the request was sent
+        if (sent - p.ackedSentNanos > 0) p.ackedSentNanos = sent;
+        if (resp.success) {
+            p.matchIndex = Math.max(p.matchIndex, req.prevLogIndex + req.entries.size());
+            p.nextIndex = Math.max(p.nextIndex, p.matchIndex + 1);
+            advanceCommitIndex();
+        } else {
+            p.nextIndex = Math.max(p.matchIndex + 1, Math.min(resp.matchIndex + 1, req.prevLogIndex));
+        }
+        serveReads();
+        replicate(peer, false);
+    }
+
+    private void onLocalSync() {
+        if (role == Role.LEADER) advanceCommitIndex();
+    }
+
+    // The log can no longer make entries durable: hand leadership to a node that can, and never
+    // campaign again (see onElectionTimeout).
+    private void onLogFailure() {
+        if (role != Role.LEADER) return;
+        logger.error("{} raft log failed; stepping down", name);
+        stepDown(currentTerm);
+    }
+
+    private void sendSnapshotChunk(String peer, FollowerProgress p) {
+        if (p.snapshot == null) {
+            if (snapshots.latest() == null) {
+                logger.warn("{} has no snapshot to bring {} up to date", name, peer);
+                return;
+            }
+            p.snapshot = snapshots.latest();
+            p.snapshotOffset = 0;
+            logger.info("{} sending snapshot at index {} to {}", name, p.snapshot.index(), peer);
+        }
+        InstallSnapshotRequest req = new InstallSnapshotRequest();
+        req.term = currentTerm;
+        req.leaderId = nodeId;
+        req.lastIncludedIndex = p.snapshot.index();
+        req.lastIncludedTerm = p.snapshot.term();
+        req.offset = p.snapshotOffset;
+        try {
+            req.data = snapshots.readChunk(p.snapshot, p.snapshotOffset, snapshotChunkBytes);
+            req.done = p.snapshotOffset + req.data.length >= snapshots.size(p.snapshot);
+        } catch (IOException e) {
+            // superseded by a newer snapshot while streaming; start over with that one
+            logger.debug("snapshot read for {} failed: {}", peer, e.getMessage());
+            p.snapshot = null;
+            return;
+        }
+        p.inflight++;
+        long sent = System.nanoTime();
+        p.lastSentNanos = sent;
+        transport.installSnapshot(peer, req)
+                .whenComplete((resp, err) -> post(() -> onInstallSnapshotResponse(peer, req, sent, resp, err)));
+    }
+
+    private void onInstallSnapshotResponse(String peer, InstallSnapshotRequest req, long sent,
+                                                        InstallSnapshotResponse resp, Throwable err) {
+        if (resp != null) answered(peer);
+        if (role != Role.LEADER || currentTerm != req.term) return;
+        FollowerProgress p = progress.get(peer);
+        p.inflight--;
+        if (resp != null && resp.term > currentTerm) {
+            stepDown(resp.term);
+            return;
+        }
+        if (resp != null) {
+            if (sent - p.ackedSentNanos > 0) p.ackedSentNanos = sent;
+            serveReads();
+        }
+        if (err != null || resp == null || !resp.success) {
+            // restart the transfer on the next heartbeat
+            p.snapshot = null;
+            p.unreachable = err != null;
+            return;
+        }
+        p.unreachable = false;
+        if (!req.done) {
+            p.snapshotOffset += req.data.length;
+            sendSnapshotChunk(peer, p);
+            return;
+        }
+        p.snapshot = null;
+        p.matchIndex = Math.max(p.matchIndex, req.lastIncludedIndex);
+        p.nextIndex = p.matchIndex + 1;
+        replicate(peer, false);
+    }
+
+    private void answered(String peer) {
+        PeerMonitor m = monitor;
+        if (m != null) m.answered(peer);
+    }
+
+    // Commit the highest index stored on a majority, restricted to entries of the current term (Raft 5.4.2).
+    private void advanceCommitIndex() {
+        long[] matches = new long[peers.size() + 1];
+        int i = 0;
+        for (FollowerProgress p : progress.values()) matches[i++] = p.matchIndex;
+        // the leader counts towards the majority only with what it has fsynced itself
+        matches[i] = log.durableIndex();
+        Arrays.sort(matches);
+        long majorityMatch = matches[matches.length - (matches.length / 2 + 1)];
+        if (majorityMatch > commitIndex && termAt(majorityMatch) == currentTerm) {
+            commitIndex = majorityMatch;
+            applyCommitted();
+        }
+    }
+
+    private void applyCommitted() {
+        long commit = commitIndex;
+        while (lastApplied < commit) {
+            lastApplied++;
+            LogEntry entry = entryAt(lastApplied);
+            if (stateMachine == null) continue;
+            try {
+                stateMachine.apply(entry);
+            } catch (Exception e) {
+                logger.warn("state machine failed to apply index {}: {}", lastApplied, e.getMessage());
+            }
+        }
+        Map<Long, PendingCommit> done = pendingCommits.headMap(commit, true);
+        done.forEach((index, f) -> {
+            commitTimer.recordSince(f.appendedNanos);
+            f.complete(index);
+        });
+        done.clear();
+        notifyApplied();
+        if (role == Role.LEADER) serveReads();
+        maybeSnapshot();
+    }
+
+    private void notifyApplied() {
+        Map<Long, CompletableFuture<Long>> applied = appliedWaiters.headMap(lastApplied, true);
+        applied.forEach((index, f) -> f.complete(index));
+        applied.clear();
+    }
+
+    // Snapshots are serialized and written off the apply path, so appends and commits continue meanwhile.
+    private void maybeSnapshot() {
+        if (stateMachine == null || snapshotInProgress || lastApplied - log.snapshotIndex() < snapshotThreshold) return;
+        long index = lastApplied;
+        long term = termAt(index);
+        RaftStateMachine.SnapshotWriter writer = stateMachine.captureSnapshot();
+        snapshotInProgress = true;
+        snapshotExecutor.execute(() -> {
+            boolean written = false;
+            try {
+                snapshots.write(index, term, writer);
+                written = true;
+            } catch (Exception e) {
+                logger.warn("snapshot at index {} failed: {}", index, e.getMessage());
+            }
+            boolean compact = written;
+            post(() -> {
+                snapshotInProgress = false;
+                if (compact) log.compact(index, term);
             });
+        });
+    }
+
+    private void stepDown(long term) {
+        if (term > currentTerm) {
+            currentTerm = term;
+            votedFor = null;
+            persistHardState();
+        }
+        if (role == Role.LEADER) {
+            logger.info("{} stepping down in term {}", name, term);
+            leaderId = null;
+            transferring = false;
+            if (heartbeatTask != null) heartbeatTask.cancel();
+            progress.clear();
+            failPendingCommits();
+            failPendingReads();
+        }
+        role = Role.FOLLOWER;
+        resetElectionTimeout();
+    }
+
+    private void failPendingCommits() {
+        pendingCommits.values().forEach(f -> f.completeExceptionally(new IllegalStateException("leadership lost")));
+        pendingCommits.clear();
+    }
+
+    // the commit future carries its append time, so timing a commit allocates nothing extra
+    private static final class PendingCommit extends CompletableFuture<Long> {
+        final long appendedNanos;
+
+        PendingCommit(long appendedNanos) {
+            this.appendedNanos = appendedNanos;
         }
     }
 
-    public synchronized AppendEntriesResponse handleAppendEntries(AppendEntriesRequest req) {
+    private void failPendingReads() {
+        pendingReads.forEach(r -> r.future.completeExceptionally(new IllegalStateException("leadership lost")));
+        pendingReads.clear();
+    }
+
+    public AppendEntriesResponse handleAppendEntries(AppendEntriesRequest req) {
+        return join(appendEntriesAsync(req));
+    }
+
+    // Completes once the appended entries are durable. The fsync is awaited off the loop, so
+    // concurrent requests share one group commit.
+    CompletableFuture<AppendEntriesResponse> appendEntriesAsync(AppendEntriesRequest req) {
+        return submit(() -> appendEntries(req)).thenCompose(resp -> resp.success && req.entries != null && !req.entries.isEmpty()
+                ? log.sync(resp.matchIndex).thenApply(i -> resp)
+                : CompletableFuture.completedFuture(resp));
+    }
+
+    private AppendEntriesResponse appendEntries(AppendEntriesRequest req) {
         AppendEntriesResponse resp = new AppendEntriesResponse();
-        if (req.term < currentTerm.get()) {
-            resp.term = currentTerm.get();
+        if (req.term < currentTerm) {
+            resp.term = currentTerm;
             resp.success = false;
+            resp.matchIndex = lastLogIndex();
             return resp;
         }
-        currentTerm.set(req.term);
-        role = Role.FOLLOWER;
-        resetElectionTimeout();
-        resp.term = currentTerm.get();
+        if (req.term > currentTerm || role != Role.FOLLOWER) stepDown(req.term);
+        else resetElectionTimeout();
+        leaderId = req.leaderId;
+        leaderContactNanos = System.nanoTime();
+        electionStartNanos = 0;
+        if (req.leaderUrl != null && peers.contains(req.leaderUrl)) leaderPeer = req.leaderUrl;
+        resp.term = currentTerm;
+
+        long index = req.prevLogIndex;
+        long prevTerm = req.prevLogTerm;
+        List<LogEntry> entries = req.entries == null ? List.of() : req.entries;
+        if (index < log.snapshotIndex()) {
+            // entries up to our snapshot are committed and therefore already match
+            int skip = (int) Math.min(entries.size(), log.snapshotIndex() - index);
+            if (skip > 0) prevTerm = entries.get(skip - 1).getTerm();
+            entries = entries.subList(skip, entries.size());
+            index += skip;
+            if (index < log.snapshotIndex()) {
+                resp.success = true;
+                resp.matchIndex = index;
+                return resp;
+            }
+        }
+        if (index > lastLogIndex() || termAt(index) != prevTerm) {
+            resp.success = false;
+            resp.matchIndex = Math.min(lastLogIndex(), index - 1);
+            return resp;
+        }
+        for (LogEntry e : entries) {
+            index++;
+            if (index <= lastLogIndex()) {
+                if (termAt(index) == e.getTerm()) continue;
+                if (index <= commitIndex) {
+                    throw new IllegalStateException("leader tried to overwrite committed index " + index);
+                }
+                log.truncateFrom(index);
+            }
+            log.append(e);
+        }
+        if (req.leaderCommit > commitIndex) {
+            // a delayed or retried request may end below what a later one already committed
+            commitIndex = Math.max(commitIndex, Math.min(req.leaderCommit, index));
+            applyCommitted();
+        }
         resp.success = true;
+        resp.matchIndex = index;
         return resp;
     }
 
-    public synchronized RequestVoteResponse handleRequestVote(RequestVoteRequest req) {
+    public InstallSnapshotResponse handleInstallSnapshot(InstallSnapshotRequest req) {
+        return call(() -> receiveSnapshot(req));
+    }
+
+    private InstallSnapshotResponse receiveSnapshot(InstallSnapshotRequest req) {
+        InstallSnapshotResponse resp = new InstallSnapshotResponse();
+        if (req.term < currentTerm) {
+            resp.term = currentTerm;
+            return resp;
+        }
+        if (req.term > currentTerm || role != Role.FOLLOWER) stepDown(req.term);
+        else resetElectionTimeout();
+        leaderId = req.leaderId;
+        leaderContactNanos = System.nanoTime();
+        electionStartNanos = 0;
+        resp.term = currentTerm;
+        try {
+            if (!snapshots.receiveChunk(req.lastIncludedIndex, req.lastIncludedTerm, req.offset, req.data)) return resp;
+            if (req.done) {
+                SnapshotStore.Snapshot snapshot = snapshots.finishReceive(req.lastIncludedIndex, req.lastIncludedTerm);
+                if (snapshot.index() > lastApplied) installSnapshot(snapshot);
+            }
+        } catch (IOException e) {
+            logger.warn("installing snapshot from {} failed: {}", req.leaderId, e.getMessage());
+            return resp;
+        }
+        resp.success = true;
+        return resp;
+    }
+
+    private void installSnapshot(SnapshotStore.Snapshot snapshot) {
+        log.installSnapshot(snapshot.index(), snapshot.term());
+        if (stateMachine != null) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshot.path()), 1 << 16)) {
+                stateMachine.restoreSnapshot(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        commitIndex = Math.max(commitIndex, snapshot.index());
+        lastApplied = snapshot.index();
+        notifyApplied();
+        logger.info("{} installed snapshot at index {} term {}", name, snapshot.index(), snapshot.term());
+    }
+
+    public RequestVoteResponse handleRequestVote(RequestVoteRequest req) {
+        return call(() -> requestVote(req));
+    }
+
+    private RequestVoteResponse requestVote(RequestVoteRequest req) {
         RequestVoteResponse resp = new RequestVoteResponse();
-        if (req.term < currentTerm.get()) {
-            resp.term = currentTerm.get();
+        // Leader stickiness (Raft thesis 6.4.1): while we hear from a leader, ignore candidates
+        // without adopting their term. Leader leases rely on this.
+        boolean leaderActive = !req.transfer && role == Role.FOLLOWER && leaderId != null
+                && System.nanoTime() - leaderContactNanos < TimeUnit.MILLISECONDS.toNanos(ELECTION_TIMEOUT_MIN_MS);
+        if (req.term < currentTerm || leaderActive) {
+            resp.term = currentTerm;
             resp.voteGranted = false;
             return resp;
         }
         // Reset votedFor when moving to a new term
-        if (req.term > currentTerm.get()) {
-            currentTerm.set(req.term);
-            votedFor = null;
-            role = Role.FOLLOWER;
-        }
-        if (votedFor == null || votedFor.equals(req.candidateId)) {
+        if (req.term > currentTerm) stepDown(req.term);
+        long lastTerm = termAt(lastLogIndex());
+        boolean upToDate = req.lastLogTerm > lastTerm
+                || (req.lastLogTerm == lastTerm && req.lastLogIndex >= lastLogIndex());
+        if (upToDate && (votedFor == null || votedFor.equals(req.candidateId))) {
             votedFor = req.candidateId;
+            persistHardState();
             resp.voteGranted = true;
-            resp.term = currentTerm.get();
+            resp.term = currentTerm;
             resetElectionTimeout();
             return resp;
         }
         resp.voteGranted = false;
-        resp.term = currentTerm.get();
+        resp.term = currentTerm;
         return resp;
     }
 
-    public synchronized boolean appendCommand(String command) {
-        if (role != Role.LEADER) return false;
-        LogEntry entry = new LogEntry(currentTerm.get(), command);
-        log.add(entry);
-        commitIndex.incrementAndGet(); // naive
-        return true;
+    public TimeoutNowResponse handleTimeoutNow(TimeoutNowRequest req) {
+        return call(() -> timeoutNow(req));
+    }
+
+    private TimeoutNowResponse timeoutNow(TimeoutNowRequest req) {
+        TimeoutNowResponse resp = new TimeoutNowResponse();
+        resp.term = currentTerm;
+        if (req.term != currentTerm || role != Role.FOLLOWER || !req.leaderId.equals(leaderId)) return resp;
+        long term = req.term;
+        // in a task of its own, so the old leader gets its answer before our vote requests
+        post(() -> {
+            if (role == Role.FOLLOWER && currentTerm == term) {
+                logger.info("{} starting election on leadership transfer from {}", name, req.leaderId);
+                startElection(true);
+            }
+        });
+        resp.success = true;
+        return resp;
+    }
+
+    /**
+     * Appends a command to the leader's log. The returned future completes with the
+     * entry's index once a majority has stored it, or exceptionally if this node is not
+     * the leader, loses leadership, or the commit times out.
+     */
+    public CompletableFuture<Long> appendCommandAsync(String command) {
+        // checked again on the loop; failing here already spares callers work they would throw away
+        if (role != Role.LEADER) return CompletableFuture.failedFuture(new IllegalStateException("not leader"));
+        if (transferring) return CompletableFuture.failedFuture(new IllegalStateException("leadership transfer in progress"));
+        return async(() -> append(command));
+    }
+
+    private CompletableFuture<Long> append(String command) {
+        if (role != Role.LEADER) return CompletableFuture.failedFuture(new IllegalStateException("not leader"));
+        if (transferring) return CompletableFuture.failedFuture(new IllegalStateException("leadership transfer in progress"));
+        long start = System.nanoTime();
+        long index = log.append(new LogEntry(currentTerm, command));
+        log.sync(index).whenComplete((i, err) -> post(err == null ? this::onLocalSync : this::onLogFailure));
+        PendingCommit f = new PendingCommit(start);
+        pendingCommits.put(index, f);
+        schedule(commitTimeoutMs, () -> {
+            if (pendingCommits.remove(index, f)) f.completeExceptionally(new TimeoutException("commit of index " + index + " timed out"));
+        });
+
+        if (!peers.isEmpty()) {
+            for (Map.Entry<String, FollowerProgress> e : progress.entrySet()) {
+                // a full batch goes out immediately, otherwise wait a little for more
+                if (index - e.getValue().nextIndex + 1 >= maxBatchEntries) replicate(e.getKey(), false);
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                schedule(batchLingerMs, this::flush);
+            }
+        }
+        return f;
+    }
+
+    // Blocking variant kept for callers that are already on their own thread.
+    public boolean appendCommand(String command) {
+        try {
+            appendCommandAsync(command).get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Linearizable read barrier. Completes with a commit index once this node's state machine has
+     * applied everything that was committed when the barrier was requested, so a read served from
+     * local state afterwards is up to date. The leader confirms it still leads, either from its
+     * lease or with a heartbeat round; followers ask the leader for that index (ReadIndex).
+     * Fails if there is no reachable leader within the read timeout.
+     */
+    public CompletableFuture<Long> readBarrier() {
+        return async(() -> role == Role.LEADER ? readIndex() : requestReadIndex())
+                .thenCompose(index -> async(() -> awaitApplied(index)))
+                .orTimeout(readTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public ReadIndexResponse handleReadIndex(ReadIndexRequest req) {
+        ReadIndexResponse resp = new ReadIndexResponse();
+        resp.term = currentTerm;
+        try {
+            resp.readIndex = async(this::readIndex).get(readTimeoutMs, TimeUnit.MILLISECONDS);
+            resp.success = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            logger.debug("read index for {} failed: {}", req.from, e.getMessage());
+        }
+        return resp;
+    }
+
+    // Leader side of a read: the commit index once leadership is confirmed for a point in time
+    // after the call. Concurrent reads share the heartbeat round that confirms them.
+    private CompletableFuture<Long> readIndex() {
+        if (role != Role.LEADER) return CompletableFuture.failedFuture(new IllegalStateException("not leader"));
+        // until our NOOP commits, the commit index may still miss entries of earlier terms
+        long index = Math.max(commitIndex, termStartIndex);
+        long now = System.nanoTime();
+        long confirmed = quorumAckedNanos();
+        // the transfer target may win its election at any moment, without waiting for our lease
+        boolean leased = readMode == ReadMode.LEASE && !transferring && confirmed + leaseNanos - now > 0;
+        if (leased && commitIndex >= index) return CompletableFuture.completedFuture(index);
+        CompletableFuture<Long> f = new CompletableFuture<>();
+        // under a lease the read is confirmed already and only waits for the commit
+        pendingReads.add(new PendingRead(index, leased ? confirmed : now, f));
+        serveReads();
+        for (String p : peers) replicate(p, false);
+        return f;
+    }
+
+    // Send time of the latest round trip that a majority (counting us) has answered. Within the
+    // lease after it no other node can have been elected: that majority will not vote for anyone
+    // until an election timeout after they last heard from us.
+    private long quorumAckedNanos() {
+        if (peers.isEmpty()) return System.nanoTime();
+        long[] acks = new long[progress.size()];
+        int i = 0;
+        for (FollowerProgress p : progress.values()) acks[i++] = p.ackedSentNanos;
+        Arrays.sort(acks);
+        // we are one of the majority, so (majority - 1) followers must have answered
+        int needed = (peers.size() + 1) / 2;
+        return acks[acks.length - needed];
+    }
+
+    private void serveReads() {
+        if (pendingReads.isEmpty()) return;
+        long confirmed = quorumAckedNanos();
+        while (!pendingReads.isEmpty()) {
+            PendingRead r = pendingReads.peek();
+            if (!r.future.isDone()) {
+                // reads are queued in arrival order, so later ones cannot be ready either
+                if (confirmed - r.since < 0 || commitIndex < r.index) return;
+                r.future.complete(r.index);
+            }
+            pendingReads.poll();
+        }
+    }
+
+    // Follower side: asks the leader for its read index. While one request is out, later reads
+    // wait for the next one, which is sent after it returns and so covers all of them.
+    private CompletableFuture<Long> requestReadIndex() {
+        if (readIndexInFlight) {
+            if (nextReadIndex == null) nextReadIndex = new CompletableFuture<>();
+            return nextReadIndex;
+        }
+        readIndexInFlight = true;
+        CompletableFuture<Long> f = new CompletableFuture<>();
+        sendReadIndex(f, leaderPeer == null);
+        return f;
+    }
+
+    // Peers are addressed by URL and leaders by id, so until a peer answers as leader every
+    // peer is asked and the one that does is remembered.
+    private void sendReadIndex(CompletableFuture<Long> f, boolean broadcast) {
+        ReadIndexRequest req = new ReadIndexRequest();
+        req.term = currentTerm;
+        req.from = nodeId;
+        boolean all = broadcast || leaderPeer == null;
+        List<String> targets = all ? peers : List.of(leaderPeer);
+        if (targets.isEmpty()) {
+            onReadIndexDone(f, null, new IllegalStateException("no leader"));
+            return;
+        }
+        int[] pending = {targets.size()};
+        for (String peer : targets) {
+            transport.readIndex(peer, req).whenComplete((resp, err) -> post(() -> {
+                pending[0]--;
+                if (err == null && resp != null && resp.success) {
+                    leaderPeer = peer;
+                    onReadIndexDone(f, resp.readIndex, null);
+                } else {
+                    if (peer.equals(leaderPeer)) leaderPeer = null;
+                    if (resp != null && resp.term > currentTerm) stepDown(resp.term);
+                    if (pending[0] > 0 || f.isDone()) return;
+                    // the remembered leader may have been replaced; look for the new one
+                    if (!all) sendReadIndex(f, true);
+                    else onReadIndexDone(f, null, new IllegalStateException("no leader confirmed the read"));
+                }
+            }));
+        }
+    }
+
+    private void onReadIndexDone(CompletableFuture<Long> f, Long index, Throwable err) {
+        if (f.isDone()) return;
+        if (err == null) f.complete(index);
+        else f.completeExceptionally(err);
+        CompletableFuture<Long> next = nextReadIndex;
+        nextReadIndex = null;
+        if (next != null) sendReadIndex(next, leaderPeer == null);
+        else readIndexInFlight = false;
+    }
+
+    private CompletableFuture<Long> awaitApplied(long index) {
+        if (lastApplied >= index) return CompletableFuture.completedFuture(index);
+        return appliedWaiters.computeIfAbsent(index, i -> new CompletableFuture<>());
+    }
+
+    /**
+     * Registers the state machine that committed entries are applied to, in log order, on every
+     * node. If a snapshot was persisted before a restart it is restored first.
+     */
+    public void setStateMachine(RaftStateMachine stateMachine) {
+        run(() -> {
+            this.stateMachine = stateMachine;
+            SnapshotStore.Snapshot snapshot = snapshots.latest();
+            if (snapshot != null && snapshot.index() > lastApplied) installSnapshot(snapshot);
+        });
+    }
+
+    /** Registers the monitor that this node, while it leads, reports its heartbeats and their answers to. */
+    public void setPeerMonitor(PeerMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    private void persistHardState() {
+        log.saveHardState(currentTerm, votedFor);
+    }
+
+    private long lastLogIndex() {
+        return log.lastIndex();
+    }
+
+    private long termAt(long index) {
+        return log.termAt(index);
+    }
+
+    private LogEntry entryAt(long index) {
+        return log.entryAt(index);
+    }
+
+    // Bytes the command takes on the wire (the codec sends UTF-8), without encoding it.
+    static long utf8Length(String s) {
+        long bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) bytes++;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else bytes += 3;
+        }
+        return bytes;
     }
 
     public Role getRole() { return role; }
     public String getNodeId() { return nodeId; }
+    public int getGroup() { return group; }
+    public long getCurrentTerm() { return currentTerm; }
+    public String getLeaderId() { return leaderId; }
+    public long getCommitIndex() { return commitIndex; }
+    public long getLastLogIndex() { return log.lastIndex(); }
+    // URL of the leader as learned from its AppendEntries or read index requests; null on the leader or when unknown
+    public String getLeaderUrl() { return role == Role.LEADER ? null : leaderPeer; }
 
     public enum Role { LEADER, FOLLOWER, CANDIDATE }
+
+    /**
+     * Told when the leader heartbeats a peer and when the peer answers one of its requests, e.g. to
+     * detect failed nodes. Called on the node's event loop, so it must be quick.
+     */
+    public interface PeerMonitor {
+        void expect(String peer);
+
+        void answered(String peer);
+    }
+
+    // LEASE serves reads on the leader without a round trip while a majority answered recently;
+    // READ_INDEX confirms leadership with a heartbeat round for every batch of reads.
+    public enum ReadMode { LEASE, READ_INDEX }
+
+    private record PendingRead(long index, long since, CompletableFuture<Long> future) {}
+
+    private static class FollowerProgress {
+        long nextIndex;
+        long matchIndex;
+        int inflight;
+        boolean unreachable;
+        long lastSentNanos;
+        // send time of the latest request answered in our term
+        long ackedSentNanos;
+        // set while streaming a snapshot instead of log entries
+        SnapshotStore.Snapshot snapshot;
+        long snapshotOffset;
+
+        // nothing sent before we became leader confirms anything, nor leaves a lease behind
+        FollowerProgress(long nextIndex, long longAgo) {
+            this.nextIndex = nextIndex;
+            this.lastSentNanos = longAgo;
+            this.ackedSentNanos = longAgo;
+        }
+    }
 }
@@ -0,0 +1,25 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.model.LogEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// The replicated state driven by a RaftNode's committed log entries.
+public interface RaftStateMachine {
+    void apply(LogEntry entry);
+
+    /**
+     * Captures the state as of the last applied entry. Called on the apply path, so it should only
+     * take a cheap, immutable view; the returned writer serializes it later on a background thread.
+     */
+    SnapshotWriter captureSnapshot();
+
+    // Replaces the whole state with a snapshot produced by a SnapshotWriter.
+    void restoreSnapshot(InputStream in) throws IOException;
+
+    interface SnapshotWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
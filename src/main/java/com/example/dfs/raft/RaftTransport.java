@@ -0,0 +1,30 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.model.AppendEntriesRequest;
+import com.example.dfs.model.AppendEntriesResponse;
+import com.example.dfs.model.InstallSnapshotRequest;
+import com.example.dfs.model.InstallSnapshotResponse;
+import com.example.dfs.model.ReadIndexRequest;
+import com.example.dfs.model.ReadIndexResponse;
+import com.example.dfs.model.RequestVoteRequest;
+import com.example.dfs.model.RequestVoteResponse;
+import com.example.dfs.model.TimeoutNowRequest;
+import com.example.dfs.model.TimeoutNowResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+// How a RaftNode talks to its peers. The HTTP implementation is used in the
+// running cluster; tests plug in an in-process one.
+public interface RaftTransport {
+    CompletableFuture<AppendEntriesResponse> appendEntries(String peer, AppendEntriesRequest req);
+
+    CompletableFuture<RequestVoteResponse> requestVote(String peer, RequestVoteRequest req);
+
+    CompletableFuture<InstallSnapshotResponse> installSnapshot(String peer, InstallSnapshotRequest req);
+
+    CompletableFuture<ReadIndexResponse> readIndex(String peer, ReadIndexRequest req);
+
+    CompletableFuture<TimeoutNowResponse> timeoutNow(String peer, TimeoutNowRequest req);
+
+    default void close() {}
+}
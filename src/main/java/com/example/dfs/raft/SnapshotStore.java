@@ -0,0 +1,134 @@
+package com.example.dfs.raft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Snapshot files of a RaftNode's state machine, named {@code snapshot-<index>-<term>.snap}.
+ * Files are written under a temporary name and renamed into place, so only complete snapshots
+ * are ever visible; older snapshots are deleted once a newer one exists.
+ */
+public class SnapshotStore {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotStore.class);
+
+    public record Snapshot(long index, long term, Path path) {}
+
+    private final Path dir;
+    private volatile Snapshot latest;
+
+    // snapshot being received from the leader
+    private FileChannel receiving;
+    private Path receivingPath;
+    private long receivedBytes;
+
+    public SnapshotStore(Path dir) {
+        this.dir = dir;
+        try {
+            Files.createDirectories(dir);
+            List<Snapshot> found = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "snapshot-*")) {
+                for (Path p : ds) {
+                    String name = p.getFileName().toString();
+                    if (name.endsWith(".tmp")) {
+                        Files.delete(p);
+                        continue;
+                    }
+                    String[] parts = name.substring("snapshot-".length(), name.length() - ".snap".length()).split("-");
+                    found.add(new Snapshot(Long.parseLong(parts[0]), Long.parseLong(parts[1]), p));
+                }
+            }
+            found.stream().max(Comparator.comparingLong(Snapshot::index)).ifPresent(s -> latest = s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Snapshot latest() {
+        return latest;
+    }
+
+    public Snapshot write(long index, long term, RaftStateMachine.SnapshotWriter writer) throws IOException {
+        Path tmp = dir.resolve(fileName(index, term) + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16);
+            writer.writeTo(out);
+            out.flush();
+            ch.force(true);
+        }
+        return publish(tmp, index, term);
+    }
+
+    /** Reads up to {@code max} bytes of a snapshot starting at {@code offset}, for InstallSnapshot. */
+    public byte[] readChunk(Snapshot snapshot, long offset, int max) throws IOException {
+        try (FileChannel ch = FileChannel.open(snapshot.path(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(max, ch.size() - offset));
+            while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0) { }
+            return buf.array();
+        }
+    }
+
+    public long size(Snapshot snapshot) throws IOException {
+        return Files.size(snapshot.path());
+    }
+
+    /**
+     * Appends a chunk of a snapshot streamed by the leader. Returns false if the chunk does not
+     * continue the transfer in progress, in which case the leader restarts from offset 0.
+     */
+    public synchronized boolean receiveChunk(long index, long term, long offset, byte[] data) throws IOException {
+        if (offset == 0) {
+            abortReceive();
+            receivingPath = dir.resolve(fileName(index, term) + ".tmp");
+            receiving = FileChannel.open(receivingPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            receivedBytes = 0;
+        }
+        if (receiving == null || offset != receivedBytes
+                || !receivingPath.getFileName().toString().startsWith(fileName(index, term))) return false;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) receivedBytes += receiving.write(buf, receivedBytes);
+        return true;
+    }
+
+    public synchronized Snapshot finishReceive(long index, long term) throws IOException {
+        receiving.force(true);
+        receiving.close();
+        receiving = null;
+        return publish(receivingPath, index, term);
+    }
+
+    private void abortReceive() throws IOException {
+        if (receiving == null) return;
+        receiving.close();
+        Files.deleteIfExists(receivingPath);
+        receiving = null;
+    }
+
+    private Snapshot publish(Path tmp, long index, long term) throws IOException {
+        Path target = dir.resolve(fileName(index, term));
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Snapshot previous = latest;
+        Snapshot snapshot = new Snapshot(index, term, target);
+        latest = snapshot;
+        if (previous != null && !previous.path().equals(target)) Files.deleteIfExists(previous.path());
+        logger.info("snapshot at index {} term {} published ({} bytes)", index, term, Files.size(target));
+        return snapshot;
+    }
+
+    private static String fileName(long index, long term) {
+        return String.format("snapshot-%020d-%d.snap", index, term);
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.dfs.storage;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded cache of hot chunk payloads, kept off-heap so a large cache does not lengthen GC
+ * pauses. The memory is a few big direct buffers carved into fixed pages; an entry owns a list of
+ * pages and gives them back to the free list on eviction, so nothing is left for the GC to clean up.
+ * <p>
+ * Eviction is W-TinyLFU: new entries go to a small LRU window that overflows into a segmented LRU
+ * (probation/protected). When pages run out, the oldest window entry only displaces the main
+ * segment's victim if a count-min sketch of recent accesses says it is used more often; otherwise
+ * the newcomer goes. One-off scans therefore cannot flush the hot set.
+ * <p>
+ * All bookkeeping is under one lock; copies in and out of the pages are done under it as well, which
+ * is fine for the small chunks this cache is meant for (see {@code maxEntryBytes}).
+ */
+public class ChunkCache {
+    private static final int PAGE_BYTES = 4096;
+    private static final int SLAB_BYTES = 1 << 30;
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private final int maxEntryBytes;
+    private final ByteBuffer[] slabs;
+    private final int pagesPerSlab;
+    private final int[] freePages;
+    private int freeCount;
+    private final long windowMax, protectedMax;
+    private final long[] segmentPages = new long[3];
+    private final Node[] heads = new Node[3]; // sentinel of each segment's LRU list, most recent first
+    private final Map<String, Node> entries = new HashMap<>();
+    private final FrequencySketch sketch;
+    // bumped on every invalidation; a load that overlapped one may have read stale bytes and is dropped
+    private long invalidations;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    private static final class Node {
+        String key;
+        int length;
+        int crc32c;
+        int[] pages;
+        int segment;
+        Node prev, next;
+    }
+
+    public record Hit(byte[] data, int crc32c) {}
+
+    public ChunkCache(long capacityBytes, int maxEntryBytes) {
+        long pages = Math.max(1, capacityBytes / PAGE_BYTES);
+        this.pagesPerSlab = SLAB_BYTES / PAGE_BYTES;
+        this.slabs = new ByteBuffer[(int) ((pages + pagesPerSlab - 1) / pagesPerSlab)];
+        for (int i = 0; i < slabs.length; i++) {
+            long slabPages = Math.min(pagesPerSlab, pages - (long) i * pagesPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect((int) (slabPages * PAGE_BYTES));
+        }
+        this.freePages = new int[(int) pages];
+        for (int i = 0; i < pages; i++) freePages[freeCount++] = (int) pages - 1 - i;
+        this.maxEntryBytes = (int) Math.min(maxEntryBytes, pages * PAGE_BYTES);
+        // window 1%, protected 80% of the main segment, as in the W-TinyLFU paper
+        this.windowMax = Math.max(1, pages / 100);
+        this.protectedMax = (pages - windowMax) * 8 / 10;
+        for (int s = 0; s < 3; s++) {
+            Node sentinel = new Node();
+            sentinel.prev = sentinel.next = sentinel;
+            heads[s] = sentinel;
+        }
+        this.sketch = new FrequencySketch(Math.max(64, pages * PAGE_BYTES / 16384));
+    }
+
+    public int maxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /** Returns a copy of the cached chunk, or null on a miss. */
+    public synchronized Hit get(String key) {
+        sketch.increment(key.hashCode());
+        Node n = entries.get(key);
+        if (n == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        touch(n);
+        byte[] data = new byte[n.length];
+        copy(n, data, false);
+        return new Hit(data, n.crc32c);
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /** Token to pass to {@link #put}, taken before the chunk is read from disk. */
+    public synchronized long loadToken() {
+        return invalidations;
+    }
+
+    /**
+     * Caches a chunk read from disk, unless it is too big or the key (or any other; the check is
+     * coarse) was invalidated since {@code token} was taken, in which case the bytes may be stale.
+     */
+    public synchronized void put(String key, byte[] data, int crc32c, long token) {
+        if (data.length > maxEntryBytes || token != invalidations || entries.containsKey(key)) return;
+        int need = pagesFor(data.length);
+        Node n = new Node();
+        n.key = key;
+        n.length = data.length;
+        n.crc32c = crc32c;
+        n.segment = WINDOW;
+        while (freeCount < need) {
+            if (!evictOne()) return;
+        }
+        n.pages = new int[need];
+        for (int i = 0; i < need; i++) n.pages[i] = freePages[--freeCount];
+        copy(n, data, true);
+        entries.put(key, n);
+        link(n, WINDOW);
+        while (segmentPages[WINDOW] > windowMax && heads[WINDOW].prev != n) {
+            Node candidate = heads[WINDOW].prev;
+            unlink(candidate);
+            link(candidate, PROBATION);
+        }
+    }
+
+    /** Drops the key after its chunk was overwritten or deleted. */
+    public synchronized void invalidate(String key) {
+        invalidations++;
+        Node n = entries.get(key);
+        if (n != null) remove(n);
+    }
+
+    // Frees one entry's pages. Candidates leaving the window duel with the probation victim; the less
+    // frequently used of the two goes. Returns false if there is nothing left to evict.
+    private boolean evictOne() {
+        Node victim = heads[PROBATION].prev;
+        Node candidate = heads[WINDOW].prev;
+        if (victim == heads[PROBATION]) victim = heads[PROTECTED].prev;
+        if (victim == heads[PROTECTED]) victim = null;
+        if (candidate == heads[WINDOW]) candidate = null;
+        Node out;
+        if (victim == null) out = candidate;
+        else if (candidate == null) out = victim;
+        else if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) out = victim;
+        else {
+            out = candidate;
+            rejections.incrementAndGet();
+        }
+        if (out == null) return false;
+        remove(out);
+        evictions.incrementAndGet();
+        return true;
+    }
+
+    private void touch(Node n) {
+        unlink(n);
+        if (n.segment == PROBATION) {
+            link(n, PROTECTED);
+            // protected overflow is demoted back to probation, not evicted
+            while (segmentPages[PROTECTED] > protectedMax) {
+                Node demoted = heads[PROTECTED].prev;
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        } else {
+            link(n, n.segment);
+        }
+    }
+
+    private void remove(Node n) {
+        unlink(n);
+        entries.remove(n.key);
+        for (int p : n.pages) freePages[freeCount++] = p;
+        n.pages = null;
+    }
+
+    private void link(Node n, int segment) {
+        Node head = heads[segment];
+        n.segment = segment;
+        n.next = head.next;
+        n.prev = head;
+        head.next.prev = n;
+        head.next = n;
+        segmentPages[segment] += n.pages.length;
+    }
+
+    private void unlink(Node n) {
+        n.prev.next = n.next;
+        n.next.prev = n.prev;
+        n.prev = n.next = null;
+        segmentPages[n.segment] -= n.pages.length;
+    }
+
+    private void copy(Node n, byte[] data, boolean in) {
+        for (int i = 0, off = 0; off < n.length; i++, off += PAGE_BYTES) {
+            int page = n.pages[i];
+            ByteBuffer slab = slabs[page / pagesPerSlab];
+            int pos = (page % pagesPerSlab) * PAGE_BYTES;
+            int len = Math.min(PAGE_BYTES, n.length - off);
+            if (in) slab.put(pos, data, off, len);
+            else slab.get(pos, data, off, len);
+        }
+    }
+
+    private static int pagesFor(int bytes) {
+        return Math.max(1, (bytes + PAGE_BYTES - 1) / PAGE_BYTES);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long usedBytes() {
+        return (long) (freePages.length - freeCount) * PAGE_BYTES;
+    }
+
+    public long capacityBytes() {
+        return (long) freePages.length * PAGE_BYTES;
+    }
+
+    public long hits() { return hits.get(); }
+    public long misses() { return misses.get(); }
+    public long evictions() { return evictions.get(); }
+    public long rejections() { return rejections.get(); }
+
+    public double hitRatio() {
+        long h = hits.get(), total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four per key, packed sixteen to a long. Counters are
+     * halved once the number of increments reaches ten times the table width, so the estimate
+     * follows recent popularity rather than all-time totals.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private final long[] table;
+        private final int mask;
+        private final long sampleSize;
+        private long additions;
+
+        FrequencySketch(long counters) {
+            int longs = Integer.highestOneBit((int) Math.min(1 << 24, Math.max(4, counters / 16)) * 2 - 1);
+            this.table = new long[longs];
+            this.mask = longs - 1;
+            this.sampleSize = 10L * longs * 16;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                long h = spread(hash, i);
+                int index = (int) (h >>> 32) & mask;
+                int shift = (int) (h & 15) << 2;
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) reset();
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int i = 0; i < 4; i++) {
+                long h = spread(hash, i);
+                int index = (int) (h >>> 32) & mask;
+                int shift = (int) (h & 15) << 2;
+                min = Math.min(min, (int) ((table[index] >>> shift) & 0xF));
+            }
+            return min;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            additions /= 2;
+        }
+
+        private static long spread(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[(i + 1) & 3];
+            return h ^ (h >>> 29);
+        }
+    }
+}
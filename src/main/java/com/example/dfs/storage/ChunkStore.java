@@ -1,32 +1,571 @@
 package com.example.dfs.storage;
 
+import com.example.dfs.metrics.Counter;
+import com.example.dfs.metrics.Metrics;
+import com.example.dfs.metrics.Timer;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Chunk bytes on local disk. Chunks up to {@code maxPackedBytes} are packed into the
+ * {@link VolumeStore} when one is configured; larger chunks (and all chunks without one) are
+ * stored one file per chunk under {@code <baseDir>/<fileId>/<chunkId>} with a CRC32C sidecar.
+ * An optional {@link ChunkCache} keeps hot small chunks in memory; every write or delete of a chunk
+ * invalidates its cached copy. An optional {@link MerkleTree} is kept up to date with every write,
+ * delete and move, for comparing replicas with other nodes.
+ */
+public class ChunkStore implements Closeable {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    // one direct buffer per request thread, reused for every upload it handles
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_BYTES));
 
-public class ChunkStore {
     private final Path baseDir;
+    private final VolumeStore volumes;
+    private final int maxPackedBytes;
+    private final ChunkCache cache;
+    private volatile MerkleTree merkle;
+    private final Timer writeTimer;
+    private final Timer readTimer;
+    private final Timer fsyncTimer;
+    private final Counter writtenBytes;
+    private final Counter readBytes;
+
+    public record StoredChunk(long length, int crc32c) {
+        public String checksumHex() { return String.format("%08x", crc32c); }
+    }
+
+    /** Where a chunk's bytes are: a whole file, or a slice of a volume file for packed chunks. */
+    public record Location(Path file, long offset, long length, boolean packed) {}
 
     public ChunkStore(String baseDir) {
+        this(baseDir, null, 0, null);
+    }
+
+    public ChunkStore(String baseDir, VolumeStore volumes, int maxPackedBytes) {
+        this(baseDir, volumes, maxPackedBytes, null);
+    }
+
+    public ChunkStore(String baseDir, VolumeStore volumes, int maxPackedBytes, ChunkCache cache) {
+        this(baseDir, volumes, maxPackedBytes, cache, Metrics.disabled());
+    }
+
+    public ChunkStore(String baseDir, VolumeStore volumes, int maxPackedBytes, ChunkCache cache, Metrics metrics) {
         this.baseDir = Path.of(baseDir);
+        this.volumes = volumes;
+        this.maxPackedBytes = volumes == null ? 0 : maxPackedBytes;
+        this.cache = cache;
+        this.writeTimer = metrics.timer("dfs_chunk_write_seconds", "Storing a chunk on local disk, fsync included");
+        this.readTimer = metrics.timer("dfs_chunk_read_seconds", "Reading a whole chunk from local disk after a cache miss");
+        this.fsyncTimer = metrics.fsyncTimer("chunk");
+        this.writtenBytes = metrics.counter("dfs_chunk_written_bytes_total", "Chunk bytes stored on local disk");
+        this.readBytes = metrics.counter("dfs_chunk_read_bytes_total", "Chunk bytes read from local disk");
         try { Files.createDirectories(this.baseDir); }
         catch (IOException e) { throw new RuntimeException(e); }
     }
 
-    public void saveChunk(String fileId, String chunkId, byte[] data) throws IOException {
+    /**
+     * Stores a chunk while computing its CRC32C. Small chunks are buffered and appended to a volume
+     * in one write; larger ones are streamed into a temp file that is renamed into place, so heap
+     * use does not depend on the chunk size. Either way readers never see a partial chunk. If
+     * {@code expectedCrc} is given and does not match, the chunk is discarded and an IOException thrown.
+     */
+    public StoredChunk saveChunk(String fileId, String chunkId, InputStream in, Integer expectedCrc) throws IOException {
+        return saveChunk(fileId, chunkId, in, expectedCrc, null);
+    }
+
+    /**
+     * Like {@link #saveChunk(String, String, InputStream, Integer)}, but if {@code keepAs} is given
+     * the chunk currently stored is also kept under that chunk id right before the new one replaces
+     * it, once the new bytes are complete and verified.
+     */
+    public StoredChunk saveChunk(String fileId, String chunkId, InputStream in, Integer expectedCrc, String keepAs) throws IOException {
+        long start = System.nanoTime();
+        StoredChunk stored = store(fileId, chunkId, in, expectedCrc, keepAs);
+        writeTimer.recordSince(start);
+        writtenBytes.add(stored.length());
+        return stored;
+    }
+
+    private StoredChunk store(String fileId, String chunkId, InputStream in, Integer expectedCrc, String keepAs) throws IOException {
+        if (maxPackedBytes > 0) {
+            byte[] head = in.readNBytes(maxPackedBytes + 1);
+            if (head.length <= maxPackedBytes) {
+                CRC32C crc = new CRC32C();
+                crc.update(head);
+                StoredChunk stored = new StoredChunk(head.length, (int) crc.getValue());
+                checkCrc(fileId, chunkId, stored, expectedCrc);
+                keep(fileId, chunkId, keepAs);
+                volumes.put(key(fileId, chunkId), head, 0, head.length, stored.crc32c());
+                deleteFile(fileId, chunkId);
+                invalidate(fileId, chunkId);
+                tracked(fileId, chunkId, stored.crc32c());
+                return stored;
+            }
+            in = new SequenceInputStream(new ByteArrayInputStream(head), in);
+        }
         Path fdir = baseDir.resolve(fileId);
         Files.createDirectories(fdir);
-        Path chunkFile = fdir.resolve(chunkId);
-        Files.write(chunkFile, data, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        Path tmp = Files.createTempFile(fdir, "." + chunkId + ".", ".tmp");
+        ByteBuffer buf = BUFFERS.get();
+        CRC32C crc = new CRC32C();
+        long length = 0;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ReadableByteChannel src = Channels.newChannel(in);
+            buf.clear();
+            while (src.read(buf) >= 0) {
+                buf.flip();
+                crc.update(buf);
+                buf.rewind();
+                while (buf.hasRemaining()) length += out.write(buf);
+                buf.clear();
+            }
+            long synced = System.nanoTime();
+            out.force(true);
+            fsyncTimer.recordSince(synced);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        StoredChunk stored = new StoredChunk(length, (int) crc.getValue());
+        try {
+            checkCrc(fileId, chunkId, stored, expectedCrc);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        keep(fileId, chunkId, keepAs);
+        publish(fdir, chunkId, tmp, stored);
+        return stored;
     }
 
-    public byte[] readChunk(String fileId, String chunkId) throws IOException {
+    // Keeps the current version under keepAs without taking it away (a hard link, or another volume
+    // record for packed chunks), so the live chunk is only ever replaced by the atomic publish.
+    private void keep(String fileId, String chunkId, String keepAs) throws IOException {
+        if (keepAs == null) return;
+        if (volumes != null) {
+            VolumeStore.Slice s = volumes.locate(key(fileId, chunkId));
+            byte[] packed = s == null ? null : volumes.read(key(fileId, chunkId));
+            if (packed != null) {
+                volumes.put(key(fileId, keepAs), packed, 0, packed.length, s.crc32c());
+                deleteFile(fileId, keepAs);
+                invalidate(fileId, keepAs);
+                tracked(fileId, keepAs, s.crc32c());
+                return;
+            }
+        }
+        Path fdir = baseDir.resolve(fileId), live = fdir.resolve(chunkId), kept = fdir.resolve(keepAs);
+        if (!Files.isRegularFile(live)) return;
+        Integer crc = checksum(fileId, chunkId);
+        if (crc != null) writeChecksum(fdir, keepAs, crc);
+        Files.deleteIfExists(kept);
+        try {
+            Files.createLink(kept, live);
+        } catch (UnsupportedOperationException e) {
+            Files.copy(live, kept);
+        }
+        if (volumes != null) volumes.delete(key(fileId, keepAs));
+        invalidate(fileId, keepAs);
+        if (crc != null) tracked(fileId, keepAs, crc);
+    }
+
+    private static void checkCrc(String fileId, String chunkId, StoredChunk stored, Integer expectedCrc) throws IOException {
+        if (expectedCrc != null && expectedCrc != stored.crc32c()) {
+            throw new IOException("checksum mismatch for " + fileId + "/" + chunkId + ": got " + stored.checksumHex());
+        }
+    }
+
+    // The sidecar goes in first, so a chunk file is never newer than its checksum. A crash between the
+    // two renames leaves the old bytes under the new checksum, which reads as a corrupt replica and is
+    // repaired like one; the write itself was never acknowledged.
+    private void publish(Path fdir, String chunkId, Path tmp, StoredChunk stored) throws IOException {
+        writeChecksum(fdir, chunkId, stored.crc32c());
+        Files.move(tmp, fdir.resolve(chunkId), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(fdir);
+        // a packed copy from an earlier, smaller version of the chunk is stale now
+        if (volumes != null) volumes.delete(key(fdir.getFileName().toString(), chunkId));
+        invalidate(fdir.getFileName().toString(), chunkId);
+        tracked(fdir.getFileName().toString(), chunkId, stored.crc32c());
+    }
+
+    // Replaces the sidecar atomically with a durable copy.
+    private void writeChecksum(Path fdir, String chunkId, int crc32c) throws IOException {
+        Path tmp = Files.createTempFile(fdir, "." + chunkId + ".", ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(String.format("%08x", crc32c).getBytes(StandardCharsets.US_ASCII)));
+            long synced = System.nanoTime();
+            ch.force(true);
+            fsyncTimer.recordSince(synced);
+            Files.move(tmp, checksumPath(fdir, chunkId), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    // Makes the renames into the directory durable; not every platform can open a directory for that.
+    private static void syncDirectory(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+
+    private void invalidate(String fileId, String chunkId) {
+        if (cache != null) cache.invalidate(key(fileId, chunkId));
+    }
+
+    private void tracked(String fileId, String chunkId, int crc32c) {
+        MerkleTree m = merkle;
+        if (m != null) m.put(fileId, chunkId, crc32c);
+    }
+
+    private void untracked(String fileId, String chunkId) {
+        MerkleTree m = merkle;
+        if (m != null) m.remove(fileId, chunkId);
+    }
+
+    /** Fills the tree with the chunks already on disk and keeps it up to date from now on. */
+    public void track(MerkleTree tree) throws IOException {
+        merkle = tree;
+        if (volumes != null) {
+            for (String key : volumes.keys("")) {
+                VolumeStore.Slice s = volumes.locate(key);
+                int slash = key.indexOf('/');
+                if (s != null && slash > 0) tree.put(key.substring(0, slash), key.substring(slash + 1), s.crc32c());
+            }
+        }
+        // chunk files are the ones with a checksum sidecar, which also skips the volume and Raft log directories
+        try (Stream<Path> dirs = Files.list(baseDir)) {
+            for (Path fdir : dirs.filter(Files::isDirectory).toList()) {
+                String fileId = fdir.getFileName().toString();
+                try (Stream<Path> files = Files.list(fdir)) {
+                    for (Path f : files.toList()) {
+                        String name = f.getFileName().toString();
+                        if (!name.startsWith(".") || !name.endsWith(".crc32c")) continue;
+                        String chunkId = name.substring(1, name.length() - ".crc32c".length());
+                        Integer crc = checksum(fileId, chunkId);
+                        if (crc != null && Files.isRegularFile(fdir.resolve(chunkId))) tree.put(fileId, chunkId, crc);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Starts a chunk that is written piecewise; like saveChunk it only becomes visible on {@link PendingChunk#commit()}. */
+    public PendingChunk create(String fileId, String chunkId) throws IOException {
+        Path fdir = baseDir.resolve(fileId);
+        Files.createDirectories(fdir);
+        return new PendingChunk(fileId, fdir, chunkId);
+    }
+
+    // Buffered in memory while it still fits a volume record, spilled to a temp file once it does not.
+    // Leading bytes can be reserved and filled in at commit, for a header only known at the end.
+    public final class PendingChunk implements Closeable {
+        private final String fileId;
+        private final Path fdir;
+        private final String chunkId;
+        private final CRC32C crc = new CRC32C();
+        private byte[] buffer = new byte[0];
+        private Path tmp;
+        private FileChannel out;
+        private long length;
+        private int reserved;
+        private boolean committed;
+
+        private PendingChunk(String fileId, Path fdir, String chunkId) throws IOException {
+            this.fileId = fileId;
+            this.fdir = fdir;
+            this.chunkId = chunkId;
+            if (maxPackedBytes == 0) spill();
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            crc.update(b, off, len);
+            if (out == null && length + len > maxPackedBytes) spill();
+            if (out == null) {
+                if (length + len > buffer.length) buffer = Arrays.copyOf(buffer, (int) Math.min(maxPackedBytes, Math.max(2 * buffer.length, length + len)));
+                System.arraycopy(b, off, buffer, (int) length, len);
+                length += len;
+                return;
+            }
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            while (buf.hasRemaining()) length += out.write(buf);
+        }
+
+        /** Skips {@code n} bytes at the start of the chunk, which {@link #commit(byte[], String)} fills in. */
+        public void reserve(int n) throws IOException {
+            if (length > 0) throw new IllegalStateException("reserve before writing");
+            write(new byte[n], 0, n);
+            crc.reset();
+            reserved = n;
+        }
+
+        private void spill() throws IOException {
+            tmp = Files.createTempFile(fdir, "." + chunkId + ".", ".tmp");
+            out = FileChannel.open(tmp, StandardOpenOption.WRITE);
+            ByteBuffer buf = ByteBuffer.wrap(buffer, 0, (int) length);
+            while (buf.hasRemaining()) out.write(buf);
+            buffer = null;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        public StoredChunk commit() throws IOException {
+            return commit(new byte[0], null);
+        }
+
+        /**
+         * Publishes the chunk with {@code head} in the reserved bytes, keeping the version it replaces
+         * under {@code keepAs} if that is given (as saveChunk does).
+         */
+        public StoredChunk commit(byte[] head, String keepAs) throws IOException {
+            if (head.length != reserved) throw new IllegalArgumentException("reserved " + reserved + " bytes, got " + head.length);
+            CRC32C headCrc = new CRC32C();
+            headCrc.update(head);
+            StoredChunk stored = new StoredChunk(length, combine((int) headCrc.getValue(), (int) crc.getValue(), length - reserved));
+            keep(fileId, chunkId, keepAs);
+            if (out == null) {
+                System.arraycopy(head, 0, buffer, 0, head.length);
+                volumes.put(key(fileId, chunkId), buffer, 0, (int) length, stored.crc32c());
+                deleteFile(fileId, chunkId);
+                invalidate(fileId, chunkId);
+                tracked(fileId, chunkId, stored.crc32c());
+            } else {
+                ByteBuffer buf = ByteBuffer.wrap(head);
+                while (buf.hasRemaining()) out.write(buf, buf.position());
+                long synced = System.nanoTime();
+                out.force(true);
+                fsyncTimer.recordSince(synced);
+                out.close();
+                publish(fdir, chunkId, tmp, stored);
+            }
+            committed = true;
+            writtenBytes.add(stored.length());
+            return stored;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed || out == null) return;
+            out.close();
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // CRC32C of a || b from the CRCs of both and the length of b: zlib's crc32_combine, which shifts
+    // crcA past lenB zero bytes by repeatedly squaring the one-zero-bit operator, for this polynomial.
+    static int combine(int crcA, int crcB, long lenB) {
+        if (lenB <= 0) return crcA;
+        int[] even = new int[32];
+        int[] odd = new int[32];
+        odd[0] = 0x82F63B78; // reflected Castagnoli polynomial
+        for (int n = 1, row = 1; n < 32; n++, row <<= 1) odd[n] = row;
+        square(even, odd); // two zero bits
+        square(odd, even); // four zero bits
+        int crc = crcA;
+        while (true) {
+            square(even, odd);
+            if ((lenB & 1) != 0) crc = times(even, crc);
+            lenB >>= 1;
+            if (lenB == 0) break;
+            square(odd, even);
+            if ((lenB & 1) != 0) crc = times(odd, crc);
+            lenB >>= 1;
+            if (lenB == 0) break;
+        }
+        return crc ^ crcB;
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) sum ^= matrix[i];
+        }
+        return sum;
+    }
+
+    private static void square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) square[n] = times(matrix, matrix[n]);
+    }
+
+    public void deleteChunk(String fileId, String chunkId) throws IOException {
+        if (volumes != null) volumes.delete(key(fileId, chunkId));
+        deleteFile(fileId, chunkId);
+        invalidate(fileId, chunkId);
+        untracked(fileId, chunkId);
+    }
+
+    /**
+     * Re-keys a stored chunk without copying file-per-chunk data (a rename); packed chunks are
+     * re-appended under the new key. Replaces whatever was stored under the target key.
+     */
+    public void move(String fromFile, String fromChunk, String toFile, String toChunk) throws IOException {
+        if (volumes != null) {
+            VolumeStore.Slice s = volumes.locate(key(fromFile, fromChunk));
+            byte[] packed = s == null ? null : volumes.read(key(fromFile, fromChunk));
+            if (packed != null) {
+                volumes.put(key(toFile, toChunk), packed, 0, packed.length, s.crc32c());
+                deleteFile(toFile, toChunk);
+                invalidate(toFile, toChunk);
+                tracked(toFile, toChunk, s.crc32c());
+                deleteChunk(fromFile, fromChunk);
+                return;
+            }
+        }
+        Integer crc = checksum(fromFile, fromChunk);
+        Path from = baseDir.resolve(fromFile), to = baseDir.resolve(toFile);
+        Files.createDirectories(to);
+        Files.move(checksumPath(from, fromChunk), checksumPath(to, toChunk), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(from.resolve(fromChunk), to.resolve(toChunk), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (volumes != null) volumes.delete(key(toFile, toChunk));
+        invalidate(fromFile, fromChunk);
+        invalidate(toFile, toChunk);
+        untracked(fromFile, fromChunk);
+        if (crc != null) tracked(toFile, toChunk, crc);
+    }
+
+    /** Ids of the chunks stored under {@code fileId}, packed or not. */
+    public List<String> list(String fileId) throws IOException {
+        Set<String> ids = new TreeSet<>();
+        Path fdir = baseDir.resolve(fileId);
+        if (Files.isDirectory(fdir)) {
+            try (Stream<Path> s = Files.list(fdir)) {
+                // skips checksum sidecars and temp files, which all start with a dot
+                s.map(p -> p.getFileName().toString()).filter(n -> !n.startsWith(".")).forEach(ids::add);
+            }
+        }
+        if (volumes != null) {
+            String prefix = fileId + "/";
+            for (String key : volumes.keys(prefix)) ids.add(key.substring(prefix.length()));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    private void deleteFile(String fileId, String chunkId) throws IOException {
+        Path fdir = baseDir.resolve(fileId);
+        Files.deleteIfExists(fdir.resolve(chunkId));
+        Files.deleteIfExists(checksumPath(fdir, chunkId));
+    }
+
+    // Location of a stored chunk, or null if it does not exist; lets callers stream it instead of reading it whole.
+    public Location locate(String fileId, String chunkId) throws IOException {
+        if (volumes != null) {
+            VolumeStore.Slice s = volumes.locate(key(fileId, chunkId));
+            if (s != null) return new Location(s.file(), s.offset(), s.length(), true);
+        }
         Path chunkFile = baseDir.resolve(fileId).resolve(chunkId);
-        return Files.readAllBytes(chunkFile);
+        return Files.isRegularFile(chunkFile) ? new Location(chunkFile, 0, Files.size(chunkFile), false) : null;
+    }
+
+    // CRC32C recorded when the chunk was stored, or null for chunks written before checksums existed.
+    // A sidecar that cannot be parsed (torn by a crash on a filesystem without atomic renames) is
+    // recomputed from the chunk bytes and rewritten.
+    public Integer checksum(String fileId, String chunkId) throws IOException {
+        if (volumes != null) {
+            VolumeStore.Slice s = volumes.locate(key(fileId, chunkId));
+            if (s != null) return s.crc32c();
+        }
+        Path fdir = baseDir.resolve(fileId);
+        Path f = checksumPath(fdir, chunkId);
+        if (!Files.exists(f)) return null;
+        String hex = Files.readString(f, StandardCharsets.US_ASCII).trim();
+        // a whole sidecar is always eight hex digits
+        if (hex.length() == 8) {
+            try {
+                return Integer.parseUnsignedInt(hex, 16);
+            } catch (NumberFormatException e) {
+                // recomputed below
+            }
+        }
+        Path chunk = fdir.resolve(chunkId);
+        if (!Files.isRegularFile(chunk)) return null;
+        CRC32C crc = new CRC32C();
+        try (InputStream in = Files.newInputStream(chunk)) {
+            byte[] buf = new byte[BUFFER_BYTES];
+            for (int n; (n = in.read(buf)) > 0; ) crc.update(buf, 0, n);
+        }
+        writeChecksum(fdir, chunkId, (int) crc.getValue());
+        return (int) crc.getValue();
+    }
+
+    // Streams the stored bytes; packed chunks are small and read in one go.
+    public InputStream open(String fileId, String chunkId) throws IOException {
+        if (volumes != null) {
+            byte[] packed = volumes.read(key(fileId, chunkId));
+            if (packed != null) return new ByteArrayInputStream(packed);
+        }
+        return Files.newInputStream(baseDir.resolve(fileId).resolve(chunkId));
+    }
+
+    public byte[] readChunk(String fileId, String chunkId) throws IOException {
+        ChunkCache.Hit hit = cached(fileId, chunkId);
+        return hit != null ? hit.data() : load(fileId, chunkId);
+    }
+
+    // The cached copy, or null if there is no cache or the chunk is not in it.
+    public ChunkCache.Hit cached(String fileId, String chunkId) {
+        return cache == null ? null : cache.get(key(fileId, chunkId));
+    }
+
+    // Reads the chunk from disk and offers it to the cache; callers have already missed the cache.
+    public byte[] load(String fileId, String chunkId) throws IOException {
+        long token = cache == null ? 0 : cache.loadToken();
+        long start = System.nanoTime();
+        byte[] data = null;
+        if (volumes != null) data = volumes.read(key(fileId, chunkId));
+        if (data == null) data = Files.readAllBytes(baseDir.resolve(fileId).resolve(chunkId));
+        readTimer.recordSince(start);
+        readBytes.add(data.length);
+        if (cache != null && data.length <= cache.maxEntryBytes()) {
+            Integer crc = checksum(fileId, chunkId);
+            if (crc != null) cache.put(key(fileId, chunkId), data, crc, token);
+        }
+        return data;
+    }
+
+    public ChunkCache cache() {
+        return cache;
     }
 
     public boolean chunkExists(String fileId, String chunkId) {
+        if (cache != null && cache.contains(key(fileId, chunkId))) return true;
+        if (volumes != null && volumes.locate(key(fileId, chunkId)) != null) return true;
         return Files.exists(baseDir.resolve(fileId).resolve(chunkId));
     }
+
+    @Override
+    public void close() throws IOException {
+        if (volumes != null) volumes.close();
+    }
+
+    private static String key(String fileId, String chunkId) {
+        return fileId + "/" + chunkId;
+    }
+
+    private static Path checksumPath(Path fdir, String chunkId) {
+        return fdir.resolve("." + chunkId + ".crc32c");
+    }
 }
@@ -0,0 +1,112 @@
+package com.example.dfs.storage;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Per-chunk compression. A compressed chunk is stored as a small header (codec, raw length and raw
+ * CRC32C) followed by a standard LZ4 or Zstd frame, so the frame can be handed to clients that
+ * accept that content encoding without re-encoding it.
+ */
+public final class Compression {
+    public static final int HEADER_BYTES = 17;
+    private static final int MAGIC = 0x44465A31; // "DFZ1"
+    // sampling: compressing a prefix this long with LZ4 tells whether the chunk is worth compressing
+    public static final int SAMPLE_BYTES = 64 * 1024;
+    private static final double MIN_SAVING = 0.1;
+    private static final LZ4Compressor SAMPLER = LZ4Factory.fastestInstance().fastCompressor();
+
+    private Compression() {}
+
+    public enum Codec {
+        NONE(0, null), LZ4(1, "x-lz4"), ZSTD(2, "zstd");
+
+        final int id;
+        /** HTTP Content-Encoding of the stored frame, for clients that can decode it themselves. */
+        public final String contentEncoding;
+
+        Codec(int id, String contentEncoding) {
+            this.id = id;
+            this.contentEncoding = contentEncoding;
+        }
+
+        static Codec byId(int id) throws IOException {
+            for (Codec c : values()) if (c.id == id) return c;
+            throw new IOException("unknown compression codec " + id);
+        }
+
+        public static Codec parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** How a file's chunks are compressed: a fixed codec, or "auto" to sample each chunk. */
+    public record Mode(Codec codec) {
+        public static final Mode AUTO = new Mode(null);
+
+        public static Mode parse(String s) {
+            return s.trim().equalsIgnoreCase("auto") ? AUTO : new Mode(Codec.parse(s));
+        }
+
+        public String name() {
+            return codec == null ? "auto" : codec.name().toLowerCase(Locale.ROOT);
+        }
+
+        // Codec to use for a chunk starting with {@code sample}; auto compresses with LZ4 only if it saves enough.
+        public Codec choose(byte[] sample, int len) {
+            if (codec != null) return codec;
+            if (len == 0) return Codec.NONE;
+            int compressed = SAMPLER.compress(sample, 0, len, new byte[SAMPLER.maxCompressedLength(len)], 0);
+            return compressed <= len * (1 - MIN_SAVING) ? Codec.LZ4 : Codec.NONE;
+        }
+    }
+
+    public record Header(Codec codec, long rawLength, int rawCrc32c) {
+        public void write(OutputStream os) throws IOException {
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeInt(MAGIC);
+            out.writeByte(codec.id);
+            out.writeLong(rawLength);
+            out.writeInt(rawCrc32c);
+            out.flush();
+        }
+
+        public static Header read(InputStream is) throws IOException {
+            DataInputStream in = new DataInputStream(is);
+            if (in.readInt() != MAGIC) throw new IOException("not a compressed chunk");
+            return new Header(Codec.byId(in.readUnsignedByte()), in.readLong(), in.readInt());
+        }
+
+        public String checksumHex() {
+            return String.format("%08x", rawCrc32c);
+        }
+    }
+
+    /** Wraps {@code out} so bytes written to the result are compressed into it; closing the result finishes the frame. */
+    public static OutputStream compressor(Codec codec, OutputStream out, int zstdLevel) throws IOException {
+        return switch (codec) {
+            case NONE -> out;
+            case LZ4 -> new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_256KB);
+            case ZSTD -> new ZstdOutputStream(out, zstdLevel);
+        };
+    }
+
+    public static InputStream decompressor(Codec codec, InputStream in) throws IOException {
+        return switch (codec) {
+            case NONE -> in;
+            case LZ4 -> new LZ4FrameInputStream(in);
+            case ZSTD -> new ZstdInputStream(in);
+        };
+    }
+}
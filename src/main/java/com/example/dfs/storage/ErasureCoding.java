@@ -0,0 +1,255 @@
+package com.example.dfs.storage;
+
+import com.example.dfs.net.RpcClient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Erasure-coded chunks: a chunk of length L is cut into k contiguous data fragments of
+ * ceil(L/k) bytes (the last one zero-padded) plus m Reed-Solomon parity fragments, one per node.
+ * Fragments are ordinary chunks named {@code <chunkId>.f<i>}, so they are stored, replicated and
+ * served by the same code paths as full chunks.
+ */
+public class ErasureCoding {
+    private static final int CELL_BYTES = 64 * 1024;
+
+    private final ChunkStore store;
+    private final RpcClient rpc;
+    private final String self;
+    private final Map<Policy, ReedSolomon> codecs = new ConcurrentHashMap<>();
+
+    /** RS(k, m); {@code null} stands for plain replication. */
+    public record Policy(int dataShards, int parityShards) {
+        public static final String REPLICATE = "replicate";
+
+        // "replicate" or "rs-<k>-<m>"
+        public static Policy parse(String s) {
+            String v = s.trim().toLowerCase(Locale.ROOT);
+            if (v.equals(REPLICATE)) return null;
+            String[] p = v.split("-");
+            if (p.length != 3 || !p[0].equals("rs")) throw new IllegalArgumentException("unknown storage policy " + s);
+            Policy policy = new Policy(Integer.parseInt(p[1]), Integer.parseInt(p[2]));
+            if (policy.dataShards < 1 || policy.parityShards < 1) throw new IllegalArgumentException("invalid storage policy " + s);
+            return policy;
+        }
+
+        public static String name(Policy p) {
+            return p == null ? REPLICATE : "rs-" + p.dataShards + "-" + p.parityShards;
+        }
+    }
+
+    /** Where the fragments of one chunk live; recorded in the Raft log as an EC command. */
+    public record Layout(String fileId, String chunkId, long length, int crc32c, Policy policy, List<String> nodes) {
+        public static final String COMMAND = "EC:";
+
+        // EC:fileId:chunkId:length:crc32c:k:m:node0,node1,...  (node URLs contain ':' so they go last)
+        public String command() {
+            return COMMAND + fileId + ":" + chunkId + ":" + length + ":" + String.format("%08x", crc32c) + ":"
+                    + policy.dataShards() + ":" + policy.parityShards() + ":" + String.join(",", nodes);
+        }
+
+        public static Layout parse(String command) {
+            String[] p = command.split(":", 8);
+            return new Layout(p[1], p[2], Long.parseLong(p[3]), Integer.parseUnsignedInt(p[4], 16),
+                    new Policy(Integer.parseInt(p[5]), Integer.parseInt(p[6])), List.of(p[7].split(",")));
+        }
+
+        public String fragmentId(int i) {
+            return chunkId + ".f" + i;
+        }
+
+        public static boolean isFragmentId(String chunkId) {
+            return chunkId.matches(".+\\.f\\d+");
+        }
+
+        public long fragmentBytes() {
+            int k = policy.dataShards();
+            return (length + k - 1) / k;
+        }
+    }
+
+    public ErasureCoding(ChunkStore store, RpcClient rpc, String self) {
+        this.store = store;
+        this.rpc = rpc;
+        this.self = self;
+    }
+
+    /** Picks k+m distinct nodes out of {@code members}, rotated per chunk so fragments spread evenly. */
+    public static Layout place(String fileId, String chunkId, ChunkStore.StoredChunk chunk, Policy policy, Collection<String> members) {
+        int n = policy.dataShards() + policy.parityShards();
+        List<String> sorted = new ArrayList<>(new TreeSet<>(members));
+        if (sorted.size() < n) {
+            throw new IllegalArgumentException(Policy.name(policy) + " needs " + n + " nodes, cluster has " + sorted.size());
+        }
+        int start = Math.floorMod(fileId.hashCode() * 31 + chunkId.hashCode(), sorted.size());
+        List<String> nodes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) nodes.add(sorted.get((start + i) % sorted.size()));
+        return new Layout(fileId, chunkId, chunk.length(), chunk.crc32c(), policy, nodes);
+    }
+
+    /** Encodes the chunk at {@code source} into its k+m fragments, all stored locally. */
+    public ChunkStore.StoredChunk[] encode(Layout layout, ChunkStore.Location source) throws IOException {
+        ReedSolomon rs = codec(layout.policy());
+        int k = rs.dataShards(), total = rs.totalShards();
+        long fragmentBytes = layout.fragmentBytes();
+        byte[][] cells = new byte[total][CELL_BYTES];
+        ChunkStore.PendingChunk[] out = new ChunkStore.PendingChunk[total];
+        try (FileChannel in = FileChannel.open(source.file(), StandardOpenOption.READ)) {
+            for (int i = 0; i < total; i++) out[i] = store.create(layout.fileId(), layout.fragmentId(i));
+            // one cell from each data fragment at a time, so memory does not depend on the chunk size
+            for (long off = 0; off < fragmentBytes; off += CELL_BYTES) {
+                int n = (int) Math.min(CELL_BYTES, fragmentBytes - off);
+                for (int i = 0; i < k; i++) readFully(in, cells[i], n, source, i * fragmentBytes + off);
+                rs.encodeParity(cells, 0, n);
+                for (int i = 0; i < total; i++) out[i].write(cells[i], 0, n);
+            }
+            ChunkStore.StoredChunk[] stored = new ChunkStore.StoredChunk[total];
+            for (int i = 0; i < total; i++) stored[i] = out[i].commit();
+            return stored;
+        } finally {
+            for (ChunkStore.PendingChunk p : out) if (p != null) p.close();
+        }
+    }
+
+    // Positional read that zero-fills whatever lies past the end of the chunk (padding of the last fragment).
+    // A packed chunk is followed by other records in its volume, so reads stop at the chunk's length, not EOF.
+    private static void readFully(FileChannel in, byte[] cell, int n, ChunkStore.Location source, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(cell, 0, (int) Math.max(0, Math.min(n, source.length() - position)));
+        while (buf.hasRemaining()) {
+            int r = in.read(buf, source.offset() + position + buf.position());
+            if (r < 0) break;
+        }
+        Arrays.fill(cell, buf.position(), n, (byte) 0);
+    }
+
+    /**
+     * Reassembles the chunk. Data fragments are fetched first; each one that is missing, unreachable
+     * or corrupt is replaced by the next parity fragment, and the gaps are decoded (degraded read).
+     */
+    public byte[] read(Layout layout) throws IOException {
+        return read(layout, Set.of());
+    }
+
+    /** Like {@link #read(Layout)}, without asking the {@code unavailable} nodes for their fragments. */
+    public byte[] read(Layout layout, Collection<String> unavailable) throws IOException {
+        ReedSolomon rs = codec(layout.policy());
+        int k = rs.dataShards(), total = rs.totalShards();
+        int fragmentBytes = Math.toIntExact(layout.fragmentBytes());
+        byte[][] shards = new byte[total][];
+        boolean[] present = new boolean[total];
+        Map<Integer, CompletableFuture<byte[]>> inflight = new HashMap<>();
+        int next = k, have = 0;
+        for (int i = 0; i < k; i++) inflight.put(i, fetch(layout, i, unavailable));
+        while (have < k) {
+            if (inflight.isEmpty()) {
+                throw new IOException(layout.fileId() + "/" + layout.chunkId() + ": only " + have + " of " + k + " fragments readable");
+            }
+            CompletableFuture.anyOf(inflight.values().toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+            List<Integer> done = new ArrayList<>();
+            inflight.forEach((i, f) -> { if (f.isDone()) done.add(i); });
+            for (int i : done) {
+                byte[] data = inflight.remove(i).exceptionally(err -> null).join();
+                if (data != null && data.length == fragmentBytes) {
+                    shards[i] = data;
+                    present[i] = true;
+                    have++;
+                } else if (next < total) {
+                    inflight.put(next, fetch(layout, next, unavailable));
+                    next++;
+                }
+            }
+        }
+        inflight.values().forEach(f -> f.cancel(true));
+
+        boolean degraded = false;
+        for (int i = 0; i < k; i++) {
+            if (!present[i]) {
+                shards[i] = new byte[fragmentBytes];
+                degraded = true;
+            }
+        }
+        if (degraded) {
+            // reconstruct also refills missing parity shards, so they need buffers too
+            for (int i = k; i < total; i++) {
+                if (!present[i]) shards[i] = new byte[fragmentBytes];
+            }
+            rs.reconstruct(shards, present, 0, fragmentBytes);
+        }
+
+        byte[] chunk = new byte[Math.toIntExact(layout.length())];
+        for (int i = 0, pos = 0; i < k && pos < chunk.length; i++, pos += fragmentBytes) {
+            System.arraycopy(shards[i], 0, chunk, pos, Math.min(fragmentBytes, chunk.length - pos));
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(chunk);
+        if ((int) crc.getValue() != layout.crc32c()) {
+            throw new IOException(layout.fileId() + "/" + layout.chunkId() + ": reassembled chunk fails its checksum");
+        }
+        return chunk;
+    }
+
+    /**
+     * Recomputes the fragments at {@code indexes} from any k readable ones, e.g. to move the
+     * fragments of a failed node elsewhere. Returned in the order of {@code indexes}.
+     */
+    public byte[][] rebuild(Layout layout, List<Integer> indexes, Collection<String> unavailable) throws IOException {
+        byte[] chunk = read(layout, unavailable);
+        ReedSolomon rs = codec(layout.policy());
+        int fragmentBytes = Math.toIntExact(layout.fragmentBytes());
+        byte[][] shards = new byte[rs.totalShards()][fragmentBytes];
+        for (int i = 0, pos = 0; i < rs.dataShards() && pos < chunk.length; i++, pos += fragmentBytes) {
+            System.arraycopy(chunk, pos, shards[i], 0, Math.min(fragmentBytes, chunk.length - pos));
+        }
+        // parity is computed byte by byte, so one pass over whole fragments matches encode's cells
+        rs.encodeParity(shards, 0, fragmentBytes);
+        byte[][] fragments = new byte[indexes.size()][];
+        for (int j = 0; j < indexes.size(); j++) fragments[j] = shards[indexes.get(j)];
+        return fragments;
+    }
+
+    // One fragment, verified against the checksum recorded where it is stored.
+    private CompletableFuture<byte[]> fetch(Layout layout, int i, Collection<String> unavailable) {
+        String node = layout.nodes().get(i);
+        String fragmentId = layout.fragmentId(i);
+        if (unavailable.contains(node)) return CompletableFuture.failedFuture(new IOException(node + " is unavailable"));
+        if (node.equals(self)) {
+            try {
+                if (!store.chunkExists(layout.fileId(), fragmentId)) {
+                    return CompletableFuture.failedFuture(new IOException("fragment " + fragmentId + " missing locally"));
+                }
+                byte[] data = store.readChunk(layout.fileId(), fragmentId);
+                return CompletableFuture.completedFuture(verify(data, store.checksum(layout.fileId(), fragmentId)));
+            } catch (IOException | UncheckedIOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        // fragments have no metadata entry of their own; the layout that names them is already committed
+        return rpc.get(node + "/files/" + layout.fileId() + "/chunks/" + fragmentId + "?consistency=local")
+                .thenApply(resp -> verify(resp.body(), checksumHeader(resp)));
+    }
+
+    private static Integer checksumHeader(HttpResponse<?> resp) {
+        return resp.headers().firstValue(StorageController.CHECKSUM_HEADER).map(h -> Integer.parseUnsignedInt(h, 16)).orElse(null);
+    }
+
+    private static byte[] verify(byte[] data, Integer expectedCrc) {
+        if (expectedCrc == null) return data;
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        if ((int) crc.getValue() != expectedCrc) throw new UncheckedIOException(new IOException("fragment checksum mismatch"));
+        return data;
+    }
+
+    private ReedSolomon codec(Policy policy) {
+        return codecs.computeIfAbsent(policy, p -> new ReedSolomon(p.dataShards(), p.parityShards()));
+    }
+}
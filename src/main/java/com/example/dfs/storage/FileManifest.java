@@ -0,0 +1,29 @@
+package com.example.dfs.storage;
+
+/**
+ * A file uploaded whole: cut into {@code chunks} chunks of {@code chunkBytes} (the last one
+ * shorter), stored under chunk ids "0", "1", ... Recorded in the Raft log as a MANIFEST command once
+ * every chunk is committed; {@code version} is the hybrid logical timestamp of that commit, so
+ * reading each chunk as of it gives the file exactly as uploaded even while it is being rewritten.
+ */
+public record FileManifest(String fileId, long length, int chunks, int chunkBytes, long version) {
+    public static final String COMMAND = "MANIFEST:";
+
+    // MANIFEST:fileId:length:chunks:chunkBytes
+    public String command() {
+        return COMMAND + fileId + ":" + length + ":" + chunks + ":" + chunkBytes;
+    }
+
+    public static FileManifest parse(MetadataLogEntry e) {
+        String[] p = e.getCommand().split(":", 5);
+        return new FileManifest(p[1], Long.parseLong(p[2]), Integer.parseInt(p[3]), Integer.parseInt(p[4]), e.getVersion());
+    }
+
+    public static String chunkId(int index) {
+        return Integer.toString(index);
+    }
+
+    public long chunkLength(int index) {
+        return index < chunks - 1 ? chunkBytes : length - (long) chunkBytes * (chunks - 1);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.dfs.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * Merkle tree over the (fileId, chunkId, checksum) set a node stores, for comparing replicas
+ * without listing them. A chunk's key picks one of 16^depth leaf ranges; every tree node holds
+ * the XOR of the 64-bit digests of the entries below it, so storing or deleting a chunk updates
+ * one path of depth + 1 nodes and the hashes do not depend on the order chunks arrived in. Equal
+ * roots mean equal sets; otherwise comparing the children of differing nodes level by level
+ * narrows the difference down to a few leaves.
+ */
+public class MerkleTree {
+    public static final int FANOUT = 16;
+    private static final int BITS = 4;
+
+    private final int depth;
+    // levels[d] holds the 16^d nodes at depth d; levels[depth] are the leaves
+    private final long[][] levels;
+    // per leaf: "fileId/chunkId" -> checksum
+    private final Map<String, Integer>[] entries;
+    private final BiPredicate<String, String> tracked;
+    private int size;
+
+    /** Only chunks {@code tracked} accepts are in the tree, e.g. not fragments that differ per node by design. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MerkleTree(int depth, BiPredicate<String, String> tracked) {
+        if (depth < 1 || depth > 5) throw new IllegalArgumentException("merkle depth must be between 1 and 5");
+        this.depth = depth;
+        this.tracked = tracked;
+        levels = new long[depth + 1][];
+        for (int d = 0; d <= depth; d++) levels[d] = new long[1 << (BITS * d)];
+        entries = new Map[levels[depth].length];
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public synchronized void put(String fileId, String chunkId, int crc32c) {
+        if (!tracked.test(fileId, chunkId)) return;
+        String key = fileId + "/" + chunkId;
+        long keyHash = hash(key);
+        int leaf = leaf(keyHash);
+        if (entries[leaf] == null) entries[leaf] = new HashMap<>();
+        Integer old = entries[leaf].put(key, crc32c);
+        if (old != null && old == crc32c) return;
+        long change = digest(keyHash, crc32c);
+        if (old != null) change ^= digest(keyHash, old);
+        else size++;
+        update(leaf, change);
+    }
+
+    public synchronized void remove(String fileId, String chunkId) {
+        String key = fileId + "/" + chunkId;
+        long keyHash = hash(key);
+        int leaf = leaf(keyHash);
+        Integer old = entries[leaf] == null ? null : entries[leaf].remove(key);
+        if (old == null) return;
+        size--;
+        update(leaf, digest(keyHash, old));
+    }
+
+    private void update(int leaf, long change) {
+        for (int d = depth, i = leaf; d >= 0; d--, i >>>= BITS) levels[d][i] ^= change;
+    }
+
+    public synchronized long root() {
+        return levels[0][0];
+    }
+
+    /** Hash of each of the given nodes at {@code level}; 0 is the root, {@link #depth()} the leaves. */
+    public synchronized long[] hashes(int level, int[] nodes) {
+        long[] out = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) out[i] = levels[level][nodes[i]];
+        return out;
+    }
+
+    /** The "fileId/chunkId" -> checksum entries of one leaf range. */
+    public synchronized Map<String, Integer> entries(int leaf) {
+        return entries[leaf] == null ? Map.of() : Map.copyOf(entries[leaf]);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int leaf(long keyHash) {
+        return (int) (keyHash >>> (64 - BITS * depth));
+    }
+
+    // FNV-1a over the UTF-8 key, finished with a murmur3 mix so the top bits spread evenly.
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long digest(long keyHash, int crc32c) {
+        return mix(keyHash ^ ((crc32c & 0xffffffffL) * 0x9e3779b97f4a7c15L));
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e94c3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
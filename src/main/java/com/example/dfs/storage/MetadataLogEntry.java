@@ -2,6 +2,10 @@ package com.example.dfs.storage;
 
 public class MetadataLogEntry {
     private final String command;
-    public MetadataLogEntry(String command) { this.command = command; }
+    // hybrid logical timestamp the chunk version was written at; 0 for unversioned commands
+    private final long version;
+    public MetadataLogEntry(String command) { this(command, 0); }
+    public MetadataLogEntry(String command, long version) { this.command = command; this.version = version; }
     public String getCommand() { return command; }
+    public long getVersion() { return version; }
 }
@@ -0,0 +1,282 @@
+package com.example.dfs.storage;
+
+import com.example.dfs.model.LogEntry;
+import com.example.dfs.raft.RaftStateMachine;
+import com.example.dfs.time.HybridLogicalClock;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// File metadata replicated through Raft: the latest WRITE (replicated), EC (erasure-coded) or
+// REF (deduplicated) command per fileId:chunkId, and the POLICY and COMPRESSION commands per
+// fileId. A WRITE with a sixth field is a compressed chunk: length and checksum are those of the
+// stored (compressed) bytes and the last field names the codec. REF commands
+// point a chunk at stored content by hash; the references per hash are counted here so every node
+// knows which content is still in use.
+// Chunk commands are prefixed with "@<hlc>:" by the leader, the hybrid logical timestamp the
+// version was written at; the last few versions of every chunk are kept for reads as of a time.
+// MANIFEST commands record how a file uploaded whole was split into chunks (see FileManifest).
+public class MetadataStore implements RaftStateMachine {
+    private static final int SNAPSHOT_MAGIC = 0x44465332; // "DFS2": commands may carry a version
+    private static final int SNAPSHOT_MAGIC_V1 = 0x44465331; // "DFS1"
+    private static final String VERSION = "@";
+    private static final String POLICY = "POLICY:";
+    private static final String COMPRESSION = "COMPRESSION:";
+    public static final String REF = "REF:";
+
+    private final ConcurrentHashMap<String, MetadataLogEntry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MetadataLogEntry> policies = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MetadataLogEntry> compressions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MetadataLogEntry> manifests = new ConcurrentHashMap<>();
+    // per fileId:chunkId, its versions by timestamp; replaced as a whole (copy on write) on apply
+    private final ConcurrentHashMap<String, NavigableMap<Long, MetadataLogEntry>> versions = new ConcurrentHashMap<>();
+    private final int maxVersions;
+    private volatile Consumer<MetadataLogEntry> evicted = e -> {};
+    private final ConcurrentHashMap<String, Integer> references = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> contentLengths = new ConcurrentHashMap<>();
+    // bytes of all REF'd chunks vs. bytes of the distinct content they point at
+    private final AtomicLong logicalBytes = new AtomicLong();
+    private final AtomicLong uniqueBytes = new AtomicLong();
+
+    public MetadataStore() {
+        this(8);
+    }
+
+    public MetadataStore(int maxVersions) {
+        if (maxVersions < 1) throw new IllegalArgumentException("at least one version must be kept");
+        this.maxVersions = maxVersions;
+    }
+
+    // Told about every version that falls out of the kept history, on the thread applying the log.
+    public void setEvictionListener(Consumer<MetadataLogEntry> listener) {
+        this.evicted = listener;
+    }
+
+    // A chunk command stamped with the version it writes.
+    public static String versioned(long version, String command) {
+        return VERSION + HybridLogicalClock.format(version) + ":" + command;
+    }
+
+    public static String policyCommand(String fileId, ErasureCoding.Policy policy) {
+        return POLICY + fileId + ":" + ErasureCoding.Policy.name(policy);
+    }
+
+    public static String compressionCommand(String fileId, Compression.Mode mode) {
+        return COMPRESSION + fileId + ":" + mode.name();
+    }
+
+    public static String writeCommand(String fileId, String chunkId, ChunkStore.StoredChunk stored, Compression.Codec codec) {
+        String command = "WRITE:" + fileId + ":" + chunkId + ":" + stored.length() + ":" + stored.checksumHex();
+        return codec == Compression.Codec.NONE ? command : command + ":" + codec.name().toLowerCase(Locale.ROOT);
+    }
+
+    // Codec a chunk is stored with; NONE for anything but a compressed WRITE.
+    public static Compression.Codec codec(MetadataLogEntry e) {
+        if (e == null || !e.getCommand().startsWith("WRITE:")) return Compression.Codec.NONE;
+        String[] parts = e.getCommand().split(":");
+        return parts.length < 6 ? Compression.Codec.NONE : Compression.Codec.parse(parts[5]);
+    }
+
+    // Stored CRC32C recorded for a WRITE or REF, or null for other commands.
+    public static Integer checksum(MetadataLogEntry e) {
+        if (e == null || !(e.getCommand().startsWith("WRITE:") || e.getCommand().startsWith(REF))) return null;
+        return Integer.parseUnsignedInt(e.getCommand().split(":")[4], 16);
+    }
+
+    public static String refCommand(String fileId, String chunkId, ChunkStore.StoredChunk content, String hash) {
+        return REF + fileId + ":" + chunkId + ":" + content.length() + ":" + content.checksumHex() + ":" + hash;
+    }
+
+    // Content hash a REF command points at, or null for other commands.
+    public static String refHash(MetadataLogEntry e) {
+        if (e == null || !e.getCommand().startsWith(REF)) return null;
+        return e.getCommand().substring(e.getCommand().lastIndexOf(':') + 1);
+    }
+
+    @Override
+    public void apply(LogEntry entry) {
+        String command = entry.getCommand();
+        long version = 0;
+        if (command.startsWith(VERSION)) {
+            int colon = command.indexOf(':');
+            version = HybridLogicalClock.parse(command.substring(VERSION.length(), colon));
+            command = command.substring(colon + 1);
+        }
+        if (command.startsWith("WRITE:") || command.startsWith(ErasureCoding.Layout.COMMAND) || command.startsWith(REF)) {
+            String[] parts = command.split(":", 5);
+            String key = parts[1] + ":" + parts[2];
+            MetadataLogEntry e = new MetadataLogEntry(command, version);
+            MetadataLogEntry old = entries.put(key, e);
+            remember(key, e);
+            // count the new reference before dropping the old one, so rewriting a chunk with the
+            // same content never takes the count through zero
+            if (command.startsWith(REF)) reference(refHash(e), Long.parseLong(parts[3]), 1);
+            if (refHash(old) != null) reference(refHash(old), Long.parseLong(old.getCommand().split(":", 5)[3]), -1);
+        } else if (command.startsWith(POLICY)) {
+            policies.put(command.split(":", 3)[1], new MetadataLogEntry(command));
+        } else if (command.startsWith(COMPRESSION)) {
+            compressions.put(command.split(":", 3)[1], new MetadataLogEntry(command));
+        } else if (command.startsWith(FileManifest.COMMAND)) {
+            manifests.put(command.split(":", 3)[1], new MetadataLogEntry(command, version));
+        }
+    }
+
+    // Keeps the newest maxVersions versions of the chunk. Evicting the oldest by timestamp gives the
+    // same history on every node, since all of them apply the same commands. A chunk rewritten by an
+    // unversioned command has no history any more.
+    private void remember(String key, MetadataLogEntry e) {
+        NavigableMap<Long, MetadataLogEntry> old = versions.get(key);
+        TreeMap<Long, MetadataLogEntry> next = old == null ? new TreeMap<>() : new TreeMap<>(old);
+        if (e.getVersion() == 0) {
+            next.values().forEach(evicted);
+            versions.remove(key);
+            return;
+        }
+        next.put(e.getVersion(), e);
+        while (next.size() > maxVersions) evicted.accept(next.pollFirstEntry().getValue());
+        versions.put(key, Collections.unmodifiableNavigableMap(next));
+    }
+
+    @Override
+    public SnapshotWriter captureSnapshot() {
+        // MetadataLogEntry is immutable, so copying the references is a consistent view
+        List<MetadataLogEntry> view = new ArrayList<>(policies.values());
+        view.addAll(compressions.values());
+        view.addAll(manifests.values());
+        for (Map.Entry<String, MetadataLogEntry> current : entries.entrySet()) {
+            // older versions first, so replaying the snapshot ends on the current one
+            NavigableMap<Long, MetadataLogEntry> history = versions.get(current.getKey());
+            if (history != null) {
+                for (MetadataLogEntry e : history.values()) if (e != current.getValue()) view.add(e);
+            }
+            view.add(current.getValue());
+        }
+        return out -> write(view, out);
+    }
+
+    private static void write(Collection<MetadataLogEntry> view, OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(view.size());
+        // the key is derived from the command, so only the command is stored
+        for (MetadataLogEntry e : view) out.writeUTF(e.getVersion() == 0 ? e.getCommand() : versioned(e.getVersion(), e.getCommand()));
+        out.flush();
+    }
+
+    @Override
+    public void restoreSnapshot(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        int magic = in.readInt();
+        if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1) throw new IOException("not a metadata snapshot");
+        int count = in.readInt();
+        entries.clear();
+        versions.clear();
+        policies.clear();
+        compressions.clear();
+        manifests.clear();
+        references.clear();
+        contentLengths.clear();
+        logicalBytes.set(0);
+        uniqueBytes.set(0);
+        for (int i = 0; i < count; i++) apply(new LogEntry(0, in.readUTF()));
+    }
+
+    public MetadataLogEntry get(String fileId, String chunkId) {
+        return entries.get(fileId + ":" + chunkId);
+    }
+
+    // Versions of the chunk kept for reads as of a time, oldest first; empty for unversioned chunks.
+    public NavigableMap<Long, MetadataLogEntry> versions(String fileId, String chunkId) {
+        NavigableMap<Long, MetadataLogEntry> history = versions.get(fileId + ":" + chunkId);
+        return history == null ? Collections.emptyNavigableMap() : history;
+    }
+
+    // Newest kept WRITE version of the chunk whose stored bytes have the checksum, or null.
+    public MetadataLogEntry writeVersion(String fileId, String chunkId, int crc32c) {
+        for (MetadataLogEntry e : versions(fileId, chunkId).descendingMap().values()) {
+            if (e.getCommand().startsWith("WRITE:") && Integer.valueOf(crc32c).equals(checksum(e))) return e;
+        }
+        return null;
+    }
+
+    // Current layout of every erasure-coded chunk.
+    public List<ErasureCoding.Layout> layouts() {
+        List<ErasureCoding.Layout> layouts = new ArrayList<>();
+        for (MetadataLogEntry e : entries.values()) {
+            if (e.getCommand().startsWith(ErasureCoding.Layout.COMMAND)) layouts.add(ErasureCoding.Layout.parse(e.getCommand()));
+        }
+        return layouts;
+    }
+
+    // Storage policy set for the file, or null if none was set.
+    public ErasureCoding.Policy policy(String fileId) {
+        MetadataLogEntry e = policies.get(fileId);
+        return e == null ? null : ErasureCoding.Policy.parse(e.getCommand().split(":", 3)[2]);
+    }
+
+    public boolean hasPolicy(String fileId) {
+        return policies.containsKey(fileId);
+    }
+
+    // Compression mode set for the file, or null if none was set.
+    public Compression.Mode compression(String fileId) {
+        MetadataLogEntry e = compressions.get(fileId);
+        return e == null ? null : Compression.Mode.parse(e.getCommand().split(":", 3)[2]);
+    }
+
+    // Manifest of the file's last whole-file upload, or null if it was never uploaded whole.
+    public FileManifest manifest(String fileId) {
+        MetadataLogEntry e = manifests.get(fileId);
+        return e == null ? null : FileManifest.parse(e);
+    }
+
+    private void reference(String hash, long length, int delta) {
+        int refs = references.merge(hash, delta, Integer::sum);
+        if (refs == 0) references.remove(hash, 0);
+        logicalBytes.addAndGet(delta * length);
+        if (delta > 0 && refs == 1) {
+            uniqueBytes.addAndGet(length);
+            contentLengths.put(hash, length);
+        }
+        if (delta < 0 && refs == 0) {
+            uniqueBytes.addAndGet(-length);
+            contentLengths.remove(hash);
+        }
+    }
+
+    // Number of chunks whose REF points at the content.
+    public int references(String hash) {
+        return references.getOrDefault(hash, 0);
+    }
+
+    public int uniqueContents() {
+        return references.size();
+    }
+
+    // Length of every referenced content by hash; lets content shared across Raft groups be counted once.
+    public Map<String, Long> contents() {
+        return Collections.unmodifiableMap(contentLengths);
+    }
+
+    public long logicalBytes() {
+        return logicalBytes.get();
+    }
+
+    public long uniqueBytes() {
+        return uniqueBytes.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.dfs.storage;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Systematic Reed-Solomon code over GF(2^8): {@code dataShards} data shards plus
+ * {@code parityShards} parity shards, any {@code dataShards} of which recover the rest.
+ *
+ * The encoding matrix is a Vandermonde matrix normalised so its top rows are the identity,
+ * which keeps the data shards verbatim. Multiplication uses a full 64 KB product table, so the
+ * inner loops are one table lookup and one XOR per byte and allocate nothing; decode matrices
+ * are inverted once per erasure pattern and cached.
+ */
+public final class ReedSolomon {
+    private static final int POLY = 0x11D; // x^8 + x^4 + x^3 + x^2 + 1
+    private static final byte[] EXP = new byte[512];
+    private static final int[] LOG = new int[256];
+    // MUL[a << 8 | b] = a * b
+    private static final byte[] MUL = new byte[256 * 256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) x ^= POLY;
+        }
+        for (int i = 255; i < EXP.length; i++) EXP[i] = EXP[i - 255];
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) MUL[a << 8 | b] = EXP[LOG[a] + LOG[b]];
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    private final byte[][] matrix; // (data + parity) x data
+    // keyed by the set of present rows used; a BitSet, since there can be up to 255 of them
+    private final Map<BitSet, byte[][]> decodeMatrices = new ConcurrentHashMap<>();
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards < 1 || parityShards < 0 || dataShards + parityShards > 255) {
+            throw new IllegalArgumentException("invalid shard counts " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        int total = dataShards + parityShards;
+        byte[][] vandermonde = new byte[total][dataShards];
+        for (int r = 0; r < total; r++) {
+            for (int c = 0; c < dataShards; c++) vandermonde[r][c] = pow(r, c);
+        }
+        byte[][] top = new byte[dataShards][];
+        for (int r = 0; r < dataShards; r++) top[r] = vandermonde[r].clone();
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    public int dataShards() { return dataShards; }
+
+    public int parityShards() { return parityShards; }
+
+    public int totalShards() { return dataShards + parityShards; }
+
+    /** Computes {@code shards[dataShards..]} from {@code shards[0..dataShards)} over {@code [offset, offset+len)}. */
+    public void encodeParity(byte[][] shards, int offset, int len) {
+        for (int p = 0; p < parityShards; p++) {
+            codeRow(matrix[dataShards + p], shards, 0, dataShards, shards[dataShards + p], offset, len);
+        }
+    }
+
+    /**
+     * Rebuilds every shard with {@code present[i] == false} over {@code [offset, offset+len)}, using the
+     * first {@code dataShards} present ones. Missing shards must still be allocated buffers.
+     */
+    public void reconstruct(byte[][] shards, boolean[] present, int offset, int len) {
+        int total = totalShards();
+        int[] rows = new int[dataShards];
+        BitSet used = new BitSet(total);
+        int n = 0;
+        for (int i = 0; i < total && n < dataShards; i++) {
+            if (present[i]) {
+                rows[n++] = i;
+                used.set(i);
+            }
+        }
+        if (n < dataShards) throw new IllegalArgumentException("need " + dataShards + " shards, have " + n);
+
+        boolean dataMissing = false;
+        for (int i = 0; i < dataShards; i++) dataMissing |= !present[i];
+        if (dataMissing) {
+            byte[][] decode = decodeMatrices.computeIfAbsent(used, m -> {
+                byte[][] sub = new byte[dataShards][];
+                for (int i = 0; i < dataShards; i++) sub[i] = matrix[rows[i]].clone();
+                return invert(sub);
+            });
+            byte[][] inputs = new byte[dataShards][];
+            for (int i = 0; i < dataShards; i++) inputs[i] = shards[rows[i]];
+            for (int i = 0; i < dataShards; i++) {
+                if (!present[i]) codeRow(decode[i], inputs, 0, dataShards, shards[i], offset, len);
+            }
+        }
+        for (int p = dataShards; p < total; p++) {
+            if (!present[p]) codeRow(matrix[p], shards, 0, dataShards, shards[p], offset, len);
+        }
+    }
+
+    // out = sum(coefficients[i] * inputs[from + i])
+    private static void codeRow(byte[] coefficients, byte[][] inputs, int from, int count, byte[] out, int offset, int len) {
+        int end = offset + len;
+        int base = (coefficients[0] & 0xFF) << 8;
+        byte[] in = inputs[from];
+        for (int j = offset; j < end; j++) out[j] = MUL[base | (in[j] & 0xFF)];
+        for (int i = 1; i < count; i++) {
+            int c = coefficients[i] & 0xFF;
+            if (c == 0) continue;
+            in = inputs[from + i];
+            if (c == 1) {
+                for (int j = offset; j < end; j++) out[j] ^= in[j];
+            } else {
+                base = c << 8;
+                for (int j = offset; j < end; j++) out[j] ^= MUL[base | (in[j] & 0xFF)];
+            }
+        }
+    }
+
+    static byte mul(int a, int b) {
+        return MUL[(a & 0xFF) << 8 | (b & 0xFF)];
+    }
+
+    private static byte pow(int a, int n) {
+        if (n == 0) return 1;
+        if (a == 0) return 0;
+        return EXP[(LOG[a] * n) % 255];
+    }
+
+    private static byte inverse(int a) {
+        if (a == 0) throw new ArithmeticException("zero has no inverse in GF(256)");
+        return EXP[255 - LOG[a]];
+    }
+
+    private static byte[][] multiply(byte[][] a, byte[][] b) {
+        byte[][] out = new byte[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                int v = 0;
+                for (int i = 0; i < b.length; i++) v ^= mul(a[r][i], b[i][c]);
+                out[r][c] = (byte) v;
+            }
+        }
+        return out;
+    }
+
+    // Gauss-Jordan elimination; the input rows are modified.
+    private static byte[][] invert(byte[][] m) {
+        int n = m.length;
+        byte[][] inv = new byte[n][n];
+        for (int i = 0; i < n; i++) inv[i][i] = 1;
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && m[pivot][col] == 0) pivot++;
+            if (pivot == n) throw new IllegalArgumentException("singular matrix");
+            byte[] t = m[col]; m[col] = m[pivot]; m[pivot] = t;
+            t = inv[col]; inv[col] = inv[pivot]; inv[pivot] = t;
+            int scale = inverse(m[col][col] & 0xFF) & 0xFF;
+            for (int c = 0; c < n; c++) {
+                m[col][c] = mul(m[col][c], scale);
+                inv[col][c] = mul(inv[col][c], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                int f = m[r][col] & 0xFF;
+                if (r == col || f == 0) continue;
+                for (int c = 0; c < n; c++) {
+                    m[r][c] ^= mul(f, m[col][c]);
+                    inv[r][c] ^= mul(f, inv[col][c]);
+                }
+            }
+        }
+        return inv;
+    }
+}
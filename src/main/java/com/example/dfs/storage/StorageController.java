@@ -1,54 +1,478 @@
 package com.example.dfs.storage;
 
+import com.example.dfs.ft.ReplicationManager;
+import com.example.dfs.model.MerkleRequest;
+import com.example.dfs.model.MerkleResponse;
+import com.example.dfs.raft.RaftGroups;
 import com.example.dfs.raft.RaftNode;
+import com.example.dfs.time.HybridLogicalClock;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 @RestController
 @RequestMapping("/files")
 public class StorageController {
+    // request attributes understood by Tomcat's NIO connector for zero-copy file responses
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    // below this, a plain buffered copy is cheaper than setting up sendfile
+    private static final long SENDFILE_MIN_BYTES = 48 * 1024;
+    // CRC32C of the chunk as stored, in hex; returned on upload and sent along with replicas
+    public static final String CHECKSUM_HEADER = "X-Checksum-CRC32C";
+    // chain replication: peers the receiving replica must forward to, and how many replicas
+    // (itself plus everything downstream) ended up storing the chunk
+    public static final String CHAIN_HEADER = "X-Replication-Chain";
+    public static final String REPLICAS_HEADER = "X-Replica-Count";
+    // SHA-256 of the chunk in hex, optionally sent with an upload; lets the node skip reading bodies it already has
+    public static final String CONTENT_HASH_HEADER = "X-Content-SHA256";
+    // hybrid logical timestamp of the chunk version written or read, in hex; reads take one as ?asOf=
+    public static final String VERSION_HEADER = "X-Chunk-Version";
+
     private final StorageService storageService;
-    private final RaftNode raft;
+    private final RaftGroups groups;
 
-    public StorageController(StorageService storageService, RaftNode raft) {
+    public StorageController(StorageService storageService, RaftGroups groups) {
         this.storageService = storageService;
-        this.raft = raft;
+        this.groups = groups;
+    }
+
+    // Metadata changes go to the leader of the file's Raft group; the 307 points there when it is known.
+    private ResponseEntity<String> notLeader(String fileId, HttpServletRequest request) {
+        RaftNode raft = groups.group(fileId);
+        if (raft.getRole() == RaftNode.Role.LEADER) return null;
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(307);
+        String leader = raft.getLeaderUrl();
+        if (leader != null) response.header(HttpHeaders.LOCATION, sameRequestOn(leader, request));
+        return response.body("Not leader; forward to leader (prototype)");
+    }
+
+    private static String sameRequestOn(String node, HttpServletRequest request) {
+        return node + request.getRequestURI() + (request.getQueryString() == null ? "" : "?" + request.getQueryString());
     }
 
     @PostMapping(path = "/{fileId}/chunks/{chunkId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public ResponseEntity<String> uploadChunk(@PathVariable String fileId, @PathVariable String chunkId, @RequestBody byte[] body) {
-        if (raft.getRole() != RaftNode.Role.LEADER) {
-            return ResponseEntity.status(307).body("Not leader; forward to leader (prototype)");
+    public CompletableFuture<ResponseEntity<String>> uploadChunk(@PathVariable String fileId, @PathVariable String chunkId,
+                                                                 @RequestParam(value = "ack", required = false) String ack,
+                                                                 @RequestHeader(value = CONTENT_HASH_HEADER, required = false) String sha256,
+                                                                 HttpServletRequest request) {
+        ResponseEntity<String> notLeader = notLeader(fileId, request);
+        if (notLeader != null) return CompletableFuture.completedFuture(notLeader);
+        ReplicationManager.AckLevel ackLevel;
+        try {
+            ackLevel = ack == null ? null : ReplicationManager.AckLevel.parse(ack);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("ack must be one of leader, quorum, all"));
         }
         try {
-            boolean ok = storageService.storeChunkAndReplicate(fileId, chunkId, body);
-            if (ok) return ResponseEntity.ok("OK");
-            else return ResponseEntity.status(500).body("Failed to append metadata");
+            // the body is streamed to disk; the servlet thread is released while the metadata commit
+            // and the replica transfers are in flight
+            return storageService.storeChunkAndReplicate(fileId, chunkId, request.getInputStream(), sha256, ackLevel).handle((written, err) -> {
+                if (err == null) {
+                    return ResponseEntity.ok().header(CHECKSUM_HEADER, written.stored().checksumHex())
+                            .header(VERSION_HEADER, HybridLogicalClock.format(written.version())).body("OK");
+                }
+                Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                if (cause instanceof IllegalArgumentException) return ResponseEntity.badRequest().body(cause.getMessage());
+                if (cause instanceof ReplicationManager.ReplicationException) {
+                    return ResponseEntity.status(503).body("Replication ack level not reached: " + cause.getMessage());
+                }
+                return ResponseEntity.status(500).body("Failed to append metadata");
+            });
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(e.getMessage()));
         } catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Error: " + e.getMessage());
+            return CompletableFuture.completedFuture(ResponseEntity.internalServerError().body("Error: " + e.getMessage()));
         }
     }
 
+    // Whole-file upload: the body is cut into chunks of ?chunkSize= bytes (storage.file.chunk-bytes by
+    // default) as it streams in, and the file's manifest is committed once all of them are stored.
+    @PostMapping(path = "/{fileId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public CompletableFuture<ResponseEntity<?>> uploadFile(@PathVariable String fileId,
+                                                           @RequestParam(value = "ack", required = false) String ack,
+                                                           @RequestParam(value = "chunkSize", required = false) Integer chunkSize,
+                                                           HttpServletRequest request) {
+        ResponseEntity<String> notLeader = notLeader(fileId, request);
+        if (notLeader != null) return CompletableFuture.completedFuture(notLeader);
+        ReplicationManager.AckLevel ackLevel;
+        try {
+            ackLevel = ack == null ? null : ReplicationManager.AckLevel.parse(ack);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("ack must be one of leader, quorum, all"));
+        }
+        try {
+            int chunkBytes = chunkSize == null ? storageService.fileChunkBytes() : chunkSize;
+            return storageService.storeFile(fileId, request.getInputStream(), chunkBytes, ackLevel).handle((manifest, err) -> {
+                if (err == null) return ResponseEntity.ok().header(VERSION_HEADER, HybridLogicalClock.format(manifest.version())).body(manifest);
+                Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                if (cause instanceof IllegalArgumentException) return ResponseEntity.badRequest().body(cause.getMessage());
+                if (cause instanceof ReplicationManager.ReplicationException) {
+                    return ResponseEntity.status(503).body("Replication ack level not reached: " + cause.getMessage());
+                }
+                return ResponseEntity.status(500).body("Failed to store file: " + cause.getMessage());
+            });
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(e.getMessage()));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(ResponseEntity.internalServerError().body("Error: " + e.getMessage()));
+        }
+    }
+
+    // Whole-file download of the last whole-file upload, streamed in chunk order while the following
+    // chunks are read ahead. Written straight to the response on the request thread, so a long
+    // download is not cut off by the async request timeout.
+    @GetMapping("/{fileId}")
+    public void downloadFile(@PathVariable String fileId,
+                             @RequestParam(value = "consistency", required = false) String consistency,
+                             HttpServletResponse response) throws IOException {
+        boolean linearizable = consistency == null ? storageService.linearizableReads() : consistency.equalsIgnoreCase("linearizable");
+        if (linearizable) {
+            try {
+                storageService.readBarrier(fileId).join();
+            } catch (CompletionException e) {
+                response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                response.sendError(503);
+                return;
+            }
+        }
+        FileManifest manifest = storageService.manifest(fileId);
+        if (manifest == null) {
+            response.sendError(404);
+            return;
+        }
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(manifest.length());
+        response.setHeader(VERSION_HEADER, HybridLogicalClock.format(manifest.version()));
+        // a chunk that cannot be read after the headers went out aborts the response, short of its Content-Length
+        storageService.writeFile(manifest, response.getOutputStream());
+    }
+
+    // Storage policy for the file's subsequent chunks: "replicate" or "rs-<k>-<m>" (Reed-Solomon, k data + m parity fragments)
+    @PutMapping(path = "/{fileId}/policy", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public CompletableFuture<ResponseEntity<String>> setPolicy(@PathVariable String fileId, @RequestBody String policy,
+                                                               HttpServletRequest request) {
+        ResponseEntity<String> notLeader = notLeader(fileId, request);
+        if (notLeader != null) return CompletableFuture.completedFuture(notLeader);
+        ErasureCoding.Policy parsed;
+        try {
+            parsed = ErasureCoding.Policy.parse(policy);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("policy must be replicate or rs-<k>-<m>"));
+        }
+        return storageService.setPolicy(fileId, parsed).handle((index, err) -> err == null
+                ? ResponseEntity.ok(ErasureCoding.Policy.name(parsed))
+                : ResponseEntity.status(500).body("Failed to append metadata"));
+    }
+
     // internal endpoint used by peers for raw replication
     @PostMapping(path = "/internal/replicate/{fileId}/chunks/{chunkId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public ResponseEntity<String> replicateChunk(@PathVariable String fileId, @PathVariable String chunkId, @RequestBody byte[] body) {
+    public ResponseEntity<String> replicateChunk(@PathVariable String fileId, @PathVariable String chunkId,
+                                                 @RequestHeader(value = CHECKSUM_HEADER, required = false) String checksum,
+                                                 @RequestHeader(value = CHAIN_HEADER, required = false) String chain,
+                                                 HttpServletRequest request) {
         try {
-            storageService.storeChunkAndReplicate(fileId, chunkId, body);
-            return ResponseEntity.ok("replicated");
+            Integer expected = checksum == null ? null : Integer.parseUnsignedInt(checksum, 16);
+            if (chain != null && !chain.isBlank()) {
+                List<String> downstream = Arrays.stream(chain.split(",")).map(String::trim).filter(p -> !p.isEmpty()).toList();
+                StorageService.ChainedReplica r = storageService.storeReplicaAndForward(fileId, chunkId, request.getInputStream(), expected, downstream);
+                return ResponseEntity.ok()
+                        .header(CHECKSUM_HEADER, r.stored().checksumHex())
+                        .header(REPLICAS_HEADER, String.valueOf(r.replicas()))
+                        .body("replicated");
+            }
+            ChunkStore.StoredChunk stored = storageService.storeReplica(fileId, chunkId, request.getInputStream(), expected);
+            return ResponseEntity.ok().header(CHECKSUM_HEADER, stored.checksumHex()).header(REPLICAS_HEADER, "1").body("replicated");
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body("replication failed");
         }
     }
 
+    // Lets the leader skip sending a replica this node already holds.
+    @RequestMapping(method = RequestMethod.HEAD, path = "/internal/replicate/{fileId}/chunks/{chunkId}")
+    public ResponseEntity<Void> hasReplica(@PathVariable String fileId, @PathVariable String chunkId) {
+        return storageService.hasChunk(fileId, chunkId) ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    // Anti-entropy: a peer walks down this node's Merkle tree, only into the ranges that differ from its own.
+    @PostMapping(path = "/internal/merkle", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public MerkleResponse merkle(@RequestBody MerkleRequest req) {
+        return storageService.merkle(req);
+    }
+
+    // Lets clients check whether content is already stored before uploading it (see CONTENT_HASH_HEADER).
+    @RequestMapping(method = RequestMethod.HEAD, path = "/content/{sha256}")
+    public ResponseEntity<Void> hasContent(@PathVariable String sha256) {
+        return storageService.hasContent(sha256) ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    @GetMapping("/dedup/stats")
+    public Map<String, Object> dedupStats() {
+        return storageService.dedupStats();
+    }
+
+    // Compression for the file's subsequent chunks: "none", "lz4", "zstd" or "auto" (LZ4 where a sample compresses well)
+    @PutMapping(path = "/{fileId}/compression", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public CompletableFuture<ResponseEntity<String>> setCompression(@PathVariable String fileId, @RequestBody String mode,
+                                                                    HttpServletRequest request) {
+        ResponseEntity<String> notLeader = notLeader(fileId, request);
+        if (notLeader != null) return CompletableFuture.completedFuture(notLeader);
+        Compression.Mode parsed;
+        try {
+            parsed = Compression.Mode.parse(mode);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("compression must be none, lz4, zstd or auto"));
+        }
+        return storageService.setCompression(fileId, parsed).handle((index, err) -> err == null
+                ? ResponseEntity.ok(parsed.name())
+                : ResponseEntity.status(500).body("Failed to append metadata"));
+    }
+
+    // Small chunks are served from the chunk cache (filling it on a miss); larger ones are streamed
+    // from disk without loading them on-heap. Single byte ranges are honoured (206) so clients can
+    // resume downloads or seek; multi-range requests fall back to Spring's Resource support.
+    // With ?asOf=<timestamp> the chunk is read as it was then (see asOf).
     @GetMapping("/{fileId}/chunks/{chunkId}")
-    public ResponseEntity<byte[]> getChunk(@PathVariable String fileId, @PathVariable String chunkId) {
+    public ResponseEntity<Resource> getChunk(@PathVariable String fileId, @PathVariable String chunkId,
+                                             @RequestParam(value = "consistency", required = false) String consistency,
+                                             @RequestParam(value = "asOf", required = false) String asOf,
+                                             @RequestHeader HttpHeaders headers, HttpServletRequest request) {
         try {
-            if (!storageService.hasChunk(fileId, chunkId)) return ResponseEntity.notFound().build();
-            byte[] data = storageService.readChunk(fileId, chunkId);
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(data);
+            boolean linearizable = consistency == null ? storageService.linearizableReads() : consistency.equalsIgnoreCase("linearizable");
+            if (asOf != null) {
+                ResponseEntity<Resource> older = asOf(fileId, chunkId, asOf, linearizable, request);
+                if (older != null) return older;
+            } else if (linearizable) {
+                ResponseEntity<Resource> notHere = awaitCommitted(fileId, chunkId, request);
+                if (notHere != null) return notHere;
+            }
+            Compression.Codec codec = storageService.codec(fileId, chunkId);
+            if (codec != Compression.Codec.NONE) return compressed(fileId, chunkId, codec, headers);
+            ChunkCache.Hit hit = storageService.cachedChunk(fileId, chunkId);
+            if (hit != null) return inMemory(hit.data(), hit.crc32c());
+            ChunkStore.Location loc = storageService.locate(fileId, chunkId);
+            if (loc == null) return erasureCoded(fileId, chunkId);
+            long size = loc.length();
+            Integer crc = storageService.checksum(fileId, chunkId);
+            ChunkCache cache = storageService.cache();
+            if (cache != null && size <= cache.maxEntryBytes()) {
+                // small enough to cache: read it once so the next requests are served from memory
+                return inMemory(storageService.loadChunk(fileId, chunkId), crc);
+            }
+            HttpHeaders checksum = new HttpHeaders();
+            if (crc != null) checksum.set(CHECKSUM_HEADER, String.format("%08x", crc));
+            List<HttpRange> ranges = headers.getRange();
+            boolean sendfile = Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) && size >= SENDFILE_MIN_BYTES;
+            if (!sendfile || ranges.size() > 1) {
+                // a packed chunk is a slice of its volume file, and small enough to serve from memory
+                if (loc.packed()) return inMemory(storageService.readChunk(fileId, chunkId), crc);
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).headers(checksum)
+                        .header(HttpHeaders.ACCEPT_RANGES, "bytes").body(new FileSystemResource(loc.file()));
+            }
+            long start = 0, end = size - 1;
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (ranges.size() == 1) {
+                start = ranges.get(0).getRangeStart(size);
+                end = ranges.get(0).getRangeEnd(size);
+                if (start >= size || start > end) {
+                    return ResponseEntity.status(416).header(HttpHeaders.CONTENT_RANGE, "bytes */" + size).build();
+                }
+                response = ResponseEntity.status(206)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+            request.setAttribute(SENDFILE_FILENAME, loc.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, loc.offset() + start);
+            request.setAttribute(SENDFILE_END, loc.offset() + end + 1); // exclusive
+            return response.contentType(MediaType.APPLICATION_OCTET_STREAM).contentLength(end - start + 1).headers(checksum)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes").build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(416).build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    // Linearizable reads (the default, see storage.read.consistency) first catch up with everything
+    // committed before the request, confirmed through the leader, so any node can serve them. Null
+    // if the chunk can be served here; otherwise 404 for chunks that were never committed, a
+    // redirect to the leader when the local replica is behind, or 503 without a reachable leader.
+    private ResponseEntity<Resource> awaitCommitted(String fileId, String chunkId, HttpServletRequest request) throws IOException {
+        try {
+            storageService.readBarrier(fileId).join();
+        } catch (CompletionException e) {
+            return ResponseEntity.status(503).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        return servedHere(fileId, chunkId, request);
+    }
+
+    private ResponseEntity<Resource> servedHere(String fileId, String chunkId, HttpServletRequest request) throws IOException {
+        if (storageService.isCurrent(fileId, chunkId)) return null;
+        if (!storageService.hasCommitted(fileId, chunkId)) return ResponseEntity.notFound().build();
+        String leader = groups.group(fileId).getLeaderUrl();
+        if (leader == null) return ResponseEntity.status(503).header(HttpHeaders.RETRY_AFTER, "1").build();
+        return ResponseEntity.status(307).header(HttpHeaders.LOCATION, sameRequestOn(leader, request)).build();
+    }
+
+    // Snapshot reads: the chunk's newest version written at or before the hybrid logical timestamp,
+    // so the chunks of a file read with one timestamp are a consistent view of it. Null when that is
+    // the current version, which is served as usual; older versions come from the copies kept of
+    // overwritten chunks (410 once the leader no longer has them), 404 if there was no version then.
+    private ResponseEntity<Resource> asOf(String fileId, String chunkId, String asOf, boolean linearizable,
+                                          HttpServletRequest request) throws IOException {
+        long timestamp;
+        try {
+            timestamp = HybridLogicalClock.parse(asOf);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (linearizable) {
+            try {
+                storageService.readBarrier(fileId, timestamp).join();
+            } catch (IllegalArgumentException e) {
+                // too far in the future to move the clock to
+                return ResponseEntity.badRequest().build();
+            } catch (CompletionException e) {
+                return ResponseEntity.status(503).header(HttpHeaders.RETRY_AFTER, "1").build();
+            }
+        }
+        MetadataLogEntry version = storageService.versionAt(fileId, chunkId, timestamp);
+        if (version == null) return ResponseEntity.notFound().build();
+        if (storageService.isLatest(fileId, chunkId, version)) return linearizable ? servedHere(fileId, chunkId, request) : null;
+        byte[] data = storageService.readVersion(fileId, chunkId, version);
+        if (data == null) {
+            // a replica whose metadata lagged behind the overwrite did not keep the old bytes; the leader did
+            RaftNode raft = groups.group(fileId);
+            if (raft.getRole() == RaftNode.Role.LEADER || raft.getLeaderUrl() == null) return ResponseEntity.status(410).build();
+            return ResponseEntity.status(307).header(HttpHeaders.LOCATION, sameRequestOn(raft.getLeaderUrl(), request)).build();
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(VERSION_HEADER, HybridLogicalClock.format(version.getVersion()))
+                .body(new ByteArrayResource(data));
+    }
+
+    // Compressed chunks are decompressed while they are sent, unless the client accepts the codec's
+    // content encoding, in which case the stored frame goes out as it is.
+    private ResponseEntity<Resource> compressed(String fileId, String chunkId, Compression.Codec codec, HttpHeaders headers) throws IOException {
+        ChunkStore.Location loc = storageService.locate(fileId, chunkId);
+        if (loc == null) return ResponseEntity.notFound().build();
+        InputStream stored = storageService.openChunk(fileId, chunkId);
+        Compression.Header header = Compression.Header.read(stored);
+        List<HttpRange> ranges = headers.getRange();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(CHECKSUM_HEADER, header.checksumHex())
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (ranges.isEmpty() && accepts(headers, codec.contentEncoding)) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, codec.contentEncoding)
+                    .contentLength(loc.length() - Compression.HEADER_BYTES).body(new InputStreamResource(stored));
+        }
+        InputStream raw = Compression.decompressor(codec, stored);
+        long size = header.rawLength();
+        if (ranges.size() > 1) return response.body(new ByteArrayResource(raw.readAllBytes()));
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(size), end = ranges.get(0).getRangeEnd(size);
+            if (start >= size || start > end) {
+                raw.close();
+                return ResponseEntity.status(416).header(HttpHeaders.CONTENT_RANGE, "bytes */" + size).build();
+            }
+            raw.skipNBytes(start);
+            return ResponseEntity.status(206).contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .header(CHECKSUM_HEADER, header.checksumHex())
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size)
+                    .contentLength(end - start + 1).body(new InputStreamResource(limit(raw, end - start + 1)));
+        }
+        return response.contentLength(size).body(new InputStreamResource(raw));
+    }
+
+    private static boolean accepts(HttpHeaders headers, String encoding) {
+        for (String value : headers.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String token : value.split(",")) {
+                String[] parts = token.split(";");
+                boolean refused = parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?");
+                if (parts[0].trim().equalsIgnoreCase(encoding) && !refused) return true;
+            }
+        }
+        return false;
+    }
+
+    private static InputStream limit(InputStream in, long length) {
+        return new FilterInputStream(in) {
+            private long left = length;
+
+            @Override
+            public int read() throws IOException {
+                if (left <= 0) return -1;
+                int b = super.read();
+                if (b >= 0) left--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (left <= 0) return -1;
+                int n = super.read(b, off, (int) Math.min(len, left));
+                if (n > 0) left -= n;
+                return n;
+            }
+        };
+    }
+
+    // Spring serves ranges of in-memory chunks from the resource.
+    private static ResponseEntity<Resource> inMemory(byte[] chunk, Integer crc) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (crc != null) response.header(CHECKSUM_HEADER, String.format("%08x", crc));
+        return response.body(new ByteArrayResource(chunk));
+    }
+
+    @GetMapping("/cache/stats")
+    public Map<String, Object> cacheStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        ChunkCache cache = storageService.cache();
+        m.put("enabled", cache != null);
+        if (cache == null) return m;
+        m.put("hits", cache.hits());
+        m.put("misses", cache.misses());
+        m.put("hitRatio", cache.hitRatio());
+        m.put("evictions", cache.evictions());
+        m.put("rejections", cache.rejections());
+        m.put("entries", cache.size());
+        m.put("usedBytes", cache.usedBytes());
+        m.put("capacityBytes", cache.capacityBytes());
+        return m;
+    }
+
+    // Erasure-coded chunks are reassembled (decoding missing fragments if needed) on-heap; Spring
+    // serves ranges of the resulting resource.
+    private ResponseEntity<Resource> erasureCoded(String fileId, String chunkId) {
+        try {
+            byte[] chunk = storageService.readErasureCoded(fileId, chunkId);
+            if (chunk == null) return ResponseEntity.notFound().build();
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes").body(new ByteArrayResource(chunk));
+        } catch (IOException e) {
+            return ResponseEntity.status(503).build();
+        }
+    }
 }
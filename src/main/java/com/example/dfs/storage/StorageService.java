@@ -1,46 +1,1051 @@
 package com.example.dfs.storage;
 
+import com.example.dfs.metrics.Metrics;
+import com.example.dfs.net.RpcClient;
+import com.example.dfs.raft.RaftGroups;
 import com.example.dfs.raft.RaftNode;
 import com.example.dfs.ft.ReplicationManager;
+import com.example.dfs.model.MerkleRequest;
+import com.example.dfs.model.MerkleResponse;
+import com.example.dfs.time.HybridLogicalClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jakarta.annotation.PreDestroy;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.InputStream;
+import java.io.FilterInputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
 
 @Service
 public class StorageService {
+    private static final Logger logger = LoggerFactory.getLogger(StorageService.class);
+
     private final ChunkStore chunkStore;
-    private final ConcurrentHashMap<String, MetadataLogEntry> metadata = new ConcurrentHashMap<>();
-    private final RaftNode raft;
+    // one store per Raft group, each holding the metadata of the files routed to that group
+    private final List<MetadataStore> metadata;
+    private final RaftGroups groups;
     private final ReplicationManager replicationManager;
+    private final ErasureCoding erasureCoding;
+    private final MerkleTree merkle;
+    private final String self;
+    private final ErasureCoding.Policy defaultPolicy;
+    private final boolean dedup;
+    private final Compression.Mode defaultCompression;
+    private final int zstdLevel;
+    private final boolean linearizableReads;
+    private final HybridLogicalClock clock;
+    private final RpcClient rpc;
+    // whole-file transfers: default chunk size, bytes of chunks committing/replicating at once per
+    // upload, bytes of chunks read ahead per download
+    private final int fileChunkBytes;
+    private final long maxInFlightBytes;
+    private final long prefetchBytes;
+    private final ExecutorService prefetch;
+    private final ScheduledExecutorService gc;
+    // deletes the kept bytes of versions evicted from the metadata history, off the Raft event loops
+    private final ExecutorService versionGc = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "version-gc");
+        t.setDaemon(true);
+        return t;
+    });
+    // unreferenced content seen by the previous sweep; deleted if still unreferenced on the next one
+    private Set<String> gcCandidates = Set.of();
+    private final AtomicLong dedupedUploads = new AtomicLong();
+    private final AtomicLong skippedUploadBytes = new AtomicLong();
+    private final AtomicLong collectedContents = new AtomicLong();
+
+    // pseudo file id that deduplicated content is stored under, chunk id = SHA-256 of the bytes
+    public static final String CONTENT = "_content";
+    // separates the chunk id from the version in the id an overwritten version is kept under
+    private static final char VERSION_SEPARATOR = '@';
+    public static final int MAX_FILE_CHUNK_BYTES = 64 << 20;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
 
-    public StorageService(Environment env, RaftNode raft, ReplicationManager replicationManager) {
+    public StorageService(Environment env, RaftGroups groups, ReplicationManager replicationManager, RpcClient rpc,
+                          HybridLogicalClock clock, Metrics metrics) throws IOException {
         String dir = env.getProperty("node.data.dir", "./data/node1");
-        this.chunkStore = new ChunkStore(dir);
-        this.raft = raft;
+        VolumeStore volumes = null;
+        if (!"file".equalsIgnoreCase(env.getProperty("storage.layout", "volume"))) {
+            // small chunks are packed into large append-only volumes instead of one file each
+            volumes = new VolumeStore(Path.of(dir, "volumes"),
+                    env.getProperty("storage.volume.bytes", Long.class, 1L << 30),
+                    env.getProperty("storage.volume.compact-garbage-ratio", Double.class, 0.5),
+                    env.getProperty("storage.volume.compact-interval-ms", Long.class, 60_000L),
+                    metrics.fsyncTimer("volume"));
+        }
+        long cacheBytes = env.getProperty("storage.cache.bytes", Long.class, 64L << 20);
+        ChunkCache cache = cacheBytes <= 0 ? null
+                : new ChunkCache(cacheBytes, env.getProperty("storage.cache.max-entry-bytes", Integer.class, 1 << 20));
+        this.chunkStore = new ChunkStore(dir, volumes, env.getProperty("storage.volume.max-chunk-bytes", Integer.class, 256 * 1024), cache, metrics);
+        if (cache != null) {
+            metrics.gauge("dfs_chunk_cache_bytes", "Bytes held by the chunk cache", cache::usedBytes);
+            metrics.counter("dfs_chunk_cache_hits_total", "Chunk reads served from the cache", cache::hits);
+            metrics.counter("dfs_chunk_cache_misses_total", "Chunk reads that missed the cache", cache::misses);
+        }
+        // fragments differ from node to node by design, and kept versions depend on which overwrites
+        // a node saw, so replicas are compared on everything else
+        this.merkle = new MerkleTree(env.getProperty("anti-entropy.merkle-depth", Integer.class, 3),
+                (fileId, chunkId) -> fileId.equals(CONTENT) || !(ErasureCoding.Layout.isFragmentId(chunkId) || isVersionId(chunkId)));
+        chunkStore.track(merkle);
+        this.groups = groups;
         this.replicationManager = replicationManager;
+        // the URL peers reach this node at; must match how it appears in the other nodes' node.peers
+        this.self = env.getProperty("node.advertised-url", "http://localhost:" + env.getProperty("node.port", "8081"));
+        this.erasureCoding = new ErasureCoding(chunkStore, rpc, self);
+        this.defaultPolicy = ErasureCoding.Policy.parse(env.getProperty("storage.default-policy", ErasureCoding.Policy.REPLICATE));
+        this.clock = clock;
+        this.rpc = rpc;
+        this.fileChunkBytes = env.getProperty("storage.file.chunk-bytes", Integer.class, 8 << 20);
+        this.maxInFlightBytes = env.getProperty("storage.file.max-in-flight-bytes", Long.class, 32L << 20);
+        this.prefetchBytes = env.getProperty("storage.file.prefetch-bytes", Long.class, 32L << 20);
+        this.prefetch = Executors.newFixedThreadPool(env.getProperty("storage.file.prefetch-threads", Integer.class, 8), r -> {
+            Thread t = new Thread(r, "file-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+        int maxVersions = env.getProperty("storage.versions.max", Integer.class, 8);
+        List<MetadataStore> stores = new ArrayList<>();
+        for (RaftNode group : groups.all()) {
+            MetadataStore store = new MetadataStore(maxVersions);
+            store.setEvictionListener(this::dropVersion);
+            group.setStateMachine(store);
+            stores.add(store);
+        }
+        this.metadata = List.copyOf(stores);
+        this.dedup = env.getProperty("storage.dedup.enabled", Boolean.class, false);
+        this.defaultCompression = Compression.Mode.parse(env.getProperty("storage.compression.default", "none"));
+        this.zstdLevel = env.getProperty("storage.compression.zstd-level", Integer.class, 3);
+        this.linearizableReads = "linearizable".equalsIgnoreCase(env.getProperty("storage.read.consistency", "linearizable"));
+        if (dedup) {
+            long interval = env.getProperty("storage.dedup.gc-interval-ms", Long.class, 60_000L);
+            this.gc = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "content-gc");
+                t.setDaemon(true);
+                return t;
+            });
+            gc.scheduleWithFixedDelay(this::collectGarbage, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.gc = null;
+        }
     }
 
-    public boolean storeChunkAndReplicate(String fileId, String chunkId, byte[] data) throws IOException {
-        chunkStore.saveChunk(fileId, chunkId, data);
+    // Sets the storage policy used for the file's chunks from now on; chunks already written keep theirs.
+    public CompletableFuture<Long> setPolicy(String fileId, ErasureCoding.Policy policy) {
+        return groups.group(fileId).appendCommandAsync(MetadataStore.policyCommand(fileId, policy));
+    }
 
-        String command = "WRITE:" + fileId + ":" + chunkId + ":" + data.length;
-        boolean appended = raft.appendCommand(command);
-        if (!appended) {
-            return false;
+    @PreDestroy
+    public void close() throws IOException {
+        if (gc != null) gc.shutdownNow();
+        versionGc.shutdownNow();
+        prefetch.shutdownNow();
+        chunkStore.close();
+    }
+
+    private MetadataStore metadata(String fileId) {
+        return metadata.get(groups.groupOf(fileId));
+    }
+
+    private int references(String hash) {
+        int refs = 0;
+        for (MetadataStore store : metadata) refs += store.references(hash);
+        return refs;
+    }
+
+    public ErasureCoding.Policy policy(String fileId) {
+        MetadataStore store = metadata(fileId);
+        return store.hasPolicy(fileId) ? store.policy(fileId) : defaultPolicy;
+    }
+
+    /** A chunk version as written: the stored bytes and the hybrid logical timestamp it was committed with. */
+    public record Written(ChunkStore.StoredChunk stored, long version) {}
+
+    public CompletableFuture<Written> storeChunkAndReplicate(String fileId, String chunkId, InputStream data,
+                                                             ReplicationManager.AckLevel ack) throws IOException {
+        return storeChunkAndReplicate(fileId, chunkId, data, null, ack);
+    }
+
+    // Completes with the stored chunk once the WRITE command is committed by a Raft majority and
+    // the chunk bytes reached enough peers for the ack level (null = configured default);
+    // exceptionally if either could not be achieved. With deduplication on, a client that sends the
+    // SHA-256 of the chunk skips the upload entirely when the content is already stored.
+    public CompletableFuture<Written> storeChunkAndReplicate(String fileId, String chunkId, InputStream data,
+                                                             String sha256, ReplicationManager.AckLevel ack) throws IOException {
+        if (fileId.equals(CONTENT)) throw new IllegalArgumentException(CONTENT + " is a reserved file id");
+        if (isVersionId(chunkId)) throw new IllegalArgumentException("chunk ids must not contain " + VERSION_SEPARATOR);
+        ErasureCoding.Policy policy = policy(fileId);
+        List<String> members = new ArrayList<>(replicationManager.peers());
+        members.add(self);
+        if (policy != null && members.size() < policy.dataShards() + policy.parityShards()) {
+            throw new IllegalArgumentException(ErasureCoding.Policy.name(policy) + " needs more nodes than the cluster has");
+        }
+        if (policy != null) {
+            // place fragments on nodes that are up, unless too few are
+            List<String> available = new ArrayList<>(replicationManager.availablePeers());
+            available.add(self);
+            if (available.size() >= policy.dataShards() + policy.parityShards()) members = available;
+        }
+        if (dedup && policy == null) return storeDeduplicated(fileId, chunkId, data, sha256, ack);
+        if (policy != null) {
+            ChunkStore.StoredChunk stored = chunkStore.saveChunk(fileId, chunkId, data, null, keepAs(fileId, chunkId, null));
+            return storeErasureCoded(fileId, chunkId, stored, policy, members, ack);
+        }
+
+        // compressed once here; peers store and serve the compressed bytes as they are
+        Compression.Mode mode = compression(fileId);
+        Compressed c;
+        if (mode == null) {
+            ChunkStore.StoredChunk raw = chunkStore.saveChunk(fileId, chunkId, data, null, keepAs(fileId, chunkId, null));
+            c = new Compressed(raw, raw, Compression.Codec.NONE);
+        } else {
+            c = saveCompressible(fileId, chunkId, data, mode);
+        }
+        long version = clock.now();
+        CompletableFuture<Long> committed = groups.group(fileId).appendCommandAsync(
+                MetadataStore.versioned(version, MetadataStore.writeCommand(fileId, chunkId, c.stored(), c.codec())));
+        Written written = new Written(c.raw(), version);
+        if (committed.isCompletedExceptionally()) {
+            return committed.thenApply(index -> written);
+        }
+
+        CompletableFuture<Void> replicated = replicationManager.replicateChunk(fileId, chunkId, located(fileId, chunkId), c.stored().crc32c(), ack);
+        return committed.thenCombine(replicated, (index, v) -> written);
+    }
+
+    // Id the chunk's current bytes are kept under when a new version replaces them, or null if they
+    // are not a kept WRITE version or are the incoming bytes themselves (a replica sent twice).
+    private String keepAs(String fileId, String chunkId, Integer incomingCrc) throws IOException {
+        if (fileId.equals(CONTENT) || ErasureCoding.Layout.isFragmentId(chunkId)) return null;
+        Integer crc = chunkStore.checksum(fileId, chunkId);
+        if (crc == null || crc.equals(incomingCrc)) return null;
+        MetadataLogEntry version = metadata(fileId).writeVersion(fileId, chunkId, crc);
+        return version == null ? null : versionId(chunkId, version.getVersion());
+    }
+
+    public static String versionId(String chunkId, long version) {
+        return chunkId + VERSION_SEPARATOR + HybridLogicalClock.format(version);
+    }
+
+    private static boolean isVersionId(String chunkId) {
+        return chunkId.indexOf(VERSION_SEPARATOR) >= 0;
+    }
+
+    private void dropVersion(MetadataLogEntry version) {
+        if (!version.getCommand().startsWith("WRITE:")) return;
+        String[] parts = version.getCommand().split(":", 4);
+        versionGc.execute(() -> {
+            try {
+                chunkStore.deleteChunk(parts[1], versionId(parts[2], version.getVersion()));
+            } catch (IOException e) {
+                logger.warn("Could not delete old version of {}/{}: {}", parts[1], parts[2], e.getMessage());
+            }
+        });
+    }
+
+    public int fileChunkBytes() {
+        return fileChunkBytes;
+    }
+
+    /**
+     * Stores a whole file from a stream, cut into chunks of {@code chunkBytes} as it arrives. The
+     * body is read in order and each chunk goes straight to disk, but its commit and replication
+     * run while the next chunks are read, up to {@code storage.file.max-in-flight-bytes} of them
+     * at a time (always at least one). Once every chunk is stored the
+     * file's manifest is committed; until then readers of the file keep seeing the previous upload.
+     * Chunks beyond the new last one, left over from a longer previous upload, are not deleted.
+     */
+    public CompletableFuture<FileManifest> storeFile(String fileId, InputStream data, int chunkBytes,
+                                                     ReplicationManager.AckLevel ack) throws IOException {
+        if (chunkBytes < 1 || chunkBytes > MAX_FILE_CHUNK_BYTES) {
+            throw new IllegalArgumentException("chunk size must be between 1 and " + MAX_FILE_CHUNK_BYTES + " bytes");
+        }
+        PushbackInputStream in = new PushbackInputStream(data, 1);
+        ArrayDeque<CompletableFuture<Written>> inFlight = new ArrayDeque<>();
+        ArrayDeque<Long> inFlightLengths = new ArrayDeque<>();
+        List<CompletableFuture<Written>> stored = new ArrayList<>();
+        long length = 0, inFlightBytes = 0;
+        try {
+            for (int b = in.read(); b >= 0; b = in.read()) {
+                in.unread(b);
+                while (!inFlight.isEmpty() && inFlightBytes + chunkBytes > maxInFlightBytes) {
+                    inFlight.poll().join();
+                    inFlightBytes -= inFlightLengths.poll();
+                }
+                BoundedInput chunk = new BoundedInput(in, chunkBytes);
+                CompletableFuture<Written> f = storeChunkAndReplicate(fileId, FileManifest.chunkId(stored.size()), chunk, null, ack);
+                length += chunk.read;
+                inFlightBytes += chunk.read;
+                inFlight.add(f);
+                inFlightLengths.add(chunk.read);
+                stored.add(f);
+            }
+        } catch (CompletionException e) {
+            return CompletableFuture.failedFuture(e.getCause());
+        }
+        long total = length;
+        return CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[0])).thenCompose(v -> {
+            // stamped after every chunk, so reading the chunks as of the manifest sees all of them
+            FileManifest manifest = new FileManifest(fileId, total, stored.size(), chunkBytes, clock.now());
+            return groups.group(fileId).appendCommandAsync(MetadataStore.versioned(manifest.version(), manifest.command()))
+                    .thenApply(index -> manifest);
+        });
+    }
+
+    // One chunk's worth of the upload; leaves the rest of the body for the next chunk.
+    private static final class BoundedInput extends FilterInputStream {
+        private final long limit;
+        private long read;
+
+        BoundedInput(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (read >= limit) return -1;
+            int b = super.read();
+            if (b >= 0) read++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (read >= limit) return -1;
+            int n = super.read(b, off, (int) Math.min(len, limit - read));
+            if (n > 0) read += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // the request body stays open for the following chunks
         }
+    }
+
+    public FileManifest manifest(String fileId) {
+        return metadata(fileId).manifest(fileId);
+    }
 
-        new Thread(() -> replicationManager.replicateChunk(fileId, chunkId, data)).start();
-        metadata.put(fileId + ":" + chunkId, new MetadataLogEntry(command));
+    /**
+     * Writes the file described by the manifest to {@code out} in chunk order. Every chunk is read
+     * as of the manifest's version. A chunk this node holds whole and uncompressed is copied from its
+     * file when its turn comes, never held on-heap; the others (erasure-coded, compressed, packed or
+     * on other replicas only) are read ahead in parallel, up to {@code storage.file.prefetch-bytes}
+     * of chunks at a time (always at least one). A chunk counts against that from when its read
+     * starts until it has been written out.
+     */
+    public void writeFile(FileManifest manifest, OutputStream out) throws IOException {
+        ArrayDeque<CompletableFuture<Piece>> ahead = new ArrayDeque<>();
+        byte[] buf = new byte[COPY_BUFFER_BYTES];
+        long aheadBytes = 0;
+        int next = 0;
+        try {
+            for (int i = 0; i < manifest.chunks(); i++) {
+                while (next < manifest.chunks() && (ahead.isEmpty() || aheadBytes + manifest.chunkLength(next) <= prefetchBytes)) {
+                    aheadBytes += manifest.chunkLength(next);
+                    ahead.add(fetchChunk(manifest, next++));
+                }
+                Piece piece = ahead.poll().join();
+                byte[] data = piece.data();
+                if (data == null && !copyLocal(manifest, i, piece, out, buf)) {
+                    // moved or replaced since it was looked up
+                    data = fetchCopy(manifest, i).join();
+                }
+                if (data != null) {
+                    checkLength(manifest, i, data.length);
+                    out.write(data);
+                }
+                aheadBytes -= manifest.chunkLength(i);
+            }
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } finally {
+            ahead.forEach(f -> f.cancel(false));
+        }
+    }
+
+    // A chunk of a whole-file download: its bytes, or the id of a local copy (and the CRC32C it must
+    // still have) to copy from disk when it is written out.
+    private record Piece(byte[] data, String fileId, String chunkId, int crc32c) {
+        static Piece of(byte[] data) {
+            return new Piece(data, null, null, 0);
+        }
+    }
+
+    private static void checkLength(FileManifest manifest, int index, long length) throws IOException {
+        if (length != manifest.chunkLength(index)) {
+            throw new IOException("chunk " + index + " of " + manifest.fileId() + " is " + length
+                    + " bytes, the manifest says " + manifest.chunkLength(index));
+        }
+    }
+
+    private CompletableFuture<Piece> fetchChunk(FileManifest manifest, int index) {
+        String chunkId = FileManifest.chunkId(index);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return localCopy(manifest.fileId(), chunkId, manifest.version());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, prefetch).thenCompose(local -> local != null ? CompletableFuture.completedFuture(local)
+                : fetchCopy(manifest, index).thenApply(Piece::of));
+    }
+
+    // The chunk's bytes as of the manifest, read here (decoded) when this node has them, otherwise
+    // from another replica.
+    private CompletableFuture<byte[]> fetchCopy(FileManifest manifest, int index) {
+        String chunkId = FileManifest.chunkId(index);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return readAsOf(manifest.fileId(), chunkId, manifest.version());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, prefetch).thenCompose(data -> data != null ? CompletableFuture.completedFuture(data)
+                : fetchRemote(manifest.fileId(), chunkId, manifest.version(), replicationManager.availablePeers(), index));
+    }
+
+    // This node's copy of the chunk as of the timestamp if it is stored uncompressed in a file of its
+    // own, looked up as readVersion does; null otherwise. Packed chunks are small and read whole.
+    private Piece localCopy(String fileId, String chunkId, long asOf) throws IOException {
+        MetadataLogEntry version = versionAt(fileId, chunkId, asOf);
+        Integer crc = MetadataStore.checksum(version);
+        if (crc == null || MetadataStore.codec(version) != Compression.Codec.NONE) return null;
+        String hash = MetadataStore.refHash(version);
+        List<String> candidates = hash != null ? List.of(CONTENT, hash)
+                : List.of(fileId, versionId(chunkId, version.getVersion()), fileId, chunkId);
+        for (int i = 0; i < candidates.size(); i += 2) {
+            String storedFile = candidates.get(i), storedChunk = candidates.get(i + 1);
+            ChunkStore.Location loc = chunkStore.locate(storedFile, storedChunk);
+            if (loc != null && !loc.packed() && crc.equals(chunkStore.checksum(storedFile, storedChunk))) {
+                return new Piece(null, storedFile, storedChunk, crc);
+            }
+        }
+        return null;
+    }
+
+    // Copies a local copy to out through buf, checking its CRC32C on the way. False, with nothing
+    // written, if the copy is no longer there or no longer the chunk's bytes.
+    private boolean copyLocal(FileManifest manifest, int index, Piece piece, OutputStream out, byte[] buf) throws IOException {
+        ChunkStore.Location loc = chunkStore.locate(piece.fileId(), piece.chunkId());
+        if (loc == null || loc.packed() || loc.length() != manifest.chunkLength(index)) return false;
+        InputStream in;
+        try {
+            in = Files.newInputStream(loc.file());
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try (in) {
+            // checked once the file is open: bytes renamed over it from now on do not change what is read
+            if (!Objects.equals(chunkStore.checksum(piece.fileId(), piece.chunkId()), piece.crc32c())) return false;
+            CRC32C crc = new CRC32C();
+            long copied = 0;
+            for (int n; (n = in.read(buf)) > 0; copied += n) {
+                crc.update(buf, 0, n);
+                out.write(buf, 0, n);
+            }
+            checkLength(manifest, index, copied);
+            if ((int) crc.getValue() != piece.crc32c()) {
+                throw new IOException("chunk " + index + " of " + manifest.fileId() + " does not match its checksum");
+            }
+        }
         return true;
     }
 
+    // Tries the peers in turn, starting at a different one per chunk so the reads are spread out.
+    private CompletableFuture<byte[]> fetchRemote(String fileId, String chunkId, long asOf, List<String> peers, int attempt) {
+        if (peers.isEmpty()) {
+            return CompletableFuture.failedFuture(new IOException("no replica of " + fileId + "/" + chunkId + " is reachable"));
+        }
+        String peer = peers.get(Math.floorMod(attempt, peers.size()));
+        List<String> rest = new ArrayList<>(peers);
+        rest.remove(peer);
+        return rpc.get(peer + "/files/" + fileId + "/chunks/" + chunkId + "?asOf=" + HybridLogicalClock.format(asOf))
+                .thenApply(resp -> resp.body())
+                .exceptionallyCompose(err -> fetchRemote(fileId, chunkId, asOf, rest, attempt));
+    }
+
+    /**
+     * The chunk as of the hybrid logical timestamp, decoded, if this node has that version's bytes;
+     * null if it does not. Fails if the chunk had no version then.
+     */
+    public byte[] readAsOf(String fileId, String chunkId, long asOf) throws IOException {
+        MetadataLogEntry version = versionAt(fileId, chunkId, asOf);
+        if (version == null) throw new NoSuchFileException(fileId + "/" + chunkId + " as of " + HybridLogicalClock.format(asOf));
+        if (version.getCommand().startsWith(ErasureCoding.Layout.COMMAND)) {
+            return isLatest(fileId, chunkId, version) ? erasureCoding.read(ErasureCoding.Layout.parse(version.getCommand())) : null;
+        }
+        return readVersion(fileId, chunkId, version);
+    }
+
+    private record Compressed(ChunkStore.StoredChunk raw, ChunkStore.StoredChunk stored, Compression.Codec codec) {}
+
+    // Stores the chunk in one pass, compressed if the file's compression mode picks a codec for its
+    // first SAMPLE_BYTES. The header's raw length and CRC are only known at the end, so its bytes are
+    // reserved up front and filled in at commit. A chunk whose tail compresses worse than its head
+    // stays compressed: a few frame bytes are cheaper than writing it a second time.
+    private Compressed saveCompressible(String fileId, String chunkId, InputStream data, Compression.Mode mode) throws IOException {
+        byte[] buf = data.readNBytes(Compression.SAMPLE_BYTES);
+        Compression.Codec codec = mode.choose(buf, buf.length);
+        String keepAs = keepAs(fileId, chunkId, null);
+        if (codec == Compression.Codec.NONE) {
+            ChunkStore.StoredChunk raw = chunkStore.saveChunk(fileId, chunkId,
+                    new SequenceInputStream(new ByteArrayInputStream(buf), data), null, keepAs);
+            return new Compressed(raw, raw, codec);
+        }
+        CRC32C crc = new CRC32C();
+        long rawLength = 0;
+        try (ChunkStore.PendingChunk out = chunkStore.create(fileId, chunkId)) {
+            out.reserve(Compression.HEADER_BYTES);
+            try (OutputStream z = Compression.compressor(codec, new PendingStream(out), zstdLevel)) {
+                // the sample first, then the rest of the body through the same buffer
+                for (int n = buf.length; n > 0; n = data.read(buf)) {
+                    crc.update(buf, 0, n);
+                    rawLength += n;
+                    z.write(buf, 0, n);
+                }
+            }
+            ChunkStore.StoredChunk raw = new ChunkStore.StoredChunk(rawLength, (int) crc.getValue());
+            ByteArrayOutputStream head = new ByteArrayOutputStream(Compression.HEADER_BYTES);
+            new Compression.Header(codec, raw.length(), raw.crc32c()).write(head);
+            return new Compressed(raw, out.commit(head.toByteArray(), keepAs), codec);
+        }
+    }
+
+    // The compressor's sink; closing it leaves the pending chunk open for the commit.
+    private static final class PendingStream extends OutputStream {
+        private final ChunkStore.PendingChunk out;
+        private final byte[] one = new byte[1];
+
+        PendingStream(ChunkStore.PendingChunk out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            one[0] = (byte) b;
+            out.write(one, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+    }
+
+    // Sets the compression used for the file's chunks from now on; chunks already written keep theirs.
+    public CompletableFuture<Long> setCompression(String fileId, Compression.Mode mode) {
+        return groups.group(fileId).appendCommandAsync(MetadataStore.compressionCommand(fileId, mode));
+    }
+
+    // Compression mode for new chunks of the file, or null for none.
+    public Compression.Mode compression(String fileId) {
+        Compression.Mode mode = metadata(fileId).compression(fileId);
+        if (mode == null) mode = defaultCompression;
+        return mode == null || mode.codec() == Compression.Codec.NONE ? null : mode;
+    }
+
+    // Codec the chunk is stored with; NONE means the stored bytes are the chunk itself. The metadata
+    // says, unless the local bytes are a write that is not committed yet (their checksum is not the
+    // committed one): then the header of the stored bytes does.
+    public Compression.Codec codec(String fileId, String chunkId) throws IOException {
+        MetadataLogEntry e = metadata(fileId).get(fileId, chunkId);
+        if (e != null && (!e.getCommand().startsWith("WRITE:") || Objects.equals(MetadataStore.checksum(e), chunkStore.checksum(fileId, chunkId)))) {
+            return MetadataStore.codec(e);
+        }
+        try (InputStream in = chunkStore.open(fileId, chunkId)) {
+            return Compression.Header.read(in).codec();
+        } catch (IOException notCompressed) {
+            // not there, or no header
+            return Compression.Codec.NONE;
+        }
+    }
+
+    // The stored bytes of a chunk as a stream; small chunks come from (and fill) the chunk cache.
+    public InputStream openChunk(String fileId, String chunkId) throws IOException {
+        ChunkCache cache = chunkStore.cache();
+        ChunkStore.Location loc = chunkStore.locate(fileId, chunkId);
+        if (cache != null && loc != null && loc.length() <= cache.maxEntryBytes()) {
+            return new ByteArrayInputStream(chunkStore.readChunk(fileId, chunkId));
+        }
+        return chunkStore.open(fileId, chunkId);
+    }
+
+    // Stores the chunk as content addressed by its SHA-256 (once per distinct content) and commits a
+    // REF command pointing the chunk at it. Peers that already hold the content are not sent it again.
+    private CompletableFuture<Written> storeDeduplicated(String fileId, String chunkId, InputStream data, String sha256,
+                                                         ReplicationManager.AckLevel ack) throws IOException {
+        ChunkStore.StoredChunk stored = sha256 == null ? null : storedContent(sha256.toLowerCase(Locale.ROOT));
+        String hash;
+        if (stored != null) {
+            // the client's hash matches content we have: the body is never read
+            hash = sha256.toLowerCase(Locale.ROOT);
+            dedupedUploads.incrementAndGet();
+            skippedUploadBytes.addAndGet(stored.length());
+        } else {
+            MessageDigest digest = sha256();
+            stored = chunkStore.saveChunk(fileId, chunkId, new DigestInputStream(data, digest), null, keepAs(fileId, chunkId, null));
+            hash = HexFormat.of().formatHex(digest.digest());
+            if (sha256 != null && !sha256.equalsIgnoreCase(hash)) {
+                chunkStore.deleteChunk(fileId, chunkId);
+                throw new IllegalArgumentException("chunk does not match the SHA-256 sent with it");
+            }
+            if (chunkStore.chunkExists(CONTENT, hash)) {
+                chunkStore.deleteChunk(fileId, chunkId);
+                dedupedUploads.incrementAndGet();
+            } else {
+                chunkStore.move(fileId, chunkId, CONTENT, hash);
+            }
+        }
+        ChunkStore.StoredChunk content = stored;
+        long version = clock.now();
+        CompletableFuture<Long> committed = groups.group(fileId).appendCommandAsync(
+                MetadataStore.versioned(version, MetadataStore.refCommand(fileId, chunkId, content, hash)));
+        Written written = new Written(content, version);
+        if (committed.isCompletedExceptionally()) {
+            return committed.thenApply(index -> written);
+        }
+        CompletableFuture<Void> replicated = replicationManager.replicateIfMissing(CONTENT, hash, located(CONTENT, hash), content.crc32c(), ack);
+        return committed.thenCombine(replicated, (index, v) -> written);
+    }
+
+    // Length and checksum of the stored content, or null if this node does not hold it.
+    private ChunkStore.StoredChunk storedContent(String hash) throws IOException {
+        ChunkStore.Location loc = chunkStore.locate(CONTENT, hash);
+        Integer crc = loc == null ? null : chunkStore.checksum(CONTENT, hash);
+        return crc == null ? null : new ChunkStore.StoredChunk(loc.length(), crc);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** True if this node holds the content with the given SHA-256 (hex). */
+    public boolean hasContent(String sha256) {
+        return chunkStore.chunkExists(CONTENT, sha256.toLowerCase(Locale.ROOT));
+    }
+
+    // Deletes content no chunk refers to any more. Content is only deleted when two consecutive sweeps
+    // found it unreferenced, so bytes that arrived ahead of their REF command (uploads and replicas
+    // in flight) are not collected.
+    void collectGarbage() {
+        try {
+            Set<String> unreferenced = new HashSet<>();
+            for (String hash : chunkStore.list(CONTENT)) {
+                if (references(hash) > 0) continue;
+                if (gcCandidates.contains(hash)) {
+                    chunkStore.deleteChunk(CONTENT, hash);
+                    collectedContents.incrementAndGet();
+                } else {
+                    unreferenced.add(hash);
+                }
+            }
+            gcCandidates = unreferenced;
+        } catch (Exception e) {
+            logger.warn("Content garbage collection failed: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> dedupStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        // content referenced from files in several groups is stored once, so count it once
+        Map<String, Long> contents = new HashMap<>();
+        long logical = 0;
+        for (MetadataStore store : metadata) {
+            logical += store.logicalBytes();
+            contents.putAll(store.contents());
+        }
+        long unique = contents.values().stream().mapToLong(Long::longValue).sum();
+        m.put("enabled", dedup);
+        m.put("uniqueContents", contents.size());
+        m.put("logicalBytes", logical);
+        m.put("uniqueBytes", unique);
+        m.put("bytesSaved", logical - unique);
+        m.put("dedupRatio", unique == 0 ? 1.0 : (double) logical / unique);
+        m.put("dedupedUploads", dedupedUploads.get());
+        m.put("skippedUploadBytes", skippedUploadBytes.get());
+        m.put("skippedReplicaTransfers", replicationManager.skippedTransfers());
+        m.put("collectedContents", collectedContents.get());
+        return m;
+    }
+
+    // Encodes the chunk into k+m fragments, keeps the one placed on this node and hands the others
+    // off to their nodes; the full copy is dropped. The ack level counts fragments: quorum means
+    // k+1 are stored, so the chunk survives losing one more node before the repair queue catches up.
+    private CompletableFuture<Written> storeErasureCoded(String fileId, String chunkId, ChunkStore.StoredChunk stored,
+                                                         ErasureCoding.Policy policy, List<String> members,
+                                                         ReplicationManager.AckLevel ack) throws IOException {
+        ErasureCoding.Layout layout = ErasureCoding.place(fileId, chunkId, stored, policy, members);
+        long version = clock.now();
+        CompletableFuture<Long> committed = groups.group(fileId).appendCommandAsync(MetadataStore.versioned(version, layout.command()));
+        Written written = new Written(stored, version);
+        if (committed.isCompletedExceptionally()) {
+            return committed.thenApply(index -> written);
+        }
+
+        ChunkStore.StoredChunk[] fragments = erasureCoding.encode(layout, chunkStore.locate(fileId, chunkId));
+        chunkStore.deleteChunk(fileId, chunkId);
+        List<ReplicationManager.HandOff> sends = new ArrayList<>();
+        int local = 0;
+        for (int i = 0; i < fragments.length; i++) {
+            String fragmentId = layout.fragmentId(i);
+            if (layout.nodes().get(i).equals(self)) {
+                local++;
+                continue;
+            }
+            sends.add(new ReplicationManager.HandOff(layout.nodes().get(i), fragmentId, located(fileId, fragmentId),
+                    fragments[i].crc32c(), () -> dropLocalCopy(fileId, fragmentId)));
+        }
+        int required = switch (ack == null ? replicationManager.defaultAck() : ack) {
+            case LEADER -> 0;
+            case QUORUM -> Math.max(0, Math.min(sends.size(), policy.dataShards() + 1 - local));
+            case ALL -> sends.size();
+        };
+        CompletableFuture<Void> delivered = replicationManager.handOff(fileId, sends, required);
+        return committed.thenCombine(delivered, (index, v) -> written);
+    }
+
+    // Looked up again on every send: packed chunks move when their volume is compacted.
+    private Supplier<ChunkStore.Location> located(String fileId, String chunkId) {
+        return () -> {
+            try {
+                return chunkStore.locate(fileId, chunkId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private void dropLocalCopy(String fileId, String chunkId) {
+        try {
+            chunkStore.deleteChunk(fileId, chunkId);
+        } catch (IOException e) {
+            logger.warn("Could not delete handed-off fragment {}/{}: {}", fileId, chunkId, e.getMessage());
+        }
+    }
+
+    /** Current layout of an erasure-coded chunk, or null if the chunk is not erasure-coded. */
+    public ErasureCoding.Layout layout(String fileId, String chunkId) {
+        MetadataLogEntry e = metadata(fileId).get(fileId, chunkId);
+        return e == null || !e.getCommand().startsWith(ErasureCoding.Layout.COMMAND) ? null : ErasureCoding.Layout.parse(e.getCommand());
+    }
+
+    // Erasure-coded chunks with a fragment on one of the nodes, in the groups led here: a layout
+    // can only be changed through its group's leader.
+    public List<ErasureCoding.Layout> layoutsOn(Set<String> nodes) {
+        List<ErasureCoding.Layout> layouts = new ArrayList<>();
+        for (RaftNode group : groups.all()) {
+            if (group.getRole() != RaftNode.Role.LEADER) continue;
+            for (ErasureCoding.Layout l : metadata.get(group.getGroup()).layouts()) {
+                if (!Collections.disjoint(l.nodes(), nodes)) layouts.add(l);
+            }
+        }
+        return layouts;
+    }
+
+    public boolean leads(String fileId) {
+        return groups.group(fileId).getRole() == RaftNode.Role.LEADER;
+    }
+
+    /**
+     * Moves the fragments held by the {@code lost} nodes to healthy nodes outside the layout: they
+     * are rebuilt here from the others, handed off, and then the layout naming their new homes is
+     * committed. Completes with the new layout, or null if the chunk changed in the meantime.
+     */
+    public CompletableFuture<ErasureCoding.Layout> relocateFragments(ErasureCoding.Layout layout, Set<String> lost) throws IOException {
+        List<String> candidates = new ArrayList<>(replicationManager.availablePeers());
+        candidates.add(self);
+        candidates.removeAll(layout.nodes());
+        candidates.removeAll(lost);
+        Collections.sort(candidates);
+        List<Integer> moved = new ArrayList<>();
+        for (int i = 0; i < layout.nodes().size(); i++) if (lost.contains(layout.nodes().get(i))) moved.add(i);
+        if (candidates.isEmpty()) throw new IllegalStateException("no healthy node outside the layout of " + layout.fileId() + "/" + layout.chunkId());
+        if (moved.size() > candidates.size()) moved = moved.subList(0, candidates.size());
+
+        byte[][] fragments = erasureCoding.rebuild(layout, moved, lost);
+        List<String> nodes = new ArrayList<>(layout.nodes());
+        List<ReplicationManager.HandOff> sends = new ArrayList<>();
+        // rotated per chunk like place(), so one node does not end up with every relocated fragment
+        int start = Math.floorMod(layout.fileId().hashCode() * 31 + layout.chunkId().hashCode(), candidates.size());
+        for (int j = 0; j < moved.size(); j++) {
+            int i = moved.get(j);
+            String target = candidates.get((start + j) % candidates.size());
+            String fragmentId = layout.fragmentId(i);
+            ChunkStore.StoredChunk stored = chunkStore.saveChunk(layout.fileId(), fragmentId, new ByteArrayInputStream(fragments[j]), null);
+            nodes.set(i, target);
+            if (target.equals(self)) continue;
+            sends.add(new ReplicationManager.HandOff(target, fragmentId, located(layout.fileId(), fragmentId),
+                    stored.crc32c(), () -> dropLocalCopy(layout.fileId(), fragmentId)));
+        }
+        ErasureCoding.Layout relocated = new ErasureCoding.Layout(layout.fileId(), layout.chunkId(), layout.length(),
+                layout.crc32c(), layout.policy(), List.copyOf(nodes));
+        return replicationManager.handOff(layout.fileId(), sends, sends.size()).thenCompose(v -> {
+            // a rewrite of the chunk while the fragments were moving wins; the moved ones are orphans
+            MetadataLogEntry current = metadata(layout.fileId()).get(layout.fileId(), layout.chunkId());
+            if (!layout.equals(layout(layout.fileId(), layout.chunkId())) || current == null) return CompletableFuture.completedFuture(null);
+            // same bytes, so the same version: moving fragments is not a write
+            String command = current.getVersion() == 0 ? relocated.command() : MetadataStore.versioned(current.getVersion(), relocated.command());
+            return groups.group(layout.fileId()).appendCommandAsync(command).thenApply(index -> relocated);
+        });
+    }
+
+    /** Reassembles an erasure-coded chunk from its fragments, or returns null if the chunk is not erasure-coded. */
+    public byte[] readErasureCoded(String fileId, String chunkId) throws IOException {
+        MetadataLogEntry e = metadata(fileId).get(fileId, chunkId);
+        if (e == null || !e.getCommand().startsWith(ErasureCoding.Layout.COMMAND)) return null;
+        return erasureCoding.read(ErasureCoding.Layout.parse(e.getCommand()));
+    }
+
+    public MerkleTree merkleTree() {
+        return merkle;
+    }
+
+    // Answers a peer's anti-entropy round: hashes of the requested tree nodes, or the entries of the requested leaves.
+    public MerkleResponse merkle(MerkleRequest req) {
+        MerkleResponse resp = new MerkleResponse();
+        resp.depth = merkle.depth();
+        if (req.level < 0 || req.level > merkle.depth()) return resp;
+        if (req.entries && req.level == merkle.depth()) {
+            resp.entries = new HashMap<>();
+            for (int leaf : req.nodes) resp.entries.putAll(merkle.entries(leaf));
+        } else {
+            resp.hashes = merkle.hashes(req.level, req.nodes);
+        }
+        return resp;
+    }
+
+    /**
+     * Sends this node's copy of the chunk to a peer whose copy anti-entropy found missing or
+     * different, if this copy is the committed version every replica should hold. Returns null
+     * when it is not (stale, not yet committed here, or not replicated at all).
+     */
+    public CompletableFuture<Void> repairReplica(String peer, String fileId, String chunkId) throws IOException {
+        Integer crc = chunkStore.checksum(fileId, chunkId);
+        if (crc == null) return null;
+        if (fileId.equals(CONTENT)) {
+            // content is named by its hash, so any copy is the right one while something refers to it
+            if (references(chunkId) == 0) return null;
+        } else {
+            MetadataLogEntry e = metadata(fileId).get(fileId, chunkId);
+            if (e == null || !e.getCommand().startsWith("WRITE:") || !crc.equals(MetadataStore.checksum(e))) return null;
+        }
+        return replicationManager.sendTo(peer, fileId, chunkId, located(fileId, chunkId), crc);
+    }
+
+    // Chunk bytes pushed by the leader, verified against the leader's checksum when one is sent;
+    // the metadata arrives separately through the Raft log.
+    public ChunkStore.StoredChunk storeReplica(String fileId, String chunkId, InputStream data, Integer expectedCrc) throws IOException {
+        if (!fileId.equals(CONTENT)) return chunkStore.saveChunk(fileId, chunkId, data, expectedCrc, keepAs(fileId, chunkId, expectedCrc));
+        MessageDigest digest = sha256();
+        ChunkStore.StoredChunk stored = chunkStore.saveChunk(fileId, chunkId, new DigestInputStream(data, digest), expectedCrc);
+        verifyContent(chunkId, digest);
+        return stored;
+    }
+
+    // Content is stored under its hash, so a replica whose bytes hash differently must not stay.
+    private void verifyContent(String hash, MessageDigest digest) throws IOException {
+        if (!HexFormat.of().formatHex(digest.digest()).equals(hash)) {
+            chunkStore.deleteChunk(CONTENT, hash);
+            throw new IOException("content does not match its hash " + hash);
+        }
+    }
+
+    public record ChainedReplica(ChunkStore.StoredChunk stored, int replicas) {}
+
+    // Chain replication hop: stores the chunk while forwarding the same bytes to the next peer in
+    // the chain, then waits for the rest of the chain so the count can be reported upstream.
+    public ChainedReplica storeReplicaAndForward(String fileId, String chunkId, InputStream data, Integer expectedCrc,
+                                                 List<String> downstream) throws IOException {
+        ReplicationManager.ChainForward forward = replicationManager.forward(fileId, chunkId, expectedCrc, downstream, data);
+        ChunkStore.StoredChunk stored;
+        MessageDigest digest = fileId.equals(CONTENT) ? sha256() : null;
+        try {
+            InputStream in = digest == null ? forward.input() : new DigestInputStream(forward.input(), digest);
+            stored = chunkStore.saveChunk(fileId, chunkId, in, expectedCrc, keepAs(fileId, chunkId, expectedCrc));
+        } catch (IOException | RuntimeException e) {
+            forward.abort();
+            throw e;
+        }
+        if (digest != null) verifyContent(chunkId, digest);
+        return new ChainedReplica(stored, 1 + forward.replicas().join());
+    }
+
     public byte[] readChunk(String fileId, String chunkId) throws IOException {
-        return chunkStore.readChunk(fileId, chunkId);
+        String hash = contentOf(fileId, chunkId);
+        return hash == null ? chunkStore.readChunk(fileId, chunkId) : chunkStore.readChunk(CONTENT, hash);
+    }
+
+    // Hash of the content a deduplicated chunk points at, or null for other chunks.
+    private String contentOf(String fileId, String chunkId) {
+        return MetadataStore.refHash(metadata(fileId).get(fileId, chunkId));
+    }
+
+    // Cached copy of the chunk, or null on a miss. Like locate, ignores a stale full copy of a chunk
+    // that has since been rewritten erasure-coded.
+    public ChunkCache.Hit cachedChunk(String fileId, String chunkId) {
+        if (erasureCoded(fileId, chunkId)) return null;
+        String hash = contentOf(fileId, chunkId);
+        return hash == null ? chunkStore.cached(fileId, chunkId) : chunkStore.cached(CONTENT, hash);
+    }
+
+    // Reads the chunk from disk after a cache miss, caching it if it is small enough.
+    public byte[] loadChunk(String fileId, String chunkId) throws IOException {
+        String hash = contentOf(fileId, chunkId);
+        return hash == null ? chunkStore.load(fileId, chunkId) : chunkStore.load(CONTENT, hash);
+    }
+
+    /** Null when caching is disabled. */
+    public ChunkCache cache() {
+        return chunkStore.cache();
+    }
+
+    // Null if the chunk is not stored whole on this node. A full copy left over from before the
+    // chunk was rewritten erasure-coded is stale and ignored; deduplicated chunks resolve to their content.
+    public ChunkStore.Location locate(String fileId, String chunkId) throws IOException {
+        if (erasureCoded(fileId, chunkId)) return null;
+        String hash = contentOf(fileId, chunkId);
+        return hash == null ? chunkStore.locate(fileId, chunkId) : chunkStore.locate(CONTENT, hash);
+    }
+
+    private boolean erasureCoded(String fileId, String chunkId) {
+        MetadataLogEntry e = metadata(fileId).get(fileId, chunkId);
+        return e != null && e.getCommand().startsWith(ErasureCoding.Layout.COMMAND);
+    }
+
+    public Integer checksum(String fileId, String chunkId) throws IOException {
+        String hash = contentOf(fileId, chunkId);
+        return hash == null ? chunkStore.checksum(fileId, chunkId) : chunkStore.checksum(CONTENT, hash);
+    }
+
+    // Whether reads without an explicit consistency wait for the Raft read barrier.
+    public boolean linearizableReads() {
+        return linearizableReads;
+    }
+
+    // Completes once this node has applied all metadata of the file's group committed before the
+    // call, wherever that group's leader is.
+    public CompletableFuture<Long> readBarrier(String fileId) {
+        return groups.group(fileId).readBarrier();
+    }
+
+    // Whether the committed version of the chunk can be read here. Replicas may lag the metadata
+    // (acks below "all") or hold bytes of an overwritten version; erasure-coded chunks are read from
+    // the fragments their committed layout names.
+    public boolean hasCommitted(String fileId, String chunkId) {
+        return metadata(fileId).get(fileId, chunkId) != null;
+    }
+
+    public boolean isCurrent(String fileId, String chunkId) throws IOException {
+        MetadataLogEntry e = metadata(fileId).get(fileId, chunkId);
+        if (e == null) return false;
+        Integer committed = MetadataStore.checksum(e);
+        return committed == null || committed.equals(checksum(fileId, chunkId));
+    }
+
+    // Read barrier for a read as of the timestamp. This node's clock is moved past it first and the
+    // barrier carries it to the group's leader, so versions written from then on are stamped later
+    // and the snapshot stops changing, apart from writes already in flight.
+    public CompletableFuture<Long> readBarrier(String fileId, long asOf) {
+        clock.update(asOf);
+        return readBarrier(fileId);
+    }
+
+    /**
+     * The chunk's version as of the hybrid logical timestamp: the newest one written at or before
+     * it, or null if there is none among the versions kept. Chunks written before versions existed
+     * look the same at any time.
+     */
+    public MetadataLogEntry versionAt(String fileId, String chunkId, long timestamp) {
+        MetadataStore store = metadata(fileId);
+        NavigableMap<Long, MetadataLogEntry> history = store.versions(fileId, chunkId);
+        if (history.isEmpty()) {
+            MetadataLogEntry e = store.get(fileId, chunkId);
+            return e != null && e.getVersion() == 0 ? e : null;
+        }
+        Map.Entry<Long, MetadataLogEntry> v = history.floorEntry(timestamp);
+        return v == null ? null : v.getValue();
+    }
+
+    public boolean isLatest(String fileId, String chunkId, MetadataLogEntry version) {
+        return metadata(fileId).get(fileId, chunkId) == version;
+    }
+
+    /**
+     * The bytes of a version of the chunk (decompressed), or null if this node does not have them:
+     * overwritten WRITE versions are kept under their version id, deduplicated ones as long as their
+     * content is; the fragments of older erasure-coded layouts are not kept.
+     */
+    public byte[] readVersion(String fileId, String chunkId, MetadataLogEntry version) throws IOException {
+        String hash = MetadataStore.refHash(version);
+        Integer crc = MetadataStore.checksum(version);
+        if (crc == null) return null;
+        byte[] data;
+        if (hash != null) {
+            data = read(CONTENT, hash);
+        } else {
+            data = read(fileId, versionId(chunkId, version.getVersion()));
+            // not replaced here yet: rewriting a chunk erasure-coded or deduplicated leaves its old copy in place
+            if (data == null) data = read(fileId, chunkId);
+        }
+        // checked against the version, since a concurrent overwrite may have moved the bytes meanwhile
+        if (data == null || crc32c(data) != crc) return null;
+        Compression.Codec codec = MetadataStore.codec(version);
+        if (codec == Compression.Codec.NONE) return data;
+        InputStream in = new ByteArrayInputStream(data);
+        Compression.Header.read(in);
+        try (InputStream raw = Compression.decompressor(codec, in)) {
+            return raw.readAllBytes();
+        }
+    }
+
+    // Not through the cache: old versions are read rarely and would only push out current chunks.
+    private byte[] read(String fileId, String chunkId) throws IOException {
+        if (chunkStore.locate(fileId, chunkId) == null) return null;
+        try (InputStream in = chunkStore.open(fileId, chunkId)) {
+            return in.readAllBytes();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static int crc32c(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
     }
 
     public boolean hasChunk(String fileId, String chunkId) {
-        return chunkStore.chunkExists(fileId, chunkId);
+        String hash = contentOf(fileId, chunkId);
+        return hash == null ? chunkStore.chunkExists(fileId, chunkId) : chunkStore.chunkExists(CONTENT, hash);
     }
 }
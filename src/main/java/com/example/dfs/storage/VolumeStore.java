@@ -0,0 +1,692 @@
+package com.example.dfs.storage;
+
+import com.example.dfs.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Haystack-style packed storage for small chunks. Chunks are appended as records to large
+ * preallocated volume files ({@code volume-00001.dat}, ...); only the active volume is written to.
+ *
+ * Record: {@code [int magic][byte flags][short keyLen][int dataLen][int crc32c][key utf8][data]},
+ * padded to 8 bytes. A delete appends a tombstone record, so the volumes alone are enough to
+ * rebuild the index.
+ *
+ * The in-memory index is an open-addressing table over primitive arrays keyed by a 64-bit hash
+ * of the key; the key itself is only kept on disk and checked against the record header on
+ * lookup, which also resolves hash collisions. The index is persisted on close and after each
+ * compaction together with the end offset of every volume, so startup loads it and replays only
+ * the records appended after it was written.
+ *
+ * Deleted and overwritten records are garbage until a background compaction copies the live
+ * records of a mostly-dead sealed volume into the active one and deletes the old file.
+ */
+public class VolumeStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(VolumeStore.class);
+    private static final int RECORD_MAGIC = 0x43484B31; // "CHK1"
+    private static final int HEADER_BYTES = 15;
+    private static final byte LIVE = 0;
+    private static final byte TOMBSTONE = 1;
+    private static final int INDEX_MAGIC = 0x56494458; // "VIDX"
+    private static final String INDEX_FILE = "index";
+    private static final String PREFIX = "volume-";
+    private static final String SUFFIX = ".dat";
+    // a position is the volume id in the high bits and the record offset in the low 40 (1 TB per volume)
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    /** A stored chunk's bytes: {@code length} bytes of {@code file} starting at {@code offset}. */
+    public record Slice(Path file, long offset, int length, int crc32c) {}
+
+    private final Path dir;
+    private final long volumeBytes;
+    private final double compactGarbageRatio;
+    private final Timer fsyncTimer;
+    private final Map<Integer, Volume> volumes = new ConcurrentHashMap<>();
+    private final Index index = new Index(1024);
+    private Volume active; // guarded by this; every append happens under the monitor
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "volume-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public VolumeStore(Path dir, long volumeBytes, double compactGarbageRatio, long compactIntervalMs) throws IOException {
+        this(dir, volumeBytes, compactGarbageRatio, compactIntervalMs, Timer.NOOP);
+    }
+
+    /** {@code fsyncTimer} times the fsync that makes each put or delete durable. */
+    public VolumeStore(Path dir, long volumeBytes, double compactGarbageRatio, long compactIntervalMs, Timer fsyncTimer) throws IOException {
+        this.dir = dir;
+        this.volumeBytes = volumeBytes;
+        this.compactGarbageRatio = compactGarbageRatio;
+        this.fsyncTimer = fsyncTimer;
+        Files.createDirectories(dir);
+        recover();
+        if (compactIntervalMs > 0) {
+            compactor.scheduleWithFixedDelay(() -> {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    logger.warn("Volume compaction failed: {}", e.getMessage());
+                }
+            }, compactIntervalMs, compactIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Appends the chunk and makes it durable; replaces any earlier chunk under the same key. */
+    public void put(String key, byte[] data, int off, int len, int crc32c) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        Volume v;
+        synchronized (this) {
+            long pos = append(LIVE, k, data, off, len, crc32c);
+            v = active;
+            Index.Hit old = index.put(hash(k), position(v.id, pos), len, crc32c, p -> keyAt(p, k));
+            if (old != null) release(old);
+            v.liveBytes += len;
+        }
+        // outside the monitor, so concurrent writers share one fsync
+        force(v);
+    }
+
+    /** Removes the chunk; returns false if it did not exist. */
+    public boolean delete(String key) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        Volume v;
+        synchronized (this) {
+            Index.Hit old = index.remove(hash(k), p -> keyAt(p, k));
+            if (old == null) return false;
+            release(old);
+            append(TOMBSTONE, k, new byte[0], 0, 0, 0);
+            v = active;
+        }
+        force(v);
+        return true;
+    }
+
+    /** Where the chunk's bytes are, or null if it is not stored here. */
+    public Slice locate(String key) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        Index.Hit hit = index.find(hash(k), p -> keyAt(p, k));
+        if (hit == null) return null;
+        Volume v = volumes.get(volumeId(hit.position()));
+        if (v == null) return null;
+        return new Slice(v.path, offset(hit.position()) + HEADER_BYTES + k.length, hit.length(), hit.crc());
+    }
+
+    /** Reads the whole chunk with one positional read, or returns null if it is not stored here. */
+    public byte[] read(String key) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        for (int attempt = 0; ; attempt++) {
+            Index.Hit hit = index.find(hash(k), p -> keyAt(p, k));
+            if (hit == null) return null;
+            Volume v = volumes.get(volumeId(hit.position()));
+            try {
+                if (v == null) throw new ClosedChannelException();
+                byte[] data = new byte[hit.length()];
+                readFully(v.channel, ByteBuffer.wrap(data), offset(hit.position()) + HEADER_BYTES + k.length);
+                return data;
+            } catch (ClosedChannelException e) {
+                // the volume was compacted away after the lookup; the index now points at the copy
+                if (attempt >= 2) throw e;
+            }
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /** Keys of the stored chunks that start with {@code prefix}. Reads every record header, so it is meant for background sweeps. */
+    public List<String> keys(String prefix) {
+        List<Long> positions = new ArrayList<>();
+        index.forEach((pos, len) -> positions.add(pos));
+        List<String> keys = new ArrayList<>();
+        for (long pos : positions) {
+            String key = keyOf(pos);
+            if (key != null && key.startsWith(prefix)) keys.add(key);
+        }
+        return keys;
+    }
+
+    // The key of the record at the position, or null if it can't be read (e.g. compacted away meanwhile).
+    private String keyOf(long position) {
+        Volume v = volumes.get(volumeId(position));
+        if (v == null) return null;
+        try {
+            ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(v.channel, h, offset(position));
+            h.flip();
+            if (h.getInt() != RECORD_MAGIC) return null;
+            h.get();
+            byte[] key = new byte[h.getShort() & 0xFFFF];
+            readFully(v.channel, ByteBuffer.wrap(key), offset(position) + HEADER_BYTES);
+            return new String(key, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Appends one record at the end of the active volume, rolling over to a new volume when it is full.
+    private long append(byte flags, byte[] key, byte[] data, int off, int len, int crc32c) throws IOException {
+        long recordBytes = align(HEADER_BYTES + key.length + (long) len);
+        if (active == null || (active.end > 0 && active.end + recordBytes > volumeBytes)) roll();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + key.length);
+        header.putInt(RECORD_MAGIC).put(flags).putShort((short) key.length).putInt(len).putInt(crc32c).put(key).flip();
+        long pos = active.end;
+        writeFully(active.channel, header, pos);
+        if (len > 0) writeFully(active.channel, ByteBuffer.wrap(data, off, len), pos + HEADER_BYTES + key.length);
+        active.end = pos + recordBytes;
+        return pos;
+    }
+
+    private void force(Volume v) throws IOException {
+        long start = System.nanoTime();
+        try {
+            v.channel.force(false);
+        } catch (ClosedChannelException e) {
+            // the volume was sealed and compacted meanwhile; compaction forced the copies it made
+        }
+        fsyncTimer.recordSince(start);
+    }
+
+    private void roll() throws IOException {
+        if (active != null) active.channel.force(false);
+        int id = volumes.keySet().stream().mapToInt(Integer::intValue).max().orElse(0) + 1;
+        Path path = dir.resolve(String.format("%s%05d%s", PREFIX, id, SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            raf.setLength(volumeBytes); // reserve the space up front; unwritten tail reads back as zeros
+        }
+        Volume v = new Volume(id, path);
+        volumes.put(id, v);
+        active = v;
+    }
+
+    // An overwritten or deleted record's bytes become garbage in its volume.
+    private void release(Index.Hit old) {
+        Volume v = volumes.get(volumeId(old.position()));
+        if (v != null) v.liveBytes -= old.length();
+    }
+
+    // True if the record the slot points to carries this key.
+    private boolean keyAt(long position, byte[] key) {
+        Volume v = volumes.get(volumeId(position));
+        if (v == null) return false;
+        try {
+            ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES + key.length);
+            readFully(v.channel, h, offset(position));
+            h.flip();
+            if (h.getInt() != RECORD_MAGIC) return false;
+            h.get();
+            if (h.getShort() != key.length) return false;
+            h.position(HEADER_BYTES);
+            for (byte b : key) if (h.get() != b) return false;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rewrites sealed volumes whose garbage exceeds the configured ratio: live records are copied
+     * to the active volume one at a time under the append lock (so a concurrent overwrite always
+     * wins), the index is persisted, then the old file is deleted.
+     */
+    void compact() throws IOException {
+        List<Volume> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Volume v : volumes.values()) {
+                if (v == active || v.end == 0) continue;
+                if (v.liveBytes <= v.end * (1 - compactGarbageRatio)) candidates.add(v);
+            }
+        }
+        for (Volume v : candidates) {
+            long[] positions = index.positionsIn(v.id);
+            int moved = 0;
+            for (long pos : positions) {
+                synchronized (this) {
+                    if (copyRecord(v, pos)) moved++;
+                }
+            }
+            Volume target;
+            synchronized (this) {
+                target = active;
+            }
+            target.channel.force(false);
+            saveIndex();
+            volumes.remove(v.id);
+            v.channel.close();
+            Files.deleteIfExists(v.path);
+            logger.info("Compacted {}: moved {} live chunks, reclaimed {} bytes", v.path.getFileName(), moved, v.end - v.liveBytes);
+        }
+    }
+
+    // Moves one record out of a volume being compacted, unless the key was overwritten or deleted meanwhile.
+    private boolean copyRecord(Volume from, long pos) throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(from.channel, h, offset(pos));
+        h.flip();
+        if (h.getInt() != RECORD_MAGIC) return false;
+        h.get();
+        int keyLen = h.getShort() & 0xFFFF;
+        int len = h.getInt();
+        int crc = h.getInt();
+        ByteBuffer body = ByteBuffer.allocate(keyLen + len);
+        readFully(from.channel, body, offset(pos) + HEADER_BYTES);
+        byte[] key = Arrays.copyOf(body.array(), keyLen);
+        long h2 = hash(key);
+        if (!index.contains(h2, pos)) return false;
+        long newPos = append(LIVE, key, body.array(), keyLen, len, crc);
+        index.move(h2, pos, position(active.id, newPos));
+        active.liveBytes += len;
+        from.liveBytes -= len;
+        return true;
+    }
+
+    private void recover() throws IOException {
+        Map<Integer, Long> checkpoints = loadIndex();
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(p -> p.getFileName().toString().startsWith(PREFIX) && p.toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            int id = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            volumes.put(id, new Volume(id, p));
+        }
+        if (checkpoints == null) index.clear(); // no usable index: replay every volume from the start
+        else index.retainVolumes(volumes.keySet());
+        for (Volume v : new TreeMap<>(volumes).values()) {
+            long from = checkpoints == null ? 0 : checkpoints.getOrDefault(v.id, 0L);
+            v.end = replay(v, from);
+        }
+        index.forEach((pos, len) -> {
+            Volume v = volumes.get(volumeId(pos));
+            if (v != null) v.liveBytes += len;
+        });
+        active = volumes.isEmpty() ? null : volumes.get(Collections.max(volumes.keySet()));
+        logger.info("Loaded {} packed chunks from {} volumes in {}", index.size(), volumes.size(), dir);
+    }
+
+    // Re-applies the records from {@code from} on and returns the end of the last intact one.
+    private long replay(Volume v, long from) throws IOException {
+        long size = v.channel.size();
+        long pos = from;
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+        CRC32C crc = new CRC32C();
+        while (pos + HEADER_BYTES <= size) {
+            h.clear();
+            readFully(v.channel, h, pos);
+            h.flip();
+            if (h.getInt() != RECORD_MAGIC) break;
+            byte flags = h.get();
+            int keyLen = h.getShort() & 0xFFFF;
+            int len = h.getInt();
+            int expected = h.getInt();
+            if (len < 0 || pos + HEADER_BYTES + keyLen + len > size) break;
+            ByteBuffer body = ByteBuffer.allocate(keyLen + len);
+            readFully(v.channel, body, pos + HEADER_BYTES);
+            byte[] key = Arrays.copyOf(body.array(), keyLen);
+            if (flags == LIVE) {
+                crc.reset();
+                crc.update(body.array(), keyLen, len);
+                if ((int) crc.getValue() != expected) break; // torn write: everything after it is lost
+                index.put(hash(key), position(v.id, pos), len, expected, p -> keyAt(p, key));
+            } else {
+                index.remove(hash(key), p -> keyAt(p, key));
+            }
+            pos += align(HEADER_BYTES + keyLen + (long) len);
+        }
+        return pos;
+    }
+
+    // Index file: magic, volume count, (volume id, end offset)*, entry count, (hash, position, length, crc)*.
+    private synchronized void saveIndex() throws IOException {
+        Path tmp = dir.resolve(INDEX_FILE + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(volumes.size());
+            for (Volume v : volumes.values()) {
+                out.writeInt(v.id);
+                out.writeLong(v.end);
+            }
+            index.writeTo(out);
+            out.flush();
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(INDEX_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Returns the per-volume end offsets the index covers, or null if there is no usable index.
+    private Map<Integer, Long> loadIndex() {
+        Path file = dir.resolve(INDEX_FILE);
+        if (!Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != INDEX_MAGIC) return null;
+            int n = in.readInt();
+            Map<Integer, Long> ends = new HashMap<>();
+            for (int i = 0; i < n; i++) ends.put(in.readInt(), in.readLong());
+            index.readFrom(in);
+            return ends;
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable volume index {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        synchronized (this) {
+            saveIndex();
+            for (Volume v : volumes.values()) {
+                v.channel.force(false);
+                v.channel.close();
+            }
+        }
+    }
+
+    private static long align(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    private static long position(int volumeId, long offset) {
+        return (long) volumeId << OFFSET_BITS | offset;
+    }
+
+    private static int volumeId(long position) {
+        return (int) (position >>> OFFSET_BITS);
+    }
+
+    private static long offset(long position) {
+        return position & OFFSET_MASK;
+    }
+
+    // FNV-1a followed by a 64-bit finalizer; 0 and 1 are reserved for empty and deleted slots.
+    static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == Index.EMPTY || h == Index.DELETED ? h + 2 : h;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            if (n < 0) throw new IOException("unexpected end of volume");
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        long p = position;
+        while (buf.hasRemaining()) p += ch.write(buf, p);
+    }
+
+    private static final class Volume {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        long end;       // append offset; guarded by the store's monitor
+        long liveBytes; // payload bytes still referenced by the index
+
+        Volume(int id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+
+    interface KeyCheck {
+        boolean matches(long position);
+    }
+
+    /**
+     * Open-addressing hash table (linear probing) over parallel primitive arrays. Lookups share a
+     * read lock; they may read a record header to confirm the key. Mutations take the write lock
+     * and only ever happen under the store's monitor.
+     */
+    private static final class Index {
+        static final long EMPTY = 0;
+        static final long DELETED = 1;
+
+        record Hit(long position, int length, int crc) {}
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private long[] hashes;
+        private long[] positions;
+        private int[] lengths;
+        private int[] crcs;
+        private int size;
+        private int used; // live + deleted slots
+
+        Index(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            hashes = new long[capacity];
+            positions = new long[capacity];
+            lengths = new int[capacity];
+            crcs = new int[capacity];
+            size = 0;
+            used = 0;
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return size;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        Hit find(long hash, KeyCheck check) {
+            lock.readLock().lock();
+            try {
+                int slot = slot(hash, check);
+                return slot < 0 ? null : new Hit(positions[slot], lengths[slot], crcs[slot]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private int slot(long hash, KeyCheck check) {
+            int mask = hashes.length - 1;
+            for (int i = (int) hash & mask; hashes[i] != EMPTY; i = (i + 1) & mask) {
+                if (hashes[i] == hash && check.matches(positions[i])) return i;
+            }
+            return -1;
+        }
+
+        // Inserts or replaces; returns the replaced entry, or null.
+        Hit put(long hash, long position, int length, int crc, KeyCheck check) {
+            lock.writeLock().lock();
+            try {
+                int slot = slot(hash, check);
+                if (slot >= 0) {
+                    Hit old = new Hit(positions[slot], lengths[slot], crcs[slot]);
+                    positions[slot] = position;
+                    lengths[slot] = length;
+                    crcs[slot] = crc;
+                    return old;
+                }
+                if ((used + 1) * 10L > hashes.length * 7L) rehash();
+                insert(hash, position, length, crc);
+                return null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        Hit remove(long hash, KeyCheck check) {
+            lock.writeLock().lock();
+            try {
+                int slot = slot(hash, check);
+                if (slot < 0) return null;
+                hashes[slot] = DELETED;
+                size--;
+                return new Hit(positions[slot], lengths[slot], crcs[slot]);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        boolean contains(long hash, long position) {
+            lock.readLock().lock();
+            try {
+                return slot(hash, p -> p == position) >= 0;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void move(long hash, long from, long to) {
+            lock.writeLock().lock();
+            try {
+                int slot = slot(hash, p -> p == from);
+                if (slot >= 0) positions[slot] = to;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        long[] positionsIn(int volumeId) {
+            lock.readLock().lock();
+            try {
+                long[] out = new long[size];
+                int n = 0;
+                for (int i = 0; i < hashes.length; i++) {
+                    if (live(i) && VolumeStore.volumeId(positions[i]) == volumeId) out[n++] = positions[i];
+                }
+                return Arrays.copyOf(out, n);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        interface EntryVisitor {
+            void visit(long position, int length);
+        }
+
+        void forEach(EntryVisitor visitor) {
+            lock.readLock().lock();
+            try {
+                for (int i = 0; i < hashes.length; i++) if (live(i)) visitor.visit(positions[i], lengths[i]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void clear() {
+            lock.writeLock().lock();
+            try {
+                allocate(1024);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Drops entries that point into volumes that no longer exist.
+        void retainVolumes(Set<Integer> ids) {
+            lock.writeLock().lock();
+            try {
+                for (int i = 0; i < hashes.length; i++) {
+                    if (live(i) && !ids.contains(VolumeStore.volumeId(positions[i]))) {
+                        hashes[i] = DELETED;
+                        size--;
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private boolean live(int i) {
+            return hashes[i] != EMPTY && hashes[i] != DELETED;
+        }
+
+        private void insert(long hash, long position, int length, int crc) {
+            int mask = hashes.length - 1;
+            int i = (int) hash & mask;
+            while (live(i)) i = (i + 1) & mask;
+            if (hashes[i] == EMPTY) used++;
+            hashes[i] = hash;
+            positions[i] = position;
+            lengths[i] = length;
+            crcs[i] = crc;
+            size++;
+        }
+
+        // Rebuilds the table without deleted slots, at most half full.
+        private void rehash() {
+            long[] h = hashes, p = positions;
+            int[] l = lengths, c = crcs;
+            int capacity = h.length;
+            while ((size + 1) * 2L > capacity) capacity <<= 1;
+            allocate(capacity);
+            for (int i = 0; i < h.length; i++) {
+                if (h[i] != EMPTY && h[i] != DELETED) insert(h[i], p[i], l[i], c[i]);
+            }
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            lock.readLock().lock();
+            try {
+                out.writeInt(size);
+                for (int i = 0; i < hashes.length; i++) {
+                    if (!live(i)) continue;
+                    out.writeLong(hashes[i]);
+                    out.writeLong(positions[i]);
+                    out.writeInt(lengths[i]);
+                    out.writeInt(crcs[i]);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void readFrom(DataInputStream in) throws IOException {
+            lock.writeLock().lock();
+            try {
+                int n = in.readInt();
+                int capacity = 1024;
+                while (n * 2L > capacity) capacity <<= 1;
+                allocate(capacity);
+                for (int i = 0; i < n; i++) insert(in.readLong(), in.readLong(), in.readInt(), in.readInt());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
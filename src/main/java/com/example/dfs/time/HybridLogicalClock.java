@@ -1,35 +1,95 @@
 package com.example.dfs.time;
 
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongSupplier;
+
+/**
+ * Hybrid logical clock: timestamps that follow wall-clock milliseconds but never go backwards, and
+ * that order causally related events across nodes as long as every message carries the sender's
+ * timestamp into {@link #update(long)} on the receiver. A timestamp is one long, the physical
+ * milliseconds in the high 48 bits and a logical counter in the low 16, so timestamps compare as
+ * plain longs and the whole state is one AtomicLong advanced by CAS: no lock, no allocation.
+ * Remote timestamps more than {@code maxOffsetMillis} ahead of the local wall clock are rejected,
+ * as in the HLC paper, so one bad clock or forged header cannot drag the cluster's time forward.
+ */
 public class HybridLogicalClock {
-    private long lastPhysical = 0;
-    private long counter = 0;
-
-    public static record HLCStamp(long physical, long counter) {}
-
-    public synchronized HLCStamp now() {               //This generates a current timestamp for an event
-        long phys = System.currentTimeMillis();
-        if (phys > lastPhysical) {
-            lastPhysical = phys;
-            counter = 0;
-        } else {
-            counter++;
-        }
-        return new HLCStamp(lastPhysical, counter);
-    }
-
-    public synchronized HLCStamp update(HLCStamp remote) {          //Merges a remote timestamp to maintain causal order
-        long phys = System.currentTimeMillis();
-        long maxPhys = Math.max(phys, Math.max(lastPhysical, remote.physical()));
-        if (maxPhys == lastPhysical && maxPhys == remote.physical()) {
-            counter = Math.max(counter, remote.counter()) + 1;
-        } else if (maxPhys == lastPhysical) {
-            counter++;
-        } else if (maxPhys == remote.physical()) {
-            counter = remote.counter() + 1;
-        } else {
-            counter = 0;
+    public static final int LOGICAL_BITS = 16;
+    // the next timestamp is past both the last one and the floor (wall clock, or a remote timestamp)
+    private static final LongBinaryOperator TICK = (last, floor) -> Math.max(last + 1, floor);
+
+    public static final long DEFAULT_MAX_OFFSET_MILLIS = 500;
+
+    private final AtomicLong last = new AtomicLong();
+    private final LongSupplier wallClock;
+    private final long maxOffsetMillis;
+    private final LongAdder rejected = new LongAdder();
+
+    public HybridLogicalClock() {
+        this(DEFAULT_MAX_OFFSET_MILLIS);
+    }
+
+    public HybridLogicalClock(long maxOffsetMillis) {
+        this(System::currentTimeMillis, maxOffsetMillis);
+    }
+
+    HybridLogicalClock(LongSupplier wallClock, long maxOffsetMillis) {
+        this.wallClock = wallClock;
+        this.maxOffsetMillis = maxOffsetMillis;
+    }
+
+    /**
+     * Timestamp for a local event or an outgoing message, greater than every timestamp issued or
+     * seen before. More than 65536 events within one millisecond carry into the milliseconds, so
+     * the clock runs slightly ahead until the wall clock catches up.
+     */
+    public long now() {
+        return last.accumulateAndGet(wallClock.getAsLong() << LOGICAL_BITS, TICK);
+    }
+
+    /**
+     * Merges a timestamp received from another node; returns a timestamp greater than both.
+     *
+     * @throws IllegalArgumentException if the timestamp is more than the max offset ahead of the
+     *                                  local wall clock; the clock is left unchanged
+     */
+    public long update(long remote) {
+        long wall = wallClock.getAsLong();
+        // unsigned, so a negative timestamp is as far ahead as it gets
+        if (physicalMillis(remote) > wall + maxOffsetMillis) {
+            rejected.increment();
+            throw new IllegalArgumentException("timestamp " + format(remote) + " is more than " + maxOffsetMillis + " ms ahead");
         }
-        lastPhysical = maxPhys;
-        return new HLCStamp(lastPhysical, counter);
+        return last.accumulateAndGet(Math.max(wall << LOGICAL_BITS, remote + 1), TICK);
+    }
+
+    /** Remote timestamps rejected by {@link #update(long)} so far. */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /** The last timestamp issued or seen, without advancing the clock. */
+    public long current() {
+        return last.get();
+    }
+
+    public static long physicalMillis(long timestamp) {
+        return timestamp >>> LOGICAL_BITS;
+    }
+
+    public static int logical(long timestamp) {
+        return (int) (timestamp & ((1 << LOGICAL_BITS) - 1));
+    }
+
+    /** Sixteen hex digits, the form timestamps take in headers and metadata commands. */
+    public static String format(long timestamp) {
+        return HexFormat.of().toHexDigits(timestamp);
+    }
+
+    public static long parse(String hex) {
+        if (hex.isEmpty() || hex.length() > 16) throw new IllegalArgumentException("not a timestamp: " + hex);
+        return HexFormat.fromHexDigitsToLong(hex);
     }
 }
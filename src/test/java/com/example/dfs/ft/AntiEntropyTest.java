@@ -0,0 +1,77 @@
+package com.example.dfs.ft;
+
+import com.example.dfs.storage.StorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Three full nodes in-process; one loses the disk holding its chunks and comes back without
+// them. Its Raft log survives (Raft forbids forgetting acknowledged entries), so its metadata is
+// intact; anti-entropy finds and restores the missing replicas.
+class AntiEntropyTest {
+    private static final String FILE = "synced";
+    private LocalCluster cluster;
+
+    @TempDir
+    Path dataDir;
+
+    @AfterEach
+    void tearDown() {
+        if (cluster != null) cluster.close();
+    }
+
+    @Test
+    void replicaThatLostItsDiskIsFoundAndRepaired() throws Exception {
+        // rounds are run by hand here
+        cluster = new LocalCluster(dataDir, 3, "anti-entropy.interval-ms=0");
+        String leaderUrl = cluster.awaitLeader(FILE);
+        StorageService leader = cluster.storage(leaderUrl);
+        Random random = new Random(11);
+        Map<String, byte[]> chunks = new LinkedHashMap<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] data = new byte[1024 + random.nextInt(8192)];
+            random.nextBytes(data);
+            chunks.put("c" + i, data);
+            leader.storeChunkAndReplicate(FILE, "c" + i, new ByteArrayInputStream(data), ReplicationManager.AckLevel.ALL)
+                    .get(10, TimeUnit.SECONDS);
+        }
+        AntiEntropy antiEntropy = cluster.bean(leaderUrl, AntiEntropy.class);
+        String follower = cluster.nodes.keySet().stream().filter(n -> !n.equals(leaderUrl)).findFirst().orElseThrow();
+        AntiEntropy.Round inSync = antiEntropy.syncWith(follower);
+        assertEquals(1, inSync.hashes(), "replicas in sync are compared by their roots alone");
+
+        cluster.stop(follower);
+        try (Stream<Path> dirs = Files.list(cluster.dataDir(follower))) {
+            for (Path dir : dirs.filter(d -> !d.getFileName().toString().equals("raft")).toList()) {
+                FileSystemUtils.deleteRecursively(dir);
+            }
+        }
+        cluster.start(follower);
+        StorageService replaced = cluster.storage(follower);
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!replaced.hasCommitted(FILE, "c199") && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertTrue(replaced.hasCommitted(FILE, "c199"));
+        assertEquals(0, replaced.merkleTree().size());
+
+        AntiEntropy.Round round = antiEntropy.syncWith(follower);
+        assertEquals(chunks.size(), round.repairs());
+
+        deadline = System.currentTimeMillis() + 30_000;
+        while (replaced.merkleTree().root() != leader.merkleTree().root() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertEquals(leader.merkleTree().root(), replaced.merkleTree().root());
+        for (Map.Entry<String, byte[]> c : chunks.entrySet()) {
+            assertArrayEquals(c.getValue(), replaced.readChunk(FILE, c.getKey()), c.getKey());
+        }
+        assertEquals(1, antiEntropy.syncWith(follower).hashes());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.dfs.ft;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FailureDetectorTest {
+    private long now;
+    // phi 8, 150ms heartbeats, no std dev floor or pause allowance so the window alone decides
+    private final FailureDetector detector = new FailureDetector(8, 100, 150, 1, 0, () -> now);
+
+    private void advance(long ms) {
+        now += TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    // Heartbeats every 150ms, each answered after a latency drawn from the jitter.
+    private void heartbeats(String peer, int count, int jitterMs, Random random) {
+        for (int i = 0; i < count; i++) {
+            detector.expect(peer);
+            long delay = jitterMs == 0 ? 1 : 1 + random.nextInt(jitterMs);
+            advance(delay);
+            detector.answered(peer);
+            advance(150 - delay);
+        }
+    }
+
+    // Milliseconds after the last heartbeat round until the peer is suspected.
+    private long silenceUntilSuspected(String peer) {
+        List<String> suspected = new ArrayList<>();
+        detector.addListener(new FailureDetector.Listener() {
+            @Override
+            public void suspected(String p, double phi) {
+                suspected.add(p);
+            }
+
+            @Override
+            public void recovered(String p) {
+            }
+        });
+        for (long ms = 0; ms < 10_000; ms += 10) {
+            // the leader keeps sending heartbeats that go unanswered
+            if (ms % 150 == 0) detector.expect(peer);
+            detector.check();
+            if (suspected.contains(peer)) return ms;
+            advance(10);
+        }
+        return -1;
+    }
+
+    @Test
+    void jitteryPeerGetsMoreSlackThanSteadyOne() {
+        Random random = new Random(42);
+        heartbeats("steady", 100, 0, random);
+        long steady = silenceUntilSuspected("steady");
+        assertTrue(detector.isSuspected("steady"));
+        // answering again clears it
+        detector.answered("steady");
+        detector.check();
+        assertFalse(detector.isSuspected("steady"));
+
+        heartbeats("jittery", 100, 120, random);
+        long jittery = silenceUntilSuspected("jittery");
+
+        assertTrue(steady > 0 && steady < 1000, "steady peer suspected after " + steady + " ms");
+        assertTrue(jittery > steady, "jittery peer suspected after " + jittery + " ms, steady after " + steady);
+    }
+
+    @Test
+    void peersNobodyExpectsAnswersFromAreNotJudged() {
+        heartbeats("peer", 20, 0, new Random(1));
+        // this node stopped leading: no more heartbeats, and no answers either
+        advance(5_000);
+        detector.check();
+        assertEquals(0, detector.phi("peer"));
+        assertFalse(detector.isSuspected("peer"));
+
+        // leading again: the silence before does not count against the peer
+        detector.expect("peer");
+        assertTrue(detector.phi("peer") < 1);
+    }
+}
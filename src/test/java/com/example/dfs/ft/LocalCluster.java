@@ -0,0 +1,85 @@
+package com.example.dfs.ft;
+
+import com.example.dfs.DfsApplication;
+import com.example.dfs.raft.RaftGroups;
+import com.example.dfs.raft.RaftNode;
+import com.example.dfs.storage.StorageService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.*;
+
+// Full nodes (Spring contexts) on free ports in this JVM, each with its own data directory.
+public class LocalCluster implements AutoCloseable {
+    private final Path dataDir;
+    private final List<String> urls = new ArrayList<>();
+    private final String[] properties;
+    final Map<String, ConfigurableApplicationContext> nodes = new LinkedHashMap<>();
+
+    public LocalCluster(Path dataDir, int size, String... properties) throws IOException {
+        this.dataDir = dataDir;
+        this.properties = properties;
+        for (int i = 0; i < size; i++) urls.add("http://localhost:" + freePort());
+        for (String url : urls) start(url);
+    }
+
+    public void start(String url) {
+        int i = urls.indexOf(url);
+        List<String> peers = new ArrayList<>(urls);
+        peers.remove(url);
+        List<String> args = new ArrayList<>(List.of(
+                "--node.id=node" + (i + 1),
+                "--node.port=" + url.substring(url.lastIndexOf(':') + 1),
+                "--node.data.dir=" + dataDir(url),
+                "--node.peers=" + String.join(",", peers)));
+        for (String p : properties) args.add("--" + p);
+        // as command-line arguments, which override application.properties
+        nodes.put(url, new SpringApplicationBuilder(DfsApplication.class).run(args.toArray(new String[0])));
+    }
+
+    public void stop(String url) {
+        nodes.remove(url).close();
+    }
+
+    public Path dataDir(String url) {
+        return dataDir.resolve("node" + (urls.indexOf(url) + 1));
+    }
+
+    public String awaitLeader(String fileId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (Map.Entry<String, ConfigurableApplicationContext> node : nodes.entrySet()) {
+                RaftNode group = node.getValue().getBean(RaftGroups.class).group(fileId);
+                if (group.getRole() == RaftNode.Role.LEADER) return node.getKey();
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("no leader elected");
+    }
+
+    public <T> T bean(String url, Class<T> type) {
+        return nodes.get(url).getBean(type);
+    }
+
+    public StorageService storage(String url) {
+        return bean(url, StorageService.class);
+    }
+
+    public List<String> urls() {
+        return List.copyOf(urls);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    @Override
+    public void close() {
+        nodes.values().forEach(ConfigurableApplicationContext::close);
+    }
+}
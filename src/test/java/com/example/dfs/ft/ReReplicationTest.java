@@ -0,0 +1,69 @@
+package com.example.dfs.ft;
+
+import com.example.dfs.storage.ErasureCoding;
+import com.example.dfs.storage.StorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Four full nodes in-process: a node holding fragments of erasure-coded chunks is stopped, and
+// every chunk gets all of its fragments on live nodes again. How long that takes is measured by
+// RecoveryTime in benchmarks/.
+class ReReplicationTest {
+    private static final String FILE = "rebuilt";
+    private LocalCluster cluster;
+
+    @TempDir
+    Path dataDir;
+
+    @AfterEach
+    void tearDown() {
+        if (cluster != null) cluster.close();
+    }
+
+    @Test
+    void fragmentsOfASuspectedNodeAreRebuiltOnHealthyNodes() throws Exception {
+        cluster = new LocalCluster(dataDir, 4, "failure-detector.acceptable-pause-ms=200", "replication.rebuild.scan-interval-ms=500");
+        String leaderUrl = cluster.awaitLeader(FILE);
+        StorageService leader = cluster.storage(leaderUrl);
+        leader.setPolicy(FILE, ErasureCoding.Policy.parse("rs-2-1")).get(10, TimeUnit.SECONDS);
+        Random random = new Random(7);
+        Map<String, byte[]> chunks = new LinkedHashMap<>();
+        for (int i = 0; i < 24; i++) {
+            byte[] data = new byte[64 * 1024 + random.nextInt(4096)];
+            random.nextBytes(data);
+            chunks.put("c" + i, data);
+            leader.storeChunkAndReplicate(FILE, "c" + i, new ByteArrayInputStream(data), ReplicationManager.AckLevel.ALL)
+                    .get(10, TimeUnit.SECONDS);
+        }
+
+        // the node holding the most fragments, other than the leader
+        Map<String, Long> held = chunks.keySet().stream().flatMap(c -> leader.layout(FILE, c).nodes().stream())
+                .filter(n -> !n.equals(leaderUrl)).collect(Collectors.groupingBy(n -> n, Collectors.counting()));
+        String victim = Collections.max(held.entrySet(), Map.Entry.comparingByValue()).getKey();
+        cluster.stop(victim);
+
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!leader.layoutsOn(Set.of(victim)).isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertEquals(List.of(), leader.layoutsOn(Set.of(victim)), "fragments still on the stopped node");
+
+        for (String node : cluster.nodes.keySet()) {
+            StorageService storage = cluster.storage(node);
+            // waits for this node to apply the relocated layouts
+            storage.readBarrier(FILE).get(10, TimeUnit.SECONDS);
+            for (Map.Entry<String, byte[]> c : chunks.entrySet()) {
+                ErasureCoding.Layout layout = storage.layout(FILE, c.getKey());
+                assertFalse(layout.nodes().contains(victim));
+                assertArrayEquals(c.getValue(), storage.readErasureCoded(FILE, c.getKey()), node + " " + c.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.dfs.ft;
+
+import com.example.dfs.net.RpcClient;
+import com.example.dfs.storage.ChunkStore;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationManagerTest {
+    @TempDir
+    Path dir;
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final RpcClient rpc = new RpcClient();
+    private final AtomicInteger received = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        servers.forEach(s -> s.stop(0));
+        rpc.close();
+    }
+
+    private String peer() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/files/internal/replicate/", ex -> {
+            ex.getRequestBody().readAllBytes();
+            received.incrementAndGet();
+            ex.sendResponseHeaders(200, -1);
+            ex.close();
+        });
+        server.start();
+        servers.add(server);
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    private static String deadPeer() throws Exception {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return "http://localhost:" + s.getLocalPort();
+        }
+    }
+
+    @Test
+    void quorumSucceedsWithOnePeerDownWhileAllFailsAndQueuesRepair() throws Exception {
+        Path file = Files.write(dir.resolve("c1"), new byte[4096]);
+        Supplier<ChunkStore.Location> chunk = () -> new ChunkStore.Location(file, 0, 4096, false);
+        List<String> peers = List.of(peer(), peer(), deadPeer());
+        try (ReplicationManager rm = new ReplicationManager(peers, rpc, ReplicationManager.AckLevel.QUORUM, 2, 10, 64, 60_000)) {
+            rm.replicateChunk("f", "c1", chunk, 0).get(10, TimeUnit.SECONDS);
+
+            CompletableFuture<Void> all = rm.replicateChunk("f", "c2", chunk, 0, ReplicationManager.AckLevel.ALL);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> all.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(ReplicationManager.ReplicationException.class, e.getCause());
+
+            // the dead peer's sends for both chunks exhaust their retries and get parked
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (rm.repairBacklog() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+            assertEquals(2, rm.repairBacklog());
+            assertEquals(4, received.get());
+            assertEquals(2, rm.peerStats().get(peers.get(0)).getReplicated());
+        }
+    }
+
+    @Test
+    void leaderAckDoesNotWaitForPeers() throws Exception {
+        Path file = Files.write(dir.resolve("c1"), new byte[16]);
+        Supplier<ChunkStore.Location> chunk = () -> new ChunkStore.Location(file, 0, 16, false);
+        try (ReplicationManager rm = new ReplicationManager(List.of(deadPeer()), rpc, ReplicationManager.AckLevel.LEADER, 1, 10, 64, 60_000)) {
+            assertTrue(rm.replicateChunk("f", "c1", chunk, 0).isDone());
+        }
+    }
+
+    @Test
+    void chainForwardHandsEveryBlockDownstreamWhileReading() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024];
+        new Random(1).nextBytes(data);
+        ReplicationManager.ChainForward f = new ReplicationManager.ChainForward(new ByteArrayInputStream(data));
+        CompletableFuture<byte[]> downstream = CompletableFuture.supplyAsync(() -> {
+            try {
+                return f.output().readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        byte[] local = f.input().readAllBytes();
+        assertArrayEquals(data, local);
+        assertArrayEquals(data, downstream.get(10, TimeUnit.SECONDS));
+    }
+
+    // Followers may not have talked to each other before the first forward, which then opens their
+    // connection with a large body.
+    @Test
+    void chainBetweenFullNodesIsSentOnceByTheLeader() throws Exception {
+        try (LocalCluster cluster = new LocalCluster(dir.resolve("cluster"), 3,
+                "replication.mode=chain", "replication.chain-min-bytes=1048576")) {
+            String leader = cluster.awaitLeader("f");
+            byte[] data = new byte[16 * 1024 * 1024];
+            new Random(2).nextBytes(data);
+            cluster.storage(leader).storeChunkAndReplicate("f", "c", new ByteArrayInputStream(data), ReplicationManager.AckLevel.ALL)
+                    .get(30, TimeUnit.SECONDS);
+            long sent = cluster.bean(leader, ReplicationManager.class).peerStats().values().stream()
+                    .mapToLong(ReplicationManager.PeerStats::getReplicated).sum();
+            assertEquals(1, sent, "the leader sent the chunk to more than the first hop");
+            for (String node : cluster.urls()) assertArrayEquals(data, cluster.storage(node).readChunk("f", "c"), node);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.dfs.metrics;
+
+import com.example.dfs.ft.LocalCluster;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesPrometheusText() {
+        Metrics metrics = new Metrics(true, false);
+        Timer t = metrics.timer("dfs_test_seconds", "a test timer", "peer", "http://a:1");
+        for (int i = 1; i <= 100; i++) t.record(i * 1_000_000L);
+        metrics.counter("dfs_test_bytes_total", "bytes").add(42);
+        metrics.gauge("dfs_test_queued", "depth", () -> 3, "lane", "say \"hi\"");
+        assertSame(t, metrics.timer("dfs_test_seconds", "a test timer", "peer", "http://a:1"));
+        assertThrows(IllegalArgumentException.class, () -> metrics.counter("dfs_test_seconds", "clash"));
+
+        StringBuilder out = new StringBuilder();
+        metrics.writePrometheus(out);
+        String text = out.toString();
+        assertTrue(text.contains("# TYPE dfs_test_seconds summary\n"), text);
+        assertEquals(0.05, value(text, "dfs_test_seconds{peer=\"http://a:1\",quantile=\"0.5\"}"), 0.001);
+        assertEquals(0.1, value(text, "dfs_test_seconds{peer=\"http://a:1\",quantile=\"0.999\"}"), 0.001);
+        assertEquals(5.05, value(text, "dfs_test_seconds_sum{peer=\"http://a:1\"}"), 1e-9);
+        assertEquals(100, value(text, "dfs_test_seconds_count{peer=\"http://a:1\"}"));
+        assertEquals(42, value(text, "dfs_test_bytes_total"));
+        assertEquals(3, value(text, "dfs_test_queued{lane=\"say \\\"hi\\\"\"}"));
+
+        Metrics off = Metrics.disabled();
+        assertSame(Timer.NOOP, off.timer("dfs_test_seconds", "x"));
+        off.counter("dfs_test_bytes_total", "x").add(1);
+        StringBuilder none = new StringBuilder();
+        off.writePrometheus(none);
+        assertEquals("", none.toString());
+    }
+
+    private static double value(String text, String series) {
+        Matcher m = Pattern.compile("^" + Pattern.quote(series) + " (\\S+)$", Pattern.MULTILINE).matcher(text);
+        assertTrue(m.find(), series + " missing in\n" + text);
+        return Double.parseDouble(m.group(1));
+    }
+
+    // Samples recorded from many threads at once, as on a busy node, are all counted.
+    @Test
+    void concurrentSamplesAreAllCounted() throws Exception {
+        Metrics metrics = new Metrics(true, false);
+        Timer timer = metrics.timer("dfs_test_seconds", "test");
+        Counter bytes = metrics.counter("dfs_test_bytes_total", "test");
+        int threads = 4, perThread = 100_000;
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    go.await();
+                    for (int i = 0; i < perThread; i++) {
+                        timer.recordSince(System.nanoTime() - i % 4096);
+                        bytes.add(4096);
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        go.countDown();
+        done.await();
+        StringBuilder out = new StringBuilder();
+        metrics.writePrometheus(out);
+        assertEquals((long) threads * perThread, (long) value(out.toString(), "dfs_test_seconds_count"));
+        assertEquals(4096.0 * threads * perThread, value(out.toString(), "dfs_test_bytes_total"));
+    }
+
+    // One full node: a chunk upload shows up in the storage, Raft and HTTP metrics it scrapes, and
+    // a download Tomcat sends with sendfile still counts as bytes sent.
+    @Test
+    void nodeExportsItsHotPaths() throws Exception {
+        try (LocalCluster cluster = new LocalCluster(dir, 1, "storage.cache.max-entry-bytes=1024")) {
+            String node = cluster.awaitLeader("m");
+            HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            HttpResponse<String> put = http.send(HttpRequest.newBuilder(URI.create(node + "/files/m/chunks/0"))
+                    .header("Content-Type", "application/octet-stream")
+                    .POST(HttpRequest.BodyPublishers.ofString("hello")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, put.statusCode(), put.body());
+            byte[] big = new byte[200_000];
+            new Random(1).nextBytes(big);
+            put = http.send(HttpRequest.newBuilder(URI.create(node + "/files/m/chunks/1"))
+                    .header("Content-Type", "application/octet-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(big)).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, put.statusCode(), put.body());
+            HttpResponse<byte[]> get = http.send(HttpRequest.newBuilder(URI.create(node + "/files/m/chunks/1")).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            assertArrayEquals(big, get.body());
+            HttpResponse<String> scrape = http.send(HttpRequest.newBuilder(URI.create(node + "/metrics")).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, scrape.statusCode());
+            String type = scrape.headers().firstValue("Content-Type").orElse("");
+            assertTrue(type.startsWith("text/plain") && type.contains("version=0.0.4"), type);
+            String text = scrape.body();
+            assertTrue(value(text, "dfs_chunk_write_seconds_count") >= 1);
+            assertTrue(value(text, "dfs_raft_commit_seconds_count") >= 1);
+            assertTrue(value(text, "dfs_raft_election_seconds_count") >= 1);
+            assertTrue(value(text, "dfs_fsync_seconds_count{target=\"raft_log\"}") >= 1);
+            assertTrue(value(text, "dfs_http_received_bytes_total") >= 5 + big.length);
+            assertTrue(value(text, "dfs_http_sent_bytes_total") >= big.length);
+            assertTrue(text.contains("dfs_raft_loop_queued{loop=\"0\"}"), text);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.dfs.net;
+
+import com.example.dfs.model.AppendEntriesRequest;
+import com.example.dfs.model.AppendEntriesResponse;
+import com.example.dfs.model.HeartbeatBatchRequest;
+import com.example.dfs.model.InstallSnapshotRequest;
+import com.example.dfs.model.LogEntry;
+import com.example.dfs.model.RequestVoteRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RaftCodecTest {
+
+    private final RaftCodec codec = RaftCodec.INSTANCE;
+
+    @Test
+    void appendEntriesRoundTripsAndIsSmallerThanJson() throws IOException {
+        AppendEntriesRequest req = new AppendEntriesRequest();
+        req.term = 7;
+        req.leaderId = "node1";
+        req.prevLogIndex = 123456;
+        req.prevLogTerm = 6;
+        req.leaderCommit = 123450;
+        req.entries = List.of(
+                new LogEntry(7, "NOOP"),
+                new LogEntry(7, "WRITE:report.pdf:3:1048576:0a1b2c3d"),
+                new LogEntry(7, "WRITE:a:b:007:0a1b2c3d"),   // not canonical, must stay raw
+                new LogEntry(7, "WRITE:a:b:12"),             // legacy form without checksum
+                new LogEntry(7, "DELETE:é:1"));
+
+        byte[] bin = codec.encode(req);
+        AppendEntriesRequest back = codec.decode(bin, AppendEntriesRequest.class);
+
+        assertEquals(req.term, back.term);
+        assertEquals(req.leaderId, back.leaderId);
+        assertEquals(req.prevLogIndex, back.prevLogIndex);
+        assertEquals(req.prevLogTerm, back.prevLogTerm);
+        assertEquals(req.leaderCommit, back.leaderCommit);
+        assertEquals(req.entries.size(), back.entries.size());
+        for (int i = 0; i < req.entries.size(); i++) {
+            assertEquals(req.entries.get(i).getTerm(), back.entries.get(i).getTerm());
+            assertEquals(req.entries.get(i).getCommand(), back.entries.get(i).getCommand());
+        }
+        assertTrue(bin.length * 2 < JsonCodec.INSTANCE.encode(req).length);
+    }
+
+    @Test
+    void negativeValuesAndBinaryPayloadsRoundTrip() throws IOException {
+        AppendEntriesResponse resp = new AppendEntriesResponse();
+        resp.term = 3;
+        resp.matchIndex = -1;
+        assertEquals(-1, codec.decode(codec.encode(resp), AppendEntriesResponse.class).matchIndex);
+
+        InstallSnapshotRequest snap = new InstallSnapshotRequest();
+        snap.term = 2;
+        snap.leaderId = "node2";
+        snap.lastIncludedIndex = 5000;
+        snap.offset = 1 << 20;
+        snap.data = new byte[]{0, -1, 42};
+        snap.done = true;
+        InstallSnapshotRequest back = codec.decode(codec.encode(snap), InstallSnapshotRequest.class);
+        assertArrayEquals(snap.data, back.data);
+        assertEquals(snap.offset, back.offset);
+        assertTrue(back.done);
+    }
+
+    @Test
+    void heartbeatBatchesRoundTripAndTrailingFieldsAreOptional() throws IOException {
+        AppendEntriesRequest beat = new AppendEntriesRequest();
+        beat.term = 4;
+        beat.leaderId = "node2";
+        beat.leaderUrl = "http://localhost:9092";
+        beat.entries = List.of();
+        HeartbeatBatchRequest batch = new HeartbeatBatchRequest();
+        batch.groups = List.of(1, 5);
+        batch.requests = List.of(beat, new AppendEntriesRequest());
+        HeartbeatBatchRequest back = codec.decode(codec.encode(batch), HeartbeatBatchRequest.class);
+        assertEquals(List.of(1, 5), back.groups);
+        assertEquals("http://localhost:9092", back.requests.get(0).leaderUrl);
+        assertNull(back.requests.get(1).leaderUrl);
+
+        // a vote request from an encoder that predates the transfer flag
+        RequestVoteRequest vote = new RequestVoteRequest();
+        vote.term = 3;
+        vote.candidateId = "node1";
+        vote.transfer = true;
+        byte[] bin = codec.encode(vote);
+        assertTrue(codec.decode(bin, RequestVoteRequest.class).transfer);
+        assertFalse(codec.decode(Arrays.copyOf(bin, bin.length - 1), RequestVoteRequest.class).transfer);
+    }
+
+    @Test
+    void rejectsUnknownVersionAndWrongType() {
+        byte[] bin = codec.encode(new AppendEntriesResponse());
+        assertThrows(IOException.class, () -> codec.decode(bin, AppendEntriesRequest.class));
+        bin[0] = 99;
+        assertThrows(IOException.class, () -> codec.decode(bin, AppendEntriesResponse.class));
+        assertThrows(IOException.class, () -> codec.decode(new byte[]{1}, AppendEntriesResponse.class));
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.dfs.raft;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventLoopTest {
+    private final EventLoop loop = new EventLoop("test-loop");
+
+    @AfterEach
+    void tearDown() {
+        loop.shutdown();
+    }
+
+    @Test
+    void tasksFromManyThreadsRunInOrderPerThreadOnTheLoop() throws Exception {
+        int threads = 8, perThread = 20_000;
+        // only the loop touches these, so plain collections are enough
+        int[] last = new int[threads];
+        List<String> errors = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(threads * perThread);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            producers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 1; i <= perThread; i++) {
+                    int seq = i;
+                    loop.execute(() -> {
+                        if (!loop.inLoop() || last[id] != seq - 1) errors.add(id + ":" + seq);
+                        last[id] = seq;
+                        done.countDown();
+                    });
+                }
+            }));
+        }
+        for (Thread p : producers) p.join();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of(), errors);
+    }
+
+    @Test
+    void timersFireInDeadlineOrderAndCancelledOnesNever() throws Exception {
+        List<Integer> fired = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        // 120ms is more than two turns of the wheel
+        loop.schedule(120, TimeUnit.MILLISECONDS, () -> {
+            fired.add(120);
+            done.countDown();
+        });
+        loop.schedule(30, TimeUnit.MILLISECONDS, () -> fired.add(30));
+        loop.schedule(5, TimeUnit.MILLISECONDS, () -> fired.add(5)).cancel();
+        loop.schedule(1, TimeUnit.MILLISECONDS, () -> fired.add(1));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(120));
+        assertEquals(List.of(1, 30, 120), readOnLoop(fired));
+    }
+
+    private List<Integer> readOnLoop(List<Integer> list) throws Exception {
+        List<Integer> copy = new ArrayList<>();
+        CountDownLatch read = new CountDownLatch(1);
+        loop.execute(() -> {
+            copy.addAll(list);
+            read.countDown();
+        });
+        assertTrue(read.await(5, TimeUnit.SECONDS));
+        return copy;
+    }
+}
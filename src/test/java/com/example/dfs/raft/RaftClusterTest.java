@@ -0,0 +1,286 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.model.AppendEntriesRequest;
+import com.example.dfs.model.AppendEntriesResponse;
+import com.example.dfs.model.InstallSnapshotRequest;
+import com.example.dfs.model.InstallSnapshotResponse;
+import com.example.dfs.model.LogEntry;
+import com.example.dfs.model.ReadIndexRequest;
+import com.example.dfs.model.ReadIndexResponse;
+import com.example.dfs.model.RequestVoteRequest;
+import com.example.dfs.model.RequestVoteResponse;
+import com.example.dfs.model.TimeoutNowRequest;
+import com.example.dfs.model.TimeoutNowResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Three RaftNodes wired together in-process: pipelined replication, snapshot catch-up, follower and
+// leader read barriers, commit index monotonicity and writes across a leader change.
+class RaftClusterTest {
+    private final Map<String, RaftNode> nodes = new ConcurrentHashMap<>();
+    private final ExecutorService network = Executors.newFixedThreadPool(16);
+    private final Set<String> partitioned = ConcurrentHashMap.newKeySet();
+
+    @TempDir
+    Path dataDir;
+
+    @AfterEach
+    void tearDown() {
+        nodes.values().forEach(RaftNode::stop);
+        network.shutdownNow();
+    }
+
+    @Test
+    void pipelinedReplicationCommitsOnMajority() throws Exception {
+        startCluster(Map.of());
+        RaftNode leader = awaitLeader();
+
+        int commands = 5000;
+        int window = 256;
+        Semaphore inflight = new Semaphore(window);
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < commands; i++) {
+            inflight.acquire();
+            CompletableFuture<Long> f = leader.appendCommandAsync("WRITE:bench:" + i + ":1024");
+            f.whenComplete((idx, err) -> inflight.release());
+            futures.add(f);
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        long leaderLast = leader.getLastLogIndex();
+        assertEquals(leaderLast, leader.getCommitIndex());
+        long deadline = System.currentTimeMillis() + 5000;
+        for (RaftNode n : nodes.values()) {
+            while (n.getCommitIndex() < leaderLast && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(leaderLast, n.getCommitIndex(), n.getNodeId() + " did not catch up");
+        }
+    }
+
+    @Test
+    void staleAppendEntriesDoesNotMoveCommitIndexBack() throws Exception {
+        Map<String, CountingStateMachine> machines = startCluster(Map.of());
+        RaftNode leader = awaitLeader();
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) futures.add(leader.appendCommandAsync("WRITE:f:" + i + ":1"));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        RaftNode follower = nodes.values().stream().filter(n -> n != leader).findFirst().orElseThrow();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (follower.getCommitIndex() < leader.getCommitIndex() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        partitioned.add(follower.getNodeId());
+        long committed = follower.getCommitIndex();
+        assertTrue(committed >= 100);
+
+        // a request the leader sent before the ones that committed: it ends at the start of the log,
+        // while the leader's commit index has moved on since
+        AppendEntriesRequest old = new AppendEntriesRequest();
+        old.term = follower.getCurrentTerm();
+        old.leaderId = leader.getNodeId();
+        old.prevLogIndex = 0;
+        old.prevLogTerm = 0;
+        old.entries = List.of();
+        old.leaderCommit = committed + 1;
+        assertTrue(follower.handleAppendEntries(old).success);
+        assertEquals(committed, follower.getCommitIndex());
+        assertEquals(100, machines.get(follower.getNodeId()).writes());
+    }
+
+    @Test
+    void laggingFollowerCatchesUpFromSnapshot() throws Exception {
+        Map<String, CountingStateMachine> machines = startCluster(Map.of(
+                "raft.snapshot.threshold", "500",
+                "raft.snapshot.chunk-bytes", "1024",
+                "raft.log.segment-bytes", "4096"));
+        RaftNode leader = awaitLeader();
+        RaftNode lagging = nodes.values().stream().filter(n -> n != leader).findFirst().orElseThrow();
+        partitioned.add(lagging.getNodeId());
+
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) futures.add(leader.appendCommandAsync("WRITE:f:" + i + ":1"));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        partitioned.clear();
+        // the healed node rejoins with the higher term of its failed elections and may force a new
+        // election, whose leader commits a NOOP; compare with whichever node leads once it settles
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (lagging.getCommitIndex() != awaitLeader().getCommitIndex() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertEquals(awaitLeader().getCommitIndex(), lagging.getCommitIndex());
+        assertEquals(3000, machines.get(lagging.getNodeId()).writes());
+        assertTrue(machines.get(lagging.getNodeId()).restored > 0, "follower should have installed a snapshot");
+    }
+
+    @Test
+    void followerReadsSeeEverythingCommittedBefore() throws Exception {
+        Map<String, CountingStateMachine> machines = startCluster(Map.of());
+        RaftNode leader = awaitLeader();
+        for (int round = 1; round <= 20; round++) {
+            List<CompletableFuture<Long>> writes = new ArrayList<>();
+            for (int i = 0; i < 50; i++) writes.add(leader.appendCommandAsync("WRITE:f:" + round + "-" + i + ":1"));
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+            int expected = round * 50;
+            for (RaftNode n : nodes.values()) {
+                // concurrent reads on one follower share read index requests
+                List<CompletableFuture<Long>> reads = new ArrayList<>();
+                for (int r = 0; r < 10; r++) reads.add(n.readBarrier());
+                for (CompletableFuture<Long> read : reads) read.get(5, TimeUnit.SECONDS);
+                assertEquals(expected, machines.get(n.getNodeId()).writes(), n.getNodeId() + " served a stale read");
+            }
+        }
+    }
+
+    @Test
+    void partitionedLeaderStopsServingReads() throws Exception {
+        startCluster(Map.of("raft.read.timeout-ms", "500"));
+        RaftNode leader = awaitLeader();
+        leader.readBarrier().get(5, TimeUnit.SECONDS);
+        partitioned.add(leader.getNodeId());
+        Thread.sleep(300); // past the lease
+        ExecutionException e = assertThrows(ExecutionException.class, () -> leader.readBarrier().get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        RaftNode successor = null;
+        while (successor == null && System.currentTimeMillis() < deadline) {
+            for (RaftNode n : nodes.values()) if (n != leader && n.getRole() == RaftNode.Role.LEADER) successor = n;
+            Thread.sleep(20);
+        }
+        assertNotNull(successor, "no new leader elected");
+        successor.appendCommandAsync("WRITE:f:after:1").get(5, TimeUnit.SECONDS);
+        successor.readBarrier().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void appendOnFollowerIsRejected() throws Exception {
+        MockEnvironment env = new MockEnvironment().withProperty("node.id", "solo").withProperty("node.peers", "other")
+                .withProperty("raft.log.dir", dataDir.resolve("solo").toString());
+        RaftNode follower = new RaftNode(env, new InProcessTransport());
+        nodes.put("solo", follower);
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> follower.appendCommandAsync("WRITE:f:c:1").get());
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+
+    @Test
+    void batchesCountCommandsInEncodedBytes() {
+        for (String command : List.of("WRITE:f:c:1", "WRITE:fichier-été:c:1", "WRITE:文件:c:1", "WRITE:\uD83D\uDCC1:c:1")) {
+            assertEquals(command.getBytes(java.nio.charset.StandardCharsets.UTF_8).length, RaftNode.utf8Length(command), command);
+        }
+    }
+
+    private Map<String, CountingStateMachine> startCluster(Map<String, String> props) {
+        List<String> ids = List.of("n1", "n2", "n3");
+        Map<String, CountingStateMachine> machines = new HashMap<>();
+        for (String id : ids) {
+            List<String> peers = new ArrayList<>(ids);
+            peers.remove(id);
+            MockEnvironment env = new MockEnvironment()
+                    .withProperty("node.id", id)
+                    .withProperty("node.peers", String.join(",", peers))
+                    .withProperty("raft.log.dir", dataDir.resolve(id).toString());
+            props.forEach(env::setProperty);
+            RaftNode node = new RaftNode(env, new InProcessTransport());
+            CountingStateMachine sm = new CountingStateMachine();
+            node.setStateMachine(sm);
+            machines.put(id, sm);
+            nodes.put(id, node);
+        }
+        nodes.values().forEach(RaftNode::start);
+        return machines;
+    }
+
+    private RaftNode awaitLeader() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (RaftNode n : nodes.values()) {
+                if (n.getRole() == RaftNode.Role.LEADER) return n;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("no leader elected");
+    }
+
+    private class InProcessTransport implements RaftTransport {
+        @Override
+        public CompletableFuture<AppendEntriesResponse> appendEntries(String peer, AppendEntriesRequest req) {
+            RaftNode target = route(peer, req.leaderId);
+            if (target == null) return CompletableFuture.failedFuture(new ConnectException(peer));
+            return CompletableFuture.supplyAsync(() -> target.handleAppendEntries(req), network);
+        }
+
+        @Override
+        public CompletableFuture<RequestVoteResponse> requestVote(String peer, RequestVoteRequest req) {
+            RaftNode target = route(peer, req.candidateId);
+            if (target == null) return CompletableFuture.failedFuture(new ConnectException(peer));
+            return CompletableFuture.supplyAsync(() -> target.handleRequestVote(req), network);
+        }
+
+        @Override
+        public CompletableFuture<InstallSnapshotResponse> installSnapshot(String peer, InstallSnapshotRequest req) {
+            RaftNode target = route(peer, req.leaderId);
+            if (target == null) return CompletableFuture.failedFuture(new ConnectException(peer));
+            return CompletableFuture.supplyAsync(() -> target.handleInstallSnapshot(req), network);
+        }
+
+        @Override
+        public CompletableFuture<ReadIndexResponse> readIndex(String peer, ReadIndexRequest req) {
+            RaftNode target = route(peer, req.from);
+            if (target == null) return CompletableFuture.failedFuture(new ConnectException(peer));
+            return CompletableFuture.supplyAsync(() -> target.handleReadIndex(req), network);
+        }
+
+        @Override
+        public CompletableFuture<TimeoutNowResponse> timeoutNow(String peer, TimeoutNowRequest req) {
+            RaftNode target = route(peer, req.leaderId);
+            if (target == null) return CompletableFuture.failedFuture(new ConnectException(peer));
+            return CompletableFuture.supplyAsync(() -> target.handleTimeoutNow(req), network);
+        }
+
+        private RaftNode route(String peer, String from) {
+            if (partitioned.contains(peer) || partitioned.contains(from)) return null;
+            return nodes.get(peer);
+        }
+    }
+
+    // Counts applied WRITE commands; its snapshot is just that count.
+    private static class CountingStateMachine implements RaftStateMachine {
+        private volatile int writes;
+        volatile int restored;
+
+        int writes() { return writes; }
+
+        @Override
+        public void apply(LogEntry entry) {
+            if (entry.getCommand().startsWith("WRITE:")) writes++;
+        }
+
+        @Override
+        public SnapshotWriter captureSnapshot() {
+            int captured = writes;
+            // pad so the snapshot spans several InstallSnapshot chunks
+            return out -> {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(captured);
+                data.write(new byte[4096]);
+                data.flush();
+            };
+        }
+
+        @Override
+        public void restoreSnapshot(InputStream in) throws IOException {
+            writes = new DataInputStream(in).readInt();
+            restored++;
+        }
+    }
+
+    private static class ConnectException extends RuntimeException {
+        ConnectException(String peer) { super("no route to " + peer); }
+    }
+}
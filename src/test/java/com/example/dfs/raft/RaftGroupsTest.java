@@ -0,0 +1,130 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.model.AppendEntriesRequest;
+import com.example.dfs.model.AppendEntriesResponse;
+import com.example.dfs.model.InstallSnapshotRequest;
+import com.example.dfs.model.InstallSnapshotResponse;
+import com.example.dfs.model.ReadIndexRequest;
+import com.example.dfs.model.ReadIndexResponse;
+import com.example.dfs.model.RequestVoteRequest;
+import com.example.dfs.model.RequestVoteResponse;
+import com.example.dfs.model.TimeoutNowRequest;
+import com.example.dfs.model.TimeoutNowResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Three nodes hosting three Raft groups each, wired together in-process.
+class RaftGroupsTest {
+    private final Map<String, RaftGroups> nodes = new ConcurrentHashMap<>();
+    private final ExecutorService network = Executors.newFixedThreadPool(16);
+
+    @TempDir
+    Path dataDir;
+
+    @AfterEach
+    void tearDown() {
+        nodes.values().forEach(RaftGroups::stop);
+        network.shutdownNow();
+    }
+
+    @Test
+    void fileIdsSpreadEvenlyOverGroups() {
+        MockEnvironment env = new MockEnvironment().withProperty("raft.groups", "4")
+                .withProperty("raft.log.dir", dataDir.resolve("solo").toString());
+        RaftGroups groups = new RaftGroups(env, g -> new GroupTransport(g));
+        nodes.put("solo", groups);
+        int[] counts = new int[4];
+        for (int i = 0; i < 40_000; i++) counts[groups.groupOf("file" + i)]++;
+        for (int c : counts) assertEquals(10_000, c, 500);
+        assertEquals(groups.groupOf("report.pdf"), groups.groupOf("report.pdf"));
+        assertEquals("ffffffff", groups.routingTable().get(3).get("hashTo"));
+    }
+
+    @Test
+    void leadersSpreadAcrossNodesAndGroupsCommitIndependently() throws Exception {
+        List<String> ids = List.of("n1", "n2", "n3");
+        for (String id : ids) {
+            List<String> peers = new ArrayList<>(ids);
+            peers.remove(id);
+            MockEnvironment env = new MockEnvironment()
+                    .withProperty("node.id", id)
+                    .withProperty("node.advertised-url", id)
+                    .withProperty("node.peers", String.join(",", peers))
+                    .withProperty("raft.groups", "3")
+                    .withProperty("raft.log.dir", dataDir.resolve(id).toString());
+            nodes.put(id, new RaftGroups(env, g -> new GroupTransport(g)));
+        }
+        nodes.values().forEach(RaftGroups::start);
+
+        // members sort as n1, n2, n3, so group g settles on node n(g+1)
+        for (int g = 0; g < 3; g++) {
+            int group = g;
+            RaftNode leader = await(() -> {
+                RaftNode n = nodes.get("n" + (group + 1)).get(group);
+                return n.getRole() == RaftNode.Role.LEADER ? n : null;
+            });
+            for (int i = 0; i < 100; i++) leader.appendCommandAsync("WRITE:g" + group + ":" + i + ":1").get(5, TimeUnit.SECONDS);
+        }
+        for (RaftGroups node : nodes.values()) {
+            long leading = node.all().stream().filter(n -> n.getRole() == RaftNode.Role.LEADER).count();
+            assertEquals(1, leading);
+        }
+    }
+
+    private static <T> T await(Supplier<T> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            T value = condition.get();
+            if (value != null) return value;
+            Thread.sleep(20);
+        }
+        throw new AssertionError("condition not reached");
+    }
+
+    private class GroupTransport implements RaftTransport {
+        private final int group;
+
+        GroupTransport(int group) { this.group = group; }
+
+        private <T> CompletableFuture<T> call(String peer, Function<RaftNode, T> handler) {
+            RaftGroups target = nodes.get(peer);
+            if (target == null) return CompletableFuture.failedFuture(new IllegalStateException("no route to " + peer));
+            return CompletableFuture.supplyAsync(() -> handler.apply(target.get(group)), network);
+        }
+
+        @Override
+        public CompletableFuture<AppendEntriesResponse> appendEntries(String peer, AppendEntriesRequest req) {
+            return call(peer, n -> n.handleAppendEntries(req));
+        }
+
+        @Override
+        public CompletableFuture<RequestVoteResponse> requestVote(String peer, RequestVoteRequest req) {
+            return call(peer, n -> n.handleRequestVote(req));
+        }
+
+        @Override
+        public CompletableFuture<InstallSnapshotResponse> installSnapshot(String peer, InstallSnapshotRequest req) {
+            return call(peer, n -> n.handleInstallSnapshot(req));
+        }
+
+        @Override
+        public CompletableFuture<ReadIndexResponse> readIndex(String peer, ReadIndexRequest req) {
+            return call(peer, n -> n.handleReadIndex(req));
+        }
+
+        @Override
+        public CompletableFuture<TimeoutNowResponse> timeoutNow(String peer, TimeoutNowRequest req) {
+            return call(peer, n -> n.handleTimeoutNow(req));
+        }
+    }
+}
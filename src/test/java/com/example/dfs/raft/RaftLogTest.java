@@ -0,0 +1,84 @@
+package com.example.dfs.raft;
+
+import com.example.dfs.model.LogEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RaftLogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void recoversEntriesAcrossSegmentsAndDropsTornTail() throws Exception {
+        try (RaftLog log = new RaftLog(dir, 4096, RaftLog.SyncMode.GROUP)) {
+            for (int i = 1; i <= 1000; i++) log.append(new LogEntry(i / 100 + 1, "WRITE:f:" + i + ":10"));
+            log.sync(1000).get();
+            log.saveHardState(11, "node2");
+        }
+        List<Path> segments;
+        try (Stream<Path> s = Files.list(dir)) {
+            segments = s.filter(p -> p.toString().endsWith(".log")).sorted().toList();
+        }
+        assertTrue(segments.size() > 1);
+        // simulate a crash in the middle of writing the last record
+        try (FileChannel ch = FileChannel.open(segments.get(segments.size() - 1), StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);
+        }
+
+        try (RaftLog log = new RaftLog(dir, 4096, RaftLog.SyncMode.GROUP)) {
+            assertEquals(999, log.lastIndex());
+            assertEquals("WRITE:f:1:10", log.entryAt(1).getCommand());
+            assertEquals("WRITE:f:999:10", log.entryAt(999).getCommand());
+            assertEquals(10, log.termAt(999));
+            assertEquals(11, log.savedTerm());
+            assertEquals("node2", log.savedVote());
+
+            log.truncateFrom(500);
+            log.append(new LogEntry(12, "NOOP"));
+            assertEquals(500, log.lastIndex());
+            assertEquals(12, log.termAt(500));
+            log.sync(500).get();
+        }
+        try (RaftLog log = new RaftLog(dir, 4096, RaftLog.SyncMode.GROUP)) {
+            assertEquals(500, log.lastIndex());
+            assertEquals("NOOP", log.entryAt(500).getCommand());
+            assertEquals("WRITE:f:499:10", log.entryAt(499).getCommand());
+        }
+    }
+
+    @Test
+    void failedFsyncFailsSyncsAndAppends() throws Exception {
+        AtomicBoolean broken = new AtomicBoolean();
+        try (RaftLog log = new RaftLog(dir, 4096, RaftLog.SyncMode.GROUP) {
+            @Override
+            void force(FileChannel channel) throws IOException {
+                if (broken.get()) throw new IOException("disk gone");
+                super.force(channel);
+            }
+        }) {
+            log.append(new LogEntry(1, "WRITE:f:1:10"));
+            log.sync(1).get(5, TimeUnit.SECONDS);
+            broken.set(true);
+            log.append(new LogEntry(1, "WRITE:f:2:10"));
+            ExecutionException e = assertThrows(ExecutionException.class, () -> log.sync(2).get(5, TimeUnit.SECONDS));
+            assertEquals("disk gone", e.getCause().getMessage());
+            assertTrue(log.failed());
+            assertThrows(UncheckedIOException.class, () -> log.append(new LogEntry(1, "WRITE:f:3:10")));
+            assertTrue(log.sync(2).isCompletedExceptionally());
+        }
+    }
+}
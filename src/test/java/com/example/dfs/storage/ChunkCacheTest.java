@@ -0,0 +1,78 @@
+package com.example.dfs.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkCacheTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(int n, int seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    @Test
+    void loadsThatOverlapAnInvalidationAreNotCached() {
+        ChunkCache cache = new ChunkCache(1 << 20, 64 * 1024);
+        byte[] data = bytes(10_000, 1);
+        cache.put("f/a", data, 7, cache.loadToken());
+        ChunkCache.Hit hit = cache.get("f/a");
+        assertArrayEquals(data, hit.data());
+        assertEquals(7, hit.crc32c());
+
+        long token = cache.loadToken();
+        cache.invalidate("f/a");
+        assertNull(cache.get("f/a"));
+        cache.put("f/a", data, 7, token); // read before the overwrite, must not come back
+        assertFalse(cache.contains("f/a"));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void scanDoesNotFlushFrequentlyReadChunks() {
+        ChunkCache cache = new ChunkCache(400 * 4096, 4096);
+        for (int i = 0; i < 200; i++) cache.put("hot/" + i, bytes(4000, i), i, cache.loadToken());
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 200; i++) assertNotNull(cache.get("hot/" + i));
+        }
+        for (int i = 0; i < 5000; i++) {
+            String key = "scan/" + i;
+            if (cache.get(key) == null) cache.put(key, bytes(4000, i), i, cache.loadToken());
+        }
+        int kept = 0;
+        for (int i = 0; i < 200; i++) if (cache.contains("hot/" + i)) kept++;
+        assertEquals(200, kept);
+        assertTrue(cache.usedBytes() <= cache.capacityBytes());
+        assertTrue(cache.rejections() > 0);
+    }
+
+    @Test
+    void chunkStoreInvalidatesOnOverwriteAndDelete() throws IOException {
+        ChunkCache cache = new ChunkCache(1 << 20, 64 * 1024);
+        try (ChunkStore store = new ChunkStore(dir.toString(), new VolumeStore(dir.resolve("volumes"), 1 << 20, 0.5, 0), 4096, cache)) {
+            store.saveChunk("f", "c", new ByteArrayInputStream(bytes(1000, 1)), null);
+            store.saveChunk("f", "big", new ByteArrayInputStream(bytes(20_000, 2)), null);
+            store.readChunk("f", "c");
+            store.readChunk("f", "big");
+            assertArrayEquals(bytes(1000, 1), store.cached("f", "c").data());
+            assertArrayEquals(bytes(20_000, 2), store.cached("f", "big").data());
+
+            store.saveChunk("f", "c", new ByteArrayInputStream(bytes(1000, 3)), null);
+            assertNull(store.cached("f", "c"));
+            assertArrayEquals(bytes(1000, 3), store.readChunk("f", "c"));
+            store.deleteChunk("f", "big");
+            assertNull(store.cached("f", "big"));
+            assertFalse(store.chunkExists("f", "big"));
+        }
+    }
+}
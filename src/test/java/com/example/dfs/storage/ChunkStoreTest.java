@@ -0,0 +1,77 @@
+package com.example.dfs.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32C;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkStoreTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(int n, int seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    @Test
+    void tornChecksumSidecarIsRecomputedFromTheChunk() throws IOException {
+        ChunkStore store = new ChunkStore(dir.toString());
+        ChunkStore.StoredChunk stored = store.saveChunk("f", "c", new ByteArrayInputStream(bytes(100_000, 1)), null);
+        // no temp files are left behind by the chunk or its sidecar
+        try (Stream<Path> files = Files.list(dir.resolve("f"))) {
+            assertEquals(0, files.filter(p -> p.toString().endsWith(".tmp")).count());
+        }
+
+        Path sidecar = dir.resolve("f").resolve(".c.crc32c");
+        Files.writeString(sidecar, "");
+        assertEquals(stored.crc32c(), store.checksum("f", "c"));
+        assertEquals(stored.checksumHex(), Files.readString(sidecar));
+        // and the store still starts up with one
+        Files.writeString(sidecar, "0a1");
+        MerkleTree tree = new MerkleTree(4, (file, chunk) -> true);
+        store.track(tree);
+        assertEquals(stored.checksumHex(), Files.readString(sidecar));
+        assertEquals(1, tree.size());
+    }
+
+    @Test
+    void keptVersionIsALinkThatOutlivesTheOverwrite() throws IOException {
+        ChunkStore store = new ChunkStore(dir.toString());
+        byte[] v1 = bytes(70_000, 1), v2 = bytes(80_000, 2);
+        ChunkStore.StoredChunk first = store.saveChunk("f", "c", new ByteArrayInputStream(v1), null);
+        store.saveChunk("f", "c", new ByteArrayInputStream(v2), null, "c@1");
+        assertArrayEquals(v2, store.readChunk("f", "c"));
+        assertArrayEquals(v1, store.readChunk("f", "c@1"));
+        assertEquals(first.crc32c(), store.checksum("f", "c@1"));
+    }
+
+    @Test
+    void reservedHeaderIsFilledInAtCommitAndCoveredByTheChecksum() throws IOException {
+        ChunkStore store = new ChunkStore(dir.toString());
+        byte[] head = bytes(17, 3), body = bytes(200_000, 4);
+        try (ChunkStore.PendingChunk pending = store.create("f", "c")) {
+            pending.reserve(head.length);
+            pending.write(body, 0, body.length);
+            ChunkStore.StoredChunk stored = pending.commit(head, null);
+
+            byte[] whole = store.readChunk("f", "c");
+            assertEquals(head.length + body.length, stored.length());
+            assertArrayEquals(head, Arrays.copyOf(whole, head.length));
+            CRC32C crc = new CRC32C();
+            crc.update(whole);
+            assertEquals((int) crc.getValue(), stored.crc32c());
+            assertEquals(stored.crc32c(), store.checksum("f", "c"));
+        }
+    }
+}
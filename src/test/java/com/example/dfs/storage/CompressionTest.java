@@ -0,0 +1,80 @@
+package com.example.dfs.storage;
+
+import com.example.dfs.ft.LocalCluster;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionTest {
+    private static byte[] logLines(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) sb.append("2026-10-18T12:00:").append(i % 60).append(" INFO request ").append(i).append(" served in 3ms\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void framesRoundTripForEveryCodec() throws IOException {
+        byte[] raw = logLines(20_000);
+        for (Compression.Codec codec : Compression.Codec.values()) {
+            ByteArrayOutputStream stored = new ByteArrayOutputStream();
+            new Compression.Header(codec, raw.length, 1234).write(stored);
+            try (OutputStream z = Compression.compressor(codec, stored, 3)) {
+                z.write(raw);
+            }
+            if (codec != Compression.Codec.NONE) assertTrue(stored.size() < raw.length / 4, codec + " " + stored.size());
+
+            InputStream in = new ByteArrayInputStream(stored.toByteArray());
+            Compression.Header header = Compression.Header.read(in);
+            assertEquals(new Compression.Header(codec, raw.length, 1234), header);
+            assertArrayEquals(raw, Compression.decompressor(header.codec(), in).readAllBytes());
+        }
+    }
+
+    @Test
+    void autoModeOnlyCompressesWhatShrinks() {
+        byte[] random = new byte[Compression.SAMPLE_BYTES];
+        new Random(1).nextBytes(random);
+        byte[] text = logLines(2_000);
+        assertEquals(Compression.Codec.NONE, Compression.Mode.AUTO.choose(random, random.length));
+        assertEquals(Compression.Codec.LZ4, Compression.Mode.AUTO.choose(text, text.length));
+        assertEquals(Compression.Codec.ZSTD, Compression.Mode.parse("zstd").choose(random, random.length));
+        assertEquals("auto", Compression.Mode.parse(" AUTO ").name());
+    }
+
+    @Test
+    void compressibleChunksAreStoredCompressedInOneWrite(@TempDir Path dataDir) throws Exception {
+        try (LocalCluster cluster = new LocalCluster(dataDir, 1, "storage.compression.default=auto")) {
+            String node = cluster.awaitLeader("logs");
+            HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            byte[] text = logLines(20_000), random = new byte[300_000];
+            new Random(3).nextBytes(random);
+            for (Map.Entry<String, byte[]> chunk : Map.of("text", text, "random", random).entrySet()) {
+                URI uri = URI.create(node + "/files/logs/chunks/" + chunk.getKey());
+                HttpResponse<String> put = http.send(HttpRequest.newBuilder(uri).header("Content-Type", "application/octet-stream")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(chunk.getValue())).build(), HttpResponse.BodyHandlers.ofString());
+                assertEquals(200, put.statusCode(), put.body());
+                assertArrayEquals(chunk.getValue(), http.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray()).body());
+            }
+            StorageService storage = cluster.storage(node);
+            assertEquals(Compression.Codec.LZ4, storage.codec("logs", "text"));
+            assertTrue(storage.locate("logs", "text").length() < text.length / 4);
+            assertEquals(Compression.Codec.NONE, storage.codec("logs", "random"));
+            assertEquals(random.length, storage.locate("logs", "random").length());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.dfs.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ErasureCodingTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void anyDataShardsRecoverTheRest() {
+        ReedSolomon rs = new ReedSolomon(4, 3);
+        int len = 1000;
+        byte[][] shards = new byte[7][len];
+        Random random = new Random(7);
+        for (int i = 0; i < 4; i++) random.nextBytes(shards[i]);
+        rs.encodeParity(shards, 0, len);
+        byte[][] original = new byte[7][];
+        for (int i = 0; i < 7; i++) original[i] = shards[i].clone();
+
+        // every way of losing three shards
+        for (int a = 0; a < 7; a++) {
+            for (int b = a + 1; b < 7; b++) {
+                for (int c = b + 1; c < 7; c++) {
+                    boolean[] present = new boolean[7];
+                    Arrays.fill(present, true);
+                    for (int lost : new int[]{a, b, c}) {
+                        present[lost] = false;
+                        shards[lost] = new byte[len];
+                    }
+                    rs.reconstruct(shards, present, 0, len);
+                    for (int i = 0; i < 7; i++) assertArrayEquals(original[i], shards[i], "lost " + a + "," + b + "," + c);
+                }
+            }
+        }
+    }
+
+    @Test
+    void wideCodesDoNotShareDecodeMatricesBetweenErasurePatterns() {
+        ReedSolomon rs = new ReedSolomon(2, 68);
+        int len = 100;
+        byte[][] original = new byte[70][len];
+        Random random = new Random(7);
+        for (int i = 0; i < 2; i++) random.nextBytes(original[i]);
+        rs.encodeParity(original, 0, len);
+        // rows {1, 2} and {1, 66} would share a cache key if it were a 64-bit mask
+        for (int[] rows : new int[][]{{1, 2}, {1, 66}}) {
+            byte[][] shards = new byte[70][len];
+            boolean[] present = new boolean[70];
+            for (int r : rows) {
+                shards[r] = original[r].clone();
+                present[r] = true;
+            }
+            rs.reconstruct(shards, present, 0, len);
+            assertArrayEquals(original[0], shards[0], "from rows " + Arrays.toString(rows));
+        }
+    }
+
+    @Test
+    void degradedReadReassemblesChunkFromLocalFragments() throws IOException {
+        ChunkStore store = new ChunkStore(dir.toString());
+        byte[] data = new byte[300_001]; // not a multiple of k, so the last data fragment is padded
+        new Random(3).nextBytes(data);
+        ChunkStore.StoredChunk stored = store.saveChunk("f", "c", new ByteArrayInputStream(data), null);
+
+        ErasureCoding.Policy policy = ErasureCoding.Policy.parse("rs-3-2");
+        ErasureCoding.Layout layout = new ErasureCoding.Layout("f", "c", stored.length(), stored.crc32c(), policy,
+                Collections.nCopies(5, "self"));
+        assertEquals(layout, ErasureCoding.Layout.parse(layout.command()));
+        ErasureCoding ec = new ErasureCoding(store, null, "self");
+        ChunkStore.StoredChunk[] fragments = ec.encode(layout, store.locate("f", "c"));
+        assertEquals(5, fragments.length);
+        assertEquals(100_001, fragments[0].length());
+
+        assertArrayEquals(data, ec.read(layout));
+        store.deleteChunk("f", layout.fragmentId(0));
+        store.deleteChunk("f", layout.fragmentId(2));
+        assertArrayEquals(data, ec.read(layout));
+        store.deleteChunk("f", layout.fragmentId(4));
+        assertThrows(IOException.class, () -> ec.read(layout));
+    }
+
+    @Test
+    void placementSpreadsFragmentsOverDistinctNodes() {
+        ChunkStore.StoredChunk chunk = new ChunkStore.StoredChunk(10, 0);
+        List<String> members = List.of("http://n1:1", "http://n2:2", "http://n3:3", "http://n4:4", "http://n5:5", "http://n6:6");
+        ErasureCoding.Layout layout = ErasureCoding.place("f", "c", chunk, new ErasureCoding.Policy(3, 2), members);
+        assertEquals(5, layout.nodes().stream().distinct().count());
+        assertEquals(layout.nodes(), ErasureCoding.Layout.parse(layout.command()).nodes());
+        assertThrows(IllegalArgumentException.class,
+                () -> ErasureCoding.place("f", "c", chunk, new ErasureCoding.Policy(6, 2), members));
+    }
+}
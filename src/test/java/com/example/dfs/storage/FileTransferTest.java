@@ -0,0 +1,84 @@
+package com.example.dfs.storage;
+
+import com.example.dfs.ft.LocalCluster;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Three full nodes in-process: one client moves the same file through the per-chunk API (split by
+// the client, one request per chunk) and through the whole-file endpoints. Over HTTP/1.1 like curl:
+// an h2c upgrade request with a large body is refused (413) by Tomcat. Throughput is measured by
+// FileTransfer in benchmarks/.
+class FileTransferTest {
+    private static final int CHUNK_BYTES = 1 << 20;
+    private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NORMAL).build();
+    private LocalCluster cluster;
+
+    @TempDir
+    Path dataDir;
+
+    @AfterEach
+    void tearDown() {
+        if (cluster != null) cluster.close();
+    }
+
+    @Test
+    void wholeFileUploadAndDownloadMatchThePerChunkFlow() throws Exception {
+        cluster = new LocalCluster(dataDir, 3, "anti-entropy.interval-ms=0");
+        String leader = cluster.awaitLeader("whole");
+        assertEquals(leader, cluster.awaitLeader("chunked"), "one Raft group in this cluster");
+        String follower = cluster.urls().stream().filter(u -> !u.equals(leader)).findFirst().orElseThrow();
+        byte[] file = new byte[12 * CHUNK_BYTES + 12345];
+        new Random(5).nextBytes(file);
+        int chunks = (file.length + CHUNK_BYTES - 1) / CHUNK_BYTES;
+
+        for (int i = 0; i < chunks; i++) {
+            byte[] chunk = Arrays.copyOfRange(file, i * CHUNK_BYTES, Math.min(file.length, (i + 1) * CHUNK_BYTES));
+            assertEquals(200, send(post(leader + "/files/chunked/chunks/" + i, chunk)).statusCode());
+        }
+        ByteArrayOutputStream chunked = new ByteArrayOutputStream(file.length);
+        for (int i = 0; i < chunks; i++) chunked.write(send(get(follower + "/files/chunked/chunks/" + i)).body());
+        assertArrayEquals(file, chunked.toByteArray());
+
+        HttpResponse<byte[]> uploaded = send(post(leader + "/files/whole?chunkSize=" + CHUNK_BYTES, file));
+        assertEquals(200, uploaded.statusCode(), new String(uploaded.body()));
+        assertTrue(uploaded.headers().firstValue(StorageController.VERSION_HEADER).isPresent());
+        for (String node : new String[]{follower, leader}) {
+            HttpResponse<byte[]> downloaded = send(get(node + "/files/whole"));
+            assertEquals(200, downloaded.statusCode());
+            assertArrayEquals(file, downloaded.body());
+            assertEquals(uploaded.headers().firstValue(StorageController.VERSION_HEADER), downloaded.headers().firstValue(StorageController.VERSION_HEADER));
+        }
+
+        // overwritten in place: the previous chunks are kept as old versions, the download sees the new ones
+        byte[] shorter = Arrays.copyOf(file, 5 * CHUNK_BYTES + 7);
+        new Random(6).nextBytes(shorter);
+        assertEquals(200, send(post(leader + "/files/whole?chunkSize=" + CHUNK_BYTES, shorter)).statusCode());
+        assertArrayEquals(shorter, send(get(leader + "/files/whole")).body());
+    }
+
+    private static HttpRequest post(String url, byte[] body) {
+        return HttpRequest.newBuilder(URI.create(url)).header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).GET().build();
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest req) throws Exception {
+        return http.send(req, HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
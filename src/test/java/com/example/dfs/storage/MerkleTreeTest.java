@@ -0,0 +1,64 @@
+package com.example.dfs.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MerkleTreeTest {
+
+    @Test
+    void hashesDependOnTheSetNotOnTheOrderOfUpdates() {
+        MerkleTree a = new MerkleTree(3, (f, c) -> true);
+        MerkleTree b = new MerkleTree(3, (f, c) -> true);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) order.add(i);
+        for (int i : order) a.put("f", "c" + i, i);
+        Collections.shuffle(order, new Random(3));
+        // b sees other versions and extra chunks first, then converges to the same set
+        for (int i : order) b.put("f", "c" + i, i + 1);
+        b.put("g", "extra", 7);
+        for (int i : order) b.put("f", "c" + i, i);
+        b.remove("g", "extra");
+        assertEquals(a.root(), b.root());
+        assertEquals(1000, b.size());
+
+        b.put("f", "c500", -1);
+        assertNotEquals(a.root(), b.root());
+        b.put("f", "c500", 500);
+        assertEquals(a.root(), b.root());
+    }
+
+    @Test
+    void aDifferenceIsNarrowedDownToOneLeaf() {
+        MerkleTree a = new MerkleTree(2, (f, c) -> !ErasureCoding.Layout.isFragmentId(c));
+        MerkleTree b = new MerkleTree(2, (f, c) -> !ErasureCoding.Layout.isFragmentId(c));
+        for (int i = 0; i < 500; i++) {
+            a.put("f", "c" + i, i);
+            if (i != 123) b.put("f", "c" + i, i);
+        }
+        // untracked: fragments are expected to differ between nodes
+        a.put("f", "c0.f1", 1);
+        assertEquals(499, b.size());
+
+        int[] nodes = {0};
+        for (int level = 0; level <= 2; level++) {
+            long[] ha = a.hashes(level, nodes), hb = b.hashes(level, nodes);
+            List<Integer> differing = new ArrayList<>();
+            for (int i = 0; i < nodes.length; i++) if (ha[i] != hb[i]) differing.add(nodes[i]);
+            assertEquals(1, differing.size(), "level " + level);
+            if (level == 2) {
+                int leaf = differing.get(0);
+                assertEquals(123, a.entries(leaf).get("f/c123"));
+                assertNull(b.entries(leaf).get("f/c123"));
+                return;
+            }
+            nodes = new int[MerkleTree.FANOUT];
+            for (int c = 0; c < MerkleTree.FANOUT; c++) nodes[c] = differing.get(0) * MerkleTree.FANOUT + c;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.dfs.storage;
+
+import com.example.dfs.model.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataStoreTest {
+    private static void apply(MetadataStore store, String command) {
+        store.apply(new LogEntry(1, command));
+    }
+
+    private static String ref(String file, String chunk, long length, String hash) {
+        return MetadataStore.refCommand(file, chunk, new ChunkStore.StoredChunk(length, 0), hash);
+    }
+
+    @Test
+    void countsReferencesAcrossOverwritesAndSnapshots() throws IOException {
+        MetadataStore store = new MetadataStore();
+        apply(store, ref("a", "c0", 100, "h1"));
+        apply(store, ref("b", "c0", 100, "h1"));
+        apply(store, ref("b", "c1", 40, "h2"));
+        assertEquals(2, store.references("h1"));
+        assertEquals(240, store.logicalBytes());
+        assertEquals(140, store.uniqueBytes());
+
+        apply(store, ref("b", "c1", 40, "h2")); // same content again: no change
+        apply(store, "WRITE:a:c0:100:00000000"); // no longer deduplicated
+        assertEquals(1, store.references("h1"));
+        assertEquals(1, store.references("h2"));
+        assertEquals("h2", MetadataStore.refHash(store.get("b", "c1")));
+        assertNull(MetadataStore.refHash(store.get("a", "c0")));
+
+        apply(store, ref("b", "c1", 100, "h1"));
+        assertEquals(0, store.references("h2"));
+        assertEquals(1, store.uniqueContents());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.captureSnapshot().writeTo(out);
+        MetadataStore restored = new MetadataStore();
+        restored.restoreSnapshot(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, restored.references("h1"));
+        assertEquals(200, restored.logicalBytes());
+        assertEquals(100, restored.uniqueBytes());
+    }
+
+    @Test
+    void keepsTheLastVersionsOfAChunkAcrossSnapshots() throws IOException {
+        MetadataStore store = new MetadataStore(3);
+        List<MetadataLogEntry> evicted = new ArrayList<>();
+        store.setEvictionListener(evicted::add);
+        for (int v = 1; v <= 5; v++) {
+            apply(store, MetadataStore.versioned(v * 10, String.format("WRITE:f:c0:100:%08x", v)));
+        }
+        assertEquals(50, store.get("f", "c0").getVersion());
+        assertEquals("WRITE:f:c0:100:00000005", store.get("f", "c0").getCommand());
+        assertEquals(List.of(30L, 40L, 50L), List.copyOf(store.versions("f", "c0").keySet()));
+        assertEquals(List.of(10L, 20L), evicted.stream().map(MetadataLogEntry::getVersion).toList());
+        assertEquals(40, store.writeVersion("f", "c0", 4).getVersion());
+        assertNull(store.writeVersion("f", "c0", 1));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.captureSnapshot().writeTo(out);
+        MetadataStore restored = new MetadataStore(3);
+        restored.restoreSnapshot(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(List.of(30L, 40L, 50L), List.copyOf(restored.versions("f", "c0").keySet()));
+        assertSame(restored.get("f", "c0"), restored.versions("f", "c0").get(50L));
+
+        // a chunk rewritten by an unversioned command has no history
+        apply(restored, "WRITE:f:c0:100:00000006");
+        assertTrue(restored.versions("f", "c0").isEmpty());
+    }
+}
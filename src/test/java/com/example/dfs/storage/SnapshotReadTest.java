@@ -0,0 +1,71 @@
+package com.example.dfs.storage;
+
+import com.example.dfs.ft.LocalCluster;
+import com.example.dfs.time.HybridLogicalClock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Three full nodes in-process: chunks of one file are overwritten, then read back from a follower
+// as of the versions returned by the uploads.
+class SnapshotReadTest {
+    private static final String FILE = "snap";
+    private final HttpClient http = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).build();
+    private LocalCluster cluster;
+
+    @TempDir
+    Path dataDir;
+
+    @AfterEach
+    void tearDown() {
+        if (cluster != null) cluster.close();
+    }
+
+    @Test
+    void readsAsOfATimestampSeeTheChunksAsTheyWereThen() throws Exception {
+        cluster = new LocalCluster(dataDir, 3, "anti-entropy.interval-ms=0");
+        String leader = cluster.awaitLeader(FILE);
+        String follower = cluster.urls().stream().filter(u -> !u.equals(leader)).findFirst().orElseThrow();
+
+        long a1 = upload(leader, "a", "a-one");
+        long b1 = upload(leader, "b", "b-one");
+        long a2 = upload(leader, "a", "a-two");
+        long a3 = upload(leader, "a", "a-three, longer than the others");
+        assertTrue(a1 < b1 && b1 < a2 && a2 < a3);
+
+        assertEquals("a-one", read(follower, "a", a1).body());
+        assertEquals(404, read(follower, "b", a1).statusCode(), "b did not exist yet");
+        // between writes: the version before, for every chunk of the file
+        assertEquals("a-one", read(follower, "a", b1).body());
+        assertEquals("b-one", read(follower, "b", a2).body());
+        assertEquals("a-two", read(follower, "a", a3 - 1).body());
+        assertEquals("a-three, longer than the others", read(follower, "a", a3).body());
+        assertEquals(404, read(follower, "a", a1 - 1).statusCode());
+        HttpResponse<String> old = read(leader, "a", a2);
+        assertEquals("a-two", old.body());
+        assertEquals(HybridLogicalClock.format(a2), old.headers().firstValue(StorageController.VERSION_HEADER).orElseThrow());
+    }
+
+    private long upload(String node, String chunk, String data) throws Exception {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(node + "/files/" + FILE + "/chunks/" + chunk + "?ack=all"))
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofString(data)).build();
+        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, resp.statusCode(), resp.body());
+        return HybridLogicalClock.parse(resp.headers().firstValue(StorageController.VERSION_HEADER).orElseThrow());
+    }
+
+    private HttpResponse<String> read(String node, String chunk, long asOf) throws Exception {
+        URI uri = URI.create(node + "/files/" + FILE + "/chunks/" + chunk + "?asOf=" + HybridLogicalClock.format(asOf));
+        return http.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+}
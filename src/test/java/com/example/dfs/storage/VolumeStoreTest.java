@@ -0,0 +1,120 @@
+package com.example.dfs.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VolumeStoreTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(int n, int seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static void put(VolumeStore store, String key, byte[] data) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        store.put(key, data, 0, data.length, (int) crc.getValue());
+    }
+
+    private static long volumeCount(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().endsWith(".dat")).count();
+        }
+    }
+
+    @Test
+    void overwritesAndDeletesSurviveRestartAndTornTail() throws IOException {
+        byte[] a = bytes(1000, 1), b = bytes(3000, 2), c = bytes(10, 3);
+        try (VolumeStore store = new VolumeStore(dir, 1 << 20, 0.5, 0)) {
+            put(store, "f/a", a);
+            put(store, "f/b", bytes(50, 9));
+            put(store, "f/b", b);
+            put(store, "f/c", c);
+            assertTrue(store.delete("f/c"));
+            assertArrayEquals(b, store.read("f/b"));
+            assertNull(store.read("f/c"));
+        }
+        // reopened from the index saved on close
+        try (VolumeStore store = new VolumeStore(dir, 1 << 20, 0.5, 0)) {
+            assertEquals(2, store.size());
+            assertArrayEquals(a, store.read("f/a"));
+            put(store, "f/d", c);
+        }
+        // without an index the volume is replayed; a record torn by a crash ends it, everything before is kept
+        VolumeStore.Slice e;
+        try (VolumeStore store = new VolumeStore(dir, 1 << 20, 0.5, 0)) {
+            put(store, "f/e", bytes(500, 4));
+            e = store.locate("f/e");
+        }
+        Files.delete(dir.resolve("index"));
+        try (RandomAccessFile raf = new RandomAccessFile(e.file().toFile(), "rw")) {
+            raf.seek(e.offset() + 100);
+            raf.write(new byte[400]);
+        }
+        try (VolumeStore store = new VolumeStore(dir, 1 << 20, 0.5, 0)) {
+            assertArrayEquals(c, store.read("f/d"));
+            assertArrayEquals(b, store.read("f/b"));
+            assertNull(store.read("f/e"));
+            assertNull(store.read("f/c"));
+        }
+    }
+
+    @Test
+    void compactionMovesLiveChunksAndDropsGarbageVolumes() throws IOException {
+        try (VolumeStore store = new VolumeStore(dir, 64 * 1024, 0.5, 0)) {
+            for (int i = 0; i < 40; i++) put(store, "f/" + i, bytes(4000, i));
+            long before = volumeCount(dir);
+            assertTrue(before > 2);
+            for (int i = 0; i < 40; i++) if (i % 4 != 0) store.delete("f/" + i);
+            store.compact();
+            assertTrue(volumeCount(dir) < before);
+            for (int i = 0; i < 40; i++) {
+                if (i % 4 == 0) assertArrayEquals(bytes(4000, i), store.read("f/" + i));
+                else assertNull(store.read("f/" + i));
+            }
+        }
+        try (VolumeStore store = new VolumeStore(dir, 64 * 1024, 0.5, 0)) {
+            assertEquals(10, store.size());
+            assertArrayEquals(bytes(4000, 8), store.read("f/8"));
+        }
+    }
+
+    @Test
+    void chunkStorePacksSmallChunksAndKeepsLargeOnesAsFiles() throws IOException {
+        byte[] small = bytes(1000, 5), large = bytes(5000, 6);
+        try (ChunkStore store = new ChunkStore(dir.toString(), new VolumeStore(dir.resolve("volumes"), 1 << 20, 0.5, 0), 4096)) {
+            store.saveChunk("f", "small", new ByteArrayInputStream(small), null);
+            store.saveChunk("f", "large", new ByteArrayInputStream(large), null);
+            assertTrue(store.locate("f", "small").packed());
+            assertFalse(store.locate("f", "large").packed());
+            assertFalse(Files.exists(dir.resolve("f").resolve("small")));
+            assertArrayEquals(small, store.readChunk("f", "small"));
+            assertArrayEquals(large, store.readChunk("f", "large"));
+
+            // growing past the threshold moves the chunk out of the volume
+            store.saveChunk("f", "small", new ByteArrayInputStream(large), null);
+            assertFalse(store.locate("f", "small").packed());
+            assertArrayEquals(large, store.readChunk("f", "small"));
+
+            assertThrows(IOException.class, () -> store.saveChunk("f", "bad", new ByteArrayInputStream(small), 42));
+            assertFalse(store.chunkExists("f", "bad"));
+            store.deleteChunk("f", "large");
+            assertNull(store.locate("f", "large"));
+            assertNull(store.checksum("f", "missing"));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.dfs.time;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridLogicalClockTest {
+
+    @Test
+    void followsTheWallClockButNeverGoesBack() {
+        AtomicLong wall = new AtomicLong(1_000);
+        HybridLogicalClock clock = new HybridLogicalClock(wall::get, 10_000);
+        long a = clock.now(), b = clock.now();
+        assertEquals(1_000, HybridLogicalClock.physicalMillis(a));
+        assertEquals(0, HybridLogicalClock.logical(a));
+        assertEquals(1, HybridLogicalClock.logical(b));
+
+        wall.set(900); // stepped back
+        long c = clock.now();
+        assertTrue(c > b);
+        assertEquals(1_000, HybridLogicalClock.physicalMillis(c));
+
+        // a peer ahead of us pulls the clock forward; our own later events stay after its timestamp
+        long remote = (5_000L << HybridLogicalClock.LOGICAL_BITS) + 7;
+        long merged = clock.update(remote);
+        assertEquals(remote + 1, merged);
+        assertTrue(clock.now() > merged);
+        // an older remote timestamp still advances the clock
+        assertTrue(clock.update(a) > merged);
+
+        // too far ahead of the wall clock, forged or not: rejected without touching the clock
+        long now = clock.current();
+        assertThrows(IllegalArgumentException.class, () -> clock.update((20_000L << HybridLogicalClock.LOGICAL_BITS)));
+        assertThrows(IllegalArgumentException.class, () -> clock.update(0x7ffffffffffffffeL));
+        assertThrows(IllegalArgumentException.class, () -> clock.update(-1));
+        assertEquals(now, clock.current());
+        assertEquals(3, clock.rejected());
+
+        wall.set(6_000);
+        assertEquals(6_000L << HybridLogicalClock.LOGICAL_BITS, clock.now());
+        assertEquals(remote, HybridLogicalClock.parse(HybridLogicalClock.format(remote)));
+        assertEquals(16, HybridLogicalClock.format(remote).length());
+    }
+
+    @Test
+    void timestampsStayUniqueUnderContention() throws Exception {
+        int threads = Math.max(32, Runtime.getRuntime().availableProcessors() * 2);
+        int perThread = 100_000;
+        HybridLogicalClock clock = new HybridLogicalClock();
+        long[][] seen = new long[threads][perThread];
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            long[] own = seen[t];
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) own[i] = clock.now();
+                } catch (InterruptedException ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        long[] all = Arrays.stream(seen).flatMapToLong(Arrays::stream).sorted().toArray();
+        for (int i = 1; i < all.length; i++) assertNotEquals(all[i - 1], all[i], "duplicate timestamp");
+        for (long[] own : seen) {
+            for (int i = 1; i < own.length; i++) assertTrue(own[i] > own[i - 1], "not monotonic within a thread");
+        }
+    }
+}